@@ -0,0 +1,726 @@
+package daikon;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.zip.*;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Reads and writes the binary form of a data trace (.dtrace) file.
+ * <p>
+ *
+ * A binary dtrace file contains the same information as a textual one,
+ * but samples are not written as three lines (name, value, modbit) per
+ * variable.  Instead, each sample contains only a program point id, the
+ * invocation nonce, and a modbit and a typed value per variable.  The
+ * variables are not named:  they are those of the program point's
+ * declaration that are not static constants, in the order declared.  Everything that is
+ * not a sample (declarations, comparability and version records,
+ * comments) is stored verbatim as text and parsed by the usual textual
+ * reader.  The file may additionally be gzipped.
+ * <p>
+ *
+ * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * records, each introduced by a tag byte:
+ * <dl>
+ * <dt>{@link #REC_TEXT}</dt>
+ * <dd>length-prefixed UTF-8 text, in the textual dtrace format</dd>
+ * <dt>{@link #REC_PPT}</dt>
+ * <dd>a program point id, its name, and the number of values in its
+ *     samples</dd>
+ * <dt>{@link #REC_SAMPLE}</dt>
+ * <dd>a program point id, an optional nonce, and for each variable a modbit
+ *     followed by a value tag and the value</dd>
+ * </dl>
+ * Integers are written as zig-zag variable-length quantities.  A value is
+ * only given a typed encoding if its textual form is the canonical
+ * rendering of that value; any other value is stored as text.  Thus two
+ * values have the same encoding exactly when they have the same textual
+ * form, and modbits are computed just as for textual files.
+ *
+ * @see FileIO
+ * @see daikon.tools.DtraceToBinary
+ */
+public final class BinaryDtrace {
+
+  private BinaryDtrace() {
+    throw new Error("do not instantiate");
+  }
+
+  /** First four bytes of every binary dtrace file ("DKBT"). */
+  public static final int MAGIC = 0x444B4254;
+  /** Version of the format written by this class. */
+  public static final int VERSION = 2;
+
+  /** Record tag: declarations, comments, and other textual records. */
+  public static final byte REC_TEXT = 1;
+  /** Record tag: program point id, name, and number of values. */
+  public static final byte REC_PPT = 2;
+  /** Record tag: one sample. */
+  public static final byte REC_SAMPLE = 3;
+  /** Returned by {@link Reader#next_record()} at end of file. */
+  public static final byte REC_EOF = -1;
+
+  /** Value tag: the text "null". */
+  public static final byte T_NULL = 0;
+  /** Value tag: an integer. */
+  public static final byte T_LONG = 1;
+  /** Value tag: a double, stored as its raw bits. */
+  public static final byte T_DOUBLE = 2;
+  /** Value tag: an array of integers. */
+  public static final byte T_LONG_ARRAY = 3;
+  /** Value tag: an array of doubles. */
+  public static final byte T_DOUBLE_ARRAY = 4;
+  /** Value tag: any other value, stored as its text. */
+  public static final byte T_TEXT = 5;
+  /** Value tag: the text "nonsensical". */
+  public static final byte T_NONSENSICAL = 6;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Returns true if in, which must be positioned at the start of a file,
+   * holds a binary dtrace file.  Reads no input:  the magic number is read
+   * and then pushed back using mark and reset, so that the same stream can
+   * then be read as either a binary or a textual file.  This works even
+   * when in comes from a pipe.
+   */
+  public static boolean is_binary(BufferedInputStream in) throws IOException {
+    in.mark(4);
+    try {
+      DataInputStream din = new DataInputStream(in);
+      return din.readInt() == MAGIC;
+    } catch (EOFException e) {
+      return false;
+    } finally {
+      in.reset();
+    }
+  }
+
+  /**
+   * Returns true if the named file, which must not be compressed, is a
+   * binary dtrace file.  Reads only its first bytes.
+   */
+  public static boolean is_binary(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      return in.readInt() == MAGIC;
+    } catch (EOFException e) {
+      return false;
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Opens the named file, decompressing it if its name ends in ".gz". */
+  static BufferedInputStream open(String filename) throws IOException {
+    InputStream in = new FileInputStream(filename);
+    if (filename.endsWith(".gz")) {
+      in = new GZIPInputStream(in, 65536);
+    }
+    return new BufferedInputStream(in, 65536);
+  }
+
+  /** Returns true if a dtrace file with this name should be written in binary. */
+  public static boolean is_binary_filename(String filename) {
+    return filename.endsWith(".bin") || filename.endsWith(".bin.gz");
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Variable-length integers
+  ///
+
+  static void write_varlong(DataOutput out, long v) throws IOException {
+    v = (v << 1) ^ (v >> 63); // zig-zag: small magnitudes use few bytes
+    while ((v & ~0x7FL) != 0) {
+      out.writeByte((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.writeByte((int) v);
+  }
+
+  static long read_varlong(DataInput in) throws IOException {
+    long v = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return (v >>> 1) ^ -(v & 1);
+      }
+    }
+    throw new IOException("Malformed variable-length integer in binary dtrace file");
+  }
+
+  static void write_string(DataOutput out, String s) throws IOException {
+    byte[] bytes = s.getBytes(UTF8);
+    write_varlong(out, bytes.length);
+    out.write(bytes);
+  }
+
+  static String read_string(DataInput in) throws IOException {
+    byte[] bytes = new byte[read_length(in)];
+    in.readFully(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  static int read_length(DataInput in) throws IOException {
+    long len = read_varlong(in);
+    if ((len < 0) || (len > Integer.MAX_VALUE)) {
+      throw new IOException("Bad length " + len + " in binary dtrace file");
+    }
+    return (int) len;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Value text
+  ///
+
+  /**
+   * If s is the canonical decimal rendering of a long, returns true and
+   * stores the value in result[0].
+   */
+  private static boolean parse_canonical_long(String s, long[] result) {
+    int len = s.length();
+    if ((len == 0) || (len > 20)) {
+      return false;
+    }
+    char c = s.charAt(0);
+    if (!(((c >= '0') && (c <= '9')) || ((c == '-') && (len > 1)))) {
+      return false;
+    }
+    for (int i = 1; i < len; i++) {
+      c = s.charAt(i);
+      if ((c < '0') || (c > '9')) {
+        return false;
+      }
+    }
+    try {
+      long v = Long.parseLong(s);
+      if (!Long.toString(v).equals(s)) {
+        return false;
+      }
+      result[0] = v;
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * If s is the canonical rendering of a double (as produced by
+   * Double.toString), returns true and stores the value in result[0].
+   */
+  private static boolean parse_canonical_double(String s, double[] result) {
+    if (s.length() == 0) {
+      return false;
+    }
+    char c = s.charAt(0);
+    if (!(((c >= '0') && (c <= '9')) || (c == '-') || (c == 'N') || (c == 'I'))) {
+      return false;
+    }
+    try {
+      double v = Double.parseDouble(s);
+      if (!Double.toString(v).equals(s)) {
+        return false;
+      }
+      result[0] = v;
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the textual form of a value, as it would appear in a textual
+   * dtrace file.  The arguments are as for one variable of a
+   * {@link Reader} sample.
+   */
+  public static String value_text(byte tag, long bits, /*@Nullable*/ Object obj) {
+    switch (tag) {
+      case T_NULL:
+        return "null";
+      case T_NONSENSICAL:
+        return "nonsensical";
+      case T_LONG:
+        return Long.toString(bits);
+      case T_DOUBLE:
+        return Double.toString(Double.longBitsToDouble(bits));
+      case T_LONG_ARRAY:
+        {
+          assert obj != null;
+          long[] a = (long[]) obj;
+          StringBuilder sb = new StringBuilder("[");
+          for (int i = 0; i < a.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(a[i]);
+          }
+          return sb.append(']').toString();
+        }
+      case T_DOUBLE_ARRAY:
+        {
+          assert obj != null;
+          double[] a = (double[]) obj;
+          StringBuilder sb = new StringBuilder("[");
+          for (int i = 0; i < a.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(Double.toString(a[i]));
+          }
+          return sb.append(']').toString();
+        }
+      case T_TEXT:
+        assert obj != null;
+        return (String) obj;
+      default:
+        throw new Error("Bad value tag " + tag);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Writer
+  ///
+
+  /**
+   * Writes a binary dtrace file.  Textual records are written to
+   * {@link #text_stream()}; samples are written with
+   * {@link #begin_sample(String, Integer)}, {@link #add_value(String, String, int)}
+   * and {@link #end_sample()}.  Closing the text stream closes the writer.
+   * <p>
+   *
+   * A textual record must not be interrupted by a sample, and
+   * {@link #flush()} must not be called in the middle of one.
+   */
+  public static class Writer {
+
+    /** The underlying binary output. */
+    private final DataOutputStream out;
+
+    /** Text written to text_stream() that has not yet become a record. */
+    private final ByteArrayOutputStream pending_text = new ByteArrayOutputStream();
+
+    /** Stream for textual records. */
+    private final PrintStream text;
+
+    /** Program points whose REC_PPT record has been written, by name. */
+    private final Map<String, PptEntry> ppts = new HashMap<String, PptEntry>();
+
+    /**
+     * The id of the next REC_PPT record.  Not ppts.size(), since a program
+     * point whose variables change gets a new id but no new entry in ppts.
+     * The names are not written; they only detect such a change.
+     */
+    private int next_ppt_id = 0;
+
+    /** The program point of the sample being written, or null. */
+    private /*@Nullable*/ String sample_ppt = null;
+    /** The nonce of the sample being written, or null. */
+    private /*@Nullable*/ Integer sample_nonce = null;
+    /** Names of the variables of the sample being written. */
+    private final List<String> sample_names = new ArrayList<String>();
+    /** Encoded modbits and values of the sample being written. */
+    private final ByteArrayOutputStream sample_bytes = new ByteArrayOutputStream();
+    private final DataOutputStream sample_out = new DataOutputStream(sample_bytes);
+
+    /** Scratch space for parsing values. */
+    private final long[] long_result = new long[1];
+    private final double[] double_result = new double[1];
+
+    private boolean closed = false;
+
+    /** A program point for which a REC_PPT record has been written. */
+    private static final class PptEntry {
+      final int id;
+      final String[] names;
+
+      PptEntry(int id, String[] names) {
+        this.id = id;
+        this.names = names;
+      }
+    }
+
+    /** Creates a writer that writes to out, which should be buffered. */
+    public Writer(OutputStream out) throws IOException {
+      this.out = new DataOutputStream(out);
+      this.out.writeInt(MAGIC);
+      this.out.writeShort(VERSION);
+      text =
+          new PrintStream(
+              new OutputStream() {
+                @Override
+                public void write(int b) {
+                  pending_text.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                  pending_text.write(b, off, len);
+                }
+
+                // Pending text is written before the next sample, so that a
+                // flush in the middle of a textual record cannot split it.
+                @Override
+                public void flush() throws IOException {
+                  if (!closed) {
+                    out.flush();
+                  }
+                }
+
+                @Override
+                public void close() throws IOException {
+                  Writer.this.close();
+                }
+              },
+              false);
+    }
+
+    /** Creates a writer for the named file, gzipping it if the name ends in ".gz". */
+    public static Writer open(String filename, boolean append) throws IOException {
+      if (append) {
+        throw new IOException("Cannot append to binary dtrace file " + filename);
+      }
+      OutputStream os = new FileOutputStream(filename);
+      if (filename.endsWith(".gz")) {
+        os = new GZIPOutputStream(os);
+      }
+      return new Writer(new BufferedOutputStream(os, 65536));
+    }
+
+    /**
+     * Returns the stream to which textual records (declarations,
+     * comments, etc.) are written, in the textual dtrace format.
+     * Closing it closes this writer.
+     */
+    public PrintStream text_stream() {
+      return text;
+    }
+
+    /** Writes any pending text as a REC_TEXT record. */
+    private void flush_text() throws IOException {
+      // PrintStream passes each print through to pending_text immediately.
+      if (pending_text.size() > 0) {
+        out.writeByte(REC_TEXT);
+        write_varlong(out, pending_text.size());
+        pending_text.writeTo(out);
+        pending_text.reset();
+      }
+    }
+
+    /** Starts a sample at the named program point. */
+    public void begin_sample(String ppt_name, /*@Nullable*/ Integer nonce) {
+      assert sample_ppt == null : "unfinished sample at " + sample_ppt;
+      sample_ppt = ppt_name;
+      sample_nonce = nonce;
+      sample_names.clear();
+      sample_bytes.reset();
+    }
+
+    /**
+     * Adds one variable to the current sample.
+     * @param name the variable name, as in a textual dtrace file
+     * @param value the value, as in a textual dtrace file
+     * @param mod the modbit (0, 1, or 2)
+     */
+    public void add_value(String name, String value, int mod) throws IOException {
+      assert sample_ppt != null : "no sample started";
+      assert (mod >= 0) && (mod <= 2) : mod;
+      sample_names.add(name);
+      sample_out.writeByte(mod);
+      write_value(sample_out, value);
+    }
+
+    /** Encodes one value, as described in the class documentation. */
+    private void write_value(DataOutputStream vout, String value) throws IOException {
+      if (value.equals("null")) {
+        vout.writeByte(T_NULL);
+      } else if (value.equals("nonsensical")) {
+        vout.writeByte(T_NONSENSICAL);
+      } else if (parse_canonical_long(value, long_result)) {
+        vout.writeByte(T_LONG);
+        write_varlong(vout, long_result[0]);
+      } else if (parse_canonical_double(value, double_result)) {
+        vout.writeByte(T_DOUBLE);
+        vout.writeLong(Double.doubleToRawLongBits(double_result[0]));
+      } else if (!write_array(vout, value)) {
+        vout.writeByte(T_TEXT);
+        write_string(vout, value);
+      }
+    }
+
+    /**
+     * Encodes value as a T_LONG_ARRAY or T_DOUBLE_ARRAY if possible.
+     * Returns false, having written nothing, otherwise.
+     */
+    private boolean write_array(DataOutputStream vout, String value) throws IOException {
+      int len = value.length();
+      if ((len < 2) || (value.charAt(0) != '[') || (value.charAt(len - 1) != ']')) {
+        return false;
+      }
+      String body = value.substring(1, len - 1);
+      String[] elts = (body.length() == 0) ? new String[0] : body.split(" ", -1);
+      long[] longs = new long[elts.length];
+      boolean all_longs = true;
+      for (int i = 0; i < elts.length; i++) {
+        if (!parse_canonical_long(elts[i], long_result)) {
+          all_longs = false;
+          break;
+        }
+        longs[i] = long_result[0];
+      }
+      if (all_longs) {
+        vout.writeByte(T_LONG_ARRAY);
+        write_varlong(vout, longs.length);
+        for (long l : longs) {
+          write_varlong(vout, l);
+        }
+        return true;
+      }
+      double[] doubles = new double[elts.length];
+      for (int i = 0; i < elts.length; i++) {
+        if (!parse_canonical_double(elts[i], double_result)) {
+          return false;
+        }
+        doubles[i] = double_result[0];
+      }
+      vout.writeByte(T_DOUBLE_ARRAY);
+      write_varlong(vout, doubles.length);
+      for (double d : doubles) {
+        vout.writeLong(Double.doubleToRawLongBits(d));
+      }
+      return true;
+    }
+
+    /** Writes the current sample, preceded by any pending text. */
+    public void end_sample() throws IOException {
+      String ppt_name = sample_ppt;
+      assert ppt_name != null : "no sample started";
+      sample_ppt = null;
+      flush_text();
+
+      // A program point's variables normally never change, but if they
+      // do, give it a new id.
+      PptEntry entry = ppts.get(ppt_name);
+      if ((entry == null) || !Arrays.asList(entry.names).equals(sample_names)) {
+        entry =
+            new PptEntry(
+                next_ppt_id++, sample_names.toArray(new String[sample_names.size()]));
+        ppts.put(ppt_name, entry);
+        out.writeByte(REC_PPT);
+        write_varlong(out, entry.id);
+        write_string(out, ppt_name);
+        write_varlong(out, entry.names.length);
+      }
+
+      out.writeByte(REC_SAMPLE);
+      write_varlong(out, entry.id);
+      if (sample_nonce == null) {
+        out.writeByte(0);
+      } else {
+        out.writeByte(1);
+        write_varlong(out, sample_nonce.intValue());
+      }
+      sample_bytes.writeTo(out);
+    }
+
+    /** Writes any pending text and flushes the underlying stream. */
+    public void flush() throws IOException {
+      if (!closed) {
+        flush_text();
+        out.flush();
+      }
+    }
+
+    /** Writes any pending text and closes the underlying stream. */
+    public void close() throws IOException {
+      if (!closed) {
+        flush_text();
+        closed = true;
+        out.close();
+      }
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Reader
+  ///
+
+  /**
+   * Reads the records of a binary dtrace file.  After each call to
+   * {@link #next_record()}, the fields describing that record are valid
+   * until the next call.
+   */
+  public static class Reader {
+
+    private final DataInputStream in;
+
+    /** Number of records read so far. */
+    public long records = 0;
+
+    /** The contents of the most recent REC_TEXT record. */
+    public String text = "";
+
+    /** The id of the most recent REC_PPT record, or of the ppt of the most recent sample. */
+    public int ppt_id;
+    /** The name of the most recent REC_PPT record. */
+    public String ppt_name = "";
+    /** The number of values in samples, according to the most recent REC_PPT record. */
+    public int ppt_values;
+
+    /** The nonce of the most recent sample, or null. */
+    public /*@Nullable*/ Integer nonce;
+    /** Number of values in the most recent sample. */
+    public int num_values;
+    /** Modbits of the most recent sample; valid up to num_values. */
+    public int[] mods = new int[0];
+    /** Value tags of the most recent sample; valid up to num_values. */
+    public byte[] tags = new byte[0];
+    /** The T_LONG values, or the raw bits of T_DOUBLE values; valid up to num_values. */
+    public long[] bits = new long[0];
+    /**
+     * The T_TEXT (String), T_LONG_ARRAY (long[]) and T_DOUBLE_ARRAY
+     * (double[]) values; valid up to num_values.
+     */
+    public /*@Nullable*/ Object[] objs = new Object[0];
+
+    /** Number of values in the samples of each ppt id. */
+    private final List<Integer> ppt_num_values = new ArrayList<Integer>();
+
+    /** Reads from in, which must be positioned at the start of the file. */
+    public Reader(InputStream in) throws IOException {
+      this.in = new DataInputStream(in);
+      int magic = this.in.readInt();
+      if (magic != MAGIC) {
+        throw new IOException("Not a binary dtrace file (bad magic number)");
+      }
+      int version = this.in.readUnsignedShort();
+      if (version != VERSION) {
+        throw new IOException(
+            "Unsupported binary dtrace version " + version + "; expected " + VERSION);
+      }
+    }
+
+    /** Opens the named binary dtrace file. */
+    public Reader(String filename) throws IOException {
+      this(BinaryDtrace.open(filename));
+    }
+
+    /** Reads the next record and returns its tag, or REC_EOF at end of file. */
+    public byte next_record() throws IOException {
+      int tag = in.read();
+      if (tag == -1) {
+        return REC_EOF;
+      }
+      records++;
+      switch (tag) {
+        case REC_TEXT:
+          text = read_string(in);
+          break;
+        case REC_PPT:
+          read_ppt();
+          break;
+        case REC_SAMPLE:
+          read_sample();
+          break;
+        default:
+          throw new IOException("Bad record tag " + tag + " in binary dtrace file");
+      }
+      return (byte) tag;
+    }
+
+    private void read_ppt() throws IOException {
+      ppt_id = read_length(in);
+      ppt_name = read_string(in);
+      ppt_values = read_length(in);
+      if (ppt_id > ppt_num_values.size()) {
+        throw new IOException("Out-of-order program point id " + ppt_id);
+      }
+      if (ppt_id == ppt_num_values.size()) {
+        ppt_num_values.add(ppt_values);
+      } else {
+        ppt_num_values.set(ppt_id, ppt_values);
+      }
+    }
+
+    private void read_sample() throws IOException {
+      ppt_id = read_length(in);
+      if (ppt_id >= ppt_num_values.size()) {
+        throw new IOException("Sample for undefined program point id " + ppt_id);
+      }
+      nonce = (in.readByte() == 0) ? null : Integer.valueOf((int) read_varlong(in));
+      num_values = ppt_num_values.get(ppt_id);
+      if (mods.length < num_values) {
+        mods = new int[num_values];
+        tags = new byte[num_values];
+        bits = new long[num_values];
+        objs = new Object[num_values];
+      }
+      for (int i = 0; i < num_values; i++) {
+        mods[i] = in.readByte();
+        byte tag = in.readByte();
+        tags[i] = tag;
+        bits[i] = 0;
+        objs[i] = null;
+        switch (tag) {
+          case T_NULL:
+          case T_NONSENSICAL:
+            break;
+          case T_LONG:
+            bits[i] = read_varlong(in);
+            break;
+          case T_DOUBLE:
+            bits[i] = in.readLong();
+            break;
+          case T_LONG_ARRAY:
+            {
+              long[] a = new long[read_length(in)];
+              for (int j = 0; j < a.length; j++) {
+                a[j] = read_varlong(in);
+              }
+              objs[i] = a;
+              break;
+            }
+          case T_DOUBLE_ARRAY:
+            {
+              double[] a = new double[read_length(in)];
+              for (int j = 0; j < a.length; j++) {
+                a[j] = Double.longBitsToDouble(in.readLong());
+              }
+              objs[i] = a;
+              break;
+            }
+          case T_TEXT:
+            objs[i] = read_string(in);
+            break;
+          default:
+            throw new IOException("Bad value tag " + tag + " in binary dtrace file");
+        }
+      }
+    }
+
+    /**
+     * Returns true if value i of the current sample has the same encoding
+     * (and thus the same text) as the given previous value.
+     */
+    public boolean same_value(int i, byte prev_tag, long prev_bits, /*@Nullable*/ Object prev_obj) {
+      if ((tags[i] != prev_tag) || (bits[i] != prev_bits)) {
+        return false;
+      }
+      Object obj = objs[i];
+      if (obj == null) {
+        return prev_obj == null;
+      } else if (obj instanceof long[]) {
+        return (prev_obj instanceof long[]) && Arrays.equals((long[]) obj, (long[]) prev_obj);
+      } else if (obj instanceof double[]) {
+        return (prev_obj instanceof double[]) && Arrays.equals((double[]) obj, (double[]) prev_obj);
+      } else {
+        return obj.equals(prev_obj);
+      }
+    }
+
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
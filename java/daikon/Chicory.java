@@ -70,6 +70,14 @@ public class Chicory {
   @Option("Treat classes that match the regex as boot classes (do not instrument)")
   public static /*@Nullable*/ Pattern boot_classes = null;
 
+  /**
+   * If non-null, a directory in which instrumented classes are saved, so
+   * that later runs that use the same directory need not instrument the
+   * same classes again.  See {@link daikon.chicory.InstrumentCache}.
+   */
+  @Option("Directory in which to cache instrumented classes between runs")
+  public static /*@Nullable*/ File instrumentation_cache = null;
+
   // Should perhaps permit specifying the heap for the target program and
   // for Daikon separately.
   @Option("Size of the heap for the target program, and for Daikon if it is run")
@@ -107,6 +115,14 @@ public class Chicory {
   @Option("Send trace information to Daikon over a socket")
   public static boolean daikon_online = false;
 
+  /**
+   * In online mode, if Daikon falls behind the target program, the trace
+   * is buffered in a temporary file so that the program does not wait
+   * for Daikon.  With this option, the program waits for Daikon instead.
+   */
+  @Option("With --daikon-online, wait for Daikon instead of buffering the trace on disk")
+  public static boolean daikon_online_block = false;
+
   /**
    * Specifies Daikon arguments to be used if Daikon is run on a generated
    * trace file or online via a socket.  If neither --daikon or --daikon-online
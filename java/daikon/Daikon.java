@@ -132,6 +132,30 @@ public final class Daikon {
    */
   public static boolean dkconfig_print_sample_totals = false;
 
+  /**
+   * Integer.  Number of threads that apply samples to program points
+   * while the trace files are read.  Each program point is processed by
+   * a single thread, so this helps most for traces that cover many
+   * program points.  A value of 1 applies every sample on the thread that
+   * reads the trace.  Only used with the dataflow hierarchy, and
+   * requires NIS.suppression_processor to be ANTECEDENT; see
+   * {@link ParallelProcessor}.  Also the number of threads that merge
+   * invariants up the program point hierarchy (see {@link ParallelMerge})
+   * and that post-process program points (see {@link ParallelPostProcess}).
+   */
+  public static int dkconfig_inference_threads = 1;
+
+  /**
+   * Integer.  Number of processes among which to divide the parsing of
+   * textual dtrace files.  Each process converts its share of the files
+   * to the binary format, which this process then reads, in the original
+   * order, much faster than it could parse the text; the invariants are
+   * the same as if this process had read the textual files.  This helps
+   * when there are many dtrace files.  A value of 1 reads every file
+   * directly.  See {@link ParallelTraceFiles}.
+   */
+  public static int dkconfig_trace_processes = 1;
+
   // All these variables really need to be organized better.
 
   public static final String lineSep = Global.lineSep;
@@ -569,6 +593,19 @@ public final class Daikon {
         NIS.hybrid_method = false;
       }
     }
+    // The falsified method records its progress in the suppressors, which
+    // are shared by all program points, so it cannot be used by more than
+    // one thread at a time.
+    if (use_parallel_inference()
+        && NIS.dkconfig_suppression_processor != SuppressionProcessor.ANTECEDENT) {
+      throw new TerminationMessage(
+          "Daikon.inference_threads="
+              + dkconfig_inference_threads
+              + " requires NIS.suppression_processor=ANTECEDENT, not "
+              + NIS.dkconfig_suppression_processor);
+    }
+
+    InferenceMetrics.start();
 
     // Create the list of all invariant types
     setup_proto_invs();
@@ -615,6 +652,7 @@ public final class Daikon {
 
     // Infer invariants
     process_data(all_ppts, dtrace_files);
+    InferenceMetrics.finish();
     isInferencing = false;
     if (Debug.logOn()) Debug.check(all_ppts, "After process data");
 
@@ -745,6 +783,8 @@ public final class Daikon {
     fileio_progress = null;
     progress = "";
 
+    InferenceMetrics.finish();
+
     // Reset statics.  Unfortunately, these must match the settings where
     // these are declared and I don't know how to do that automatically.
     inv_file = null;
@@ -1565,15 +1605,22 @@ public final class Daikon {
    */
   public static void createUpperPpts(PptMap all_ppts) {
 
-    // Process each ppt that doesn't have a parent
-    // (mergeInvs is called on a root, and recursively processes children)
-    for (PptTopLevel ppt : all_ppts.pptIterable()) {
-      // System.out.printf ("considering ppt %s parents: %s, children: %s\n",
-      //                     ppt.name, ppt.parents, ppt.children);
-      if (ppt.parents.size() == 0) {
-        ppt.mergeInvs();
+    if (use_parallel_inference()) {
+      ParallelMerge.merge_all(all_ppts, dkconfig_inference_threads);
+    } else {
+      // Process each ppt that doesn't have a parent
+      // (mergeInvs is called on a root, and recursively processes children)
+      for (PptTopLevel ppt : all_ppts.pptIterable()) {
+        // System.out.printf ("considering ppt %s parents: %s, children: %s\n",
+        //                     ppt.name, ppt.parents, ppt.children);
+        if (ppt.parents.size() == 0) {
+          ppt.mergeInvs();
+        }
       }
     }
+
+    // Remove merged invariants only now that every parent has been merged
+    PptTopLevel.remove_merged_invs(all_ppts);
   }
 
   /**
@@ -2046,6 +2093,7 @@ public final class Daikon {
     }
 
     stopwatch.reset();
+    InferenceMetrics.begin_phase("read_data_trace_files");
 
     // Preprocessing
     setup_NISuppression();
@@ -2059,7 +2107,28 @@ public final class Daikon {
                 + UtilMDE.nplural(dtrace_files.size(), "dtrace file")
                 + ":");
       }
-      FileIO.read_data_trace_files(dtrace_files, all_ppts);
+      Collection<String> files = dtrace_files;
+      ParallelTraceFiles converter = null;
+      if (use_trace_processes(dtrace_files)) {
+        converter = new ParallelTraceFiles(dtrace_files, dkconfig_trace_processes);
+        files = converter.files();
+      }
+      try {
+        if (use_parallel_inference()) {
+          ParallelProcessor processor = new ParallelProcessor(dkconfig_inference_threads);
+          try {
+            FileIO.read_data_trace_files(files, all_ppts, processor, true);
+          } finally {
+            processor.finish();
+          }
+        } else {
+          FileIO.read_data_trace_files(files, all_ppts);
+        }
+      } finally {
+        if (converter != null) {
+          converter.close();
+        }
+      }
       // Final update, so "100%", not "99.70%", is the last thing printed.
       // (This doesn't seem to achieve that, though...)
       fileio_progress.display();
@@ -2085,6 +2154,7 @@ public final class Daikon {
     if (monitor != null) {
       monitor.stop();
     }
+    InferenceMetrics.end_phase(all_ppts, true);
 
     if (FileIO.dkconfig_read_samples_only) {
       throw new Daikon.TerminationMessage(
@@ -2139,22 +2209,38 @@ public final class Daikon {
 
     debugProgress.fine("Create Combined Exits ... ");
     stopwatch.reset();
+    InferenceMetrics.begin_phase("create_combined_exits");
     create_combined_exits(all_ppts);
+    InferenceMetrics.end_phase(all_ppts, false);
     debugProgress.fine("Create Combined Exits ... done [" + stopwatch.format() + "]");
 
     // Post process dynamic constants
     if (DynamicConstants.dkconfig_use_dynamic_constant_optimization) {
       debugProgress.fine("Constant Post Processing ... ");
       stopwatch.reset();
-      for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
-        if (ppt.constants != null) ppt.constants.post_process();
+      InferenceMetrics.begin_phase("post_process_constants");
+      if (use_parallel_inference()) {
+        ParallelPostProcess.for_each(
+            all_ppts.ppt_all_iterable(),
+            dkconfig_inference_threads,
+            new ParallelPostProcess.PptAction() {
+              public void apply(PptTopLevel ppt) {
+                if (ppt.constants != null) ppt.constants.post_process();
+              }
+            });
+      } else {
+        for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
+          if (ppt.constants != null) ppt.constants.post_process();
+        }
       }
+      InferenceMetrics.end_phase(all_ppts, false);
       debugProgress.fine("Constant Post Processing ... done [" + stopwatch.format() + "]");
     }
 
     // Initialize the partial order hierarchy
     debugProgress.fine("Init Hierarchy ... ");
     stopwatch.reset();
+    InferenceMetrics.begin_phase("init_hierarchy");
     assert FileIO.new_decl_format != null
         : "@AssumeAssertion(nullness): read data, so new_decl_format is set";
     if (FileIO.new_decl_format) {
@@ -2162,14 +2248,17 @@ public final class Daikon {
     } else {
       PptRelation.init_hierarchy(all_ppts);
     }
+    InferenceMetrics.end_phase(all_ppts, false);
     debugProgress.fine("Init Hierarchy ... done [" + stopwatch.format() + "]");
 
     // Calculate invariants at all non-leaf ppts
     if (use_dataflow_hierarchy) {
       debugProgress.fine("createUpperPpts ... ");
       stopwatch.reset();
+      InferenceMetrics.begin_phase("create_upper_ppts");
       // calculates invariants; does not actually create any ppts
       createUpperPpts(all_ppts);
+      InferenceMetrics.end_phase(all_ppts, false);
       debugProgress.fine("createUpperPpts ... done [" + stopwatch.format() + "]");
     }
 
@@ -2177,10 +2266,23 @@ public final class Daikon {
     if (Daikon.use_equality_optimization && !Daikon.dkconfig_undo_opts) {
       debugProgress.fine("Equality Post Process ... ");
       stopwatch.reset();
-      for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
-        // ppt.equality_view can be null here
-        ppt.postProcessEquality();
+      InferenceMetrics.begin_phase("post_process_equality");
+      if (use_parallel_inference()) {
+        ParallelPostProcess.for_each(
+            all_ppts.ppt_all_iterable(),
+            dkconfig_inference_threads,
+            new ParallelPostProcess.PptAction() {
+              public void apply(PptTopLevel ppt) {
+                ppt.postProcessEquality();
+              }
+            });
+      } else {
+        for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
+          // ppt.equality_view can be null here
+          ppt.postProcessEquality();
+        }
       }
+      InferenceMetrics.end_phase(all_ppts, false);
       debugProgress.fine("Equality Post Process ... done [" + stopwatch.format() + "]");
     }
 
@@ -2203,15 +2305,46 @@ public final class Daikon {
 
     // Add implications
     stopwatch.reset();
+    InferenceMetrics.begin_phase("add_implications");
     fileio_progress.clear();
     if (!PptSplitter.dkconfig_disable_splitting) {
       debugProgress.fine("Adding Implications ... ");
-      for (PptTopLevel ppt : all_ppts.pptIterable()) {
-        // debugProgress.fine ("  Adding implications for " + ppt.name);
-        ppt.addImplications();
+      if (use_parallel_inference()) {
+        ParallelPostProcess.add_implications(all_ppts, dkconfig_inference_threads);
+      } else {
+        for (PptTopLevel ppt : all_ppts.pptIterable()) {
+          // debugProgress.fine ("  Adding implications for " + ppt.name);
+          ppt.addImplications();
+        }
       }
       debugProgress.fine("Time spent adding implications: " + stopwatch.format());
     }
+    // The last phase; also record the final state of each ppt
+    InferenceMetrics.end_phase(all_ppts, true);
+  }
+
+  /**
+   * Returns true if dtrace_files should be converted to binary by
+   * {@link ParallelTraceFiles} before this process reads them.
+   */
+  static boolean use_trace_processes(Set<String> dtrace_files) {
+    return (dkconfig_trace_processes > 1)
+        && (server_dir == null)
+        && (dtrace_files.size() > 1)
+        && !dtrace_files.contains("-")
+        && !dtrace_files.contains("+");
+  }
+
+  /**
+   * Returns true if samples should be applied to program points by a
+   * {@link ParallelProcessor} rather than on the thread reading the trace,
+   * and program points should be merged and post-processed by several
+   * threads (see {@link ParallelMerge} and {@link ParallelPostProcess}).
+   * Daikon checks at startup that NIS uses the antecedent method in that
+   * case.
+   */
+  static boolean use_parallel_inference() {
+    return (dkconfig_inference_threads > 1) && use_dataflow_hierarchy;
   }
 
   private static class Count {
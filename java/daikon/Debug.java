@@ -238,28 +238,30 @@ public final class Debug {
     return null;
   }
 
-  private static /*@Nullable*/ String[] ourvars = new String[3];
+  /**
+   * The variable names set by var_match.  Kept per thread, since several
+   * threads may process samples and program points at once.
+   */
+  private static final ThreadLocal</*@Nullable*/ String[]> ourvars_per_thread =
+      new ThreadLocal</*@Nullable*/ String[]>() {
+        @Override
+        protected /*@Nullable*/ String[] initialValue() {
+          return new String[3];
+        }
+      };
 
-  private static final VarInfo[] vis1 = new VarInfo[1];
-  private static final VarInfo[] vis2 = new VarInfo[2];
-  private static final VarInfo[] vis3 = new VarInfo[3];
+  // These return new arrays, since several threads may log at once.
 
   public static VarInfo[] vis(VarInfo v1) {
-    vis1[0] = v1;
-    return vis1;
+    return new VarInfo[] {v1};
   }
 
   public static VarInfo[] vis(VarInfo v1, VarInfo v2) {
-    vis2[0] = v1;
-    vis2[1] = v2;
-    return vis2;
+    return new VarInfo[] {v1, v2};
   }
 
   public static VarInfo[] vis(VarInfo v1, VarInfo v2, VarInfo v3) {
-    vis3[0] = v1;
-    vis3[1] = v2;
-    vis3[2] = v3;
-    return vis3;
+    return new VarInfo[] {v1, v2, v3};
   }
 
   /**
@@ -509,6 +511,7 @@ public final class Debug {
     // 3 variable slots are always setup for consistency.
     String vars = "";
     if (vis != null) {
+      /*@Nullable*/ String[] ourvars = ourvars_per_thread.get();
       int numvars = vis.length;
       for (int i = 0; i < numvars; i++) {
         VarInfo v = vis[i];
@@ -575,7 +578,7 @@ public final class Debug {
 
   /**
    * Returns whether or not the specified vars match the ones being tracked.
-   * Also, sets Debug.ourvars with the names of the variables matched if they
+   * Also, sets this thread's ourvars with the names of the variables matched if they
    * are not the leader of their equality sets
    */
   public static boolean var_match(VarInfo /*@Nullable*/ [] vis) {
@@ -584,6 +587,7 @@ public final class Debug {
     if (vis == null) return false;
 
     boolean match = false;
+    /*@Nullable*/ String[] ourvars = ourvars_per_thread.get();
 
     // Loop through each set of specified debug variables.
     outer:
@@ -52,6 +52,9 @@ public class DynComp {
   @Option("Don't track primitives")
   public static boolean no_primitives = false;
 
+  @Option("Keep the tags of primitive fields in fields added to instrumented classes")
+  public static boolean shadow_tag_fields = false;
+
   @Option("Don't use an instrumented JDK")
   public static boolean no_jdk = false;
 
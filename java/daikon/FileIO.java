@@ -7,7 +7,6 @@ import static daikon.VarInfo.LangFlags;
 import static daikon.VarInfo.RefType;
 import static daikon.VarInfo.VarFlags;
 import static daikon.VarInfo.VarKind;
-import static daikon.tools.nullness.NullnessUtils.castNonNullDeep;
 
 import daikon.config.Configuration;
 import daikon.derive.ValueAndModified;
@@ -19,6 +18,7 @@ import java.text.*;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import java.util.zip.*;
 import plume.*;
 
@@ -124,6 +124,29 @@ public final class FileIO {
    */
   public static long dkconfig_dtrace_line_count = 0;
 
+  /**
+   * Boolean.  When true, uncompressed dtrace files are memory-mapped and
+   * read with {@link MappedDtraceReader}, which avoids creating strings
+   * for nonces, modbits, variable names, unchanged values, and the
+   * values of variables that are not included.
+   */
+  public static boolean dkconfig_mmap_dtrace = false;
+
+  /**
+   * Boolean.  When true, gzipped dtrace files are decompressed on a
+   * separate thread, concurrently with parsing.
+   */
+  public static boolean dkconfig_pipelined_gzip = false;
+
+  /**
+   * Boolean.  When true, .inv files are written in the versioned
+   * container format of {@link InvFile}, which stores each program point
+   * separately.  When false, the whole PptMap is written as one
+   * serialized object, as older versions of Daikon did.  Either way, the
+   * file is gzipped if its name ends in ".gz".  Either format can be read.
+   */
+  public static boolean dkconfig_inv_file_container = true;
+
   /** True if declaration records are in the new format -- that is, decl-version 2.0. */
   // Set by read_decl_version; by read_data_trace_record if the file is non-empty;
   // by read_serialized_pptmap; and by InvMap.readObject.
@@ -156,7 +179,76 @@ public final class FileIO {
   // old values of all variables in scope the last time the program point
   // was executed. This enables us to determine whether the values have been
   // modified since this program point was last executed.
-  static HashMap<PptTopLevel, String[]> ppt_to_value_reps = new HashMap<PptTopLevel, String[]>();
+  // Textual and binary files share this state, so that either kind of file
+  // may follow the other.
+  static HashMap<PptTopLevel, OldValues> ppt_to_value_reps = new HashMap<PptTopLevel, OldValues>();
+
+  /**
+   * The most recent value of each variable of a program point, indexed by
+   * value_index.  A value read from a textual file is kept as its text,
+   * in reps; a value read from a binary file is kept as its encoding, in
+   * tags, bits, and objs, and its element of reps is null.  Since two
+   * values have the same encoding exactly when they have the same text,
+   * a value of either kind can be compared with one of the other.
+   */
+  static final class OldValues {
+    final /*@Nullable*/ String[] reps;
+    final byte[] tags;
+    final long[] bits;
+    final /*@Nullable*/ Object[] objs;
+
+    OldValues(int size) {
+      reps = new /*@Nullable*/ String[size];
+      tags = new byte[size];
+      Arrays.fill(tags, NO_TAG);
+      bits = new long[size];
+      objs = new /*@Nullable*/ Object[size];
+    }
+
+    /** Never equal to a value tag of a binary file. */
+    static final byte NO_TAG = -1;
+
+    /**
+     * Returns the text of the value at index, if it was read from a
+     * binary file, or null if there is no value or it was read from a
+     * textual file.
+     */
+    /*@Nullable*/ String binary_text(int index) {
+      if (tags[index] == NO_TAG) {
+        return null;
+      }
+      return BinaryDtrace.value_text(tags[index], bits[index], objs[index]);
+    }
+  }
+
+  /**
+   * For each program point for which --var-select-pattern or
+   * --var-omit-pattern excludes a declared variable:  whether each of its
+   * declared variables that is not a static constant (that is, each
+   * variable that has a value in its samples) is included, in the order
+   * declared.  Binary dtrace files, whose samples do not name their
+   * variables, use this to skip the values of excluded variables.
+   */
+  static HashMap<String, boolean[]> ppt_to_included_vars = new HashMap<String, boolean[]>();
+
+  /**
+   * Records in ppt_to_included_vars which of the given variables, those
+   * of the declaration of the named program point that are not static
+   * constants, are included.
+   */
+  private static void record_included_vars(String ppt_name, List<String> var_names) {
+    boolean[] included = new boolean[var_names.size()];
+    boolean all_included = true;
+    for (int i = 0; i < included.length; i++) {
+      included[i] = var_included(var_names.get(i));
+      all_included &= included[i];
+    }
+    if (all_included) {
+      ppt_to_included_vars.remove(ppt_name);
+    } else {
+      ppt_to_included_vars.put(ppt_name, included);
+    }
+  }
 
   // For debugging purposes: printing out a modified trace file with
   // changed modbits.
@@ -299,6 +391,8 @@ public final class FileIO {
 
     // Information that will populate the new program point
     Map<String, VarDefinition> varmap = new LinkedHashMap<String, VarDefinition>();
+    // Every variable declared, including those that are not included
+    List<VarDefinition> all_vardefs = new ArrayList<VarDefinition>();
     // The VarDefinition we are in the middle of reading, or null if we are not.
     VarDefinition vardef = null;
     List<ParentRelation> ppt_parents = new ArrayList<ParentRelation>();
@@ -323,6 +417,7 @@ public final class FileIO {
           // There is no need to check "varmap.containsKey(vardef.name)"
           // because this is the first variable.
           assert varmap.isEmpty();
+          all_vardefs.add(vardef);
           if (var_included(vardef.name)) varmap.put(vardef.name, vardef);
         } else if (record == "ppt-type") { // interned
           ppt_type = parse_ppt_type(state, scanner);
@@ -364,6 +459,7 @@ public final class FileIO {
           if (varmap.containsKey(vardef.name)) {
             decl_error(state, "var %s declared twice", vardef.name);
           }
+          all_vardefs.add(vardef);
           if (var_included(vardef.name)) varmap.put(vardef.name, vardef);
         } else if (record == "min-value") { // interned
           vardef.parse_min_value(scanner);
@@ -394,6 +490,14 @@ public final class FileIO {
       return null;
     }
 
+    List<String> trace_var_names = new ArrayList<String>();
+    for (VarDefinition vd : all_vardefs) {
+      if (vd.static_constant_value == null) {
+        trace_var_names.add(vd.name);
+      }
+    }
+    record_included_vars(ppt_name, trace_var_names);
+
     // Build the var infos from the var definitions.
     List<VarInfo> vi_list = new ArrayList<VarInfo>(varmap.size());
     for (VarDefinition vd : varmap.values()) {
@@ -533,6 +637,9 @@ public final class FileIO {
 
     // The var_infos that will populate the new program point
     List<VarInfo> var_infos = new ArrayList<VarInfo>();
+    // The names of the variables whose values are in samples, including
+    // those that are not included
+    List<String> trace_var_names = new ArrayList<String>();
 
     // Each iteration reads a variable name, type, and comparability.
     // Possibly abstract this out into a separate function??
@@ -543,6 +650,9 @@ public final class FileIO {
           throw new Daikon.TerminationMessage("Duplicate variable name " + vi.name(), state);
         }
       }
+      if (!vi.is_static_constant) {
+        trace_var_names.add(vi.name());
+      }
       // Can't do this test in read_VarInfo, it seems, because of the test
       // against null above.
       if (!var_included(vi.name())) {
@@ -550,6 +660,7 @@ public final class FileIO {
       }
       var_infos.add(vi);
     }
+    record_included_vars(ppt_name, trace_var_names);
 
     VarInfo[] result = var_infos.toArray(new VarInfo[var_infos.size()]);
     return result;
@@ -982,6 +1093,8 @@ public final class FileIO {
 
     process_unmatched_procedure_entries();
 
+    processor.process_end(all_ppts);
+
     warn_if_hierarchy_mismatch(all_ppts);
   }
 
@@ -1061,7 +1174,7 @@ public final class FileIO {
     }
 
     try {
-      return chicSocket.getInputStream();
+      return new FramedTrace.Input(chicSocket.getInputStream());
     } catch (IOException e) {
       throw new RuntimeException("Unable to get Chicory's input stream", e);
     }
@@ -1124,6 +1237,19 @@ public final class FileIO {
     /** Process indication of end of file. */
     public void process_eof() {}
 
+    /**
+     * Process the end of all of the data trace files.  This default
+     * implementation applies the samples that each ppt has batched for
+     * its splitters (see {@link PptTopLevel#finish_splitters()}).
+     */
+    // See Checker Framework Issue 862 (as in apply_sample)
+    @SuppressWarnings({"flowexpr.parse.error", "contracts.precondition.not.satisfied"})
+    public void process_end(PptMap all_ppts) {
+      for (PptTopLevel ppt : all_ppts.pptIterable()) {
+        ppt.finish_splitters();
+      }
+    }
+
     /** Process indication of exceeding file size limit. */
     public void process_truncated() {}
 
@@ -1197,6 +1323,17 @@ public final class FileIO {
     /** Total number of lines in the input file */
     public long total_lines;
 
+    /**
+     * Reader for a binary dtrace file, or null if the file is textual.
+     * For a binary file, reader holds the text of the most recent
+     * textual record.
+     * @see BinaryDtrace
+     */
+    public /*@Nullable*/ BinaryDtrace.Reader binary;
+
+    /** Program points of a binary file, indexed by their ids in the file. */
+    List</*@Nullable*/ BinaryPpt> binary_ppts = new ArrayList</*@Nullable*/ BinaryPpt>();
+
     /** Comparability format, either VarComparability.IMPLICIT or
      * VarComparability.NONE
      */
@@ -1245,10 +1382,33 @@ public final class FileIO {
 
       boolean is_url = raw_filename.startsWith("file:") || raw_filename.startsWith("jar:");
 
+      // Check whether the file is binary.  An uncompressed regular file
+      // is checked by reading its first bytes, and reopened by one of the
+      // readers below if it is textual.  Any other file (compressed, a
+      // pipe, or standard input) is opened once, and the same stream is
+      // read whether it is binary or textual.
+      /*@Nullable*/ BufferedInputStream opened = null;
+      boolean is_binary = false;
+      if (raw_filename.equals("-")) {
+        opened = new BufferedInputStream(System.in);
+        is_binary = BinaryDtrace.is_binary(opened);
+      } else if (!raw_filename.equals("+") && !is_url) {
+        File file = new File(raw_filename);
+        if (file.isFile() && !raw_filename.endsWith(".gz")) {
+          is_binary = BinaryDtrace.is_binary(file);
+          if (is_binary) {
+            opened = BinaryDtrace.open(raw_filename);
+          }
+        } else {
+          opened = BinaryDtrace.open(raw_filename);
+          is_binary = BinaryDtrace.is_binary(opened);
+        }
+      }
+
       // Do we need to count the lines in the file?
       total_lines = 0;
       boolean count_lines = dkconfig_count_lines;
-      if (is_decl_file) {
+      if (is_decl_file || is_binary) {
         count_lines = false;
       } else if (dkconfig_dtrace_line_count != 0) {
         total_lines = dkconfig_dtrace_line_count;
@@ -1274,11 +1434,25 @@ public final class FileIO {
       }
 
       // Open the reader stream
-      if (raw_filename.equals("-")) {
+      if (is_binary) {
+        assert opened != null : "@AssumeAssertion(nullness): set when is_binary is";
+        binary = new BinaryDtrace.Reader(opened);
+        reader = new LineNumberReader(new StringReader(""));
+      } else if (raw_filename.equals("-")) {
         // "-" means read from the standard input stream
-        Reader file_reader = new InputStreamReader(System.in, "ISO-8859-1");
+        assert opened != null : "@AssumeAssertion(nullness): set for standard input";
+        Reader file_reader = new InputStreamReader(opened, "ISO-8859-1");
         reader = new LineNumberReader(file_reader);
+      } else if (opened != null) {
+        // A compressed file or a pipe, already opened above
+        InputStream stream = opened;
+        if (dkconfig_pipelined_gzip && raw_filename.endsWith(".gz")) {
+          stream = new PipelinedInputStream(opened, "inflate " + raw_filename);
+        }
+        reader = new LineNumberReader(new InputStreamReader(stream, "ISO-8859-1"));
       } else if (raw_filename.equals("+")) { //socket comm with Chicory
+        // Chicory already sends frames from a thread of its own; reading
+        // them as they arrive keeps the latency low.
         InputStream chicoryInput = connectToChicory();
         InputStreamReader chicReader = new InputStreamReader(chicoryInput);
         reader = new LineNumberReader(chicReader);
@@ -1291,6 +1465,8 @@ public final class FileIO {
         } else {
           reader = new LineNumberReader(new InputStreamReader(stream));
         }
+      } else if (dkconfig_mmap_dtrace && !raw_filename.endsWith(".gz")) {
+        reader = new MappedDtraceReader(raw_filename);
       } else {
         reader = UtilMDE.lineNumberFileReader(raw_filename);
       }
@@ -1305,6 +1481,17 @@ public final class FileIO {
       return reader.getLineNumber();
     }
 
+    /** Closes the input file, unless it is standard input. */
+    public void close() throws IOException {
+      if (filename.equals("standard input")) {
+        return;
+      }
+      reader.close();
+      if (binary != null) {
+        binary.close();
+      }
+    }
+
     private static NumberFormat pctFmt;
 
     static {
@@ -1314,6 +1501,9 @@ public final class FileIO {
     }
 
     public String reading_message() {
+      if (binary != null) {
+        return "Reading " + filename + " (record " + binary.records + ") ...";
+      }
       String line;
       if (reader == null) {
         line = "?";
@@ -1330,6 +1520,9 @@ public final class FileIO {
     }
 
     public String line_file_message() {
+      if (binary != null) {
+        return String.format(" at record %d in file %s", binary.records, filename);
+      }
       return String.format(" at line %d in file %s", reader.getLineNumber(), filename);
     }
   }
@@ -1366,6 +1559,7 @@ public final class FileIO {
   public static void read_data_trace_file(String filename, PptMap all_ppts) throws IOException {
     Processor processor = new Processor();
     read_data_trace_file(filename, all_ppts, processor, false, true);
+    processor.process_end(all_ppts);
   }
 
   /**
@@ -1398,40 +1592,69 @@ public final class FileIO {
     }
 
     PrintWriter pWriter = null;
-    while (true) {
-      read_data_trace_record(data_trace_state);
-
-      if (data_trace_state.rtype == RecordType.SAMPLE) {
-        assert data_trace_state.ppt != null
-            : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
-        assert data_trace_state.vt != null
-            : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
-        // Nonce may be null
-        samples_processed++;
-        // Add orig and derived variables; pass to inference (add_and_flow)
+    boolean flushed = false;
+    try {
+      while (true) {
+        read_data_trace_record(data_trace_state);
+
+        if (data_trace_state.rtype == RecordType.SAMPLE) {
+          assert data_trace_state.ppt != null
+              : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+          assert data_trace_state.vt != null
+              : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+          // Nonce may be null
+          samples_processed++;
+          // Add orig and derived variables; pass to inference (add_and_flow)
+          try {
+            processor.process_sample(
+                data_trace_state.all_ppts,
+                data_trace_state.ppt,
+                data_trace_state.vt,
+                data_trace_state.nonce);
+          } catch (Error e) {
+            //e.printStackTrace();
+            if (!dkconfig_continue_after_file_exception) {
+              throw new Daikon.TerminationMessage(e, data_trace_state);
+            } else {
+              System.out.println();
+              System.out.println(
+                  "WARNING: Error while processing " + "trace file - subsequent records ignored");
+              System.out.print("Ignored backtrace:");
+              e.printStackTrace(System.out);
+              System.out.println();
+            }
+          }
+        } else if ((data_trace_state.rtype == RecordType.EOF)
+            || (data_trace_state.rtype == RecordType.TRUNCATED)) {
+          break;
+        } else ; // don't need to do anything explicit for other records found
+      }
+
+      data_trace_state.close();
+
+      flush_samples();
+      flushed = true;
+    } finally {
+      if (!flushed) {
+        // Close the file, which also stops any thread that reads it (see
+        // PipelinedInputStream), without hiding the failure that got here.
         try {
-          processor.process_sample(
-              data_trace_state.all_ppts,
-              data_trace_state.ppt,
-              data_trace_state.vt,
-              data_trace_state.nonce);
-        } catch (Error e) {
-          //e.printStackTrace();
-          if (!dkconfig_continue_after_file_exception) {
-            throw new Daikon.TerminationMessage(e, data_trace_state);
-          } else {
-            System.out.println();
-            System.out.println(
-                "WARNING: Error while processing " + "trace file - subsequent records ignored");
-            System.out.print("Ignored backtrace:");
-            e.printStackTrace(System.out);
-            System.out.println();
+          data_trace_state.close();
+        } catch (IOException e) {
+          // The failure that got here is more useful
+        }
+        // Reading failed.  If Daikon goes on to the next file, apply the
+        // samples that were read, as would have happened without merging.
+        // Either way, don't leave them to be applied during a later read,
+        // possibly of a different PptMap.
+        try {
+          if (dkconfig_continue_after_file_exception) {
+            flush_samples();
           }
+        } finally {
+          discard_samples();
         }
-      } else if ((data_trace_state.rtype == RecordType.EOF)
-          || (data_trace_state.rtype == RecordType.TRUNCATED)) {
-        break;
-      } else ; // don't need to do anything explicit for other records found
+      }
     }
 
     if (Global.debugPrintDtrace) {
@@ -1467,6 +1690,19 @@ public final class FileIO {
   /*@RequiresNonNull("FileIO.data_trace_state")*/
   // not guaranteed: File might be empty  EnsuresNonNull("FileIO.new_decl_format")
   public static void read_data_trace_record(ParseState state) throws IOException {
+    if (state.binary == null) {
+      read_text_record(state);
+    } else {
+      read_binary_record(state, state.binary);
+    }
+  }
+
+  /** Reads a single record from a textual dtrace file, or from the current
+   * textual record of a binary one.
+   * @see #read_data_trace_record(ParseState)
+   */
+  /*@RequiresNonNull("FileIO.data_trace_state")*/
+  private static void read_text_record(ParseState state) throws IOException {
 
     // Abstract out the test result into a variable because Java doesn't
     // permit suppressing warnings on a statement.  Yuck.
@@ -1630,8 +1866,13 @@ public final class FileIO {
       // Read an invocation nonce if one exists
       Integer nonce = null;
 
+      MappedDtraceReader mapped =
+          (reader instanceof MappedDtraceReader) ? (MappedDtraceReader) reader : null;
+
       boolean nonce_exists;
-      {
+      if (mapped != null) {
+        nonce_exists = mapped.next_line_equals(NONCE_HEADER);
+      } else {
         String nonce_header_peekahead;
         // arbitrary number, hopefully big enough; catch exceptions
         reader.mark(1000);
@@ -1644,14 +1885,23 @@ public final class FileIO {
         nonce_exists = NONCE_HEADER.equals(nonce_header_peekahead);
       }
       if (nonce_exists) {
-        @SuppressWarnings("nullness") // nonce_exists is true, so readLine() returns non-null
-        /*@NonNull*/ String nonce_header = reader.readLine(); // read & discard header
-        assert NONCE_HEADER.equals(nonce_header);
-        String nonce_number = reader.readLine();
-        if (nonce_number == null) {
-          throw new Daikon.TerminationMessage("File ended while trying to read nonce", state);
+        if (mapped != null) {
+          mapped.skip_line(); // header
+          try {
+            nonce = Integer.valueOf(mapped.read_int_line());
+          } catch (EOFException e) {
+            throw new Daikon.TerminationMessage("File ended while trying to read nonce", state);
+          }
+        } else {
+          @SuppressWarnings("nullness") // nonce_exists is true, so readLine() returns non-null
+          /*@NonNull*/ String nonce_header = reader.readLine(); // read & discard header
+          assert NONCE_HEADER.equals(nonce_header);
+          String nonce_number = reader.readLine();
+          if (nonce_number == null) {
+            throw new Daikon.TerminationMessage("File ended while trying to read nonce", state);
+          }
+          nonce = new Integer(nonce_number);
         }
-        nonce = new Integer(nonce_number);
 
         if (Global.debugPrintDtrace) {
           to_write_nonce = true;
@@ -1704,6 +1954,385 @@ public final class FileIO {
     return;
   }
 
+  ///////////////////////////////////////////////////////////////////////////
+  /// Binary dtrace files
+  ///
+
+  /**
+   * Information about one program point of a binary dtrace file, as
+   * given by a REC_PPT record.
+   */
+  static final class BinaryPpt {
+    /** The program point name, as written in the file. */
+    final String file_name;
+    /** The number of values in each sample, as written in the file. */
+    final int num_values;
+    /** False if the program point is excluded by --ppt-select-pattern etc. */
+    boolean included = true;
+    /** The program point; null until its first sample has been read. */
+    /*@Nullable*/ PptTopLevel ppt = null;
+    /**
+     * For each variable in a sample, the value_index of the corresponding
+     * variable of ppt, or -1 if it is excluded by --var-select-pattern
+     * etc.  Null until the first sample has been read.
+     */
+    int /*@Nullable*/ [] val_index = null;
+    /** For each variable in a sample, the corresponding variable of ppt, or null. */
+    /*@Nullable*/ VarInfo /*@Nullable*/ [] vars = null;
+
+    BinaryPpt(String file_name, int num_values) {
+      this.file_name = file_name;
+      this.num_values = num_values;
+    }
+  }
+
+  /**
+   * Reads a single record of any type from a binary dtrace file.  Textual
+   * records are parsed by read_text_record.
+   * @see #read_data_trace_record(ParseState)
+   */
+  /*@RequiresNonNull("FileIO.data_trace_state")*/
+  private static void read_binary_record(ParseState state, BinaryDtrace.Reader binary)
+      throws IOException {
+
+    while (true) {
+      // Finish the current textual record first
+      read_text_record(state);
+      if (state.rtype != RecordType.EOF) {
+        return;
+      }
+
+      byte rec = binary.next_record();
+      switch (rec) {
+        case BinaryDtrace.REC_EOF:
+          state.rtype = RecordType.EOF;
+          return;
+        case BinaryDtrace.REC_TEXT:
+          state.reader = new LineNumberReader(new StringReader(binary.text));
+          break;
+        case BinaryDtrace.REC_PPT:
+          while (state.binary_ppts.size() <= binary.ppt_id) {
+            state.binary_ppts.add(null);
+          }
+          state.binary_ppts.set(binary.ppt_id, new BinaryPpt(binary.ppt_name, binary.ppt_values));
+          break;
+        case BinaryDtrace.REC_SAMPLE:
+          {
+            BinaryPpt bppt = state.binary_ppts.get(binary.ppt_id);
+            assert bppt != null : "@AssumeAssertion(nullness): checked by BinaryDtrace.Reader";
+            if (bppt.ppt == null && bppt.included) {
+              init_binary_ppt(state, bppt);
+            }
+            PptTopLevel ppt = bppt.ppt;
+            if (ppt == null) {
+              continue;
+            }
+            read_binary_sample(state, binary, bppt, ppt);
+            return;
+          }
+        default:
+          throw new Error("Unexpected record tag " + rec);
+      }
+    }
+  }
+
+  /**
+   * Looks up the program point of a binary dtrace file when its first
+   * sample is read, and matches the values in its samples to its
+   * variables:  they are those of its declaration that are not static
+   * constants, in order, including any that are excluded (see
+   * ppt_to_included_vars).  Sets bppt.included to false if the program
+   * point is excluded.
+   */
+  /*@RequiresNonNull("FileIO.data_trace_state")*/
+  private static void init_binary_ppt(ParseState state, BinaryPpt bppt) {
+
+    if (new_decl_format == null) {
+      new_decl_format = Boolean.FALSE;
+    }
+    String ppt_name = bppt.file_name;
+    if (new_decl_format) ppt_name = unescape_decl(ppt_name);
+    ppt_name = user_mod_ppt_name(ppt_name);
+    if (!ppt_included(ppt_name)) {
+      bppt.included = false;
+      return;
+    }
+
+    if (state.is_decl_file) {
+      throw new Daikon.TerminationMessage(
+          String.format(
+              "Declaration files should not contain samples, but file %s does: %s",
+              state.filename,
+              ppt_name));
+    }
+    try {
+      new PptName(ppt_name);
+    } catch (Daikon.TerminationMessage e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new Daikon.TerminationMessage(
+          String.format(
+              "Illegal program point name '%s' (%s)%s",
+              ppt_name,
+              t.getMessage(),
+              state.line_file_message()));
+    }
+    if (state.all_ppts.size() == 0) {
+      throw new Daikon.TerminationMessage(
+          "No declarations were provided before the first sample.  Perhaps you did not supply the proper .decls file to Daikon.  (Or, there could be a bug in the front end that created the .dtrace file "
+              + state.filename
+              + ".)");
+    }
+    PptTopLevel ppt = state.all_ppts.get(ppt_name);
+    if (ppt == null) {
+      throw new Daikon.TerminationMessage(
+          "No declaration was provided for program point "
+              + ppt_name
+              + state.line_file_message());
+    }
+
+    boolean[] included = ppt_to_included_vars.get(ppt.name());
+    int num_declared = (included == null) ? ppt.num_tracevars : included.length;
+    if (bppt.num_values != num_declared) {
+      throw new Daikon.TerminationMessage(
+          "Mismatch between .dtrace file and .decls file.  Expected "
+              + num_declared
+              + " values, got "
+              + bppt.num_values
+              + " for program point "
+              + ppt.name()
+              + state.line_file_message());
+    }
+
+    VarInfo[] vis = ppt.var_infos;
+    int[] val_index = new int[bppt.num_values];
+    /*@Nullable*/ VarInfo[] vars = new /*@Nullable*/ VarInfo[bppt.num_values];
+    int vi_index = 0;
+    int num_values = 0;
+    for (int i = 0; i < bppt.num_values; i++) {
+      if ((included != null) && !included[i]) {
+        val_index[i] = -1;
+        continue;
+      }
+      while ((vi_index < vis.length) && vis[vi_index].is_static_constant) {
+        vi_index++;
+      }
+      if ((vi_index >= vis.length) || (num_values >= ppt.num_tracevars)) {
+        throw new Daikon.TerminationMessage(
+            "Mismatch between .dtrace file and .decls file.  Too many included variables"
+                + " for program point "
+                + ppt.name()
+                + state.line_file_message());
+      }
+      VarInfo vi = vis[vi_index];
+      assert num_values == vi.value_index;
+      val_index[i] = num_values;
+      vars[i] = vi;
+      num_values++;
+      vi_index++;
+    }
+    if (num_values != ppt.num_tracevars) {
+      throw new Daikon.TerminationMessage(
+          "Mismatch between .dtrace file and .decls file.  Expected "
+              + ppt.num_tracevars
+              + " variables, got "
+              + num_values
+              + " for program point "
+              + ppt.name()
+              + state.line_file_message());
+    }
+
+    bppt.val_index = val_index;
+    bppt.vars = vars;
+    bppt.ppt = ppt;
+  }
+
+  /**
+   * Converts the sample most recently read by binary into a ValueTuple,
+   * and stores it into state.  This is the binary counterpart of
+   * read_vals_and_mods_from_trace_file, and computes the same modbits and
+   * values.
+   */
+  /*@RequiresNonNull("FileIO.data_trace_state")*/
+  private static void read_binary_sample(
+      ParseState state, BinaryDtrace.Reader binary, BinaryPpt bppt, PptTopLevel ppt) {
+
+    int[] val_index = bppt.val_index;
+    /*@Nullable*/ VarInfo[] vars = bppt.vars;
+    assert val_index != null && vars != null : "@AssumeAssertion(nullness): set with bppt.ppt";
+    if (binary.num_values != val_index.length) {
+      throw new Daikon.TerminationMessage(
+          "Expected "
+              + val_index.length
+              + " values, got "
+              + binary.num_values
+              + " for program point "
+              + ppt.name()
+              + state.line_file_message());
+    }
+
+    int vals_array_size = ppt.var_infos.length - ppt.num_static_constant_vars;
+    /*@Nullable*/ Object[] vals = new /*@Nullable*/ Object[vals_array_size];
+    int[] mods = new int[vals_array_size];
+
+    OldValues old_values = ppt_to_value_reps.get(ppt);
+    if (old_values == null) {
+      old_values = new OldValues(ppt.num_tracevars);
+      ppt_to_value_reps.put(ppt, old_values);
+    }
+
+    if (Global.debugPrintDtrace) {
+      assert Global.dtraceWriter != null
+          : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
+      Global.dtraceWriter.println(ppt.name());
+      if (binary.nonce != null) {
+        Global.dtraceWriter.println(NONCE_HEADER);
+        Global.dtraceWriter.println(binary.nonce);
+      }
+    }
+
+    for (int i = 0; i < val_index.length; i++) {
+      int index = val_index[i];
+      if (index < 0) {
+        continue;
+      }
+      VarInfo vi = vars[i];
+      assert vi != null : "@AssumeAssertion(nullness): non-null where val_index >= 0";
+      byte tag = binary.tags[i];
+      int mod = binary.mods[i];
+      if ((mod < 0) || (mod > 2)) {
+        throw new Daikon.TerminationMessage(
+            "Bad modbit '" + mod + "'" + state.line_file_message());
+      }
+
+      if (mod != ValueTuple.MISSING_NONSENSICAL) {
+        boolean same;
+        String old_rep = old_values.reps[index];
+        if (old_rep == null) {
+          same =
+              binary.same_value(
+                  i, old_values.tags[index], old_values.bits[index], old_values.objs[index]);
+        } else {
+          // The previous value was read from a textual file
+          same = old_rep.equals(BinaryDtrace.value_text(tag, binary.bits[i], binary.objs[i]));
+        }
+        if (same) {
+          if (!dkconfig_add_changed) {
+            mod = ValueTuple.UNMODIFIED;
+          }
+        } else {
+          mod = ValueTuple.MODIFIED;
+        }
+      }
+      mods[index] = mod;
+      old_values.reps[index] = null;
+      old_values.tags[index] = tag;
+      old_values.bits[index] = binary.bits[i];
+      old_values.objs[index] = binary.objs[i];
+
+      if (Global.debugPrintDtrace) {
+        assert Global.dtraceWriter != null
+            : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
+        Global.dtraceWriter.println(vi.name());
+        Global.dtraceWriter.println(BinaryDtrace.value_text(tag, binary.bits[i], binary.objs[i]));
+        Global.dtraceWriter.println(mod);
+      }
+
+      if (ValueTuple.modIsMissingNonsensical(mod)) {
+        Object obj = binary.objs[i];
+        if (!((tag == BinaryDtrace.T_NONSENSICAL)
+            || ((tag == BinaryDtrace.T_TEXT)
+                && ("uninit".equals(obj) || "missing".equals(obj))))) {
+          throw new Daikon.TerminationMessage(
+              "Modbit indicates nonsensical value for variable "
+                  + vi.name()
+                  + " with value \""
+                  + BinaryDtrace.value_text(tag, binary.bits[i], obj)
+                  + "\";"
+                  + lineSep
+                  + "  text of value should be \"nonsensical\""
+                  + state.line_file_message());
+        }
+        vi.canBeMissing = true;
+        vals[index] = null;
+        continue;
+      }
+
+      try {
+        vals[index] = binary_value(state, vi.rep_type, tag, binary.bits[i], binary.objs[i]);
+      } catch (Daikon.TerminationMessage e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new Daikon.TerminationMessage(
+            e,
+            "Error while parsing value "
+                + BinaryDtrace.value_text(tag, binary.bits[i], binary.objs[i])
+                + " for variable "
+                + vi.name()
+                + " of type "
+                + vi.rep_type
+                + ": "
+                + e.getLocalizedMessage()
+                + state.line_file_message());
+      }
+      if (vals[index] == null) {
+        // As for textual files, e.g., for a value like [1 nonsensical 2].
+        mods[index] = ValueTuple.MISSING_NONSENSICAL;
+        vi.canBeMissing = true;
+      }
+    }
+
+    if (Global.debugPrintDtrace) {
+      assert Global.dtraceWriter != null
+          : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
+      Global.dtraceWriter.println();
+    }
+
+    state.ppt = ppt;
+    state.nonce = binary.nonce;
+    state.vt = ValueTuple.makeUninterned(vals, mods);
+    state.rtype = RecordType.SAMPLE;
+  }
+
+  /**
+   * Returns the interned value of one variable of a binary sample, as
+   * ProglangType.parse_value would for its textual form.  Integers,
+   * doubles, and arrays of them are converted directly; other values are
+   * parsed from their text.
+   */
+  private static /*@Nullable*/ /*@Interned*/ Object binary_value(
+      ParseState state, ProglangType rep_type, byte tag, long bits, /*@Nullable*/ Object obj) {
+    switch (tag) {
+      case BinaryDtrace.T_LONG:
+        if (((rep_type == ProglangType.INT) || (rep_type == ProglangType.BOOLEAN))
+            && !ProglangType.dkconfig_convert_to_signed) {
+          return SyncIntern.internedLong(bits);
+        }
+        break;
+      case BinaryDtrace.T_DOUBLE:
+        if (rep_type == ProglangType.DOUBLE) {
+          return SyncIntern.internedDouble(Double.longBitsToDouble(bits));
+        }
+        break;
+      case BinaryDtrace.T_LONG_ARRAY:
+        if ((rep_type == ProglangType.INT_ARRAY) && !ProglangType.dkconfig_convert_to_signed) {
+          assert obj != null : "@AssumeAssertion(nullness): set for array tags";
+          return SyncIntern.intern((long[]) obj);
+        }
+        break;
+      case BinaryDtrace.T_DOUBLE_ARRAY:
+        if (rep_type == ProglangType.DOUBLE_ARRAY) {
+          assert obj != null : "@AssumeAssertion(nullness): set for array tags";
+          return SyncIntern.intern((double[]) obj);
+        }
+        break;
+      default:
+        break;
+    }
+    return rep_type.parse_value(
+        BinaryDtrace.value_text(tag, bits, obj), state.reader, state.filename);
+  }
+
   /**
    * Add orig() and derived variables to vt (by side effect), then
    * supply it to the program point for flowing.
@@ -1713,11 +2342,101 @@ public final class FileIO {
   public static void process_sample(
       PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, /*@Nullable*/ Integer nonce) {
 
+    vt = prepare_sample(ppt, vt, nonce);
+    if (vt == null) return;
+
+    // If we are only reading the sample, don't process them
+    if (dkconfig_read_samples_only) {
+      return;
+    }
+
+    if (SampleCoalescer.enabled()) {
+      if (coalescer == null) {
+        coalescer =
+            new SampleCoalescer(
+                new SampleCoalescer.Sink() {
+                  public void apply(PptTopLevel sample_ppt, ValueTuple sample_vt, int count) {
+                    apply_sample(sample_ppt, sample_vt, count);
+                  }
+                });
+      }
+      coalescer.add(ppt, vt);
+    } else {
+      apply_sample(ppt, vt, 1);
+    }
+
+    if (Global.debugPrintDtrace) {
+      assert Global.dtraceWriter != null
+          : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
+      Global.dtraceWriter.close();
+    }
+  }
+
+  /**
+   * Merges runs of identical samples passed to process_sample, or null
+   * if none has been needed yet.
+   * @see SampleCoalescer
+   */
+  private static /*@MonotonicNonNull*/ SampleCoalescer coalescer = null;
+
+  /**
+   * Supplies vt, an interned sample that represents count identical
+   * samples, to ppt.
+   */
+  private static void apply_sample(PptTopLevel ppt, ValueTuple vt, int count) {
+    long start = InferenceMetrics.enabled ? System.nanoTime() : 0;
+
+    // See Checker Framework Issue 862
+    // https://github.com/typetools/checker-framework/issues/862
+    @SuppressWarnings("flowexpr.parse.error")
+    Object dummy = ppt.add_bottom_up(vt, count);
+
+    if (InferenceMetrics.enabled) {
+      ppt.inference_nanos += System.nanoTime() - start;
+    }
+
+    if (debugVars.isLoggable(Level.FINE)) {
+      debugVars.fine(ppt.name() + " vars: " + Debug.int_vars(ppt, vt));
+    }
+  }
+
+  /**
+   * Supplies the samples that process_sample has merged but not yet
+   * supplied to their program points.
+   */
+  public static void flush_samples() {
+    if (coalescer != null) {
+      coalescer.flush();
+    }
+  }
+
+  /**
+   * Discards the samples that process_sample has merged but not yet
+   * supplied to their program points.
+   */
+  static void discard_samples() {
+    if (coalescer != null) {
+      coalescer.clear();
+    }
+  }
+
+  /**
+   * Add orig() and derived variables to vt (by side effect) and return
+   * the interned ValueTuple that should be supplied to the program point.
+   * Returns null if the sample should not be applied to ppt (it is not
+   * a leaf, or it is an exit without a matching enter).  This must be
+   * called in trace order, because it matches exits to their enters.
+   * @param vt trace data only; modified by side effect to add derived vars
+   */
+  /*@RequiresNonNull("FileIO.data_trace_state")*/
+  public static /*@Nullable*/ ValueTuple prepare_sample(
+      PptTopLevel ppt, ValueTuple vt, /*@Nullable*/ Integer nonce) {
+
     // Add orig variables.  This must be above the check below because
     // it saves away the orig values from enter points for later use
     // by exit points.
     boolean ignore = compute_orig_variables(ppt, vt.vals, vt.mods, nonce);
-    if (ignore) return;
+    if (ignore) return null;
 
     // Only process the leaves of the ppt tree.
     // This test assumes that all leaves are numbered exit program points
@@ -1739,7 +2458,7 @@ public final class FileIO {
           || ppt.ppt_name.isObjectInstanceSynthetic()
           || ppt.ppt_name.isClassStaticSynthetic()
           || ppt.ppt_name.isGlobalPoint()) {
-        return;
+        return null;
       }
 
       if (ppt.ppt_name.isExitPoint() && ppt.ppt_name.isCombinedExitPoint()) {
@@ -1760,25 +2479,7 @@ public final class FileIO {
       debugRead.fine("  length is " + vt.vals.length);
     }
 
-    // If we are only reading the sample, don't process them
-    if (dkconfig_read_samples_only) {
-      return;
-    }
-
-    // See Checker Framework Issue 862
-    // https://github.com/typetools/checker-framework/issues/862
-    @SuppressWarnings("flowexpr.parse.error")
-    Object dummy = ppt.add_bottom_up(vt, 1);
-
-    if (debugVars.isLoggable(Level.FINE)) {
-      debugVars.fine(ppt.name() + " vars: " + Debug.int_vars(ppt, vt));
-    }
-
-    if (Global.debugPrintDtrace) {
-      assert Global.dtraceWriter != null
-          : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
-      Global.dtraceWriter.close();
-    }
+    return vt;
   }
 
   /** Returns true if this procedure has an unmatched entry. */
@@ -1893,14 +2594,18 @@ public final class FileIO {
       throws IOException {
     VarInfo[] vis = ppt.var_infos;
     int num_tracevars = ppt.num_tracevars;
+    MappedDtraceReader mapped =
+        (reader instanceof MappedDtraceReader) ? (MappedDtraceReader) reader : null;
 
-    /*NNC:@Nullable*/ String[] oldvalue_reps = ppt_to_value_reps.get(ppt);
-    if (oldvalue_reps == null) {
+    OldValues old_values = ppt_to_value_reps.get(ppt);
+    if (old_values == null) {
       // We've not encountered this program point before.  The nulls in
-      // this array will compare non-equal to whatever is in the trace
+      // its reps will compare non-equal to whatever is in the trace
       // file, which is the desired behavior.
-      oldvalue_reps = new /*NNC:@Nullable*/ String[num_tracevars];
+      old_values = new OldValues(num_tracevars);
+      ppt_to_value_reps.put(ppt, old_values);
     }
+    /*NNC:@Nullable*/ String[] oldvalue_reps = old_values.reps;
 
     if (Global.debugPrintDtrace) {
       assert Global.dtraceWriter != null
@@ -1937,7 +2642,24 @@ public final class FileIO {
       // In errors, say "for program point", not "at program point" as the
       // latter confuses Emacs goto-error.
 
-      String line = reader.readLine();
+      // In the common case that no variables are omitted and the name
+      // needs no unescaping, a MappedDtraceReader can check the name
+      // without creating a string.
+      String str_name = vi.str_name();
+      boolean name_matched =
+          (mapped != null)
+              && (Daikon.var_omit_regexp == null)
+              && (Daikon.var_regexp == null)
+              && (str_name.indexOf('\\') == -1)
+              && (str_name.indexOf(' ') == -1)
+              && mapped.next_line_equals(str_name);
+      String line;
+      if (name_matched) {
+        mapped.skip_line();
+        line = str_name;
+      } else {
+        line = reader.readLine();
+      }
       if (line == null) {
         throw new Daikon.TerminationMessage(
             "Unexpected end of file at "
@@ -1955,10 +2677,17 @@ public final class FileIO {
 
       // Read lines until an included variable is found
       while ((line != null) && !line.equals("") && !var_included(line)) {
-        line = reader.readLine(); // value (discard it)
-        line = reader.readLine(); // modbit
-        if (line == null || !((line.equals("0") || line.equals("1") || line.equals("2")))) {
-          throw new Daikon.TerminationMessage("Bad modbit '" + line + "'", data_trace_state);
+        if (mapped != null) {
+          mapped.skip_line(); // value (discard it)
+          if (mapped.read_modbit() == -1) {
+            throw new Daikon.TerminationMessage("Bad modbit", data_trace_state);
+          }
+        } else {
+          line = reader.readLine(); // value (discard it)
+          line = reader.readLine(); // modbit
+          if (line == null || !((line.equals("0") || line.equals("1") || line.equals("2")))) {
+            throw new Daikon.TerminationMessage("Bad modbit '" + line + "'", data_trace_state);
+          }
         }
         line = reader.readLine(); // next variable name
       }
@@ -1974,7 +2703,7 @@ public final class FileIO {
                 + ppt.name());
       }
 
-      if (!unescape_decl(line.trim()).equals(vi.str_name())) {
+      if (!name_matched && !unescape_decl(line.trim()).equals(str_name)) {
         throw new Daikon.TerminationMessage(
             "Mismatch between .dtrace file and .decls file.  Expected variable "
                 + vi.name()
@@ -1984,7 +2713,12 @@ public final class FileIO {
                 + ppt.name(),
             data_trace_state);
       }
-      line = reader.readLine();
+      if (mapped != null) {
+        // Avoids creating a string if the value is unchanged
+        line = mapped.read_line_reusing(oldvalue_reps[val_index]);
+      } else {
+        line = reader.readLine();
+      }
       if (line == null) {
         throw new Daikon.TerminationMessage(
             "Unexpected end of file at "
@@ -2000,25 +2734,34 @@ public final class FileIO {
                 + ppt.name());
       }
       String value_rep = line;
-      line = reader.readLine();
-      if (line == null) {
-        throw new Daikon.TerminationMessage(
-            "Unexpected end of file at "
-                + data_trace_state.filename
-                + " line "
-                + reader.getLineNumber()
-                + lineSep
-                + "  Expected modbit for variable "
-                + vi.name()
-                + ", got "
-                + "null" // line
-                + " for program point "
-                + ppt.name());
-      }
-      if (!((line.equals("0") || line.equals("1") || line.equals("2")))) {
-        throw new Daikon.TerminationMessage("Bad modbit `" + line + "'", data_trace_state);
+      int mod;
+      if (mapped != null) {
+        mod = mapped.read_modbit();
+        if (mod == -1) {
+          throw new Daikon.TerminationMessage(
+              "Bad or missing modbit for variable " + vi.name(), data_trace_state);
+        }
+      } else {
+        line = reader.readLine();
+        if (line == null) {
+          throw new Daikon.TerminationMessage(
+              "Unexpected end of file at "
+                  + data_trace_state.filename
+                  + " line "
+                  + reader.getLineNumber()
+                  + lineSep
+                  + "  Expected modbit for variable "
+                  + vi.name()
+                  + ", got "
+                  + "null" // line
+                  + " for program point "
+                  + ppt.name());
+        }
+        if (!((line.equals("0") || line.equals("1") || line.equals("2")))) {
+          throw new Daikon.TerminationMessage("Bad modbit `" + line + "'", data_trace_state);
+        }
+        mod = ValueTuple.parseModified(line);
       }
-      int mod = ValueTuple.parseModified(line);
 
       // System.out.println("Mod is " + mod + " at " + data_trace_state.filename + " line " + reader.getLineNumber());
       // System.out.pringln("  for variable " + vi.name()
@@ -2030,7 +2773,12 @@ public final class FileIO {
       if (mod != ValueTuple.MISSING_NONSENSICAL) {
         // Set the modbit now, depending on whether the value of the variable
         // has been changed or not.
-        if (value_rep.equals(oldvalue_reps[val_index])) {
+        String old_rep = oldvalue_reps[val_index];
+        if (old_rep == null) {
+          // Null unless the previous value was read from a binary file
+          old_rep = old_values.binary_text(val_index);
+        }
+        if (value_rep.equals(old_rep)) {
           if (!dkconfig_add_changed) {
             mod = ValueTuple.UNMODIFIED;
           }
@@ -2041,6 +2789,8 @@ public final class FileIO {
 
       mods[val_index] = mod;
       oldvalue_reps[val_index] = value_rep;
+      old_values.tags[val_index] = OldValues.NO_TAG;
+      old_values.objs[val_index] = null;
 
       if (Global.debugPrintDtrace) {
         assert Global.dtraceWriter != null
@@ -2130,9 +2880,6 @@ public final class FileIO {
       val_index++;
     }
 
-    // Does oldvalue_reps now have no null elements???
-    oldvalue_reps = castNonNullDeep(oldvalue_reps); // issue 154
-    ppt_to_value_reps.put(ppt, oldvalue_reps);
 
     if (Global.debugPrintDtrace) {
       assert Global.dtraceWriter != null
@@ -2328,18 +3075,36 @@ public final class FileIO {
   }
 
   public static void write_serialized_pptmap(PptMap map, File file) throws IOException {
+    if (dkconfig_inv_file_container) {
+      InvFile.write(map, file);
+      return;
+    }
     SerialFormat record = new SerialFormat(map, Configuration.getInstance());
     UtilMDE.writeObject(record, file);
   }
 
   /**
-   * Read either a serialized PptMap or a InvMap and return a
-   * PptMap.  If an InvMap is specified, it is converted to a PptMap
+   * Read either an .inv file (see {@link InvFile}), a serialized PptMap,
+   * or a InvMap and return a PptMap.  If an InvMap is specified, it is
+   * converted to a PptMap
    */
   /*@EnsuresNonNull("FileIO.new_decl_format")*/
   public static PptMap read_serialized_pptmap(File file, boolean use_saved_config)
       throws IOException {
 
+    if (InvFile.is_inv_file(file)) {
+      InvFile.Reader reader = new InvFile.Reader(file);
+      try {
+        if (use_saved_config) {
+          Configuration.getInstance().overlap(reader.config);
+        }
+        FileIO.new_decl_format = reader.new_decl_format;
+        return reader.read_all();
+      } finally {
+        reader.close();
+      }
+    }
+
     try {
       Object obj = UtilMDE.readObject(file);
       if (obj instanceof FileIO.SerialFormat) {
@@ -2384,6 +3149,29 @@ public final class FileIO {
     // } catch (OptionalDataException e) {    // already extends IOException
   }
 
+  /**
+   * Like {@link #read_serialized_pptmap}, but if file is in the format of
+   * {@link InvFile}, returns a PptMap that reads each ppt from the file
+   * only when it is needed.  Only the ppts whose names match select (all
+   * of them, if select is null) are iterated over; others are read only
+   * if they are requested by name.  Files in older formats are read in
+   * their entirety.
+   */
+  /*@EnsuresNonNull("FileIO.new_decl_format")*/
+  public static PptMap read_serialized_pptmap_lazily(
+      File file, boolean use_saved_config, /*@Nullable*/ Pattern select) throws IOException {
+
+    if (!InvFile.is_inv_file(file)) {
+      return read_serialized_pptmap(file, use_saved_config);
+    }
+    InvFile.Reader reader = new InvFile.Reader(file);
+    if (use_saved_config) {
+      Configuration.getInstance().overlap(reader.config);
+    }
+    FileIO.new_decl_format = reader.new_decl_format;
+    return new PptMap(reader, select);
+  }
+
   /**
    * Returns whether or not the specified ppt name should be included
    * in processing.  Ppts can be excluded because they match the omit_regexp,
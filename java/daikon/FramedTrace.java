@@ -0,0 +1,390 @@
+package daikon;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * The protocol by which Chicory sends a data trace to Daikon over a
+ * socket, when Daikon is run online (see Chicory's --daikon-online
+ * option).
+ * <p>
+ *
+ * The stream starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * frames.  Each frame is an int length followed by that many bytes of the
+ * textual dtrace format; a frame of length 0 ends the stream.  Frames do
+ * not correspond to records:  the sender batches whatever has been
+ * written into frames of up to {@link #FRAME_SIZE} bytes.
+ * <p>
+ *
+ * {@link Output} sends frames from a thread of its own, taking them from a
+ * bounded queue, so the threads that write the trace never wait for an
+ * individual network write.  If the queue is full (that is, if Daikon
+ * has fallen behind), further frames are spilled to a temporary file and
+ * sent, in order, once the queue has drained; or, if the Output was
+ * created to block, the writing threads wait for room in the queue.
+ *
+ * @see FileIO
+ * @see daikon.chicory.Runtime#setDtraceOnlineMode
+ */
+public final class FramedTrace {
+
+  private FramedTrace() {
+    throw new Error("do not instantiate");
+  }
+
+  /** First four bytes of the stream ("DKFT"). */
+  public static final int MAGIC = 0x444B4654;
+  /** Version of the protocol. */
+  public static final int VERSION = 1;
+
+  /** Maximum number of bytes in a frame. */
+  public static final int FRAME_SIZE = 1 << 16;
+
+  /** Number of frames that may wait to be sent. */
+  private static final int QUEUE_FRAMES = 64;
+
+  /**
+   * An OutputStream that sends what is written to it as frames.  Writing
+   * is not synchronized; a PrintStream that wraps an Output provides the
+   * synchronization.
+   */
+  public static final class Output extends OutputStream {
+
+    /**
+     * Placed on the queue after the last frame.  Frames that are queued
+     * are never empty, so an empty frame read back from the spill file
+     * is also the end.
+     */
+    private static final byte[] END = new byte[0];
+
+    private final DataOutputStream out;
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_FRAMES);
+    private final Thread sender;
+
+    /** If true, writers wait when the queue is full; otherwise frames are spilled. */
+    private final boolean block;
+
+    /**
+     * Frames that did not fit in the queue, in order, or null if none has
+     * been spilled yet.  While any spilled frame is unsent, new frames are
+     * spilled too, so that the frames are sent in the order written.
+     * Guarded by spill_lock, as are the positions below.
+     */
+    private /*@Nullable*/ RandomAccessFile spill = null;
+
+    private /*@Nullable*/ File spill_file = null;
+    private final Object spill_lock = new Object();
+
+    /** Where the next frame is spilled, and where the next unsent spilled frame is. */
+    private long spill_write_pos = 0;
+
+    private long spill_read_pos = 0;
+
+    /** Number of frames that have been spilled. */
+    private long spilled_frames = 0;
+
+    /** Exception thrown while sending, or null. */
+    private volatile /*@Nullable*/ IOException failure = null;
+
+    /** The frame being filled. */
+    private byte[] frame = new byte[FRAME_SIZE];
+    private int frame_len = 0;
+    private boolean closed = false;
+
+    /**
+     * Starts the thread that sends frames to out.
+     * @param block if true, writers wait for the sender when the queue is
+     * full; otherwise the frames that do not fit are spilled to a
+     * temporary file
+     */
+    public Output(OutputStream out, boolean block) {
+      this.block = block;
+      this.out = new DataOutputStream(new BufferedOutputStream(out, FRAME_SIZE + 4));
+      sender =
+          new Thread("dtrace frame sender") {
+            @Override
+            public void run() {
+              send();
+            }
+          };
+      sender.setDaemon(true);
+      sender.start();
+    }
+
+    /** Body of the sending thread. */
+    private void send() {
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+      } catch (IOException e) {
+        failure = e;
+      }
+      try {
+        while (true) {
+          // Queued frames were written before any that are spilled
+          byte[] f = queue.poll();
+          if (f == null) {
+            f = unspill();
+          }
+          if (f == null) {
+            f = queue.take();
+          }
+          // After a failure, keep taking frames so that writers do not
+          // wait forever.
+          if (failure == null) {
+            try {
+              out.writeInt(f.length);
+              out.write(f);
+              if ((f.length == 0) || queue.isEmpty()) {
+                out.flush();
+              }
+            } catch (IOException e) {
+              failure = e;
+            }
+          }
+          if (f.length == 0) {
+            break;
+          }
+        }
+      } catch (IOException e) {
+        failure = e;
+      } catch (InterruptedException e) {
+        failure = new InterruptedIOException();
+      }
+    }
+
+    /**
+     * Returns the oldest unsent spilled frame, or null if there is none.
+     * Called only by the sending thread.
+     */
+    private byte /*@Nullable*/ [] unspill() throws IOException {
+      synchronized (spill_lock) {
+        if ((spill == null) || (spill_read_pos == spill_write_pos)) {
+          return null;
+        }
+        spill.seek(spill_read_pos);
+        byte[] f = new byte[spill.readInt()];
+        spill.readFully(f);
+        spill_read_pos = spill.getFilePointer();
+        if (spill_read_pos == spill_write_pos) {
+          // Everything spilled has been taken; start over at the beginning
+          spill_read_pos = 0;
+          spill_write_pos = 0;
+        }
+        return f;
+      }
+    }
+
+    /** Returns the number of frames that did not fit in the queue and were spilled. */
+    public long spilled_frames() {
+      synchronized (spill_lock) {
+        return spilled_frames;
+      }
+    }
+
+    /** Throws the exception, if any, that stopped the sender. */
+    private void check_failure() throws IOException {
+      IOException e = failure;
+      if (e != null) {
+        throw e;
+      }
+    }
+
+    /**
+     * Queues f to be sent.  If the queue is full, waits or spills f,
+     * according to block.
+     */
+    private void enqueue(byte[] f) throws IOException {
+      if (block) {
+        try {
+          queue.put(f);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+        return;
+      }
+      synchronized (spill_lock) {
+        if ((spill_read_pos == spill_write_pos) && queue.offer(f)) {
+          return;
+        }
+        if (spill == null) {
+          spill_file = File.createTempFile("dtrace-frames", ".spill");
+          spill_file.deleteOnExit();
+          spill = new RandomAccessFile(spill_file, "rw");
+        }
+        spill.seek(spill_write_pos);
+        spill.writeInt(f.length);
+        spill.write(f);
+        spill_write_pos = spill.getFilePointer();
+        spilled_frames++;
+      }
+      // The sender waits on the queue only after finding nothing spilled,
+      // so a frame is spilled only when the queue is full or when earlier
+      // spilled frames are still unsent; either way the sender does not
+      // wait on the queue before taking it.
+    }
+
+    /** Queues the current frame, if it is not empty. */
+    private void end_frame() throws IOException {
+      if (frame_len == 0) {
+        return;
+      }
+      byte[] f = frame;
+      if (frame_len < FRAME_SIZE) {
+        f = new byte[frame_len];
+        System.arraycopy(frame, 0, f, 0, frame_len);
+      } else {
+        frame = new byte[FRAME_SIZE];
+      }
+      frame_len = 0;
+      enqueue(f);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      check_failure();
+      if (frame_len == FRAME_SIZE) {
+        end_frame();
+      }
+      frame[frame_len++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      check_failure();
+      while (len > 0) {
+        if (frame_len == FRAME_SIZE) {
+          end_frame();
+        }
+        int n = Math.min(len, FRAME_SIZE - frame_len);
+        System.arraycopy(b, off, frame, frame_len, n);
+        frame_len += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    /**
+     * Queues what has been written so far.  Does not wait for it to be
+     * sent.
+     */
+    @Override
+    public void flush() throws IOException {
+      check_failure();
+      end_frame();
+    }
+
+    /** Sends everything that has been written, ends the stream, and closes it. */
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      end_frame();
+      enqueue(END);
+      try {
+        sender.join();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+      out.close();
+      synchronized (spill_lock) {
+        if (spill != null) {
+          spill.close();
+        }
+        if (spill_file != null) {
+          spill_file.delete();
+        }
+      }
+      check_failure();
+    }
+  }
+
+  /** An InputStream that reads the frames sent by an {@link Output}. */
+  public static final class Input extends InputStream {
+
+    private final DataInputStream in;
+
+    /** Number of bytes left in the current frame. */
+    private int remaining = 0;
+    private boolean at_end = false;
+
+    /**
+     * Reads the start of the stream.
+     * @throws IOException if the stream was not written by an Output of
+     * the same version
+     */
+    public Input(InputStream in) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(in, FRAME_SIZE + 4));
+      int magic = this.in.readInt();
+      if (magic != MAGIC) {
+        throw new IOException(
+            String.format("Bad start of trace stream: 0x%08x instead of 0x%08x", magic, MAGIC));
+      }
+      int version = this.in.readInt();
+      if (version != VERSION) {
+        throw new IOException(
+            String.format("Trace stream has version %d, expected %d", version, VERSION));
+      }
+    }
+
+    /** Reads the next frame header.  Returns false at the end of the stream. */
+    private boolean next_frame() throws IOException {
+      while (remaining == 0) {
+        if (at_end) {
+          return false;
+        }
+        remaining = in.readInt();
+        if (remaining < 0 || remaining > FRAME_SIZE) {
+          throw new IOException("Bad frame length " + remaining + " in trace stream");
+        }
+        if (remaining == 0) {
+          at_end = true;
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!next_frame()) {
+        return -1;
+      }
+      remaining--;
+      return in.readUnsignedByte();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!next_frame()) {
+        return -1;
+      }
+      int n = in.read(b, off, Math.min(len, remaining));
+      if (n == -1) {
+        throw new EOFException("Trace stream ended within a frame");
+      }
+      remaining -= n;
+      return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return Math.min(remaining, in.available());
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -4,6 +4,7 @@ package daikon;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.regex.*;
 import plume.*;
@@ -83,7 +84,9 @@ public final class Global {
   public static int partially_implied_invariants = 0;
   // instantiated_invariants == falsified_invariants + non_falsified_invariants
   public static int instantiated_invariants = 0;
-  public static int falsified_invariants = 0;
+  // Atomic, since threads that process samples and post-process program
+  // points remove invariants at once
+  public static final AtomicInteger falsified_invariants = new AtomicInteger();
   // non_falsified_invariants should be the sum of all the below
   public static int non_falsified_invariants = 0;
   public static int too_few_samples_invariants = 0;
@@ -139,8 +142,8 @@ public final class Global {
         "Instantiated: "
             + instantiated_invariants
             + " = "
-            + (falsified_invariants + non_falsified_invariants));
-    System.out.println("  falsified_invariants = " + falsified_invariants);
+            + (falsified_invariants.get() + non_falsified_invariants));
+    System.out.println("  falsified_invariants = " + falsified_invariants.get());
     System.out.println(
         "  non_falsified_invariants = "
             + non_falsified_invariants
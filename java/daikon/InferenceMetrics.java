@@ -0,0 +1,298 @@
+package daikon;
+
+import daikon.suppress.NIS;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Records the cost of each phase of inference, and of each program
+ * point, and exports it as JSON lines (see {@link #dkconfig_jsonl_file})
+ * and through JMX (see {@link #dkconfig_jmx}).  Nothing is recorded
+ * unless one of them is enabled.
+ * <p>
+ *
+ * {@link Daikon#process_data} brackets each phase with
+ * {@link #begin_phase} and {@link #end_phase}.  At the end of each phase,
+ * one record of type "phase" is written, with the elapsed time, the
+ * samples processed and the rate, the live slices and invariants over
+ * all program points, the invariants falsified and NIS suppressions
+ * processed during the phase, and the heap in use.  After reading the
+ * traces and at the end of processing, one record of type "ppt" is also
+ * written for each program point, with its samples, the time spent
+ * applying them and the resulting rate, its live slices and invariants,
+ * and the invariants falsified there so far.  Sorting the "ppt" records
+ * by inference_ms shows which program points dominate the cost.
+ */
+public final class InferenceMetrics {
+
+  private InferenceMetrics() {
+    throw new Error("do not instantiate");
+  }
+
+  /**
+   * String.  If non-null, the name of a file to which metrics are
+   * written, one JSON object per line.
+   */
+  public static /*@Nullable*/ String dkconfig_jsonl_file = null;
+
+  /**
+   * Boolean.  If true, the metrics of the most recent phase, and the
+   * number of samples read and the heap in use, are published as the JMX
+   * MBean daikon:type=InferenceMetrics.
+   */
+  public static boolean dkconfig_jmx = false;
+
+  /**
+   * True if metrics are being recorded.  Set by {@link #start()}; read
+   * by the code that applies samples, to decide whether to time them.
+   */
+  public static boolean enabled = false;
+
+  /** Name of the JMX MBean. */
+  public static final String MBEAN_NAME = "daikon:type=InferenceMetrics";
+
+  /** The attributes published through JMX. */
+  public interface MetricsMBean {
+    /** Name of the phase in progress, or of the last phase if none is in progress. */
+    String getPhase();
+    /** Number of samples read so far. */
+    int getSamplesProcessed();
+    /** Samples processed per second during the last completed phase. */
+    double getSamplesPerSecond();
+    /** Elapsed time of the last completed phase. */
+    long getPhaseElapsedMillis();
+    /** Number of slices at the end of the last completed phase. */
+    int getLiveSlices();
+    /** Number of invariants at the end of the last completed phase. */
+    int getLiveInvariants();
+    /** Number of invariants falsified so far. */
+    long getFalsifiedInvariants();
+    /** Number of NIS suppressions processed during the last completed phase. */
+    long getSuppressionsProcessed();
+    /** Bytes of heap in use now. */
+    long getHeapUsed();
+  }
+
+  /** The values read through JMX. */
+  private static final class Metrics implements MetricsMBean {
+    volatile String phase = "none";
+    volatile double samples_per_sec = 0;
+    volatile long elapsed_ms = 0;
+    volatile int slices = 0;
+    volatile int invariants = 0;
+    volatile long falsified = 0;
+    volatile long suppressions = 0;
+
+    public String getPhase() {
+      return phase;
+    }
+
+    public int getSamplesProcessed() {
+      return FileIO.samples_processed;
+    }
+
+    public double getSamplesPerSecond() {
+      return samples_per_sec;
+    }
+
+    public long getPhaseElapsedMillis() {
+      return elapsed_ms;
+    }
+
+    public int getLiveSlices() {
+      return slices;
+    }
+
+    public int getLiveInvariants() {
+      return invariants;
+    }
+
+    public long getFalsifiedInvariants() {
+      return falsified;
+    }
+
+    public long getSuppressionsProcessed() {
+      return suppressions;
+    }
+
+    public long getHeapUsed() {
+      return heap_used();
+    }
+  }
+
+  private static final Metrics metrics = new Metrics();
+
+  private static /*@Nullable*/ PrintWriter jsonl = null;
+  private static /*@Nullable*/ ObjectName mbean_name = null;
+
+  // State of the phase in progress
+  private static long phase_start_nanos = 0;
+  private static int phase_start_samples = 0;
+  private static long phase_start_suppressions = 0;
+  private static long phase_start_falsified = 0;
+
+  /**
+   * Starts recording, if it is enabled by the configuration.  Call after
+   * the configuration options have been set.
+   */
+  public static void start() {
+    if (enabled || ((dkconfig_jsonl_file == null) && !dkconfig_jmx)) {
+      return;
+    }
+    enabled = true;
+    if (dkconfig_jsonl_file != null) {
+      try {
+        jsonl = new PrintWriter(new BufferedWriter(new FileWriter(dkconfig_jsonl_file)));
+      } catch (IOException e) {
+        throw new Daikon.TerminationMessage(e, "Cannot write metrics to " + dkconfig_jsonl_file);
+      }
+    }
+    if (dkconfig_jmx) {
+      try {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MBEAN_NAME);
+        if (server.isRegistered(name)) {
+          server.unregisterMBean(name);
+        }
+        server.registerMBean(new StandardMBean(metrics, MetricsMBean.class), name);
+        mbean_name = name;
+      } catch (JMException e) {
+        throw new Error("Cannot register MBean " + MBEAN_NAME, e);
+      }
+    }
+  }
+
+  /** Stops recording, and closes the JSON lines file.  Has no effect if not recording. */
+  public static void finish() {
+    if (!enabled) {
+      return;
+    }
+    enabled = false;
+    if (jsonl != null) {
+      jsonl.close();
+      jsonl = null;
+    }
+    if (mbean_name != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbean_name);
+      } catch (JMException e) {
+        // Someone else has already unregistered it
+      }
+      mbean_name = null;
+    }
+  }
+
+  /** Records the start of the named phase. */
+  public static void begin_phase(String name) {
+    if (!enabled) {
+      return;
+    }
+    metrics.phase = name;
+    phase_start_nanos = System.nanoTime();
+    phase_start_samples = FileIO.samples_processed;
+    phase_start_suppressions = NIS.suppressions_processed_total();
+    phase_start_falsified = metrics.falsified;
+  }
+
+  /**
+   * Records the end of the phase started by the last call to
+   * begin_phase.  If write_ppts is true, also writes a record for each
+   * program point.  Must not be called while other threads are applying
+   * samples.
+   */
+  public static void end_phase(PptMap all_ppts, boolean write_ppts) {
+    if (!enabled) {
+      return;
+    }
+    long elapsed_nanos = System.nanoTime() - phase_start_nanos;
+    int samples = FileIO.samples_processed - phase_start_samples;
+
+    int slices = 0;
+    int invariants = 0;
+    long falsified = 0;
+    for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
+      slices += ppt.numViews();
+      invariants += ppt.invariant_cnt();
+      falsified += ppt.falsified_inv_cnt;
+    }
+
+    metrics.elapsed_ms = elapsed_nanos / 1000000;
+    metrics.samples_per_sec = rate(samples, elapsed_nanos);
+    metrics.slices = slices;
+    metrics.invariants = invariants;
+    metrics.falsified = falsified;
+    metrics.suppressions = NIS.suppressions_processed_total() - phase_start_suppressions;
+
+    if (jsonl == null) {
+      return;
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\"type\":\"phase\",\"phase\":");
+    append_string(sb, metrics.phase);
+    sb.append(",\"elapsed_ms\":").append(metrics.elapsed_ms);
+    sb.append(",\"samples\":").append(samples);
+    sb.append(",\"samples_per_sec\":").append(Math.round(metrics.samples_per_sec));
+    sb.append(",\"ppts\":").append(all_ppts.size());
+    sb.append(",\"slices\":").append(slices);
+    sb.append(",\"invariants\":").append(invariants);
+    sb.append(",\"falsified_invariants\":").append(falsified - phase_start_falsified);
+    sb.append(",\"suppressions_processed\":").append(metrics.suppressions);
+    sb.append(",\"heap_used\":").append(heap_used());
+    sb.append("}");
+    jsonl.println(sb);
+
+    if (write_ppts) {
+      for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
+        sb.setLength(0);
+        sb.append("{\"type\":\"ppt\",\"phase\":");
+        append_string(sb, metrics.phase);
+        sb.append(",\"ppt\":");
+        append_string(sb, ppt.name());
+        sb.append(",\"samples\":").append(ppt.num_samples());
+        sb.append(",\"inference_ms\":").append(ppt.inference_nanos / 1000000);
+        sb.append(",\"samples_per_sec\":")
+            .append(Math.round(rate(ppt.num_samples(), ppt.inference_nanos)));
+        sb.append(",\"slices\":").append(ppt.numViews());
+        sb.append(",\"invariants\":").append(ppt.invariant_cnt());
+        sb.append(",\"falsified_invariants\":").append(ppt.falsified_inv_cnt);
+        sb.append("}");
+        jsonl.println(sb);
+      }
+    }
+    jsonl.flush();
+  }
+
+  /** Returns count per second over the given time, or 0 if no time elapsed. */
+  private static double rate(long count, long nanos) {
+    return (nanos <= 0) ? 0 : count * 1e9 / nanos;
+  }
+
+  private static long heap_used() {
+    java.lang.Runtime rt = java.lang.Runtime.getRuntime();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  /** Appends s to sb as a JSON string. */
+  private static void append_string(StringBuilder sb, String s) {
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    sb.append('"');
+  }
+}
@@ -0,0 +1,879 @@
+package daikon;
+
+import daikon.config.Configuration;
+import daikon.inv.Invariant;
+import java.io.*;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Reads and writes .inv files in Daikon's versioned container format.
+ * Unlike a single serialized PptMap, each top-level program point (with
+ * its conditional program points) is stored in its own record, so one
+ * program point can be loaded without reading the rest of the file.  The
+ * format is:
+ * <pre>
+ *   int MAGIC, int VERSION, int flags
+ *   record: the Configuration and FileIO.new_decl_format
+ *   record: one per top-level ppt, or per group of ppts (see below)
+ *   record: the ppt hierarchy (PptRelations between different ppts)
+ *   table of contents: int count, then (UTF name, long offset) per ppt,
+ *     then long globals offset, long relations offset
+ *   long table of contents offset, int MAGIC
+ * </pre>
+ * Each record is an int length followed by that many bytes of Java
+ * serialization data, deflated if flags contains {@link #FLAG_DEFLATED}.
+ * Within a ppt's record, references to other ppts (and to their slices
+ * and invariants) are written as {@link Ref}s and are resolved, by
+ * loading the other ppt, when the record is read.  Ppts that refer to
+ * one another, directly or through other ppts, are written together in a
+ * single record, which every one of their table of contents entries
+ * points to; so loading a ppt never needs a ppt whose record is still
+ * being read.  Relations between ppts are written separately and
+ * restored once both of their ppts have been loaded.
+ * <p>
+ *
+ * If the file name ends in ".gz", the whole file is gzipped (and the
+ * records are not deflated separately).  Such a file is decompressed to
+ * a temporary file when it is read, since the records are read by
+ * offset.
+ * <p>
+ *
+ * This is a container for serialized objects, not a replacement for
+ * Java serialization:  the contents of each ppt (its VarInfos, slices,
+ * and invariants) are serialized, because Daikon has hundreds of
+ * invariant classes and a hand-written encoding of each is not
+ * practical.  So a change to a serialized class still makes old files
+ * unreadable; that is reported as a request to regenerate the file.
+ * Files whose container version differs from {@link #VERSION} are
+ * rejected with a similar message.
+ *
+ * @see FileIO#write_serialized_pptmap
+ * @see FileIO#read_serialized_pptmap
+ */
+public final class InvFile {
+  private InvFile() {
+    throw new Error("do not instantiate");
+  }
+
+  /** First and last four bytes of the file:  "DKIV". */
+  public static final int MAGIC = 0x444B4956;
+
+  /**
+   * Version of the format.  Increment it whenever the layout of the
+   * container changes.
+   */
+  public static final int VERSION = 2;
+
+  /** Flag that indicates that each record is deflated. */
+  public static final int FLAG_DEFLATED = 1;
+
+  /**
+   * Returns true if file, after decompression if it is gzipped, starts
+   * with the magic number of this format.
+   */
+  public static boolean is_inv_file(File file) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      if (is_gzipped(in)) {
+        in = new GZIPInputStream(in);
+      }
+      return new DataInputStream(in).readInt() == MAGIC;
+    } catch (EOFException e) {
+      return false;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns true if in starts with the gzip magic number.  in must
+   * support mark, and is left where it was.
+   */
+  private static boolean is_gzipped(InputStream in) throws IOException {
+    in.mark(2);
+    try {
+      return (in.read() == 0x1f) && (in.read() == 0x8b);
+    } finally {
+      in.reset();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// References between program points
+  ///
+
+  /**
+   * Stands for an object that belongs to a different top-level ppt than
+   * the one whose record is being written:  the ppt itself, one of its
+   * conditional ppts, a slice of either, or an invariant in such a slice.
+   */
+  static final class Ref implements Serializable {
+    // We are Serializable, so we specify a version to allow changes to
+    // method signatures without breaking serialization.  If you add or
+    // remove fields, you should change this number to the current date.
+    static final long serialVersionUID = 20161018L;
+
+    /** Values of slice_kind. */
+    static final int NO_SLICE = 0;
+    static final int SLICE_VARS = 1;
+    static final int SLICE_JOINER = 2;
+    static final int SLICE_EQUALITY = 3;
+
+    /** Name of the top-level ppt. */
+    final String owner;
+    /** Index in the owner's cond_iterable(), or -1 for the owner itself. */
+    final int cond_index;
+    final int slice_kind;
+    /** For SLICE_VARS, the varinfo_index of each variable of the slice. */
+    final int /*@Nullable*/ [] slice_vars;
+    /** Index of the invariant in the slice's invs, or -1. */
+    final int inv_index;
+
+    Ref(
+        String owner,
+        int cond_index,
+        int slice_kind,
+        int /*@Nullable*/ [] slice_vars,
+        int inv_index) {
+      this.owner = owner;
+      this.cond_index = cond_index;
+      this.slice_kind = slice_kind;
+      this.slice_vars = slice_vars;
+      this.inv_index = inv_index;
+    }
+
+    Ref with_slice(int kind, int /*@Nullable*/ [] vars) {
+      return new Ref(owner, cond_index, kind, vars, -1);
+    }
+
+    Ref with_inv(int index) {
+      return new Ref(owner, cond_index, slice_kind, slice_vars, index);
+    }
+
+    /*@SideEffectFree*/
+    public String toString() {
+      return owner
+          + (cond_index >= 0 ? " condition " + cond_index : "")
+          + (slice_kind != NO_SLICE ? " slice " + slice_kind + Arrays.toString(slice_vars) : "")
+          + (inv_index >= 0 ? " invariant " + inv_index : "");
+    }
+  }
+
+  /** A PptRelation between two different top-level ppts. */
+  static final class RelationRecord implements Serializable {
+    // We are Serializable, so we specify a version to allow changes to
+    // method signatures without breaking serialization.  If you add or
+    // remove fields, you should change this number to the current date.
+    static final long serialVersionUID = 20161018L;
+
+    final Ref parent;
+    final Ref child;
+    final PptRelation.PptRelationType type;
+    /** Pairs of varinfo_index:  parent, child, parent, child, .... */
+    final int[] parent_to_child;
+    /** Pairs of varinfo_index:  child, parent, child, parent, .... */
+    final int[] child_to_parent;
+
+    RelationRecord(Ref parent, Ref child, PptRelation rel) {
+      this.parent = parent;
+      this.child = child;
+      this.type = rel.getRelationType();
+      this.parent_to_child = index_pairs(rel.parent_to_child_map);
+      this.child_to_parent = index_pairs(rel.child_to_parent_map);
+    }
+
+    private static int[] index_pairs(Map<VarInfo, VarInfo> map) {
+      int[] result = new int[2 * map.size()];
+      int i = 0;
+      for (Map.Entry<VarInfo, VarInfo> e : map.entrySet()) {
+        result[i++] = e.getKey().varinfo_index;
+        result[i++] = e.getValue().varinfo_index;
+      }
+      return result;
+    }
+  }
+
+  /** Returns the ppt and its conditional ppts. */
+  private static List<PptTopLevel> owned_ppts(PptTopLevel ppt) {
+    List<PptTopLevel> result = new ArrayList<PptTopLevel>();
+    result.add(ppt);
+    for (PptConditional cond : ppt.cond_iterable()) {
+      result.add(cond);
+    }
+    return result;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Writing
+  ///
+
+  /** The serialized form of one or more top-level ppts. */
+  private static final class Record {
+    /** The ppts, each with its conditional ppts. */
+    final List<PptTopLevel> ppts;
+    /** The record's data, without the length. */
+    final byte[] bytes;
+    /** Names of the other top-level ppts that the record refers to. */
+    final Set<String> references = new HashSet<String>();
+    /** The relations between the record's ppts and other ppts. */
+    final List<RelationRecord> relations = new ArrayList<RelationRecord>();
+
+    /** Serializes ppts, with references to other ppts replaced by Refs. */
+    Record(List<PptTopLevel> ppts, IdentityHashMap<PptTopLevel, Ref> refs, boolean deflate)
+        throws IOException {
+      this.ppts = ppts;
+      List<PptTopLevel> owned = new ArrayList<PptTopLevel>();
+      for (PptTopLevel ppt : ppts) {
+        owned.addAll(owned_ppts(ppt));
+      }
+      // Relations to other top-level ppts are written separately, so
+      // remove them from the ppts while the record is written.
+      Map<PptTopLevel, List<PptRelation>> saved_parents =
+          new IdentityHashMap<PptTopLevel, List<PptRelation>>();
+      Map<PptTopLevel, List<PptRelation>> saved_children =
+          new IdentityHashMap<PptTopLevel, List<PptRelation>>();
+      try {
+        for (PptTopLevel o : owned) {
+          saved_parents.put(o, o.parents);
+          saved_children.put(o, o.children);
+          o.parents = local_relations(o.parents, owned, null, refs);
+          o.children = local_relations(o.children, owned, relations, refs);
+        }
+        Object obj = (ppts.size() == 1) ? ppts.get(0) : ppts.toArray(new PptTopLevel[ppts.size()]);
+        bytes = serialize(obj, owned, refs, deflate, references);
+      } finally {
+        for (PptTopLevel o : owned) {
+          List<PptRelation> parents = saved_parents.get(o);
+          List<PptRelation> children = saved_children.get(o);
+          if (parents != null) o.parents = parents;
+          if (children != null) o.children = children;
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes map to file in this format.  If the name of file ends in
+   * ".gz", the file is gzipped.
+   */
+  /*@RequiresNonNull("FileIO.new_decl_format")*/
+  public static void write(PptMap map, File file) throws IOException {
+
+    // The Ref for every ppt (including conditional ppts) in the map
+    IdentityHashMap<PptTopLevel, Ref> refs = new IdentityHashMap<PptTopLevel, Ref>();
+    for (PptTopLevel ppt : map.pptIterable()) {
+      List<PptTopLevel> owned = owned_ppts(ppt);
+      for (int i = 0; i < owned.size(); i++) {
+        refs.put(owned.get(i), new Ref(ppt.name(), i - 1, Ref.NO_SLICE, null, -1));
+      }
+    }
+
+    boolean gzip = file.getName().endsWith(".gz");
+    boolean deflate = !gzip;
+
+    // Serialize each ppt by itself, then write those that refer to one
+    // another, directly or indirectly, as one record instead.  The table
+    // of contents lists the ppts in the order of the map.
+    Map<String, Record> records = new LinkedHashMap<String, Record>();
+    Map<String, Long> toc = new LinkedHashMap<String, Long>();
+    for (PptTopLevel ppt : map.pptIterable()) {
+      records.put(ppt.name(), new Record(Collections.singletonList(ppt), refs, deflate));
+      toc.put(ppt.name(), -1L);
+    }
+    List<Record> groups = new ArrayList<Record>();
+    for (List<String> component : new Components(records).result) {
+      if (component.size() == 1) {
+        groups.add(records.get(component.get(0)));
+      } else {
+        List<PptTopLevel> ppts = new ArrayList<PptTopLevel>();
+        for (String name : component) {
+          ppts.addAll(records.get(name).ppts);
+        }
+        groups.add(new Record(ppts, refs, deflate));
+      }
+    }
+
+    OutputStream os = new FileOutputStream(file);
+    if (gzip) {
+      os = new GZIPOutputStream(os, 1 << 16);
+    }
+    CountingOutputStream counter =
+        new CountingOutputStream(new BufferedOutputStream(os, 1 << 16));
+    DataOutputStream out = new DataOutputStream(counter);
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(deflate ? FLAG_DEFLATED : 0);
+
+      long globals_offset = counter.count;
+      write_record(
+          out,
+          serialize(
+              new Object[] {Configuration.getInstance(), FileIO.new_decl_format},
+              Collections.<PptTopLevel>emptyList(),
+              refs,
+              deflate,
+              null));
+
+      // Records are written so that each comes after those it refers to
+      List<RelationRecord> relations = new ArrayList<RelationRecord>();
+      for (Record record : groups) {
+        long offset = counter.count;
+        for (PptTopLevel ppt : record.ppts) {
+          toc.put(ppt.name(), offset);
+        }
+        relations.addAll(record.relations);
+        write_record(out, record.bytes);
+      }
+
+      long relations_offset = counter.count;
+      write_record(
+          out, serialize(relations, Collections.<PptTopLevel>emptyList(), refs, deflate, null));
+
+      long toc_offset = counter.count;
+      out.writeInt(toc.size());
+      for (Map.Entry<String, Long> e : toc.entrySet()) {
+        out.writeUTF(e.getKey());
+        out.writeLong(e.getValue());
+      }
+      out.writeLong(globals_offset);
+      out.writeLong(relations_offset);
+      out.writeLong(toc_offset);
+      out.writeInt(MAGIC);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * The strongly connected components of the graph whose nodes are the
+   * records and whose edges are their references, by Tarjan's algorithm.
+   * Each component comes after every component that it refers to.
+   */
+  private static final class Components {
+    final List<List<String>> result = new ArrayList<List<String>>();
+
+    private final Map<String, Record> records;
+    private final Map<String, Integer> index = new HashMap<String, Integer>();
+    private final Map<String, Integer> lowlink = new HashMap<String, Integer>();
+    private final Deque<String> stack = new ArrayDeque<String>();
+    private final Set<String> on_stack = new HashSet<String>();
+
+    Components(Map<String, Record> records) {
+      this.records = records;
+      for (String name : records.keySet()) {
+        if (!index.containsKey(name)) {
+          visit(name);
+        }
+      }
+    }
+
+    private void visit(String name) {
+      int i = index.size();
+      index.put(name, i);
+      lowlink.put(name, i);
+      stack.push(name);
+      on_stack.add(name);
+      Record record = records.get(name);
+      assert record != null;
+      for (String other : record.references) {
+        if (!records.containsKey(other)) {
+          continue;
+        }
+        if (!index.containsKey(other)) {
+          visit(other);
+          lowlink.put(name, Math.min(lowlink.get(name), lowlink.get(other)));
+        } else if (on_stack.contains(other)) {
+          lowlink.put(name, Math.min(lowlink.get(name), index.get(other)));
+        }
+      }
+      if (lowlink.get(name).intValue() == i) {
+        List<String> component = new ArrayList<String>();
+        String member;
+        do {
+          member = stack.pop();
+          on_stack.remove(member);
+          component.add(member);
+        } while (!member.equals(name));
+        result.add(component);
+      }
+    }
+  }
+
+  /**
+   * Returns the relations in rels whose parent and child are both in
+   * owned.  If others is non-null, the remaining relations between ppts
+   * in the map are added to it.
+   */
+  private static List<PptRelation> local_relations(
+      List<PptRelation> rels,
+      List<PptTopLevel> owned,
+      /*@Nullable*/ List<RelationRecord> others,
+      IdentityHashMap<PptTopLevel, Ref> refs) {
+    List<PptRelation> result = new ArrayList<PptRelation>();
+    for (PptRelation rel : rels) {
+      if (contains_identical(owned, rel.parent) && contains_identical(owned, rel.child)) {
+        result.add(rel);
+      } else if (others != null) {
+        Ref parent = refs.get(rel.parent);
+        Ref child = refs.get(rel.child);
+        if ((parent != null) && (child != null)) {
+          others.add(new RelationRecord(parent, child, rel));
+        }
+      }
+    }
+    return result;
+  }
+
+  private static boolean contains_identical(List<?> list, Object o) {
+    for (Object elt : list) {
+      if (elt == o) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the serialized form of obj, deflated if deflate is true.
+   * References to ppts other than those in owned are replaced by Refs,
+   * and if references is non-null, the names of the top-level ppts that
+   * they refer to are added to it.
+   */
+  private static byte[] serialize(
+      Object obj,
+      List<PptTopLevel> owned,
+      IdentityHashMap<PptTopLevel, Ref> refs,
+      boolean deflate,
+      /*@Nullable*/ Set<String> references)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream oos =
+        new RefReplacingOutputStream(
+            deflate ? new DeflaterOutputStream(bytes) : bytes, owned, refs, references);
+    oos.writeObject(obj);
+    oos.close();
+    return bytes.toByteArray();
+  }
+
+  /** Writes the data of a record, preceded by its length. */
+  private static void write_record(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /** Replaces references to ppts that are not owned by Refs. */
+  private static final class RefReplacingOutputStream extends ObjectOutputStream {
+    private final List<PptTopLevel> owned;
+    private final IdentityHashMap<PptTopLevel, Ref> refs;
+    private final /*@Nullable*/ Set<String> references;
+
+    RefReplacingOutputStream(
+        OutputStream out,
+        List<PptTopLevel> owned,
+        IdentityHashMap<PptTopLevel, Ref> refs,
+        /*@Nullable*/ Set<String> references)
+        throws IOException {
+      super(out);
+      this.owned = owned;
+      this.refs = refs;
+      this.references = references;
+      enableReplaceObject(true);
+    }
+
+    /** Returns the Ref for ppt, or null if ppt is owned or not in the map. */
+    private /*@Nullable*/ Ref foreign(PptTopLevel ppt) {
+      if (contains_identical(owned, ppt)) {
+        return null;
+      }
+      return refs.get(ppt);
+    }
+
+    /** Returns the Ref for slice, or null if it is owned or cannot be found again. */
+    private /*@Nullable*/ Ref foreign(PptSlice slice) {
+      Ref ref = foreign(slice.parent);
+      if (ref == null) {
+        return null;
+      }
+      PptTopLevel ppt = slice.parent;
+      if (slice == ppt.joiner_view) {
+        return ref.with_slice(Ref.SLICE_JOINER, null);
+      }
+      if (slice == ppt.equality_view) {
+        return ref.with_slice(Ref.SLICE_EQUALITY, null);
+      }
+      if (slice.var_infos.length == 0 || ppt.findSlice(slice.var_infos) != slice) {
+        return null;
+      }
+      int[] vars = new int[slice.var_infos.length];
+      for (int i = 0; i < vars.length; i++) {
+        vars[i] = slice.var_infos[i].varinfo_index;
+      }
+      return ref.with_slice(Ref.SLICE_VARS, vars);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) {
+      Ref ref = null;
+      if (obj instanceof PptTopLevel) {
+        ref = foreign((PptTopLevel) obj);
+      } else if (obj instanceof PptSlice) {
+        ref = foreign((PptSlice) obj);
+      } else if (obj instanceof Invariant) {
+        Invariant inv = (Invariant) obj;
+        Ref slice = foreign(inv.ppt);
+        if (slice != null) {
+          for (int i = 0; i < inv.ppt.invs.size(); i++) {
+            if (inv.ppt.invs.get(i) == inv) {
+              ref = slice.with_inv(i);
+              break;
+            }
+          }
+        }
+      }
+      if (ref == null) {
+        return obj;
+      }
+      if (references != null) {
+        references.add(ref.owner);
+      }
+      return ref;
+    }
+  }
+
+  /** Counts the bytes written, to compute the offsets of records. */
+  private static final class CountingOutputStream extends FilterOutputStream {
+    long count = 0;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Reading
+  ///
+
+  /**
+   * Reads a file in this format.  Program points are read on demand,
+   * either one at a time with {@link #get} or all at once with
+   * {@link #read_all}.  A Reader must be closed when it is no longer
+   * needed.
+   */
+  public static final class Reader implements Closeable {
+    private final File file;
+    private final RandomAccessFile raf;
+    /** If file is gzipped, its decompressed contents, which raf reads. */
+    private /*@Nullable*/ File decompressed = null;
+    /** True if each record is deflated. */
+    private final boolean deflated;
+
+    /** Offset of each ppt's record, in file order. */
+    private final Map<String, Long> toc = new LinkedHashMap<String, Long>();
+    private final long relations_offset;
+
+    /** The saved configuration. */
+    public final Configuration config;
+    /** The saved value of FileIO.new_decl_format. */
+    public final boolean new_decl_format;
+
+    /** The ppts that have been read. */
+    private final Map<String, PptTopLevel> loaded = new HashMap<String, PptTopLevel>();
+    /** Offsets of records being read, to detect corrupt files. */
+    private final Set<Long> loading = new HashSet<Long>();
+    /** Relations not yet restored because one of their ppts is not loaded. */
+    private /*@MonotonicNonNull*/ List<RelationRecord> pending_relations = null;
+
+    public Reader(File file) throws IOException {
+      this.file = file;
+      raf = new RandomAccessFile(open(file), "r");
+      try {
+        if (raf.length() < 28 || raf.readInt() != MAGIC) {
+          throw new IOException(file + " is not a Daikon .inv file");
+        }
+        int version = raf.readInt();
+        if (version != VERSION) {
+          throw new IOException(
+              String.format(
+                  "%s has .inv format version %d, but this Daikon reads version %d.  Please regenerate your .inv file.",
+                  file, version, VERSION));
+        }
+        deflated = (raf.readInt() & FLAG_DEFLATED) != 0;
+        raf.seek(raf.length() - 12);
+        long toc_offset = raf.readLong();
+        if (raf.readInt() != MAGIC) {
+          throw new IOException(file + " is truncated");
+        }
+        raf.seek(toc_offset);
+        byte[] toc_bytes = new byte[(int) (raf.length() - 12 - toc_offset)];
+        raf.readFully(toc_bytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(toc_bytes));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          String name = in.readUTF().intern();
+          toc.put(name, in.readLong());
+        }
+        long globals_offset = in.readLong();
+        relations_offset = in.readLong();
+
+        Object[] globals = (Object[]) read_record(globals_offset, false);
+        config = (Configuration) globals[0];
+        new_decl_format = (Boolean) globals[1];
+      } catch (IOException e) {
+        close();
+        throw e;
+      } catch (RuntimeException e) {
+        close();
+        throw e;
+      }
+    }
+
+    /**
+     * Returns file, or if it is gzipped, a temporary file holding its
+     * decompressed contents.
+     */
+    private File open(File file) throws IOException {
+      InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+      try {
+        if (!is_gzipped(in)) {
+          return file;
+        }
+        decompressed = File.createTempFile("daikon", ".inv");
+        decompressed.deleteOnExit();
+        InputStream gz = new GZIPInputStream(in, 1 << 16);
+        OutputStream out = new FileOutputStream(decompressed);
+        try {
+          byte[] buffer = new byte[1 << 16];
+          int n;
+          while ((n = gz.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+          }
+        } finally {
+          out.close();
+        }
+        return decompressed;
+      } catch (IOException e) {
+        if (decompressed != null) {
+          decompressed.delete();
+        }
+        throw e;
+      } finally {
+        in.close();
+      }
+    }
+
+    /** Returns the names of the top-level ppts in the file, in file order. */
+    public Set<String> names() {
+      return Collections.unmodifiableSet(toc.keySet());
+    }
+
+    /** Returns true if the file contains a top-level ppt named name. */
+    public boolean contains(String name) {
+      return toc.containsKey(name);
+    }
+
+    /**
+     * Returns the top-level ppt named name, reading it (and any ppts that
+     * it refers to) if it has not yet been read.  Returns null if the file
+     * contains no such ppt.
+     */
+    public /*@Nullable*/ PptTopLevel get(String name) throws IOException {
+      PptTopLevel ppt = loaded.get(name);
+      if (ppt != null) {
+        return ppt;
+      }
+      Long offset = toc.get(name);
+      if (offset == null) {
+        return null;
+      }
+      // The writer puts ppts that refer to one another in one record, so
+      // a record that refers back to one being read is an error.
+      if (!loading.add(offset)) {
+        throw new IOException("Corrupt .inv file " + file + ":  circular reference to " + name);
+      }
+      Object obj;
+      try {
+        obj = read_record(offset, true);
+      } finally {
+        loading.remove(offset);
+      }
+      if (obj instanceof PptTopLevel[]) {
+        for (PptTopLevel p : (PptTopLevel[]) obj) {
+          loaded.put(p.name(), p);
+        }
+      } else {
+        loaded.put(name, (PptTopLevel) obj);
+      }
+      ppt = loaded.get(name);
+      if (ppt == null) {
+        throw new IOException("Corrupt .inv file " + file + ":  no record for " + name);
+      }
+      restore_relations();
+      return ppt;
+    }
+
+    /** Reads every ppt in the file and returns them as a PptMap. */
+    public PptMap read_all() throws IOException {
+      PptMap result = new PptMap();
+      for (String name : toc.keySet()) {
+        PptTopLevel ppt = get(name);
+        assert ppt != null;
+        result.add(ppt);
+      }
+      return result;
+    }
+
+    /** Restores the relations both of whose ppts have been loaded. */
+    @SuppressWarnings("unchecked")
+    private void restore_relations() throws IOException {
+      if (pending_relations == null) {
+        pending_relations =
+            new LinkedList<RelationRecord>((List<RelationRecord>) read_record(relations_offset, false));
+      }
+      for (Iterator<RelationRecord> i = pending_relations.iterator(); i.hasNext(); ) {
+        RelationRecord r = i.next();
+        if (!loaded.containsKey(r.parent.owner) || !loaded.containsKey(r.child.owner)) {
+          continue;
+        }
+        i.remove();
+        PptTopLevel parent = (PptTopLevel) resolve(r.parent);
+        PptTopLevel child = (PptTopLevel) resolve(r.child);
+        PptRelation rel = PptRelation.newRestoredRel(parent, child, r.type);
+        for (int j = 0; j < r.parent_to_child.length; j += 2) {
+          rel.parent_to_child_map.put(
+              parent.var_infos[r.parent_to_child[j]], child.var_infos[r.parent_to_child[j + 1]]);
+        }
+        for (int j = 0; j < r.child_to_parent.length; j += 2) {
+          rel.child_to_parent_map.put(
+              child.var_infos[r.child_to_parent[j]], parent.var_infos[r.child_to_parent[j + 1]]);
+        }
+      }
+    }
+
+    /** Returns the object that ref stands for, loading its ppt if necessary. */
+    Object resolve(Ref ref) throws IOException {
+      PptTopLevel ppt = get(ref.owner);
+      if (ppt == null) {
+        throw new IOException("Reference to missing ppt " + ref.owner + " in " + file);
+      }
+      if (ref.cond_index >= 0) {
+        int i = 0;
+        PptConditional cond = null;
+        for (PptConditional c : ppt.cond_iterable()) {
+          if (i++ == ref.cond_index) {
+            cond = c;
+            break;
+          }
+        }
+        if (cond == null) {
+          throw new IOException("Reference to missing conditional ppt " + ref + " in " + file);
+        }
+        ppt = cond;
+      }
+      PptSlice slice;
+      switch (ref.slice_kind) {
+        case Ref.NO_SLICE:
+          return ppt;
+        case Ref.SLICE_JOINER:
+          slice = ppt.joiner_view;
+          break;
+        case Ref.SLICE_EQUALITY:
+          slice = ppt.equality_view;
+          break;
+        case Ref.SLICE_VARS:
+          assert ref.slice_vars != null;
+          VarInfo[] vis = new VarInfo[ref.slice_vars.length];
+          for (int i = 0; i < vis.length; i++) {
+            vis[i] = ppt.var_infos[ref.slice_vars[i]];
+          }
+          slice = ppt.findSlice(vis);
+          break;
+        default:
+          throw new IOException("Bad reference " + ref + " in " + file);
+      }
+      if (slice == null) {
+        throw new IOException("Reference to missing slice " + ref + " in " + file);
+      }
+      if (ref.inv_index < 0) {
+        return slice;
+      }
+      return slice.invs.get(ref.inv_index);
+    }
+
+    /** Reads the record at offset, resolving its Refs if resolve is true. */
+    private Object read_record(long offset, boolean resolve) throws IOException {
+      raf.seek(offset);
+      byte[] bytes = new byte[raf.readInt()];
+      raf.readFully(bytes);
+      InputStream data = new ByteArrayInputStream(bytes);
+      if (deflated) {
+        data = new InflaterInputStream(data);
+      }
+      ObjectInputStream in = new RefResolvingInputStream(data, resolve ? this : null);
+      try {
+        return in.readObject();
+      } catch (ClassNotFoundException e) {
+        throw new IOException("Error while loading inv file " + file, e);
+      } catch (InvalidClassException e) {
+        throw new IOException(
+            "A Daikon data structure has been modified since "
+                + file
+                + " was written, so it is no longer readable.  Please regenerate your .inv file.",
+            e);
+      } finally {
+        in.close();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        raf.close();
+      } finally {
+        if (decompressed != null) {
+          decompressed.delete();
+        }
+      }
+    }
+  }
+
+  /** Resolves the Refs written by RefReplacingOutputStream. */
+  private static final class RefResolvingInputStream extends ObjectInputStream {
+    private final /*@Nullable*/ Reader reader;
+
+    /** If reader is null, Refs are returned as is. */
+    RefResolvingInputStream(InputStream in, /*@Nullable*/ Reader reader) throws IOException {
+      super(in);
+      this.reader = reader;
+      enableResolveObject(reader != null);
+    }
+
+    @Override
+    protected Object resolveObject(Object obj) throws IOException {
+      if ((reader != null) && (obj instanceof Ref)) {
+        return reader.resolve((Ref) obj);
+      }
+      return obj;
+    }
+  }
+}
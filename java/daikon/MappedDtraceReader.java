@@ -0,0 +1,460 @@
+package daikon;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * A LineNumberReader for uncompressed data trace files that memory-maps
+ * the file instead of decoding all of it into characters.  Besides
+ * {@link #readLine()}, it provides methods that examine or skip a line
+ * without creating a String for it; FileIO uses them for nonces,
+ * modbits, variable names, unchanged values, and variables that are not
+ * included.
+ * <p>
+ *
+ * A line is terminated by "\n", "\r", or "\r\n", as for BufferedReader.
+ * Lines are decoded with the platform's default charset.  The
+ * character-oriented read methods decode a whole line at a time, and, like
+ * {@link LineNumberReader#read()}, return each line terminator as a single
+ * '\n'.
+ * <p>
+ *
+ * Files larger than a single mapping (2GB) are mapped a window at a
+ * time.
+ *
+ * @see FileIO#dkconfig_mmap_dtrace
+ */
+public final class MappedDtraceReader extends LineNumberReader {
+
+  /** Default size of the region of the file that is mapped at once. */
+  private static final int WINDOW_SIZE = 1 << 28;
+
+  /** Size of the region of the file that is mapped at once. */
+  private final int max_window;
+
+  private static final Charset charset = Charset.defaultCharset();
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long file_size;
+
+  /** The currently mapped region of the file. */
+  private MappedByteBuffer window;
+  /** Offset in the file of the start of window. */
+  private long window_start;
+  /** Number of bytes that are mapped, at most WINDOW_SIZE. */
+  private int window_size;
+
+  /** Offset in window of the start of the next line. */
+  private int pos;
+  /** Number of lines read so far. */
+  private int line_number = 0;
+
+  /** File offset and line number saved by mark(). */
+  private long mark_offset = -1;
+  private int mark_line_number;
+  private /*@Nullable*/ String mark_partial;
+  private int mark_partial_pos;
+
+  /**
+   * The rest of a line that the character-oriented read methods have
+   * started to read, ending with '\n' if the line is terminated; or null.
+   * pos is already past the line.
+   */
+  private /*@Nullable*/ String partial = null;
+  /** Index in partial of the next character to read. */
+  private int partial_pos;
+
+  /** Offsets in window of the current line's end and of the next line's start. */
+  private int line_end;
+  private int next_line_start;
+
+  /** Scratch space for decoding lines. */
+  private byte[] bytes = new byte[256];
+
+  public MappedDtraceReader(String filename) throws IOException {
+    this(filename, WINDOW_SIZE);
+  }
+
+  /**
+   * Reads the named file, mapping at most window_size bytes of it at once
+   * (more if a line is longer).  Tests use a small window to check lines
+   * that cross from one window to the next.
+   */
+  public MappedDtraceReader(String filename, int window_size) throws IOException {
+    super(new StringReader(""));
+    assert window_size > 0 : window_size;
+    max_window = window_size;
+    file = new RandomAccessFile(filename, "r");
+    channel = file.getChannel();
+    file_size = channel.size();
+    map(0, (int) Math.min(file_size, max_window));
+  }
+
+  /** Maps size bytes of the file, starting at offset start. */
+  private void map(long start, int size) throws IOException {
+    window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    window_start = start;
+    window_size = size;
+  }
+
+  /**
+   * Finds the end of the next line, setting line_end and next_line_start.
+   * Remaps the file if the line extends beyond the current window.
+   * Returns false at end of file.
+   */
+  private boolean find_line() throws IOException {
+    while (true) {
+      if ((pos >= window_size) && (window_start + window_size >= file_size)) {
+        return false;
+      }
+      for (int i = pos; i < window_size; i++) {
+        byte b = window.get(i);
+        if (b == '\n') {
+          line_end = i;
+          next_line_start = i + 1;
+          return true;
+        }
+        if (b == '\r') {
+          if (i + 1 < window_size) {
+            line_end = i;
+            next_line_start = (window.get(i + 1) == '\n') ? i + 2 : i + 1;
+            return true;
+          }
+          break; // need one more byte to know whether a '\n' follows
+        }
+      }
+      long file_pos = window_start + pos;
+      if (window_start + window_size >= file_size) {
+        // Last line of the file, which has no terminator (or just a '\r')
+        line_end = window_size;
+        if ((window_size > pos) && (window.get(window_size - 1) == '\r')) {
+          line_end--;
+        }
+        next_line_start = window_size;
+        return true;
+      }
+      // The line continues past the window.  Remap starting at the line,
+      // with a bigger window if the line is longer than a whole window.
+      int size = window_size;
+      if (pos == 0) {
+        if (size > Integer.MAX_VALUE / 2) {
+          throw new IOException("Line too long at line " + (line_number + 1));
+        }
+        size *= 2;
+      }
+      map(file_pos, (int) Math.min(file_size - file_pos, size));
+      pos = 0;
+    }
+  }
+
+  /** Consumes the line found by find_line(). */
+  private void advance() {
+    pos = next_line_start;
+    line_number++;
+  }
+
+  /** Decodes the line found by find_line() and moves pos past it. */
+  private String decode_line() {
+    int len = line_end - pos;
+    if (bytes.length < len) {
+      bytes = new byte[Math.max(len, 2 * bytes.length)];
+    }
+    window.position(pos);
+    window.get(bytes, 0, len);
+    pos = next_line_start;
+    return new String(bytes, 0, len, charset);
+  }
+
+  @Override
+  public /*@Nullable*/ String readLine() throws IOException {
+    if (partial != null) {
+      return finish_partial();
+    }
+    if (!find_line()) {
+      return null;
+    }
+    String result = decode_line();
+    line_number++;
+    return result;
+  }
+
+  /** Skips the next line.  Returns false at end of file. */
+  public boolean skip_line() throws IOException {
+    if (partial != null) {
+      finish_partial();
+      return true;
+    }
+    if (!find_line()) {
+      return false;
+    }
+    advance();
+    return true;
+  }
+
+  /**
+   * Returns true if the next line consists of exactly the characters of
+   * s, which must be ASCII.  Does not consume the line.
+   */
+  public boolean next_line_equals(String s) throws IOException {
+    if (partial != null) {
+      int end = partial.length();
+      if (partial.charAt(end - 1) == '\n') {
+        end--;
+      }
+      return partial.substring(partial_pos, end).equals(s);
+    }
+    if (!find_line()) {
+      return false;
+    }
+    int len = s.length();
+    if (line_end - pos != len) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (window.get(pos + i) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the next line, returning s itself if the line consists of
+   * exactly the characters of s.  Returns null at end of file.
+   */
+  public /*@Nullable*/ String read_line_reusing(/*@Nullable*/ String s) throws IOException {
+    if ((s != null) && (partial == null) && is_ascii(s) && next_line_equals(s)) {
+      advance();
+      return s;
+    }
+    return readLine();
+  }
+
+  private static boolean is_ascii(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads a line containing a modbit.  Returns 0, 1, or 2, or -1 if the
+   * line is anything else or if at end of file.
+   */
+  public int read_modbit() throws IOException {
+    if (partial != null) {
+      String line = finish_partial();
+      return (line.length() == 1) ? "012".indexOf(line.charAt(0)) : -1;
+    }
+    if (!find_line()) {
+      return -1;
+    }
+    int result = -1;
+    if (line_end - pos == 1) {
+      byte b = window.get(pos);
+      if ((b >= '0') && (b <= '2')) {
+        result = b - '0';
+      }
+    }
+    advance();
+    return result;
+  }
+
+  /**
+   * Reads a line containing a decimal int, such as an invocation nonce,
+   * without creating a String.
+   * @throws EOFException at end of file
+   * @throws NumberFormatException if the line is not an int
+   */
+  public int read_int_line() throws IOException {
+    if (partial != null) {
+      return Integer.parseInt(finish_partial());
+    }
+    if (!find_line()) {
+      throw new EOFException();
+    }
+    int len = line_end - pos;
+    boolean negative = (len > 0) && (window.get(pos) == '-');
+    int start = negative ? 1 : 0;
+    if ((len == start) || (len - start > 10)) {
+      return Integer.parseInt(readLine_unchecked());
+    }
+    long result = 0;
+    for (int i = start; i < len; i++) {
+      byte b = window.get(pos + i);
+      if ((b < '0') || (b > '9')) {
+        return Integer.parseInt(readLine_unchecked());
+      }
+      result = result * 10 + (b - '0');
+    }
+    if (negative) {
+      result = -result;
+    }
+    if ((result < Integer.MIN_VALUE) || (result > Integer.MAX_VALUE)) {
+      return Integer.parseInt(readLine_unchecked()); // throws
+    }
+    advance();
+    return (int) result;
+  }
+
+  /** Like readLine, when the caller knows that a line exists. */
+  private String readLine_unchecked() throws IOException {
+    String line = readLine();
+    assert line != null;
+    return line;
+  }
+
+  @Override
+  public int getLineNumber() {
+    return line_number;
+  }
+
+  @Override
+  public void setLineNumber(int lineNumber) {
+    line_number = lineNumber;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  /** Marks the current position; the read-ahead limit is ignored. */
+  @Override
+  public void mark(int readAheadLimit) {
+    mark_offset = window_start + pos;
+    mark_line_number = line_number;
+    mark_partial = partial;
+    mark_partial_pos = partial_pos;
+  }
+
+  @Override
+  public void reset() throws IOException {
+    if (mark_offset < 0) {
+      throw new IOException("Stream not marked");
+    }
+    if ((mark_offset >= window_start) && (mark_offset <= window_start + window_size)) {
+      pos = (int) (mark_offset - window_start);
+    } else {
+      map(mark_offset, (int) Math.min(file_size - mark_offset, max_window));
+      pos = 0;
+    }
+    line_number = mark_line_number;
+    partial = mark_partial;
+    partial_pos = mark_partial_pos;
+  }
+
+  @Override
+  public boolean ready() {
+    return (partial != null) || (window_start + pos < file_size);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Character-oriented reading
+  ///
+
+  /**
+   * Returns the line that the character-oriented read methods are
+   * reading, first decoding the next line if there is none.  Returns null
+   * at end of file.
+   */
+  private /*@Nullable*/ String partial_line() throws IOException {
+    if (partial == null) {
+      if (!find_line()) {
+        return null;
+      }
+      boolean terminated = next_line_start > line_end;
+      String line = decode_line();
+      partial = terminated ? line + "\n" : line;
+      partial_pos = 0;
+    }
+    return partial;
+  }
+
+  /** Consumes n characters of the partial line, which must have that many. */
+  private void consume_partial(String line, int n) {
+    partial_pos += n;
+    if (partial_pos == line.length()) {
+      if (line.charAt(line.length() - 1) == '\n') {
+        line_number++;
+      }
+      partial = null;
+    }
+  }
+
+  /** Returns the rest of the partial line, without its terminator, and consumes it. */
+  private String finish_partial() {
+    String line = partial;
+    assert line != null;
+    int end = line.length();
+    if (line.charAt(end - 1) == '\n') {
+      end--;
+    }
+    String result = line.substring(partial_pos, end);
+    partial = null;
+    line_number++;
+    return result;
+  }
+
+  @Override
+  public int read() throws IOException {
+    String line = partial_line();
+    if (line == null) {
+      return -1;
+    }
+    char c = line.charAt(partial_pos);
+    consume_partial(line, 1);
+    return c;
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if ((off < 0) || (len < 0) || (len > cbuf.length - off)) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0) {
+      return 0;
+    }
+    String line = partial_line();
+    if (line == null) {
+      return -1;
+    }
+    int n = Math.min(len, line.length() - partial_pos);
+    line.getChars(partial_pos, partial_pos + n, cbuf, off);
+    consume_partial(line, n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n < 0) {
+      throw new IllegalArgumentException("skip value is negative");
+    }
+    long skipped = 0;
+    while (skipped < n) {
+      String line = partial_line();
+      if (line == null) {
+        break;
+      }
+      int k = (int) Math.min(n - skipped, line.length() - partial_pos);
+      consume_partial(line, k);
+      skipped += k;
+    }
+    return skipped;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    file.close();
+  }
+}
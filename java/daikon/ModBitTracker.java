@@ -12,29 +12,29 @@ import org.checkerframework.checker.nullness.qual.*;
 // "ModBitTracker" is a poor name for this class, since it tracks
 // whether a value is missing, not whether it is modified.
 /**
- * ModBitTracker maintains a BitSet for each variable at a program point.
- * The BitSet indicates, for each sample seen in order, whether that
- * variable was present or not.
+ * ModBitTracker maintains a sequence of bits for each variable at a
+ * program point.  The bits indicate, for each sample seen in order,
+ * whether that variable was present or not.  The bits are stored as runs
+ * (see {@link RunLengthBitSet}), since variables are usually present or
+ * absent for long stretches of samples.
  */
 public class ModBitTracker implements Serializable, Cloneable {
   // We are Serializable, so we specify a version to allow changes to
   // method signatures without breaking serialization.  If you add or
   // remove fields, you should change this number to the current date.
-  static final long serialVersionUID = 20031014L;
+  static final long serialVersionUID = 20261018L;
 
   // Should make this a configuration option.
   private static boolean debug = false;
 
-  /** The maximum number of BitSets; the size of modbits_arrays. */
+  /** The maximum number of bit sequences; the size of modbits_arrays. */
   private int num_vars;
-  /** The size of each BitSet in modbits_arrays. */
+  /** The size of each bit sequence in modbits_arrays. */
   private int num_samples;
 
-  /** The BitSets themselves. */
-  // In the future, I could imagine trying to optimize this with (say)
-  // run-length encoding; but it's probably not worth it.
+  /** The bit sequences themselves. */
   // All elements of modbits_arrays at or past num_sets are null.
-  private /*@Nullable*/ BitSet[] modbits_arrays;
+  private /*@Nullable*/ RunLengthBitSet[] modbits_arrays;
 
   /**
    * Conceptually, there is a BitSet per variable.  In actuality, when two
@@ -63,12 +63,18 @@ public class ModBitTracker implements Serializable, Cloneable {
    */
   private int[] this_bits_exception_index;
 
+  /**
+   * The BitSets returned by get, indexed by equivalence set, or null if
+   * not yet computed.  Cleared by add.
+   */
+  private transient /*@Nullable*/ BitSet /*@Nullable*/ [] views = null;
+
   public ModBitTracker(int num_vars) {
     assert num_vars >= 0;
     this.num_vars = num_vars;
-    modbits_arrays = new /*@Nullable*/ BitSet[num_vars];
+    modbits_arrays = new /*@Nullable*/ RunLengthBitSet[num_vars];
     if (num_vars > 0) {
-      modbits_arrays[0] = new BitSet();
+      modbits_arrays[0] = new RunLengthBitSet();
     }
     num_samples = 0;
     index = new int[num_vars];
@@ -105,35 +111,85 @@ public class ModBitTracker implements Serializable, Cloneable {
     }
     for (int i = 0; i < num_vars; i++) {
       if (i < num_sets) {
-        assert modbits_arrays[i] != null;
-        // Can't make this assertion, as there is no method that tells
-        // the highest index that has been used in the BitSet.  (size()
-        // gives physical size.)
-        // assert modbits_arrays[i].size() == num_samples
-        //                   : "modbits_arrays.[" + i + "].size() == "
-        //                   + modbits_arrays[i].size()
-        //                   + ", num_samples == " + num_samples;
+        RunLengthBitSet bs = modbits_arrays[i];
+        assert bs != null;
+        assert bs.size() == num_samples
+            : "modbits_arrays[" + i + "].size() == " + bs.size() + ", num_samples == " + num_samples;
       } else {
         assert modbits_arrays[i] == null;
       }
     }
   }
 
+  /** Returns the bits for the given variable; the caller must not modify them. */
+  @SuppressWarnings(
+      "nullness") // application invariant: index[varindex] is an index for a non-null element of modbits_arrays
+  private RunLengthBitSet bits(int varindex) {
+    return modbits_arrays[index[varindex]];
+  }
+
   /**
-   * Returns a BitSet of modbit values for the given variable.
-   * The caller must not modify the returned value!
+   * Returns a BitSet of modbit values for the given variable.  The
+   * result is shared by all of the variables in the equivalence set and
+   * is reused until the next call to add, so the caller must not modify
+   * it.
    */
-  @SuppressWarnings(
-      "nullness") // application invariant: index[varindex] is an index for a non-null BitSet in modbits_arrays
   public BitSet get(int varindex) {
-    return modbits_arrays[index[varindex]];
+    int set = index[varindex];
+    BitSet[] v = views;
+    if (v == null) {
+      v = new BitSet[num_vars];
+      views = v;
+    }
+    BitSet result = v[set];
+    if (result == null) {
+      result = bits(varindex).toBitSet();
+      v[set] = result;
+    }
+    return result;
   }
 
   /**
    * Returns the modbit for the given variable and sample number.
+   * To read every sample of a variable in order, use {@link #cursor}
+   * instead.
    */
   public boolean get(int varindex, int sampleno) {
-    return get(varindex).get(sampleno);
+    return bits(varindex).get(sampleno);
+  }
+
+  /**
+   * Returns a cursor that reads the modbits of the given variable in
+   * increasing order of sample number.  The cursor is only valid until
+   * the next call to add.
+   */
+  public RunLengthBitSet.Cursor cursor(int varindex) {
+    return bits(varindex).cursor();
+  }
+
+  /** Returns the number of samples in which the given variable is present. */
+  public int cardinality(int varindex) {
+    return bits(varindex).cardinality();
+  }
+
+  /** Returns the number of samples in which both variables are present. */
+  public int intersection_cardinality(int varindex1, int varindex2) {
+    if (index[varindex1] == index[varindex2]) {
+      return cardinality(varindex1);
+    }
+    return bits(varindex1).intersectionCardinality(bits(varindex2));
+  }
+
+  /** Returns the number of samples in which all three variables are present. */
+  public int intersection_cardinality(int varindex1, int varindex2, int varindex3) {
+    if (index[varindex1] == index[varindex2]) {
+      return intersection_cardinality(varindex1, varindex3);
+    }
+    if ((index[varindex1] == index[varindex3]) || (index[varindex2] == index[varindex3])) {
+      return intersection_cardinality(varindex1, varindex2);
+    }
+    return RunLengthBitSet.intersectionCardinality(
+        bits(varindex1), bits(varindex2), bits(varindex3));
   }
 
   /**
@@ -142,7 +198,7 @@ public class ModBitTracker implements Serializable, Cloneable {
    */
   private int split(int split_index) {
     @SuppressWarnings("nullness") // application invariant: split_index is in range
-    /*@NonNull*/ BitSet bs = (BitSet) modbits_arrays[split_index].clone();
+    /*@NonNull*/ RunLengthBitSet bs = modbits_arrays[split_index].clone();
     modbits_arrays[num_sets] = bs;
     num_sets++;
     return num_sets - 1;
@@ -189,10 +245,13 @@ public class ModBitTracker implements Serializable, Cloneable {
     }
     for (int i = 0; i < num_sets; i++) {
       @SuppressWarnings("nullness") // application invariant: non-null up to index=num_sets
-      /*@NonNull*/ BitSet bs = modbits_arrays[i];
-      bs.set(num_samples, num_samples + count, this_bits[i]);
+      /*@NonNull*/ RunLengthBitSet bs = modbits_arrays[i];
+      bs.append(this_bits[i], count);
     }
     num_samples += count;
+    if (views != null) {
+      Arrays.fill(views, null);
+    }
 
     if (debug) checkRep();
   }
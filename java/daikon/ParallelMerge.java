@@ -0,0 +1,243 @@
+package daikon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Merges the invariants of the program point hierarchy (see
+ * {@link Daikon#createUpperPpts}) on a pool of threads.  Each program
+ * point is merged once all of its children have been merged, so siblings
+ * and independent subtrees are merged concurrently.
+ * <p>
+ *
+ * The hierarchy is first walked as {@link PptTopLevel#mergeInvs()} would
+ * walk it, to find which children each program point waits for.  Where
+ * the hierarchy has a cycle, mergeInvs merges the program point at which
+ * it entered the cycle last, without waiting for the child that leads
+ * back to it; the same is done here, so the result is the same as
+ * merging on a single thread.
+ * <p>
+ *
+ * Merging a program point with several children temporarily adds
+ * suppressed invariants to the children (see
+ * {@link PptTopLevel#merge_invs_multiple_children()}), so a child is
+ * locked while it is being merged into any of its parents.  Locks are
+ * taken in a fixed order, so program points that share several children
+ * cannot deadlock.  Interning the values of cloned invariants, such as
+ * OneOf's, goes through {@link SyncIntern}.  Merged invariants are
+ * removed from the children (see {@link
+ * PptTopLevel#dkconfig_remove_merged_invs}) only after the merge, by
+ * {@link PptTopLevel#remove_merged_invs}, so no parent sees a child from
+ * which another parent has already removed invariants.
+ */
+public final class ParallelMerge {
+
+  /** The merge of one program point. */
+  private final class Task extends RecursiveAction {
+    static final long serialVersionUID = 20261018L;
+
+    final PptTopLevel ppt;
+    /** Position of ppt in the walk; locks are taken in increasing order. */
+    final int order;
+    /** Children that must be merged before ppt, in the walk. */
+    final List<Task> deps = new ArrayList<Task>();
+    /** Tasks that wait for this one. */
+    final List<Task> dependents = new ArrayList<Task>();
+    /** Number of deps that have not finished. */
+    final AtomicInteger pending = new AtomicInteger();
+
+    Task(PptTopLevel ppt, int order) {
+      this.ppt = ppt;
+      this.order = order;
+    }
+
+    @Override
+    protected void compute() {
+      if (failure == null) {
+        try {
+          merge();
+        } catch (Throwable t) {
+          fail(t);
+          return;
+        }
+      }
+      for (Task dependent : dependents) {
+        if (dependent.pending.decrementAndGet() == 0) {
+          dependent.fork();
+        }
+      }
+      done.countDown();
+    }
+
+    /** Merges ppt while holding the locks of all of its children. */
+    private void merge() {
+      ReentrantLock[] child_locks = locks_of_children(ppt);
+      for (ReentrantLock lock : child_locks) {
+        lock.lock();
+      }
+      try {
+        ppt.merge_children_invs();
+      } finally {
+        for (int i = child_locks.length - 1; i >= 0; i--) {
+          child_locks[i].unlock();
+        }
+      }
+    }
+  }
+
+  /** The task of each program point that has children, in the order of the walk. */
+  private final List<Task> tasks = new ArrayList<Task>();
+
+  /** Maps each program point that has children to its task. */
+  private final Map<PptTopLevel, Task> task_of = new HashMap<PptTopLevel, Task>();
+
+  /** Lock of each program point that is a child of some other program point. */
+  private final Map<PptTopLevel, ReentrantLock> locks = new HashMap<PptTopLevel, ReentrantLock>();
+
+  /** Position in the walk of each program point in locks. */
+  private final Map<PptTopLevel, Integer> lock_order = new HashMap<PptTopLevel, Integer>();
+
+  /** Program points on the stack of the walk. */
+  private final Set<PptTopLevel> on_stack = new HashSet<PptTopLevel>();
+
+  /** Counted down as each task finishes. */
+  private /*@MonotonicNonNull*/ CountDownLatch done;
+
+  /** The first exception thrown by any task, or null. */
+  private volatile /*@Nullable*/ Throwable failure = null;
+
+  private ParallelMerge() {}
+
+  /**
+   * Merges the invariants of every program point in the hierarchy whose
+   * root has no parents, using num_threads threads.  The result is the
+   * same as calling {@link PptTopLevel#mergeInvs()} on each root.
+   */
+  public static void merge_all(PptMap all_ppts, int num_threads) {
+    assert num_threads > 0 : num_threads;
+    ParallelMerge merge = new ParallelMerge();
+    for (PptTopLevel ppt : all_ppts.pptIterable()) {
+      if (ppt.parents.size() == 0) {
+        merge.walk(ppt);
+      }
+    }
+    merge.run(num_threads);
+  }
+
+  /**
+   * Creates the tasks for ppt and its descendants, visiting children in
+   * the same order as PptTopLevel.mergeInvs.  Returns the task of ppt,
+   * or null if ppt has no children (and so is not merged).
+   */
+  private /*@Nullable*/ Task walk(PptTopLevel ppt) {
+    for (PptRelation rel : ppt.children) {
+      if (!lock_order.containsKey(rel.child)) {
+        lock_order.put(rel.child, lock_order.size());
+        locks.put(rel.child, new ReentrantLock());
+      }
+    }
+    if (ppt.children.size() == 0 || ppt.invariants_merged) {
+      return null;
+    }
+    Task task = task_of.get(ppt);
+    if (task != null) {
+      return task;
+    }
+    task = new Task(ppt, tasks.size());
+    task_of.put(ppt, task);
+    tasks.add(task);
+    on_stack.add(ppt);
+    for (PptRelation rel : ppt.children) {
+      // A child on the stack is an ancestor, which mergeInvs merges
+      // after this program point.
+      if (on_stack.contains(rel.child)) {
+        continue;
+      }
+      Task dep = walk(rel.child);
+      if ((dep != null) && !task.deps.contains(dep)) {
+        task.deps.add(dep);
+        dep.dependents.add(task);
+      }
+    }
+    on_stack.remove(ppt);
+    task.pending.set(task.deps.size());
+    return task;
+  }
+
+  /** Returns the locks of the children of ppt, in lock order. */
+  private ReentrantLock[] locks_of_children(PptTopLevel ppt) {
+    List<PptTopLevel> children = new ArrayList<PptTopLevel>(ppt.children.size());
+    for (PptRelation rel : ppt.children) {
+      if (!children.contains(rel.child)) {
+        children.add(rel.child);
+      }
+    }
+    PptTopLevel[] sorted = children.toArray(new PptTopLevel[children.size()]);
+    Arrays.sort(
+        sorted,
+        new Comparator<PptTopLevel>() {
+          public int compare(PptTopLevel p1, PptTopLevel p2) {
+            return lock_order.get(p1).compareTo(lock_order.get(p2));
+          }
+        });
+    ReentrantLock[] result = new ReentrantLock[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      result[i] = locks.get(sorted[i]);
+    }
+    return result;
+  }
+
+  /** Records the first failure and releases the thread waiting in run(). */
+  private void fail(Throwable t) {
+    if (failure == null) {
+      failure = t;
+    }
+    assert done != null;
+    while (done.getCount() > 0) {
+      done.countDown();
+    }
+  }
+
+  /** Runs the tasks and waits for them to finish. */
+  private void run(int num_threads) {
+    CountDownLatch latch = new CountDownLatch(tasks.size());
+    done = latch;
+    ForkJoinPool pool = new ForkJoinPool(num_threads);
+    try {
+      for (Task task : tasks) {
+        if (task.deps.isEmpty()) {
+          pool.execute(task);
+        }
+      }
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        throw new Error("Interrupted while merging invariants", e);
+      }
+    } finally {
+      pool.shutdown();
+    }
+    Throwable t = failure;
+    if (t != null) {
+      if (t instanceof Daikon.TerminationMessage) {
+        throw (Daikon.TerminationMessage) t;
+      }
+      throw new Error("Error while merging invariants", t);
+    }
+  }
+}
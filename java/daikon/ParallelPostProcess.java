@@ -0,0 +1,159 @@
+package daikon;
+
+import static daikon.PptRelation.PptRelationType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the post-processing phases of {@link Daikon#process_data} that
+ * work on one program point at a time (dynamic constants, equality, and
+ * implications) on a pool of threads.  Each phase finishes before the
+ * next one starts.
+ * <p>
+ *
+ * The phases store their results only in the program point being
+ * processed, so the results do not depend on the order in which program
+ * points are processed.  The exception is adding implications at a
+ * combined exit point, which temporarily adds suppressed invariants to
+ * its two numbered exit points; see {@link #add_implications}.  Phases
+ * that relate program points to one another (creating combined exits and
+ * the hierarchy) remain on the calling thread.
+ * <p>
+ *
+ * The static state that the phases reach is either only read once
+ * inference starts (configuration options, the NIS suppression tables,
+ * and invariant prototypes) or is safe to update from several threads:
+ * values are interned through {@link SyncIntern}, {@link
+ * Global#falsified_invariants} and the NIS statistics are atomic, and
+ * the scratch state of {@link Debug} tracking is per thread.  Like {@link ParallelProcessor}, this is used only with the
+ * dataflow hierarchy and the antecedent method of processing suppressions
+ * (see {@link Daikon#use_parallel_inference}), since the falsified and
+ * hybrid methods record their progress in suppressors that all program
+ * points share.
+ */
+public final class ParallelPostProcess {
+
+  private ParallelPostProcess() {
+    throw new Error("do not instantiate");
+  }
+
+  /** An operation on a single program point. */
+  public interface PptAction {
+    void apply(PptTopLevel ppt);
+  }
+
+  /**
+   * Applies action to each of ppts, using num_threads threads, and
+   * waits for all of them to finish.  Throws an Error if action threw an
+   * exception for any program point.
+   */
+  public static void for_each(Iterable<PptTopLevel> ppts, int num_threads, final PptAction action) {
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (final PptTopLevel ppt : ppts) {
+      tasks.add(
+          new Callable<Void>() {
+            public Void call() {
+              action.apply(ppt);
+              return null;
+            }
+          });
+    }
+    run(tasks, num_threads);
+  }
+
+  /**
+   * Calls {@link PptTopLevel#addImplications} on each top-level program
+   * point, using num_threads threads.  A combined exit point also reads
+   * and temporarily changes its two numbered exit points, which are
+   * processed on their own at the same time, so each program point holds
+   * the locks of all the program points it changes.
+   */
+  public static void add_implications(PptMap all_ppts, int num_threads) {
+    final Map<PptTopLevel, ReentrantLock> locks = new HashMap<PptTopLevel, ReentrantLock>();
+    List<PptTopLevel> ppts = new ArrayList<PptTopLevel>();
+    for (PptTopLevel ppt : all_ppts.pptIterable()) {
+      locks.put(ppt, new ReentrantLock());
+      ppts.add(ppt);
+    }
+    for_each(
+        ppts,
+        num_threads,
+        new PptAction() {
+          public void apply(PptTopLevel ppt) {
+            // A numbered exit point takes only its own lock, so a
+            // combined exit point cannot deadlock with its children.
+            List<ReentrantLock> held = new ArrayList<ReentrantLock>();
+            held.add(locks.get(ppt));
+            if (ppt.ppt_name.isCombinedExitPoint()) {
+              for (PptRelation rel : ppt.children) {
+                if (rel.getRelationType() == PptRelationType.EXIT_EXITNN) {
+                  ReentrantLock lock = locks.get(rel.child);
+                  if ((lock != null) && !held.contains(lock)) {
+                    held.add(lock);
+                  }
+                }
+              }
+            }
+            for (ReentrantLock lock : held) {
+              lock.lock();
+            }
+            try {
+              ppt.addImplications();
+            } finally {
+              for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+              }
+            }
+          }
+        });
+  }
+
+  /** Runs tasks on a new pool of num_threads threads and waits for them. */
+  private static void run(List<Callable<Void>> tasks, int num_threads) {
+    final AtomicInteger thread_count = new AtomicInteger();
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            num_threads,
+            new ThreadFactory() {
+              public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "daikon-postprocess-" + thread_count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+              }
+            });
+    try {
+      List<Future<Void>> results;
+      try {
+        results = pool.invokeAll(tasks);
+      } catch (InterruptedException e) {
+        throw new Error("Interrupted while post-processing program points", e);
+      }
+      for (Future<Void> result : results) {
+        try {
+          result.get();
+        } catch (InterruptedException e) {
+          throw new Error("Interrupted while post-processing program points", e);
+        } catch (ExecutionException e) {
+          Throwable t = e.getCause();
+          if (t instanceof Daikon.TerminationMessage) {
+            throw (Daikon.TerminationMessage) t;
+          }
+          throw new Error("Error while post-processing program points", t);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
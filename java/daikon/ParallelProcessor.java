@@ -0,0 +1,263 @@
+package daikon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * A FileIO.Processor that applies samples to program points on a pool of
+ * worker threads.  Each program point is owned by exactly one worker,
+ * which applies that program point's samples in the order they appear in
+ * the trace.  Leaf program points share no invariant state, so different
+ * program points are processed concurrently.
+ * <p>
+ *
+ * Parsing, matching of exits to enters, computation of derived variables,
+ * interning, and merging of identical samples (see {@link SampleCoalescer})
+ * all remain on the thread that reads the trace; see
+ * {@link FileIO#prepare_sample(PptTopLevel, ValueTuple, Integer)}.
+ * Only {@link PptTopLevel#add_bottom_up(ValueTuple, int)} runs on the
+ * workers.  It too interns values, such as the elements of {@link
+ * daikon.inv.unary.OneOf} invariants, so all interning in Daikon goes
+ * through {@link SyncIntern}; statistics that it keeps in static fields,
+ * such as those of {@link daikon.suppress.NIS}, are atomic or kept per
+ * thread.  This requires the dataflow hierarchy, since otherwise samples
+ * at numbered exits also flow to the combined exit, which is a different
+ * program point.  It also requires the antecedent method of processing
+ * suppressions (see {@link daikon.suppress.NIS#dkconfig_suppression_processor}),
+ * since the falsified method records its progress in the suppressors,
+ * which all program points share; Daikon rejects other settings.
+ * <p>
+ *
+ * After all trace files have been read, call {@link #finish()} to wait
+ * for the workers to apply the remaining samples.  Each worker then also
+ * finishes the samples that its program points have batched for their
+ * splitters (see {@link PptTopLevel#finish_splitters()}).
+ */
+public class ParallelProcessor extends FileIO.Processor {
+
+  /**
+   * Integer.  Number of samples that may be queued for a single worker
+   * before the thread reading the trace waits for it to catch up.
+   */
+  public static int dkconfig_queue_size = 1024;
+
+  /** A sample that has been read but not yet applied to its program point. */
+  private static final class Sample {
+    final PptTopLevel ppt;
+    final ValueTuple vt;
+    /** Number of identical samples that vt represents. */
+    final int count;
+
+    Sample(PptTopLevel ppt, ValueTuple vt, int count) {
+      this.ppt = ppt;
+      this.vt = vt;
+      this.count = count;
+    }
+  }
+
+  /** Placed on a worker's queue to tell it that no more samples will arrive. */
+  @SuppressWarnings("nullness") // sentinel is never applied to a ppt
+  private static final Sample END = new Sample(null, null, 0);
+
+  /** The worker threads. */
+  private final Worker[] workers;
+
+  /** Maps each program point to the worker that owns it. */
+  private final Map<PptTopLevel, Worker> owners = new HashMap<PptTopLevel, Worker>();
+
+  /** The worker to which the next new program point is assigned. */
+  private int next_worker = 0;
+
+  /** The first exception thrown by any worker, or null. */
+  private volatile /*@Nullable*/ Throwable failure = null;
+
+  /** True once finish() has been called. */
+  private boolean finished = false;
+
+  /** Merges runs of identical samples before they are queued. */
+  private final SampleCoalescer coalescer =
+      new SampleCoalescer(
+          new SampleCoalescer.Sink() {
+            public void apply(PptTopLevel ppt, ValueTuple vt, int count) {
+              queue_sample(ppt, vt, count);
+            }
+          });
+
+  /** Creates a processor that applies samples using num_threads workers. */
+  public ParallelProcessor(int num_threads) {
+    assert num_threads > 0 : num_threads;
+    workers = new Worker[num_threads];
+    for (int i = 0; i < num_threads; i++) {
+      workers[i] = new Worker(i);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * Adds orig and derived variables to the sample on the calling thread,
+   * then queues it for the worker that owns ppt.
+   */
+  /*@RequiresNonNull("FileIO.data_trace_state")*/
+  @Override
+  public void process_sample(
+      PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, /*@Nullable*/ Integer nonce) {
+
+    check_failure();
+
+    ValueTuple full_vt = FileIO.prepare_sample(ppt, vt, nonce);
+    if ((full_vt == null) || FileIO.dkconfig_read_samples_only) {
+      return;
+    }
+
+    if (SampleCoalescer.enabled()) {
+      coalescer.add(ppt, full_vt);
+    } else {
+      queue_sample(ppt, full_vt, 1);
+    }
+  }
+
+  /** Queues vt, which represents count identical samples, for the worker that owns ppt. */
+  private void queue_sample(PptTopLevel ppt, ValueTuple vt, int count) {
+    Worker owner = owners.get(ppt);
+    if (owner == null) {
+      owner = workers[next_worker];
+      next_worker = (next_worker + 1) % workers.length;
+      owners.put(ppt, owner);
+      owner.ppts.add(ppt);
+    }
+    owner.put(new Sample(ppt, vt, count));
+  }
+
+  /**
+   * Does nothing:  the workers apply the samples batched for splitters
+   * when {@link #finish()} is called, since each program point must be
+   * finished by its own worker.
+   */
+  @Override
+  public void process_end(PptMap all_ppts) {}
+
+  /**
+   * Waits for every worker to apply all of its queued samples, then stops
+   * the workers.  Throws an Error if any worker failed.  Calling this more
+   * than once has no further effect.
+   */
+  public void finish() {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    try {
+      coalescer.flush();
+    } finally {
+      for (Worker worker : workers) {
+        worker.put(END);
+      }
+    }
+    for (Worker worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        throw new Error("Interrupted while waiting for " + worker.getName(), e);
+      }
+    }
+    check_failure();
+  }
+
+  /** Throws an Error if any worker has failed. */
+  private void check_failure() {
+    Throwable t = failure;
+    if (t != null) {
+      if (t instanceof Daikon.TerminationMessage) {
+        throw (Daikon.TerminationMessage) t;
+      }
+      throw new Error("Error while applying samples to program points", t);
+    }
+  }
+
+  /** A thread that applies the samples for the program points it owns. */
+  private final class Worker extends Thread {
+
+    /** Samples waiting to be applied, in trace order. */
+    private final BlockingQueue<Sample> queue;
+
+    /**
+     * The program points that this worker owns.  Added to by the thread
+     * that reads the trace, before it queues their first sample.
+     */
+    final List<PptTopLevel> ppts = new ArrayList<PptTopLevel>();
+
+    Worker(int index) {
+      super("daikon-inference-" + index);
+      setDaemon(true);
+      queue = new ArrayBlockingQueue<Sample>(Math.max(1, dkconfig_queue_size));
+    }
+
+    /** Queues a sample, waiting if the queue is full. */
+    void put(Sample sample) {
+      try {
+        queue.put(sample);
+      } catch (InterruptedException e) {
+        throw new Error("Interrupted while queueing sample for " + getName(), e);
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Sample sample;
+        try {
+          sample = queue.take();
+        } catch (InterruptedException e) {
+          failure = e;
+          return;
+        }
+        if (sample == END) {
+          finish_splitters();
+          return;
+        }
+        // After a failure, keep draining so that the reading thread does
+        // not block; it reports the failure on its next sample.
+        if (failure != null) {
+          continue;
+        }
+        try {
+          long start = InferenceMetrics.enabled ? System.nanoTime() : 0;
+          @SuppressWarnings("flowexpr.parse.error")
+          Object dummy = sample.ppt.add_bottom_up(sample.vt, sample.count);
+          if (InferenceMetrics.enabled) {
+            sample.ppt.inference_nanos += System.nanoTime() - start;
+          }
+        } catch (Throwable e) {
+          failure = e;
+        }
+      }
+    }
+
+    /** Finishes the samples that the program points of this worker have batched for splitters. */
+    @SuppressWarnings({"flowexpr.parse.error", "contracts.precondition.not.satisfied"})
+    private void finish_splitters() {
+      if (failure != null) {
+        return;
+      }
+      try {
+        for (PptTopLevel ppt : ppts) {
+          long start = InferenceMetrics.enabled ? System.nanoTime() : 0;
+          ppt.finish_splitters();
+          if (InferenceMetrics.enabled) {
+            ppt.inference_nanos += System.nanoTime() - start;
+          }
+        }
+      } catch (Throwable e) {
+        failure = e;
+      }
+    }
+  }
+}
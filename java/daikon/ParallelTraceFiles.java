@@ -0,0 +1,237 @@
+package daikon;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.logging.Logger;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Speeds up reading many textual dtrace files by dividing the parsing of
+ * the files among several processes.
+ * <p>
+ *
+ * Each process runs {@link daikon.tools.DtraceToBinary} on a contiguous
+ * partition of the files, converting them to the binary format (see
+ * {@link BinaryDtrace}) in a temporary directory.  This process then
+ * reads the converted files, in the original order, through the usual
+ * path of {@link FileIO#read_data_trace_files}, starting on the files of
+ * the first partition while the other processes are still converting
+ * theirs.  Since every sample is still applied by this process, in the
+ * same order, call matching, derived variables, and the program point
+ * hierarchy behave exactly as if the textual files had been read, and the
+ * invariants are the same.  Parsing text is the expensive part of reading
+ * a trace, so this helps when there are many large files.
+ * <p>
+ *
+ * Files that are already binary, and names that are not regular files,
+ * are read as they are.  Messages about errors in a converted file name
+ * the temporary file rather than the original one.
+ *
+ * @see Daikon#dkconfig_trace_processes
+ */
+public final class ParallelTraceFiles {
+
+  public static final Logger debug = Logger.getLogger("daikon.ParallelTraceFiles");
+
+  /** The files to read, with each converted file replaced by its conversion. */
+  private final List<String> files = new ArrayList<String>();
+
+  /**
+   * The process converting each partition, or null if it has finished.
+   * The converted files of partition i are the elements of files from
+   * partition_start[i] to partition_start[i+1].
+   */
+  private final List</*@Nullable*/ Process> processes = new ArrayList</*@Nullable*/ Process>();
+
+  /** The index in files of the first file of each partition, and the size of files. */
+  private final int[] partition_start;
+
+  /** The textual files that each partition converts, for error messages. */
+  private final List<List<String>> partition_sources = new ArrayList<List<String>>();
+
+  /** Temporary directory holding the converted files. */
+  private final File dir;
+
+  /**
+   * Starts converting dtrace_files in the given number of processes.
+   * Call {@link #files()} to obtain the files to read in their place,
+   * and {@link #close()} when done reading them.
+   */
+  public ParallelTraceFiles(Collection<String> dtrace_files, int count) {
+    count = Math.max(1, Math.min(count, dtrace_files.size()));
+    if (!Daikon.dkconfig_quiet) {
+      System.out.println(
+          "Processing trace data; dividing "
+              + dtrace_files.size()
+              + " dtrace files among "
+              + count
+              + " processes");
+    }
+
+    try {
+      dir = File.createTempFile("daikon-binary", "");
+      if (!dir.delete() || !dir.mkdir()) {
+        throw new IOException("Cannot create directory " + dir);
+      }
+    } catch (IOException e) {
+      throw new Error("Cannot create directory for converted dtrace files", e);
+    }
+
+    partition_start = new int[count + 1];
+    try {
+      for (int i = 0; i < count; i++) {
+        partition_start[i] = files.size();
+        List<String> command = java_command();
+        List<String> sources = new ArrayList<String>();
+        for (String filename : partition(dtrace_files, i, count)) {
+          if (BinaryDtrace.is_binary_filename(filename) || !new File(filename).isFile()) {
+            files.add(filename);
+          } else {
+            String converted =
+                new File(dir, files.size() + "-" + new File(filename).getName() + ".bin")
+                    .getPath();
+            files.add(converted);
+            sources.add(filename);
+            command.add(filename);
+            command.add(converted);
+          }
+        }
+        partition_sources.add(sources);
+        if (sources.isEmpty()) {
+          processes.add(null);
+          continue;
+        }
+        debug.fine("Starting " + command);
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        processes.add(pb.start());
+      }
+      partition_start[count] = files.size();
+    } catch (IOException e) {
+      close();
+      throw new Error("Cannot start process to convert dtrace files", e);
+    }
+  }
+
+  /**
+   * Returns the files to read in place of the dtrace files, in the same
+   * order.  Iterating over the result waits for each partition's files
+   * to be converted before returning the first of them.
+   */
+  public Collection<String> files() {
+    return new AbstractCollection<String>() {
+      @Override
+      public int size() {
+        return files.size();
+      }
+
+      @Override
+      public Iterator<String> iterator() {
+        return new Iterator<String>() {
+          int index = 0;
+          int partition = 0;
+
+          @Override
+          public boolean hasNext() {
+            return index < files.size();
+          }
+
+          @Override
+          public String next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            while (index >= partition_start[partition + 1]) {
+              partition++;
+            }
+            if (index == partition_start[partition]) {
+              await(partition);
+            }
+            return files.get(index++);
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  /** Waits for the process converting the given partition to finish. */
+  private void await(int partition) {
+    Process p = processes.get(partition);
+    if (p == null) {
+      return;
+    }
+    int status;
+    try {
+      status = p.waitFor();
+    } catch (InterruptedException e) {
+      throw new Error("Interrupted while waiting for dtrace conversion", e);
+    }
+    processes.set(partition, null);
+    if (status != 0) {
+      throw new Daikon.TerminationMessage(
+          String.format(
+              "Converting dtrace files %s failed with status %d",
+              partition_sources.get(partition),
+              status));
+    }
+  }
+
+  /** Stops any processes that are still running, and deletes the converted files. */
+  public void close() {
+    for (Process p : processes) {
+      if (p != null) {
+        p.destroy();
+      }
+    }
+    File[] converted = dir.listFiles();
+    if (converted != null) {
+      for (File f : converted) {
+        f.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  /**
+   * Returns partition index of count of the files.  The partitions are
+   * contiguous and their sizes differ by at most one.
+   */
+  public static List<String> partition(Collection<String> files, int index, int count) {
+    assert (index >= 0) && (index < count) : index + "/" + count;
+    List<String> all = new ArrayList<String>(files);
+    int start = (int) ((long) all.size() * index / count);
+    int end = (int) ((long) all.size() * (index + 1) / count);
+    return all.subList(start, end);
+  }
+
+  /**
+   * Returns the command that runs DtraceToBinary in a new JVM with the
+   * same class path and JVM options as this one.  The caller adds pairs
+   * of input and output files.
+   */
+  private static List<String> java_command() {
+    List<String> command = new ArrayList<String>();
+    command.add(
+        System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      // Options such as -agentlib apply to this JVM only
+      if (arg.startsWith("-X") || arg.startsWith("-D") || arg.startsWith("-ea")) {
+        command.add(arg);
+      }
+    }
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("daikon.tools.DtraceToBinary");
+    return command;
+  }
+}
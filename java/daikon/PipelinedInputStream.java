@@ -0,0 +1,196 @@
+package daikon;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * An InputStream that reads its underlying stream on a separate thread.
+ * The thread reads blocks into a bounded queue, from which this stream's
+ * read methods take them.  Wrapping a GZIPInputStream this way lets
+ * inflation of a compressed dtrace file overlap with parsing it.
+ * <p>
+ *
+ * A block is handed off as soon as the underlying stream has no more
+ * bytes available without blocking, so a stream that delivers data as
+ * it is produced, such as a socket, is not held back until a whole
+ * block arrives.  Exceptions thrown by the underlying stream are
+ * rethrown by the next read once the blocks before them have been
+ * consumed.  Closing this stream closes the underlying stream, which
+ * unblocks the thread if it is waiting for data, and then stops the
+ * thread.
+ *
+ * @see FileIO#dkconfig_pipelined_gzip
+ */
+public final class PipelinedInputStream extends InputStream {
+
+  /** Size of each block read from the underlying stream. */
+  private static final int BLOCK_SIZE = 1 << 16;
+
+  /** Number of blocks that may be read ahead of the consumer. */
+  private static final int QUEUE_BLOCKS = 16;
+
+  /** Placed on the queue after the last block. */
+  private static final byte[] END = new byte[0];
+
+  private final InputStream in;
+  private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_BLOCKS);
+  private final Thread reader;
+
+  /** Exception thrown by the underlying stream, or null. */
+  private volatile /*@Nullable*/ IOException failure = null;
+  private volatile boolean closed = false;
+
+  /** The block being consumed, and the position in it. */
+  private byte[] block = new byte[0];
+  private int pos = 0;
+  private boolean at_end = false;
+
+  /**
+   * Starts reading in on a new thread.
+   * @param name the name of the thread, for debugging
+   */
+  public PipelinedInputStream(InputStream in, String name) {
+    this.in = in;
+    reader =
+        new Thread(name) {
+          @Override
+          public void run() {
+            fill();
+          }
+        };
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * Body of the reading thread.  Each block holds the bytes that the
+   * underlying stream had available, up to BLOCK_SIZE; the thread waits
+   * for more bytes only once the previous ones have been handed off.
+   */
+  private void fill() {
+    try {
+      boolean eof = false;
+      while (!eof && !closed) {
+        byte[] buf = new byte[BLOCK_SIZE];
+        int len = 0;
+        do {
+          int n = in.read(buf, len, BLOCK_SIZE - len);
+          if (n == -1) {
+            eof = true;
+            break;
+          }
+          len += n;
+        } while ((len < BLOCK_SIZE) && (in.available() > 0));
+        if (len > 0) {
+          if (len < BLOCK_SIZE) {
+            byte[] shorter = new byte[len];
+            System.arraycopy(buf, 0, shorter, 0, len);
+            buf = shorter;
+          }
+          queue.put(buf);
+        }
+      }
+    } catch (IOException e) {
+      if (closed) {
+        // close() closed the underlying stream
+        return;
+      }
+      failure = e;
+    } catch (RuntimeException e) {
+      // Some streams, such as GZIPInputStream, throw an unchecked
+      // exception when they are closed during a read
+      if (closed) {
+        return;
+      }
+      failure = new IOException(e);
+    } catch (InterruptedException e) {
+      // close() was called
+      return;
+    }
+    try {
+      queue.put(END);
+    } catch (InterruptedException e) {
+      // close() was called
+    }
+  }
+
+  /** Makes the next block current.  Returns false at end of stream. */
+  private boolean next_block() throws IOException {
+    if (at_end) {
+      return false;
+    }
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    try {
+      block = queue.take();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+    pos = 0;
+    if (block == END) {
+      at_end = true;
+      IOException e = failure;
+      if (e != null) {
+        throw e;
+      }
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if ((pos == block.length) && !next_block()) {
+      return -1;
+    }
+    return block[pos++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if ((pos == block.length) && !next_block()) {
+      return -1;
+    }
+    int n = Math.min(len, block.length - pos);
+    System.arraycopy(block, pos, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return block.length - pos;
+  }
+
+  /**
+   * Closes the underlying stream, then stops the reading thread.  The
+   * underlying stream is closed first because the thread may be blocked
+   * reading it, which an interrupt does not end.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      in.close();
+    } finally {
+      reader.interrupt();
+      try {
+        reader.join();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+  }
+}
@@ -2,6 +2,7 @@ package daikon;
 
 import java.io.*;
 import java.util.*;
+import java.util.regex.Pattern;
 import plume.*;
 
 /*>>>
@@ -19,7 +20,7 @@ import org.checkerframework.dataflow.qual.*;
  */
 // Why doesn't this implement Map<String,PptTopLevel> or extend
 // LinkedHashMap<String,PptTopLevel>?
-public class PptMap implements Serializable {
+public class PptMap implements Serializable, Closeable {
   // We are Serializable, so we specify a version to allow changes to
   // method signatures without breaking serialization.  If you add or
   // remove fields, you should change this number to the current date.
@@ -27,6 +28,95 @@ public class PptMap implements Serializable {
 
   private final Map<String, PptTopLevel> nameToPpt = new LinkedHashMap<String, PptTopLevel>();
 
+  /**
+   * For a map that is read lazily, the .inv file from which ppts that are
+   * not yet in nameToPpt are read.  Null otherwise.
+   */
+  private transient /*@Nullable*/ InvFile.Reader source = null;
+
+  /**
+   * For a map that is read lazily, the names of the ppts in source that
+   * are part of the map even if they have not been requested by name:
+   * those that are iterated over and counted.  Null means all of them.
+   */
+  private transient /*@Nullable*/ Pattern source_select = null;
+
+  /** True once all the selected ppts in source have been read. */
+  private transient boolean source_selected_read = false;
+
+  /** The number of ppts that have been read from source. */
+  private transient int source_read_count = 0;
+
+  public PptMap() {}
+
+  /**
+   * Creates a map whose ppts are read from source when they are first
+   * needed.  {@link #get(String)} and {@link #containsName} read only the
+   * named ppt (and any ppts that it refers to).  Methods that examine
+   * every ppt, such as {@link #pptIterable()} and {@link #size()}, read
+   * every ppt whose name matches select, or every ppt if select is null;
+   * ppts that do not match select are part of the map only once they
+   * have been requested by name.
+   * <p>
+   *
+   * The map closes source once every ppt in it has been read.  Otherwise,
+   * source must remain open as long as the map is in use, and the map
+   * should be closed when it is no longer needed.
+   */
+  public PptMap(InvFile.Reader source, /*@Nullable*/ Pattern select) {
+    this.source = source;
+    this.source_select = select;
+  }
+
+  /** Reads the named ppt from source, if this map is lazy and it has not been read. */
+  private void read_from_source(String name) {
+    if ((source == null) || nameToPpt.containsKey(name) || !source.contains(name)) {
+      return;
+    }
+    try {
+      PptTopLevel ppt = source.get(name);
+      assert ppt != null;
+      nameToPpt.put(name, ppt);
+      source_read_count++;
+      if (source_read_count == source.names().size()) {
+        close();
+      }
+    } catch (IOException e) {
+      throw new Error("Error reading ppt " + name + " from .inv file", e);
+    }
+  }
+
+  /**
+   * For a map that is read lazily, closes the .inv file from which it is
+   * read.  Ppts that have not been read are no longer part of the map.
+   * Has no effect on other maps.
+   */
+  @Override
+  public void close() {
+    if (source == null) {
+      return;
+    }
+    try {
+      source.close();
+    } catch (IOException e) {
+      throw new Error("Error closing .inv file", e);
+    }
+    source = null;
+  }
+
+  /** Reads all the selected ppts from source, if this map is lazy. */
+  private void read_selected_from_source() {
+    if ((source == null) || source_selected_read) {
+      return;
+    }
+    for (String name : source.names()) {
+      if ((source_select == null) || source_select.matcher(name).find()) {
+        read_from_source(name);
+      }
+    }
+    source_selected_read = true;
+  }
+
   public void add(PptTopLevel ppt) {
     nameToPpt.put(ppt.name(), ppt);
   }
@@ -42,8 +132,9 @@ public class PptMap implements Serializable {
    * program points are not stored in the map by name.  They are only
    * available through their parent.
    */
-  /*@Pure*/
+  // Not @Pure:  a lazily read map reads the ppt from its .inv file.
   public /*@Nullable*/ PptTopLevel get(String name) {
+    read_from_source(name);
     return nameToPpt.get(name);
   }
 
@@ -52,7 +143,6 @@ public class PptMap implements Serializable {
    * program points are not stored in the map by name.  They are only
    * available through their parent.
    */
-  /*@Pure*/
   public /*@Nullable*/ PptTopLevel get(PptName name) {
     return get(name.toString());
   }
@@ -62,16 +152,17 @@ public class PptMap implements Serializable {
    * that conditional program points are not stored in the map by name.
    * They are only available through their parent.
    */
-  /*@Pure*/
   @SuppressWarnings("nullness") // postcondition: linked maps
   /*@EnsuresNonNullIf(result=true, expression="get(#1)")*/
   // get(#1) == nameToPpt.get(#1)
   public boolean containsName(String name) {
+    read_from_source(name);
     return nameToPpt.containsKey(name);
   }
 
   /** Returns all of the program points in the map */
   public Collection<PptTopLevel> all_ppts() {
+    read_selected_from_source();
     return (nameToPpt.values());
   }
 
@@ -80,6 +171,7 @@ public class PptMap implements Serializable {
    * @see #pptIterator()
    */
   public Collection<PptTopLevel> asCollection() {
+    read_selected_from_source();
     return Collections.unmodifiableCollection(nameToPpt.values());
   }
 
@@ -94,6 +186,7 @@ public class PptMap implements Serializable {
   // moment.)
   public Collection</*@KeyFor("nameToPpt")*/ String> nameStringSet() {
     // return Collections.unmodifiableSet(nameToPpt.keySet());
+    read_selected_from_source();
     Set</*@KeyFor("nameToPpt")*/ String> s = nameToPpt.keySet();
     return Collections.unmodifiableSet(s);
   }
@@ -107,6 +200,7 @@ public class PptMap implements Serializable {
    * @see #pptIterable()
    */
   public Iterator<PptTopLevel> pptIterator() {
+    read_selected_from_source();
     TreeSet<PptTopLevel> sorted = new TreeSet<PptTopLevel>(new Ppt.NameComparator());
     sorted.addAll(nameToPpt.values());
     // Use a (live) view iterator to get concurrent modification
@@ -153,6 +247,7 @@ public class PptMap implements Serializable {
    * @see #ppt_all_iterable()
    */
   public Iterator<PptTopLevel> ppt_all_iterator() {
+    read_selected_from_source();
     TreeSet<PptTopLevel> sorted = new TreeSet<PptTopLevel>(new Ppt.NameComparator());
     sorted.addAll(nameToPpt.values());
     // Use a (live) view iterator to get concurrent modification
@@ -202,6 +297,7 @@ public class PptMap implements Serializable {
 
   /** Iterate over the PptTopLevels and trim them. */
   public void trimToSize() {
+    read_selected_from_source();
     for (PptTopLevel ppt : nameToPpt.values()) {
       ppt.trimToSize();
     }
@@ -219,7 +315,6 @@ public class PptMap implements Serializable {
   /**
    * Return the number of active PptSlices.
    */
-  /*@Pure*/
   public int countSlices() {
     int result = 0;
     for (PptTopLevel ppt : this.pptIterable()) {
@@ -228,8 +323,8 @@ public class PptMap implements Serializable {
     return result;
   }
 
-  /*@Pure*/
   public int size() {
+    read_selected_from_source();
     return nameToPpt.size();
   }
 
@@ -242,6 +337,7 @@ public class PptMap implements Serializable {
    * Blow away any PptTopLevels that never saw any samples (to reclaim space).
    */
   public void removeUnsampled() {
+    read_selected_from_source();
     Iterator<PptTopLevel> iter = nameToPpt.values().iterator();
     while (iter.hasNext()) {
       PptTopLevel ppt = iter.next();
@@ -666,6 +666,16 @@ public class PptRelation implements Serializable {
     return rel;
   }
 
+  /**
+   * Returns a relation of the specified type between parent and child,
+   * with empty variable maps.  Used when reading an .inv file, which
+   * supplies the variable maps.
+   */
+  static PptRelation newRestoredRel(
+      PptTopLevel parent, PptTopLevel child, PptRelationType rel_type) {
+    return new PptRelation(parent, child, rel_type);
+  }
+
   // used by init_hierarchy below
   private static class SplitChild {
     public PptRelation rel;
@@ -136,7 +136,7 @@ public abstract class PptSlice extends Ppt {
     if (Debug.logOn()) inv.log("Removed from slice: %s", inv.format());
     boolean removed = invs.remove(inv);
     assert removed : "inv " + inv + " not in ppt " + name();
-    Global.falsified_invariants++;
+    Global.falsified_invariants.incrementAndGet();
     if (invs.size() == 0) {
       if (Debug.logDetail()) log("last invariant removed");
     }
@@ -154,7 +154,7 @@ public abstract class PptSlice extends Ppt {
       int old_invs_size = invs.size();
       invs.removeAll(to_remove);
       assert old_invs_size - invs.size() == to_remove.size();
-      Global.falsified_invariants += to_remove.size();
+      Global.falsified_invariants.addAndGet(to_remove.size());
       if (invs.size() == 0) {
         if (Debug.logDetail()) log("last invariant removed");
       }
@@ -172,18 +172,22 @@ public abstract class PptSlice extends Ppt {
 
   /**
    * Removes any falsified invariants from our list.
+   * @return the number of invariants removed
    */
   /*@RequiresNonNull("NIS.suppressor_map")*/
-  protected void remove_falsified() {
+  protected int remove_falsified() {
 
     // Remove the dead invariants
+    int removed = 0;
     for (Iterator<Invariant> iFalsified = invs.iterator(); iFalsified.hasNext(); ) {
       Invariant inv = iFalsified.next();
       if (inv.is_false()) {
         iFalsified.remove();
         NIS.falsified(inv);
+        removed++;
       }
     }
+    return removed;
   }
 
   /**
@@ -84,12 +84,23 @@ public class PptTopLevel extends Ppt {
   public static boolean dkconfig_remove_merged_invs = false;
 
   /**
-   * Boolean.  Needed by the NIS.falsified method when keeping stats
-   * to figure out how many falsified invariants are antecedents.  Only
-   * the first pass of processing with the sample is counted toward the
-   * stats.
+   * Needed by the NIS.falsified method when keeping stats to figure out
+   * how many falsified invariants are antecedents.  Only the first pass
+   * of processing with the sample is counted toward the stats.  Kept per
+   * thread, since several threads may apply samples at once.
    */
-  public static boolean first_pass_with_sample = true;
+  private static final ThreadLocal<Boolean> first_pass_with_sample =
+      new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+          return Boolean.TRUE;
+        }
+      };
+
+  /** Returns true if this thread is on its first pass of processing the current sample. */
+  public static boolean first_pass_with_sample() {
+    return first_pass_with_sample.get();
+  }
 
   /** Ppt attributes (specified in decl records) */
   public enum PptFlags {
@@ -200,6 +211,13 @@ public class PptTopLevel extends Ppt {
   // Not List because List doesn't support the trimToSize() method.
   public /*@MonotonicNonNull*/ ArrayList<PptSplitter> splitters = null;
 
+  /**
+   * Samples not yet applied to the splitters, or null if none have been
+   * batched.
+   * @see SplitterBatch
+   */
+  private transient /*@Nullable*/ SplitterBatch splitter_batch = null;
+
   /**
    * Iterator for all of the conditional ppts.  Returns each PptConditional
    * from each entry in splitters.
@@ -292,6 +310,15 @@ public class PptTopLevel extends Ppt {
   // PPT hierarchy.
   public boolean in_merge = false;
 
+  /**
+   * Time spent applying samples to this ppt, in nanoseconds.  Only
+   * measured while {@link InferenceMetrics#enabled} is true.
+   */
+  public transient long inference_nanos = 0;
+
+  /** Number of invariants falsified by samples applied to this ppt. */
+  public transient int falsified_inv_cnt = 0;
+
   /**
    * Flag that indicates whether or not invariants that are duplicated
    * at the parent have been removed..
@@ -469,9 +496,7 @@ public class PptTopLevel extends Ppt {
     if (vi1.is_static_constant) {
       return mbtracker.num_samples();
     }
-    BitSet b1 = mbtracker.get(vi1.value_index);
-    int num_slice_samples = b1.cardinality();
-    return num_slice_samples;
+    return mbtracker.cardinality(vi1.value_index);
   }
 
   /**
@@ -485,10 +510,7 @@ public class PptTopLevel extends Ppt {
     if (vi2.is_static_constant) {
       return num_samples(vi1);
     }
-    BitSet b1 = mbtracker.get(vi1.value_index);
-    BitSet b2 = mbtracker.get(vi2.value_index);
-    int num_slice_samples = UtilMDE.intersectionCardinality(b1, b2);
-    return num_slice_samples;
+    return mbtracker.intersection_cardinality(vi1.value_index, vi2.value_index);
   }
 
   /**
@@ -505,11 +527,8 @@ public class PptTopLevel extends Ppt {
     if (vi3.is_static_constant) {
       return num_samples(vi1, vi2);
     }
-    BitSet b1 = mbtracker.get(vi1.value_index);
-    BitSet b2 = mbtracker.get(vi2.value_index);
-    BitSet b3 = mbtracker.get(vi3.value_index);
-    int num_slice_samples = UtilMDE.intersectionCardinality(b1, b2, b3);
-    return num_slice_samples;
+    return mbtracker.intersection_cardinality(
+        vi1.value_index, vi2.value_index, vi3.value_index);
   }
 
   /** The number of distinct values that have been seen. */
@@ -914,6 +933,24 @@ public class PptTopLevel extends Ppt {
     return result_array;
   }
 
+  /**
+   * Applies the samples that add_bottom_up has batched for the splitters
+   * to the conditional ppts, and skips any split that is still trivial
+   * (see {@link SplitterBatch#finish()}).  Must be called once, after the
+   * last sample and before the conditional ppts are read, by the thread
+   * that supplied the samples.  {@link FileIO.Processor#process_end} and
+   * {@link ParallelProcessor#finish()} do so; callers that apply samples
+   * themselves must call it too.
+   * @see SplitterBatch
+   */
+  // NIS has been initialized if add_bottom_up has batched any samples
+  @SuppressWarnings({"flowexpr.parse.error", "contracts.precondition.not.satisfied"})
+  public void finish_splitters() {
+    if (splitter_batch != null) {
+      splitter_batch.finish();
+    }
+  }
+
   /**
    * Add the sample to the equality sets, dynamic constants and
    * invariants at this program point.  This version is specific to
@@ -961,8 +998,15 @@ public class PptTopLevel extends Ppt {
     // If there are conditional program points, add the sample there instead
     if (has_splitters()) {
       assert splitters != null; // guaranteed by call to has_splitters
-      for (PptSplitter ppt_split : splitters) {
-        ppt_split.add_bottom_up(vt, count);
+      if (SplitterBatch.dkconfig_size > 0) {
+        if (splitter_batch == null) {
+          splitter_batch = new SplitterBatch(splitters, SplitterBatch.dkconfig_size);
+        }
+        splitter_batch.add(vt, count);
+      } else {
+        for (PptSplitter ppt_split : splitters) {
+          ppt_split.add_bottom_up(vt, count);
+        }
       }
       if (Daikon.use_dataflow_hierarchy) {
         return null;
@@ -1094,7 +1138,7 @@ public class PptTopLevel extends Ppt {
     // Create any newly unsuppressed invariants
     NIS.process_falsified_invs(this, vt);
 
-    // NIS.newly_falsified is a list of invariants that are falsified by
+    // NIS.newly_falsified() is a list of invariants that are falsified by
     // the current sample when using the falsified method of processing
     // suppressions.  The newly falsified invariants are added back to
     // the slices so that they can be processed.  Thus, the falsified method
@@ -1104,7 +1148,7 @@ public class PptTopLevel extends Ppt {
     // ordered.  This loop should be executed at least once, regardless of
     // the algorithm for processing suppressions, hence the do loop.  For,
     // the antecedents method, the loop is executed only once because
-    // the NIS.newly_falsified list will be empty.
+    // the NIS.newly_falsified() list will be empty.
 
     do {
       // Remove any falsified invariants.  Make a copy of the original slices
@@ -1112,17 +1156,17 @@ public class PptTopLevel extends Ppt {
       // falsified.
       PptSlice[] slices = views.values().toArray(new /*@Nullable*/ PptSlice[views.values().size()]);
       for (int i = 0; i < slices.length; i++) {
-        slices[i].remove_falsified();
+        falsified_inv_cnt += slices[i].remove_falsified();
       }
 
       // Apply the sample to any invariants created by non-instantiating
       // suppressions. This must happen before we remove slices without
       // invariants below.
       NIS.apply_samples(vt, count);
-      first_pass_with_sample = false;
-    } while (NIS.newly_falsified.size() != 0);
+      first_pass_with_sample.set(Boolean.FALSE);
+    } while (NIS.newly_falsified().size() != 0);
 
-    first_pass_with_sample = true;
+    first_pass_with_sample.set(Boolean.TRUE);
 
     // Remove slices from the list if all of their invariants have died.
     // (Removal requires use of old-style for loop and Iterator.)
@@ -3440,6 +3484,21 @@ public class PptTopLevel extends Ppt {
       if (!rel.child.in_merge) rel.child.mergeInvs();
     }
 
+    merge_children_invs();
+  }
+
+  /**
+   * Merges the invariants of this ppt's children into this ppt.  Unlike
+   * {@link #mergeInvs()}, does not first merge the children; each child
+   * must already be merged (or be an ancestor whose merge is in progress).
+   * Only reads the children, except to create and then remove their
+   * suppressed invariants.  See {@link ParallelMerge}.
+   */
+  void merge_children_invs() {
+
+    assert !invariants_merged : this;
+    in_merge = true;
+
     if (debugMerge.isLoggable(Level.FINE)) debugMerge.fine("Processing ppt " + name());
 
     @SuppressWarnings("nullness") // dependent: non-null if debugMerge.isLoggable(Level.FINE)
@@ -3490,15 +3549,20 @@ public class PptTopLevel extends Ppt {
       ModBitTracker child_mbtracker = rel.child.mbtracker;
       int child_mbsize = child_mbtracker.num_samples();
       // System.out.println("mergeInvs child #" + children.indexOf(rel) + "=" + rel.child.name() + " has size " + child_mbsize + " for " + name());
+      // The child's modbits for each parent variable, read in sample order
+      /*@Nullable*/ RunLengthBitSet.Cursor[] child_bits = new RunLengthBitSet.Cursor[var_infos.length];
+      for (int j = 0; j < var_infos.length; j++) {
+        VarInfo child_vi = rel.childVar(var_infos[j]);
+        if ((child_vi != null) && (child_vi.value_index != -1)) {
+          child_bits[j] = child_mbtracker.cursor(child_vi.value_index);
+        }
+      }
       for (int sampno = 0; sampno < child_mbsize; sampno++) {
         Arrays.fill(mods, ValueTuple.MISSING_FLOW);
         for (int j = 0; j < var_infos.length; j++) {
-          VarInfo parent_vi = var_infos[j];
-          VarInfo child_vi = rel.childVar(parent_vi);
-          if ((child_vi != null) && (child_vi.value_index != -1)) {
-            if (child_mbtracker.get(child_vi.value_index, sampno)) {
-              mods[parent_vi.value_index] = ValueTuple.MODIFIED;
-            }
+          RunLengthBitSet.Cursor cursor = child_bits[j];
+          if ((cursor != null) && cursor.get(sampno)) {
+            mods[var_infos[j].value_index] = ValueTuple.MODIFIED;
           }
         }
         mbtracker.add(vt, 1);
@@ -3639,23 +3703,8 @@ public class PptTopLevel extends Ppt {
     invariants_merged = true;
     in_merge = false;
 
-    // Remove any child invariants that now exist here
-    if (dkconfig_remove_merged_invs) {
-      for (PptRelation rel : children) {
-        rel.child.remove_child_invs(rel);
-      }
-    }
-    if (debugTimeMerge.isLoggable(Level.FINE)) {
-      debugTimeMerge.fine("    removing child invs = " + watch.stop_start());
-    }
-
-    // Remove the relations since we don't need it anymore
-    if (dkconfig_remove_merged_invs) {
-      for (PptRelation rel : children) {
-        rel.child.parents.remove(rel);
-      }
-      children = new ArrayList<PptRelation>(0);
-    }
+    // Child invariants that now exist here are removed only once every
+    // ppt has been merged; see remove_merged_invs.
   }
 
   /**
@@ -3965,6 +4014,53 @@ public class PptTopLevel extends Ppt {
     joiner_view = new PptSlice0(this);
   }
 
+  /**
+   * If dkconfig_remove_merged_invs, removes from each ppt the invariants
+   * that are also in one of its merged parents, and then removes the
+   * relations to the merged parents.  Called once every ppt has been
+   * merged, so that each parent merges all of the invariants of a child
+   * that it shares with other parents, whichever parent is merged first.
+   * Children are processed before their parents, so a child is always
+   * compared with all of its parent's invariants.
+   */
+  public static void remove_merged_invs(PptMap all_ppts) {
+    if (!dkconfig_remove_merged_invs) {
+      return;
+    }
+    Set<PptTopLevel> removed = new HashSet<PptTopLevel>();
+    for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
+      ppt.remove_merged_invs(removed);
+    }
+
+    // Remove the relations since we don't need them anymore
+    for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
+      if (ppt.invariants_merged) {
+        for (PptRelation rel : ppt.children) {
+          rel.child.parents.remove(rel);
+        }
+        ppt.children = new ArrayList<PptRelation>(0);
+      }
+    }
+  }
+
+  /**
+   * Removes the merged invariants of the descendants of this ppt, and
+   * then of this ppt.  Ppts in removed have already been visited.
+   */
+  private void remove_merged_invs(Set<PptTopLevel> removed) {
+    if (!removed.add(this)) {
+      return;
+    }
+    for (PptRelation rel : children) {
+      rel.child.remove_merged_invs(removed);
+    }
+    for (PptRelation rel : parents) {
+      if (rel.parent.invariants_merged) {
+        remove_child_invs(rel);
+      }
+    }
+  }
+
   /**
    * Removes any invariant in this ppt which has a matching invariant in the
    * parent (as specified in the relation).  Done to save space.  Only safe
@@ -430,10 +430,11 @@ public final class PrintInvariants {
 
     // Read in the invariants
     String filename = args[fileIndex];
+    // Only the ppts that can be printed need to be read
     PptMap ppts =
-        FileIO.read_serialized_pptmap(
-            new File(filename), true // use saved config
-            );
+        FileIO.read_serialized_pptmap_lazily(
+            new File(filename), true, // use saved config
+            ppt_regexp);
     // Setup the list of prototype invariants and initialize NIS suppressions
     Daikon.setup_proto_invs();
     Daikon.setup_NISuppression();
@@ -444,6 +445,7 @@ public final class PrintInvariants {
     // If requested, just print the number of true invariants
     if (dkconfig_true_inv_cnt) {
       print_true_inv_cnt(ppts);
+      ppts.close();
       return;
     }
 
@@ -462,6 +464,7 @@ public final class PrintInvariants {
     }
 
     print_invariants(ppts);
+    ppts.close();
 
     // Close the output stream if --output was specified.
     if (out_stream != null) {
@@ -269,16 +269,16 @@ public final /*@Interned*/ class ProglangType implements Serializable {
 
   // avoid duplicate allocations
   // No need for the Integer versions; use Long instead.
-  // static final /*@Interned*/ Integer IntegerZero = Intern.internedInteger(0);
-  // static final /*@Interned*/ Integer IntegerOne = Intern.internedInteger(1);
-  static final /*@Interned*/ Long LongZero = Intern.internedLong(0);
-  static final /*@Interned*/ Long LongOne = Intern.internedLong(1);
-  static final /*@Interned*/ Double DoubleZero = Intern.internedDouble(0);
-  static final /*@Interned*/ Double DoubleNaN = Intern.internedDouble(Double.NaN);
+  // static final /*@Interned*/ Integer IntegerZero = SyncIntern.internedInteger(0);
+  // static final /*@Interned*/ Integer IntegerOne = SyncIntern.internedInteger(1);
+  static final /*@Interned*/ Long LongZero = SyncIntern.internedLong(0);
+  static final /*@Interned*/ Long LongOne = SyncIntern.internedLong(1);
+  static final /*@Interned*/ Double DoubleZero = SyncIntern.internedDouble(0);
+  static final /*@Interned*/ Double DoubleNaN = SyncIntern.internedDouble(Double.NaN);
   static final /*@Interned*/ Double DoublePositiveInfinity =
-      Intern.internedDouble(Double.POSITIVE_INFINITY);
+      SyncIntern.internedDouble(Double.POSITIVE_INFINITY);
   static final /*@Interned*/ Double DoubleNegativeInfinity =
-      Intern.internedDouble(Double.NEGATIVE_INFINITY);
+      SyncIntern.internedDouble(Double.NEGATIVE_INFINITY);
 
   /*
    *  Now that all other static initialisers are done, it is safe to
@@ -425,11 +425,11 @@ public final /*@Interned*/ class ProglangType implements Serializable {
         c = UtilMDE.unescapeNonJava(value).charAt(0);
       } else if ((value.length() == 4) && (value.charAt(0) == '\\')) {
         Byte b = Byte.decode("0" + value.substring(1));
-        return Intern.internedLong(b.longValue());
+        return SyncIntern.internedLong(b.longValue());
       } else {
         throw new IllegalArgumentException("Bad character: " + value);
       }
-      return Intern.internedLong(Character.getNumericValue(c));
+      return SyncIntern.internedLong(Character.getNumericValue(c));
     }
     // When parse_value is called from FileIO.read_ppt_decl, we have
     // not set file_rep_type. Hence, rep_type is still file_rep_type
@@ -442,7 +442,7 @@ public final /*@Interned*/ class ProglangType implements Serializable {
       if (value.equals("false") || value.equals("0")) return LongZero;
       if (value.equals("true") || value.equals("1")) return LongOne;
       if (value.equals("null")) return LongZero;
-      return Intern.internedLong(myParseLong(value));
+      return SyncIntern.internedLong(myParseLong(value));
     } else if (base == BASE_DOUBLE) {
       // Must ignore case, because dfej outputs "NaN", while dfec
       // outputs "nan".  dfec outputs "nan", because this string
@@ -454,7 +454,7 @@ public final /*@Interned*/ class ProglangType implements Serializable {
       if (value.equalsIgnoreCase("-Infinity") || value.equals("-inf")) {
         return DoubleNegativeInfinity;
       }
-      return Intern.internedDouble(value);
+      return SyncIntern.internedDouble(value);
     } else if ((base == BASE_HASHCODE)
         || (base == BASE_LONG)
         || (base == BASE_LONG_LONG)
@@ -544,7 +544,7 @@ public final /*@Interned*/ class ProglangType implements Serializable {
         else if (value_strings[i].equals("true")) result[i] = 1;
         else result[i] = myParseLong(value_strings[i]);
       }
-      return Intern.intern(result);
+      return SyncIntern.intern(result);
     } else if (base == BASE_DOUBLE) {
       double[] result = new double[len];
       for (int i = 0; i < len; i++) {
@@ -560,12 +560,12 @@ public final /*@Interned*/ class ProglangType implements Serializable {
           result[i] = Double.parseDouble(value_strings[i]);
         }
       }
-      return Intern.intern(result);
+      return SyncIntern.intern(result);
     } else if (base == BASE_STRING) {
       // First, intern each String in the array ...
-      /*@Interned*/ String[] value_strings_elts_interned = Intern.internStrings(value_strings);
+      /*@Interned*/ String[] value_strings_elts_interned = SyncIntern.internStrings(value_strings);
       // ... then, intern the entire array, and return it
-      return Intern.intern(value_strings_elts_interned);
+      return SyncIntern.intern(value_strings_elts_interned);
     } else {
       throw new Error("Can't yet parse array of base type " + base);
     }
@@ -0,0 +1,295 @@
+package daikon;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * A sequence of bits that can only be extended at the end, stored as the
+ * runs of set bits.  The modbits of a variable (see {@link ModBitTracker})
+ * usually consist of a few long runs, so this takes much less space than
+ * a BitSet with one bit per sample.
+ * <p>
+ *
+ * If the bits change so often that the runs would take more space than
+ * one bit per sample, the bits are instead stored in a BitSet from then
+ * on.
+ */
+public final class RunLengthBitSet implements Serializable, Cloneable {
+  // We are Serializable, so we specify a version to allow changes to
+  // method signatures without breaking serialization.  If you add or
+  // remove fields, you should change this number to the current date.
+  static final long serialVersionUID = 20261018L;
+
+  /**
+   * The runs of set bits:  run i covers the bits from runs[2*i]
+   * (inclusive) to runs[2*i+1] (exclusive).  The runs are in increasing
+   * order and are separated by at least one clear bit.  Null once the
+   * bits are stored in bits instead.
+   */
+  private int /*@Nullable*/ [] runs = new int[4];
+
+  /** The number of runs in use. */
+  private int num_runs = 0;
+
+  /** The bits, if they are not stored as runs. */
+  private /*@Nullable*/ BitSet bits = null;
+
+  /** The number of bits (set or clear). */
+  private int size = 0;
+
+  /** The number of set bits. */
+  private int cardinality = 0;
+
+  /** Creates an empty sequence of bits. */
+  public RunLengthBitSet() {}
+
+  /** Returns the number of bits, set or clear. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the number of set bits. */
+  public int cardinality() {
+    return cardinality;
+  }
+
+  /** Appends count copies of value. */
+  public void append(boolean value, int count) {
+    assert count >= 0 : count;
+    if (count == 0) {
+      return;
+    }
+    if (value) {
+      if (bits != null) {
+        bits.set(size, size + count);
+      } else {
+        append_run(size, size + count);
+      }
+      cardinality += count;
+    }
+    size += count;
+  }
+
+  /** Appends the run of set bits [start, end), where start == size. */
+  private void append_run(int start, int end) {
+    int[] r = runs;
+    assert r != null;
+    if ((num_runs > 0) && (r[2 * num_runs - 1] == start)) {
+      // Extends the last run
+      r[2 * num_runs - 1] = end;
+      return;
+    }
+    // A run takes 64 bits.  Switch to a BitSet once the runs would take
+    // noticeably more space than one bit per sample.
+    if ((num_runs + 1) * 64L > end + 4096L) {
+      BitSet bs = new BitSet(end);
+      for (int i = 0; i < num_runs; i++) {
+        bs.set(r[2 * i], r[2 * i + 1]);
+      }
+      bs.set(start, end);
+      bits = bs;
+      runs = null;
+      num_runs = 0;
+      return;
+    }
+    if (2 * num_runs + 2 > r.length) {
+      r = Arrays.copyOf(r, Math.max(4, 2 * r.length));
+      runs = r;
+    }
+    r[2 * num_runs] = start;
+    r[2 * num_runs + 1] = end;
+    num_runs++;
+  }
+
+  /** Returns the bit at index, which must be less than size(). */
+  public boolean get(int index) {
+    assert (index >= 0) && (index < size) : index + " " + size;
+    if (bits != null) {
+      return bits.get(index);
+    }
+    int[] r = runs;
+    assert r != null;
+    // Binary search for the last run that starts at or before index
+    int lo = 0;
+    int hi = num_runs - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (r[2 * mid] <= index) {
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return (hi >= 0) && (index < r[2 * hi + 1]);
+  }
+
+  /** Returns a BitSet with the same bits as this. */
+  public BitSet toBitSet() {
+    if (bits != null) {
+      return (BitSet) bits.clone();
+    }
+    int[] r = runs;
+    assert r != null;
+    BitSet result = new BitSet(size);
+    for (int i = 0; i < num_runs; i++) {
+      result.set(r[2 * i], r[2 * i + 1]);
+    }
+    return result;
+  }
+
+  /** Returns the number of bits that are set in both this and other. */
+  public int intersectionCardinality(RunLengthBitSet other) {
+    int[] r1 = runs;
+    int[] r2 = other.runs;
+    if ((r1 == null) || (r2 == null)) {
+      BitSet bs = toBitSet();
+      bs.and(other.toBitSet());
+      return bs.cardinality();
+    }
+    int result = 0;
+    int i = 0;
+    int j = 0;
+    while ((i < num_runs) && (j < other.num_runs)) {
+      int start = Math.max(r1[2 * i], r2[2 * j]);
+      int end1 = r1[2 * i + 1];
+      int end2 = r2[2 * j + 1];
+      int end = Math.min(end1, end2);
+      if (start < end) {
+        result += end - start;
+      }
+      // Advance whichever run ends first
+      if (end1 <= end2) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /** Returns the number of bits that are set in all of a, b, and c. */
+  public static int intersectionCardinality(
+      RunLengthBitSet a, RunLengthBitSet b, RunLengthBitSet c) {
+    int[] ra = a.runs;
+    int[] rb = b.runs;
+    if ((ra == null) || (rb == null) || (c.runs == null)) {
+      BitSet bs = a.toBitSet();
+      bs.and(b.toBitSet());
+      bs.and(c.toBitSet());
+      return bs.cardinality();
+    }
+    // Intersect a and b, then count the bits in common with c
+    RunLengthBitSet ab = new RunLengthBitSet();
+    int[] r = new int[2 * (a.num_runs + b.num_runs)];
+    int n = 0;
+    int i = 0;
+    int j = 0;
+    while ((i < a.num_runs) && (j < b.num_runs)) {
+      int start = Math.max(ra[2 * i], rb[2 * j]);
+      int end1 = ra[2 * i + 1];
+      int end2 = rb[2 * j + 1];
+      int end = Math.min(end1, end2);
+      if (start < end) {
+        r[2 * n] = start;
+        r[2 * n + 1] = end;
+        n++;
+      }
+      if (end1 <= end2) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    ab.runs = r;
+    ab.num_runs = n;
+    ab.size = Math.min(a.size, b.size);
+    return ab.intersectionCardinality(c);
+  }
+
+  /**
+   * Returns a cursor for reading the bits in increasing order of index.
+   * The cursor sees bits appended after it was created.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Reads the bits of a RunLengthBitSet in increasing order of index,
+   * stepping through the runs instead of searching them for each index.
+   */
+  public final class Cursor {
+    /** The first run that ends after the last index read. */
+    private int run = 0;
+    /** The last index read. */
+    private int last = 0;
+
+    private Cursor() {}
+
+    /**
+     * Returns the bit at index, which must be less than size().  This
+     * takes amortized constant time if the index is no less than the
+     * previous one, and otherwise starts over from the first run.
+     */
+    public boolean get(int index) {
+      assert (index >= 0) && (index < size) : index + " " + size;
+      if (bits != null) {
+        return bits.get(index);
+      }
+      int[] r = runs;
+      assert r != null;
+      if (index < last) {
+        run = 0;
+      }
+      last = index;
+      while ((run < num_runs) && (r[2 * run + 1] <= index)) {
+        run++;
+      }
+      return (run < num_runs) && (r[2 * run] <= index);
+    }
+  }
+
+  /**
+   * Writes the fields, without the unused capacity of runs.  This does
+   * not modify this object, which may be read by other threads while it
+   * is being serialized.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    int[] r = runs;
+    if ((r != null) && (r.length > 2 * num_runs)) {
+      r = Arrays.copyOf(r, 2 * num_runs);
+    }
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("runs", r);
+    fields.put("num_runs", num_runs);
+    fields.put("bits", bits);
+    fields.put("size", size);
+    fields.put("cardinality", cardinality);
+    out.writeFields();
+  }
+
+  /** Returns a copy of this that can be extended independently. */
+  @Override
+  public RunLengthBitSet clone() {
+    RunLengthBitSet result;
+    try {
+      result = (RunLengthBitSet) super.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new Error("This can't happen: ", e);
+    }
+    if (runs != null) {
+      result.runs = runs.clone();
+    }
+    if (bits != null) {
+      result.bits = (BitSet) bits.clone();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,120 @@
+package daikon;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Merges runs of identical samples at each program point into a single
+ * sample with a count, so that {@link PptTopLevel#add_bottom_up} is
+ * called once per run rather than once per sample.  Loops in the traced
+ * program often produce long runs of identical samples.
+ * <p>
+ *
+ * Only consecutive samples at the same program point are merged:  a
+ * different sample at that program point ends the run.  Each program
+ * point therefore sees its samples in the same order as without merging,
+ * and because applying a sample with count n is equivalent to applying
+ * it n times, the resulting invariants are the same.  Duplicates that are
+ * not adjacent are not merged, because that would reorder the samples,
+ * and some results depend on the order (for example, equality sets are
+ * split by the first differing sample, and LinearBinary fits its line to
+ * the first samples it sees).
+ * <p>
+ *
+ * Samples at different program points may be applied in a different
+ * order than they were read.  This is safe only with the dataflow
+ * hierarchy, in which each sample is applied to a single leaf, and leaves
+ * share no invariant state; see {@link #enabled()}.
+ * <p>
+ *
+ * At most {@link #dkconfig_max_pending} program points have a pending
+ * run.  When another program point starts a run, the least recently
+ * extended run is applied.  Call {@link #flush()} to apply all pending
+ * runs.
+ */
+public final class SampleCoalescer {
+
+  /**
+   * Boolean.  If true, runs of identical consecutive samples at a
+   * program point are applied to it as a single sample with a count.
+   * The invariants are the same either way.  Has no effect unless the
+   * dataflow hierarchy is used.
+   */
+  public static boolean dkconfig_enabled = true;
+
+  /** Integer.  Maximum number of program points that may have a pending run. */
+  public static int dkconfig_max_pending = 1024;
+
+  /** Returns true if samples should be merged, according to the configuration. */
+  public static boolean enabled() {
+    return dkconfig_enabled && Daikon.use_dataflow_hierarchy;
+  }
+
+  /** Receives each merged sample. */
+  public interface Sink {
+    /** Applies vt, which represents count identical samples, to ppt. */
+    void apply(PptTopLevel ppt, ValueTuple vt, int count);
+  }
+
+  /** A run of identical samples that has not yet been applied. */
+  private static final class Run {
+    final ValueTuple vt;
+    int count = 1;
+
+    Run(ValueTuple vt) {
+      this.vt = vt;
+    }
+  }
+
+  private final Sink sink;
+
+  /** Pending runs, least recently extended first. */
+  private final LinkedHashMap<PptTopLevel, Run> runs =
+      new LinkedHashMap<PptTopLevel, Run>(16, 0.75f, true);
+
+  /** Creates a coalescer that passes the merged samples to sink. */
+  public SampleCoalescer(Sink sink) {
+    this.sink = sink;
+  }
+
+  /**
+   * Adds a sample, which must be interned (see
+   * {@link FileIO#prepare_sample}), at ppt.  If it differs from the
+   * pending sample at ppt, the pending run is applied first.
+   */
+  public void add(PptTopLevel ppt, ValueTuple vt) {
+    Run run = runs.get(ppt);
+    if (run != null) {
+      // The values are interned, so equal samples have identical arrays.
+      if (run.vt.equals(vt) && (run.count < Integer.MAX_VALUE)) {
+        run.count++;
+        return;
+      }
+      runs.remove(ppt);
+      sink.apply(ppt, run.vt, run.count);
+    }
+    runs.put(ppt, new Run(vt));
+    if (runs.size() > Math.max(1, dkconfig_max_pending)) {
+      Iterator<Map.Entry<PptTopLevel, Run>> itor = runs.entrySet().iterator();
+      Map.Entry<PptTopLevel, Run> eldest = itor.next();
+      itor.remove();
+      sink.apply(eldest.getKey(), eldest.getValue().vt, eldest.getValue().count);
+    }
+  }
+
+  /** Discards all pending runs without applying them. */
+  public void clear() {
+    runs.clear();
+  }
+
+  /** Applies all pending runs. */
+  public void flush() {
+    while (!runs.isEmpty()) {
+      Iterator<Map.Entry<PptTopLevel, Run>> itor = runs.entrySet().iterator();
+      Map.Entry<PptTopLevel, Run> entry = itor.next();
+      itor.remove();
+      sink.apply(entry.getKey(), entry.getValue().vt, entry.getValue().count);
+    }
+  }
+}
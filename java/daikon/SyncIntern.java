@@ -0,0 +1,387 @@
+package daikon;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import plume.Intern;
+
+/*>>>
+import org.checkerframework.checker.interning.qual.*;
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Thread-safe access to the intern tables of {@link plume.Intern}, which
+ * are static and unsynchronized, so that Daikon can intern values on
+ * several threads at once:  the thread that reads the trace interns the
+ * samples, while the threads of {@link ParallelProcessor}, {@link
+ * ParallelMerge}, {@link ParallelPostProcess}, and {@link
+ * daikon.tools.InvariantChecker} intern values that invariants and
+ * derived variables compute.
+ * <p>
+ *
+ * Each kind of value has a small table of recently interned values,
+ * which any thread reads without locking.  A value may be stored only in
+ * the slot that its hash code selects, replacing whatever was there, so
+ * a table never holds more than {@link #RECENT_SIZE} values.  Only a
+ * value that is not in its table takes the lock that guards plume.Intern,
+ * and the value that plume.Intern returns is then stored in the table.
+ * So every interned value is still the one plume.Intern returns, and
+ * code that calls plume.Intern directly sees the same objects.  Strings
+ * are interned by {@link String#intern()}, which needs no lock.
+ * <p>
+ *
+ * All interning in Daikon, including Chicory's reading of declarations
+ * and the tests, goes through this class rather than plume.Intern.
+ */
+public final class SyncIntern {
+
+  private SyncIntern() {
+    throw new Error("do not instantiate");
+  }
+
+  /** The lock that guards the tables of plume.Intern. */
+  private static final Object lock = new Object();
+
+  /** The number of slots in each table of recently interned values; a power of two. */
+  static final int RECENT_SIZE = 1 << 12;
+
+  /**
+   * A lossy table of values that plume.Intern has returned.  Two values
+   * are the same only if plume.Intern certainly interns them to the same
+   * object, so a hit returns what plume.Intern would.
+   */
+  private abstract static class Recent<T> {
+
+    private final AtomicReferenceArray<T> slots = new AtomicReferenceArray<T>(RECENT_SIZE);
+
+    abstract int hash(T value);
+
+    abstract boolean same(T interned, T value);
+
+    private int slot(T value) {
+      int h = hash(value);
+      return (h ^ (h >>> 16)) & (RECENT_SIZE - 1);
+    }
+
+    /** Returns the interned value that is the same as value, or null if there is none. */
+    final /*@Nullable*/ T get(T value) {
+      T interned = slots.get(slot(value));
+      if ((interned != null) && same(interned, value)) {
+        return interned;
+      }
+      return null;
+    }
+
+    /** Records interned, which plume.Intern returned, and returns it. */
+    final T put(T interned) {
+      slots.set(slot(interned), interned);
+      return interned;
+    }
+
+    /** Returns true if value itself is in the table. */
+    final boolean contains(T value) {
+      return slots.get(slot(value)) == value;
+    }
+  }
+
+  private static final Recent<Integer> recent_integers =
+      new Recent<Integer>() {
+        int hash(Integer value) {
+          return value.hashCode();
+        }
+
+        boolean same(Integer interned, Integer value) {
+          return interned.intValue() == value.intValue();
+        }
+      };
+
+  private static final Recent<Long> recent_longs =
+      new Recent<Long>() {
+        int hash(Long value) {
+          return value.hashCode();
+        }
+
+        boolean same(Long interned, Long value) {
+          return interned.longValue() == value.longValue();
+        }
+      };
+
+  // Doubles are the same only if their bits are, which is never coarser
+  // than plume.Intern's treatment of zeros and NaNs.
+  private static final Recent<Double> recent_doubles =
+      new Recent<Double>() {
+        int hash(Double value) {
+          return value.hashCode();
+        }
+
+        boolean same(Double interned, Double value) {
+          return Double.doubleToRawLongBits(interned.doubleValue())
+              == Double.doubleToRawLongBits(value.doubleValue());
+        }
+      };
+
+  private static final Recent<int[]> recent_int_arrays =
+      new Recent<int[]>() {
+        int hash(int[] value) {
+          return Arrays.hashCode(value);
+        }
+
+        boolean same(int[] interned, int[] value) {
+          return Arrays.equals(interned, value);
+        }
+      };
+
+  private static final Recent<long[]> recent_long_arrays =
+      new Recent<long[]>() {
+        int hash(long[] value) {
+          return Arrays.hashCode(value);
+        }
+
+        boolean same(long[] interned, long[] value) {
+          return Arrays.equals(interned, value);
+        }
+      };
+
+  private static final Recent<double[]> recent_double_arrays =
+      new Recent<double[]>() {
+        int hash(double[] value) {
+          return Arrays.hashCode(value);
+        }
+
+        boolean same(double[] interned, double[] value) {
+          if (interned.length != value.length) {
+            return false;
+          }
+          for (int i = 0; i < value.length; i++) {
+            if (Double.doubleToRawLongBits(interned[i]) != Double.doubleToRawLongBits(value[i])) {
+              return false;
+            }
+          }
+          return true;
+        }
+      };
+
+  // The elements of String and Object arrays are interned, so they are
+  // compared by identity.
+  private static final Recent<Object[]> recent_object_arrays =
+      new Recent<Object[]>() {
+        int hash(Object[] value) {
+          int result = value.getClass().hashCode();
+          for (Object elt : value) {
+            result = 31 * result + System.identityHashCode(elt);
+          }
+          return result;
+        }
+
+        boolean same(Object[] interned, Object[] value) {
+          if ((interned.getClass() != value.getClass()) || (interned.length != value.length)) {
+            return false;
+          }
+          for (int i = 0; i < value.length; i++) {
+            if (interned[i] != value[i]) {
+              return false;
+            }
+          }
+          return true;
+        }
+      };
+
+  public static /*@Interned*/ /*@PolyNull*/ String intern(/*@PolyNull*/ String a) {
+    // plume.Intern uses String.intern, which is thread-safe
+    return (a == null) ? null : a.intern();
+  }
+
+  @SuppressWarnings("interning") // values in recent_integers were interned
+  public static /*@Interned*/ Integer intern(Integer a) {
+    Integer result = recent_integers.get(a);
+    if (result != null) {
+      return result;
+    }
+    synchronized (lock) {
+      return recent_integers.put(Intern.intern(a));
+    }
+  }
+
+  @SuppressWarnings("interning") // values in recent_longs were interned
+  public static /*@Interned*/ Long intern(Long a) {
+    Long result = recent_longs.get(a);
+    if (result != null) {
+      return result;
+    }
+    synchronized (lock) {
+      return recent_longs.put(Intern.intern(a));
+    }
+  }
+
+  @SuppressWarnings("interning") // values in recent_doubles were interned
+  public static /*@Interned*/ Double intern(Double a) {
+    Double result = recent_doubles.get(a);
+    if (result != null) {
+      return result;
+    }
+    synchronized (lock) {
+      return recent_doubles.put(Intern.intern(a));
+    }
+  }
+
+  @SuppressWarnings("interning") // values in recent_int_arrays were interned
+  public static int /*@Interned*/ [] intern(int[] a) {
+    int[] result = recent_int_arrays.get(a);
+    if (result != null) {
+      return result;
+    }
+    synchronized (lock) {
+      return recent_int_arrays.put(Intern.intern(a));
+    }
+  }
+
+  @SuppressWarnings("interning") // values in recent_long_arrays were interned
+  public static long /*@Interned*/ [] intern(long[] a) {
+    long[] result = recent_long_arrays.get(a);
+    if (result != null) {
+      return result;
+    }
+    synchronized (lock) {
+      return recent_long_arrays.put(Intern.intern(a));
+    }
+  }
+
+  @SuppressWarnings("interning") // values in recent_double_arrays were interned
+  public static double /*@Interned*/ [] intern(double[] a) {
+    double[] result = recent_double_arrays.get(a);
+    if (result != null) {
+      return result;
+    }
+    synchronized (lock) {
+      return recent_double_arrays.put(Intern.intern(a));
+    }
+  }
+
+  @SuppressWarnings("interning") // values in recent_object_arrays were interned
+  public static /*@Interned*/ String /*@Interned*/ [] intern(
+      /*@Interned*/ String[] a) {
+    Object[] result = recent_object_arrays.get(a);
+    if (result != null) {
+      return (String[]) result;
+    }
+    synchronized (lock) {
+      return (String[]) recent_object_arrays.put(Intern.intern(a));
+    }
+  }
+
+  @SuppressWarnings("interning") // values in recent_object_arrays were interned
+  public static /*@Interned*/ Object /*@Interned*/ [] intern(
+      /*@Interned*/ Object[] a) {
+    Object[] result = recent_object_arrays.get(a);
+    if (result != null) {
+      return result;
+    }
+    synchronized (lock) {
+      return recent_object_arrays.put(Intern.intern(a));
+    }
+  }
+
+  /** Interns a, according to its run-time type, as plume.Intern.intern(Object) does. */
+  public static /*@Interned*/ /*@PolyNull*/ Object intern(/*@PolyNull*/ Object a) {
+    if (a instanceof String) {
+      return intern((String) a);
+    } else if (a instanceof Integer) {
+      return intern((Integer) a);
+    } else if (a instanceof Long) {
+      return intern((Long) a);
+    } else if (a instanceof Double) {
+      return intern((Double) a);
+    } else if (a instanceof int[]) {
+      return intern((int[]) a);
+    } else if (a instanceof long[]) {
+      return intern((long[]) a);
+    } else if (a instanceof double[]) {
+      return intern((double[]) a);
+    } else if (a instanceof String[]) {
+      return intern((String[]) a);
+    } else if (a instanceof Object[]) {
+      return intern((Object[]) a);
+    }
+    synchronized (lock) {
+      return Intern.intern(a);
+    }
+  }
+
+  public static /*@Interned*/ Integer internedInteger(int i) {
+    return intern(Integer.valueOf(i));
+  }
+
+  public static /*@Interned*/ Integer internedInteger(String s) {
+    synchronized (lock) {
+      return Intern.internedInteger(s);
+    }
+  }
+
+  public static /*@Interned*/ Long internedLong(long i) {
+    return intern(Long.valueOf(i));
+  }
+
+  public static /*@Interned*/ Long internedLong(String s) {
+    synchronized (lock) {
+      return Intern.internedLong(s);
+    }
+  }
+
+  public static /*@Interned*/ Double internedDouble(double d) {
+    return intern(Double.valueOf(d));
+  }
+
+  public static /*@Interned*/ Double internedDouble(String s) {
+    synchronized (lock) {
+      return Intern.internedDouble(s);
+    }
+  }
+
+  public static /*@Interned*/ String[] internStrings(String[] a) {
+    for (int i = 0; i < a.length; i++) {
+      a[i] = intern(a[i]);
+    }
+    return a;
+  }
+
+  public static long /*@Interned*/ [] internSubsequence(
+      long /*@Interned*/ [] seq, int start, int end) {
+    synchronized (lock) {
+      return Intern.internSubsequence(seq, start, end);
+    }
+  }
+
+  public static double /*@Interned*/ [] internSubsequence(
+      double /*@Interned*/ [] seq, int start, int end) {
+    synchronized (lock) {
+      return Intern.internSubsequence(seq, start, end);
+    }
+  }
+
+  public static /*@Interned*/ String /*@Interned*/ [] internSubsequence(
+      /*@Interned*/ String /*@Interned*/ [] seq, int start, int end) {
+    synchronized (lock) {
+      return Intern.internSubsequence(seq, start, end);
+    }
+  }
+
+  /**
+   * Returns true if the argument is interned.  See plume.Intern.isInterned.
+   * Only a value that is not in the table of recently interned values
+   * takes the lock.
+   */
+  public static boolean isInterned(/*@Nullable*/ Object value) {
+    if ((value instanceof Object[]) && recent_object_arrays.contains((Object[]) value)) {
+      return true;
+    } else if ((value instanceof int[]) && recent_int_arrays.contains((int[]) value)) {
+      return true;
+    } else if ((value instanceof long[]) && recent_long_arrays.contains((long[]) value)) {
+      return true;
+    } else if ((value instanceof double[]) && recent_double_arrays.contains((double[]) value)) {
+      return true;
+    }
+    synchronized (lock) {
+      return Intern.isInterned(value);
+    }
+  }
+}
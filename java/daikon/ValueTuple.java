@@ -319,16 +319,16 @@ public final class ValueTuple implements Cloneable {
 
   /** Default constructor that interns its argument. */
   public ValueTuple(/*@Nullable*/ /*@Interned*/ Object[] vals, int[] mods) {
-    this.vals = Intern.intern(vals);
-    this.mods = Intern.intern(mods);
+    this.vals = SyncIntern.intern(vals);
+    this.mods = SyncIntern.intern(mods);
     checkRep();
   }
 
   // Private constructor that doesn't perform interning.
   @SuppressWarnings("interning") // interning constructor
   private ValueTuple(/*@Nullable*/ Object[] vals, int[] mods, boolean check) {
-    assert (!check) || Intern.isInterned(vals);
-    assert (!check) || Intern.isInterned(mods);
+    assert (!check) || SyncIntern.isInterned(vals);
+    assert (!check) || SyncIntern.isInterned(mods);
     this.vals = vals;
     this.mods = mods;
     checkRep();
@@ -0,0 +1,135 @@
+package daikon.chicory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * The variables of one program point, flattened from its tree of
+ * {@link DaikonVariableInfo} objects (see {@link MethodInfo#traversalEnter}
+ * and {@link MethodInfo#traversalExit}) into the order in which
+ * {@link DTraceWriter} prints them.  Each variable records the position
+ * of its parent, so that the values of a record are computed in one loop
+ * over an array rather than by recursing through the tree.  Variables
+ * whose parent's children are not printed are omitted.
+ */
+final class CapturePlan {
+
+  /** The tree that was flattened. */
+  final RootInfo root;
+
+  // How the value of each variable is obtained
+  static final int CHILD = 0;
+  static final int RETURN = 1;
+  static final int THIS = 2;
+  static final int PARAMETER = 3;
+  static final int STATIC_FIELD = 4;
+  static final int STATIC_OBJ = 5;
+
+  /** The variables, in the order of a preorder walk of the tree. */
+  final DaikonVariableInfo[] vars;
+
+  /** How the value of each variable is obtained. */
+  final int[] kinds;
+
+  /**
+   * The position in vars of the parent of each variable of kind CHILD,
+   * or the argument number of each variable of kind PARAMETER.
+   */
+  final int[] sources;
+
+  /** Whether the value of each variable is printed. */
+  final boolean[] printed;
+
+  CapturePlan(MethodInfo mi, RootInfo root) {
+    this.root = root;
+    List<DaikonVariableInfo> var_list = new ArrayList<DaikonVariableInfo>();
+    List<Integer> parent_list = new ArrayList<Integer>();
+    for (DaikonVariableInfo child : root) {
+      add(child, -1, var_list, parent_list);
+    }
+
+    int size = var_list.size();
+    vars = var_list.toArray(new DaikonVariableInfo[size]);
+    kinds = new int[size];
+    sources = new int[size];
+    printed = new boolean[size];
+    for (int i = 0; i < size; i++) {
+      DaikonVariableInfo var = vars[i];
+      int parent = parent_list.get(i);
+      if (parent >= 0) {
+        kinds[i] = CHILD;
+        sources[i] = parent;
+      } else if (var instanceof ReturnInfo) {
+        kinds[i] = RETURN;
+      } else if (var instanceof ThisObjInfo) {
+        kinds[i] = THIS;
+      } else if (var instanceof ParameterInfo) {
+        kinds[i] = PARAMETER;
+        sources[i] = ((ParameterInfo) var).getArgNum();
+      } else if (var instanceof FieldInfo) {
+        // can only occur for static fields
+        // non-static fields will appear as children of "this"
+        kinds[i] = STATIC_FIELD;
+      } else if (var instanceof StaticObjInfo) {
+        kinds[i] = STATIC_OBJ;
+      } else {
+        throw new Error(
+            "Unknown DaikonVariableInfo subtype "
+                + var.getClass()
+                + " in traversePattern in DTraceWriter for info named "
+                + var.getName()
+                + " in class "
+                + "for method "
+                + mi);
+      }
+      printed[i] = var.dTraceShouldPrint();
+    }
+  }
+
+  /** Adds var and the descendants of var that are printed, in preorder. */
+  private static void add(
+      DaikonVariableInfo var,
+      int parent,
+      List<DaikonVariableInfo> var_list,
+      List<Integer> parent_list) {
+    int index = var_list.size();
+    var_list.add(var);
+    parent_list.add(parent);
+    if (var.dTraceShouldPrintChildren()) {
+      for (DaikonVariableInfo child : var) {
+        add(child, index, var_list, parent_list);
+      }
+    }
+  }
+
+  /** Returns the number of variables. */
+  int size() {
+    return vars.length;
+  }
+
+  /**
+   * Returns the value of variable i, given the values of the variables
+   * before it.
+   */
+  /*@Nullable*/ Object value(
+      int i, /*@Nullable*/ Object[] values, Object[] args, Object thisObj, Object ret_val) {
+    switch (kinds[i]) {
+      case CHILD:
+        return vars[i].getMyValFromParentVal(values[sources[i]]);
+      case RETURN:
+        return ret_val;
+      case THIS:
+        return thisObj;
+      case PARAMETER:
+        return args[sources[i]];
+      case STATIC_FIELD:
+        return vars[i].getMyValFromParentVal(null);
+      default:
+        return null;
+    }
+  }
+}
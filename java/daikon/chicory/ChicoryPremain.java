@@ -73,6 +73,7 @@ public class ChicoryPremain {
 
     // Open the dtrace file
     if (Chicory.daikon_online) {
+      Runtime.online_block = Chicory.daikon_online_block;
       Runtime.setDtraceOnlineMode(daikon_port);
     } else if (Chicory.dtrace_file == null) {
       File trace_file_path = new File(Chicory.output_dir, "dtrace.gz");
@@ -154,7 +155,9 @@ public class ChicoryPremain {
     // so they don't need to be handled here.
     // (It looks like these can be called even if Runtime.dtrace is null...)
     Runtime.decl_writer = new DeclWriter(Runtime.dtrace);
-    Runtime.dtrace_writer = new DTraceWriter(Runtime.dtrace);
+    Runtime.dtrace_writer = new DTraceWriter(Runtime.dtrace, Runtime.binary_dtrace);
+    // Let each thread of the target program write records without locking
+    Runtime.start_record_queue();
   }
 
   /**
@@ -1,6 +1,9 @@
 package daikon.chicory;
 
+import daikon.BinaryDtrace;
 import daikon.Chicory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.reflect.*;
 import java.util.*;
@@ -43,6 +46,18 @@ public class DTraceWriter extends DaikonWriter {
   /**Where to print output*/
   private PrintStream outFile;
 
+  /** Where to write samples if the dtrace file is binary, else null */
+  private /*@Nullable*/ BinaryDtrace.Writer binaryFile;
+
+  /**
+   * If non-null, outFile writes to recordBuffer, and each completed
+   * record is moved from recordBuffer to this queue.
+   */
+  private /*@Nullable*/ RecordQueue records = null;
+
+  /** The record being written, if records is non-null */
+  private /*@Nullable*/ ByteArrayOutputStream recordBuffer = null;
+
   /** debug information about daikon variables  */
   private boolean debug_vars = false;
 
@@ -53,8 +68,38 @@ public class DTraceWriter extends DaikonWriter {
    *            Stream to write to
    */
   public DTraceWriter(PrintStream writer) {
+    this(writer, null);
+  }
+
+  /**
+   * Initializes the DTraceWriter
+   *
+   * @param writer
+   *            Stream to write to
+   * @param binaryWriter
+   *            Writer for samples if the dtrace file is binary, else null.
+   *            writer must then be its text stream.
+   */
+  public DTraceWriter(PrintStream writer, /*@Nullable*/ BinaryDtrace.Writer binaryWriter) {
     super();
     outFile = writer;
+    binaryFile = binaryWriter;
+  }
+
+  /**
+   * Initializes a DTraceWriter that formats each record in a buffer of
+   * its own, then adds it to records.  Such a DTraceWriter should be
+   * used by only one thread.
+   *
+   * @param records
+   *            Queue of completed records
+   */
+  DTraceWriter(RecordQueue records) {
+    super();
+    recordBuffer = new ByteArrayOutputStream(8192);
+    outFile = new PrintStream(recordBuffer);
+    binaryFile = null;
+    this.records = records;
   }
 
   /**
@@ -84,11 +129,9 @@ public class DTraceWriter extends DaikonWriter {
       stack.fillInStackTrace();
       stack.printStackTrace(System.out);
     }
-    outFile.println(DaikonWriter.methodEntryName(member));
-    printNonce(nonceVal);
+    startRecord(DaikonWriter.methodEntryName(member), nonceVal);
     traverse(mi, root, args, obj, nonsenseValue);
-
-    outFile.println();
+    endRecord();
 
     Runtime.incrementRecords();
   }
@@ -101,9 +144,8 @@ public class DTraceWriter extends DaikonWriter {
     if (Runtime.dtrace_closed) {
       return;
     }
-    outFile.println(pptname);
-    printNonce(nonceVal);
-    outFile.println();
+    startRecord(pptname, nonceVal);
+    endRecord();
     Runtime.incrementRecords();
   }
 
@@ -143,11 +185,9 @@ public class DTraceWriter extends DaikonWriter {
               + "No exit locations found in exit_locations set!");
     }
 
-    outFile.println(DaikonWriter.methodExitName(member, lineNum));
-    printNonce(nonceVal);
+    startRecord(DaikonWriter.methodExitName(member, lineNum), nonceVal);
     traverse(mi, root, args, obj, ret_val);
-
-    outFile.println();
+    endRecord();
 
     Runtime.incrementRecords();
   }
@@ -160,9 +200,8 @@ public class DTraceWriter extends DaikonWriter {
     if (Runtime.dtrace_closed) {
       return;
     }
-    outFile.println(pptname);
-    printNonce(nonceVal);
-    outFile.println();
+    startRecord(pptname, nonceVal);
+    endRecord();
     Runtime.incrementRecords();
   }
 
@@ -172,9 +211,58 @@ public class DTraceWriter extends DaikonWriter {
     outFile.println(val);
   }
 
+  //starts a program point record:  its name and nonce
+  private void startRecord(/*>>>@GuardSatisfied DTraceWriter this,*/ String pptname, int nonceVal) {
+    if (binaryFile != null) {
+      binaryFile.begin_sample(pptname, nonceVal);
+    } else {
+      outFile.println(pptname);
+      printNonce(nonceVal);
+    }
+  }
+
+  //ends a program point record
+  private void endRecord(/*>>>@GuardSatisfied DTraceWriter this*/) {
+    if (binaryFile != null) {
+      try {
+        binaryFile.end_sample();
+      } catch (IOException e) {
+        throw new RuntimeException("Error writing binary dtrace file", e);
+      }
+    } else {
+      outFile.println();
+      if (records != null) {
+        outFile.flush();
+        records.add(recordBuffer.toByteArray());
+        recordBuffer.reset();
+      }
+    }
+  }
+
+  //prints one variable:  its name, then its value and modbit, as returned
+  //by getDTraceValueString (separated by a line separator)
+  private void printVariable(
+      /*>>>@GuardSatisfied DTraceWriter this,*/ String name, String valueAndMod) {
+    if (binaryFile != null) {
+      int sep = valueAndMod.lastIndexOf(DaikonWriter.lineSep);
+      try {
+        binaryFile.add_value(
+            name,
+            valueAndMod.substring(0, sep),
+            Integer.parseInt(valueAndMod.substring(sep + DaikonWriter.lineSep.length())));
+      } catch (IOException e) {
+        throw new RuntimeException("Error writing binary dtrace file", e);
+      }
+    } else {
+      outFile.println(name);
+      outFile.println(valueAndMod);
+    }
+  }
+
   /**
    * Prints the method's return value and all relevant variables.
-   * Uses the tree of DaikonVariableInfo objects.
+   * Uses the tree of DaikonVariableInfo objects, flattened into a
+   * {@link CapturePlan} the first time it is printed.
    * @param mi the method whose program point we are printing
    * @param root the root of the program point's tree
    * @param args the arguments to the method corrsponding to mi.
@@ -191,65 +279,24 @@ public class DTraceWriter extends DaikonWriter {
       Object[] args,
       Object thisObj,
       Object ret_val) {
-    //go through all of the node's children
-    for (DaikonVariableInfo child : root) {
-
-      Object val;
-
-      if (child instanceof ReturnInfo) {
-        val = ret_val;
-      } else if (child instanceof ThisObjInfo) {
-        val = thisObj;
-      } else if (child instanceof ParameterInfo) {
-        val = args[((ParameterInfo) child).getArgNum()];
-      } else if (child instanceof FieldInfo) {
-        // can only occur for static fields
-        // non-static fields will appear as children of "this"
-
-        val = child.getMyValFromParentVal(null);
-      } else if (child instanceof StaticObjInfo) {
-        val = null;
-      } else {
-        throw new Error(
-            "Unknown DaikonVariableInfo subtype "
-                + child.getClass()
-                + " in traversePattern in DTraceWriter for info named "
-                + child.getName()
-                + " in class "
-                + "for method "
-                + mi);
-      }
-
-      traverseValue(mi, child, val);
-    }
-  }
-
-  //traverse from the traversal pattern data structure and recurse
-  private void traverseValue(
-      /*>>>@GuardSatisfied DTraceWriter this,*/ MethodInfo mi,
-      DaikonVariableInfo curInfo,
-      Object val) {
-
-    if (curInfo.dTraceShouldPrint()) {
-      if (!(curInfo instanceof StaticObjInfo)) {
-        outFile.println(curInfo.getName());
-        outFile.println(curInfo.getDTraceValueString(val));
-      }
-
-      if (debug_vars) {
-        String out = curInfo.getDTraceValueString(val);
-        if (out.length() > 20) out = out.substring(0, 20);
-        System.out.printf(
-            "  --variable %s [%d]= %s%n", curInfo.getName(), curInfo.children.size(), out);
-      }
-    }
-
-    //go through all of the current node's children
-    //and recurse on their values
-    if (curInfo.dTraceShouldPrintChildren()) {
-      for (DaikonVariableInfo child : curInfo) {
-        Object childVal = child.getMyValFromParentVal(val);
-        traverseValue(mi, child, childVal);
+    CapturePlan plan = mi.capture_plan(root);
+    Object[] values = new Object[plan.size()];
+    for (int i = 0; i < values.length; i++) {
+      Object val = plan.value(i, values, args, thisObj, ret_val);
+      values[i] = val;
+
+      if (plan.printed[i]) {
+        DaikonVariableInfo curInfo = plan.vars[i];
+        if (!(curInfo instanceof StaticObjInfo)) {
+          printVariable(curInfo.getName(), curInfo.getDTraceValueString(val));
+        }
+
+        if (debug_vars) {
+          String out = curInfo.getDTraceValueString(val);
+          if (out.length() > 20) out = out.substring(0, 20);
+          System.out.printf(
+              "  --variable %s [%d]= %s%n", curInfo.getName(), curInfo.children.size(), out);
+        }
       }
     }
   }
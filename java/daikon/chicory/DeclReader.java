@@ -1,5 +1,6 @@
 package daikon.chicory;
 
+import daikon.SyncIntern;
 import daikon.util.*;
 import java.io.*;
 import java.util.*;
@@ -165,13 +166,13 @@ public class DeclReader {
         return null;
       } else if (is_int()) {
         try {
-          return (Intern.intern(new Integer(value))); // interning bugfix
+          return (SyncIntern.intern(new Integer(value))); // interning bugfix
         } catch (NumberFormatException t) {
           throw new Error("Unexpected value '" + value + "' for integer variable " + this.name);
         }
       } else if (is_double()) {
         try {
-          return (Intern.intern(new Double(value))); // interning bugfix
+          return (SyncIntern.intern(new Double(value))); // interning bugfix
         } catch (NumberFormatException t) {
           throw new Error("Unexpected string '" + value + "' for double variable " + this.name);
         }
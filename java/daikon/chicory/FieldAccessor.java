@@ -0,0 +1,150 @@
+package daikon.chicory;
+
+import daikon.Chicory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Reads the value of one field, in the form that
+ * {@link DaikonVariableInfo#getDTraceValueString} expects:  primitive
+ * values are wrapped in the corresponding Runtime wrapper class (for
+ * example, {@link Runtime.IntWrap}).  Produces the same values as
+ * {@link DTraceWriter#getValue} and {@link DTraceWriter#getStaticValue}.
+ * <p>
+ *
+ * The accessor is a method handle that reads the field and wraps its
+ * value, created once when the accessor is created.  Reading a field
+ * through it skips the access check and the dispatch on the field's type
+ * that Field.get does for every call.
+ */
+public final class FieldAccessor {
+
+  private static final NonsensicalObject nonsenseValue = NonsensicalObject.getInstance();
+  private static final List<Object> nonsenseList = NonsensicalList.getInstance();
+
+  /** The field that is read. */
+  private final Field field;
+
+  /** True if the field is static. */
+  private final boolean is_static;
+
+  /**
+   * Reads the field and wraps its value.  Of type (Object)Object for an
+   * instance field, and ()Object for a static field.
+   */
+  private final MethodHandle getter;
+
+  public FieldAccessor(Field field) {
+    this.field = field;
+    is_static = Modifier.isStatic(field.getModifiers());
+    if (!field.isAccessible()) field.setAccessible(true);
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      MethodHandle mh = lookup.unreflectGetter(field);
+      Class<?> type = field.getType();
+      if (type.isPrimitive()) {
+        Class<?> wrapper = wrapper_class(type);
+        mh =
+            MethodHandles.filterReturnValue(
+                mh, lookup.findConstructor(wrapper, MethodType.methodType(void.class, type)));
+      }
+      if (is_static) {
+        getter = mh.asType(MethodType.methodType(Object.class));
+      } else {
+        getter = mh.asType(MethodType.methodType(Object.class, Object.class));
+      }
+    } catch (NoSuchMethodException e) {
+      throw new Error("Can't create accessor for " + field, e);
+    } catch (IllegalAccessException e) {
+      throw new Error("Can't create accessor for " + field, e);
+    }
+  }
+
+  /** Returns the Runtime wrapper class for values of the primitive type. */
+  private static Class<?> wrapper_class(Class<?> type) {
+    if (type == int.class) {
+      return Runtime.IntWrap.class;
+    } else if (type == long.class) {
+      return Runtime.LongWrap.class;
+    } else if (type == boolean.class) {
+      return Runtime.BooleanWrap.class;
+    } else if (type == float.class) {
+      return Runtime.FloatWrap.class;
+    } else if (type == byte.class) {
+      return Runtime.ByteWrap.class;
+    } else if (type == char.class) {
+      return Runtime.CharWrap.class;
+    } else if (type == short.class) {
+      return Runtime.ShortWrap.class;
+    } else if (type == double.class) {
+      return Runtime.DoubleWrap.class;
+    } else {
+      throw new Error("Unexpected primitive type " + type);
+    }
+  }
+
+  /**
+   * Returns the value of the field in theObj, or the nonsensical value
+   * if theObj is null or nonsensical.
+   * @see DTraceWriter#getValue
+   */
+  public Object get(/*@Nullable*/ Object theObj) {
+    if ((theObj == null) || (theObj instanceof NonsensicalObject)) {
+      return nonsenseValue;
+    }
+    try {
+      return (Object) getter.invokeExact(theObj);
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * Returns the value of the static field, or the nonsensical value if
+   * its class has not been initialized and Chicory is not to initialize
+   * it.
+   * @see DTraceWriter#getStaticValue
+   */
+  public Object get_static() {
+    if (Chicory.checkStaticInit) {
+      // don't force initialization!
+      if (!Runtime.isInitialized(field.getDeclaringClass().getName())) {
+        return nonsenseValue;
+      }
+    }
+    try {
+      return (Object) getter.invokeExact();
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * Returns a list of the values of the field for each object in
+   * theObjects.
+   * @see DTraceWriter#getFieldValues
+   */
+  public List<Object> get_all(/*@Nullable*/ List<Object> theObjects) {
+    if (theObjects == null || theObjects instanceof NonsensicalList) {
+      return nonsenseList;
+    }
+    List<Object> fieldVals = new ArrayList<Object>(theObjects.size());
+    for (Object theObj : theObjects) {
+      fieldVals.add(get(theObj));
+    }
+    return fieldVals;
+  }
+}
@@ -106,17 +106,33 @@ public class FieldInfo extends DaikonVariableInfo {
     return is_final;
   }
 
+  /**
+   * Reads the field.  Created the first time a value is read, so that
+   * the field is made accessible only if it is traced.  Threads that race
+   * to create it create equivalent accessors.
+   */
+  private /*@MonotonicNonNull*/ FieldAccessor accessor = null;
+
+  private FieldAccessor accessor() {
+    FieldAccessor result = accessor;
+    if (result == null) {
+      result = new FieldAccessor(field);
+      accessor = result;
+    }
+    return result;
+  }
+
   @SuppressWarnings("unchecked")
   public Object getMyValFromParentVal(Object val) {
     if (isArray) {
       @SuppressWarnings("unchecked")
       List<Object> valAsList = (List<Object>) val;
-      return DTraceWriter.getFieldValues(field, valAsList);
+      return accessor().get_all(valAsList);
     } else {
-      if (Modifier.isStatic(field.getModifiers())) {
-        return DTraceWriter.getStaticValue(field);
+      if (is_static) {
+        return accessor().get_static();
       } else {
-        return DTraceWriter.getValue(field, val);
+        return accessor().get(val);
       }
     }
   }
@@ -47,9 +47,15 @@ public class Instrument implements ClassFileTransformer {
   /** Debug information about which classes are transformed and why */
   public static SimpleLog debug_transform = new SimpleLog(Chicory.debug_transform);
 
+  /** Instrumented classes saved by earlier runs, or null if they are not saved */
+  private /*@Nullable*/ InstrumentCache cache = null;
+
   public Instrument() {
     debug = Chicory.debug;
     log_on = Chicory.debug_transform;
+    if (Chicory.instrumentation_cache != null) {
+      cache = new InstrumentCache(Chicory.instrumentation_cache);
+    }
   }
 
   /*@FormatMethod*/
@@ -174,6 +180,14 @@ public class Instrument implements ClassFileTransformer {
     debug_transform.log(
         "transforming class %s, loader %s - %s%n", className, loader, loader.getParent());
 
+    if (cache != null) {
+      InstrumentCache.Entry entry = cache.lookup(fullClassName, classfileBuffer, loader);
+      if (entry != null) {
+        debug_transform.log("using cached instrumentation of class %s%n", fullClassName);
+        return entry.class_bytes;
+      }
+    }
+
     // Parse the bytes of the classfile, die on any errors
     JavaClass c = null;
     ClassParser parser = new ClassParser(new ByteArrayInputStream(classfileBuffer), className);
@@ -240,9 +254,16 @@ public class Instrument implements ClassFileTransformer {
         // System.out.println ("About to dump class " + className +
         //                     " to " + filename);
         // cg.getJavaClass().dump(filename);
-        return (cg.getJavaClass().getBytes());
+        byte[] bytes = cg.getJavaClass().getBytes();
+        if (cache != null) {
+          cache.store(classfileBuffer, c_info, bytes);
+        }
+        return bytes;
       } else {
         debug_transform.log("not including class %s (filtered out)", className);
+        if (cache != null) {
+          cache.store(classfileBuffer, c_info, null);
+        }
         // No changes to the bytecodes
         return null;
       }
@@ -561,10 +582,7 @@ public class Instrument implements ClassFileTransformer {
 
         method_infos.add(mi);
 
-        synchronized (Runtime.class) {
-          cur_method_info_index = Runtime.methods.size();
-          Runtime.methods.add(mi);
-        }
+        cur_method_info_index = Runtime.add_method(mi);
 
         // Add nonce local to matchup enter/exits
         String entry_ppt_name =
@@ -1189,7 +1207,7 @@ public class Instrument implements ClassFileTransformer {
   /**
    * Inserts instrumentation code at the start of the method.  This includes
    * adding a local variable (this_invocation_nonce) that is initialized
-   * to Runtime.nonce++.  This provides a unique id on each method entry/exit
+   * by Runtime.next_nonce().  This provides a unique id on each method entry/exit
    * that allows them to be matched up from the dtrace file.  Inserts code
    * to call Runtime.enter().
    */
@@ -1208,24 +1226,16 @@ public class Instrument implements ClassFileTransformer {
     }
 
     // The following implements:
-    //     this_invocation_nonce = Runtime.nonce++;
-
-    // getstatic Runtime.nonce (push its current value on stack)
-    nl.append(c.ifact.createGetStatic(runtime_classname, "nonce", Type.INT));
-
-    // dup (make a second copy of runtime.nonce on the stack)
-    nl.append(InstructionFactory.createDup(Type.INT.getSize()));
+    //     this_invocation_nonce = Runtime.next_nonce();
+    // Incrementing a static field inline would not be atomic, and threads
+    // that entered methods at the same time could get the same nonce.
 
-    // iconst_1 (push 1 on the stack)
-    nl.append(c.ifact.createConstant(1));
-
-    // iadd (add the top two items on the stack together)
-    nl.append(InstructionFactory.createBinaryOperation("+", Type.INT));
-
-    // putstatic Runtime.nonce (pop result of add to Runtime.nonce)
-    nl.append(c.ifact.createPutStatic(runtime_classname, "nonce", Type.INT));
+    // invokestatic Runtime.next_nonce (push the new nonce on the stack)
+    nl.append(
+        c.ifact.createInvoke(
+            runtime_classname, "next_nonce", Type.INT, Type.NO_ARGS, Const.INVOKESTATIC));
 
-    // istore <lv> (pop original value of nonce into this_invocation_nonce)
+    // istore <lv> (pop the nonce into this_invocation_nonce)
     nl.append(InstructionFactory.createStore(Type.INT, nonce_lv.getIndex()));
 
     // Seems like there should be a easier way to do this.
@@ -0,0 +1,296 @@
+package daikon.chicory;
+
+import daikon.Chicory;
+import java.io.*;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+import org.checkerframework.checker.signature.qual.*;
+*/
+
+/**
+ * An on-disk cache of the classes transformed by {@link Instrument},
+ * shared by all runs of Chicory that use the same cache directory (see
+ * {@link Chicory#instrumentation_cache}).  Each entry holds the
+ * transformed class file and the {@link ClassInfo} and
+ * {@link MethodInfo} information that the transformation registers with
+ * {@link Runtime}.  A later run that loads the same class finds the
+ * entry, registers the same information, and returns the cached class
+ * file without parsing or rewriting the class.
+ * <p>
+ *
+ * An entry is keyed by a hash of the original class file and of
+ * everything else that affects its transformation: the options that
+ * select program points and static initializers, and the Chicory code
+ * itself.  The transformed code refers to each method by its index in
+ * Runtime.methods, so the key also includes the index of the class's
+ * first method.  A run that loads classes in the same order as an
+ * earlier run (as repeated runs of the same program usually do) finds
+ * all of its classes in the cache; classes loaded in a different order
+ * are transformed again and cached under their new index.
+ * <p>
+ *
+ * Entries are written to a temporary file and renamed, so concurrent
+ * runs never see a partial entry.  Unreadable entries are ignored.
+ */
+public class InstrumentCache {
+
+  /** Changed whenever the format of an entry changes. */
+  private static final int FORMAT_VERSION = 1;
+
+  /** The directory that holds the entries. */
+  private final File dir;
+
+  /** Hash of everything other than the class that affects an entry. */
+  private final byte[] options_digest;
+
+  /** A cached transformation of a class. */
+  public static class Entry {
+    /** The transformed class file, or null if the class is not changed. */
+    public final byte /*@Nullable*/ [] class_bytes;
+
+    Entry(byte /*@Nullable*/ [] class_bytes) {
+      this.class_bytes = class_bytes;
+    }
+  }
+
+  public InstrumentCache(File dir) {
+    this.dir = dir;
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new Error("Can't create instrumentation cache directory " + dir);
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append(FORMAT_VERSION).append('\n');
+    sb.append(Chicory.checkStaticInit).append('\n');
+    sb.append(Chicory.instrument_clinit).append('\n');
+    sb.append(Chicory.boot_classes).append('\n');
+    for (Pattern p : Runtime.ppt_omit_pattern) {
+      sb.append("omit ").append(p.pattern()).append('\n');
+    }
+    for (Pattern p : Runtime.ppt_select_pattern) {
+      sb.append("select ").append(p.pattern()).append('\n');
+    }
+    sb.append(code_version());
+    options_digest = digest(sb.toString().getBytes());
+  }
+
+  /**
+   * Returns a description of the Chicory code: the location, size, and
+   * modification time of the jar file or directory it was loaded from.
+   */
+  private static String code_version() {
+    CodeSource source = Instrument.class.getProtectionDomain().getCodeSource();
+    if (source == null) {
+      return "unknown";
+    }
+    URL location = source.getLocation();
+    try {
+      File file = new File(location.toURI());
+      if (file.isDirectory()) {
+        file = new File(file, "daikon/chicory/Instrument.class");
+      }
+      return location + " " + file.length() + " " + file.lastModified();
+    } catch (Exception e) {
+      return location.toString();
+    }
+  }
+
+  private static byte[] digest(byte[]... parts) {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new Error("SHA-256 is not available", e);
+    }
+    for (byte[] part : parts) {
+      md.update(part);
+    }
+    return md.digest();
+  }
+
+  /** Returns the file for the entry of class_name with the given contents and first index. */
+  private File entry_file(String class_name, byte[] classfile, int first_index) {
+    StringBuilder sb = new StringBuilder(class_name).append('-');
+    for (byte b : digest(options_digest, classfile)) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+    sb.append('-').append(first_index).append(".cache");
+    return new File(dir, sb.toString());
+  }
+
+  /**
+   * Looks up the transformation of the class with the given name and
+   * class file.  If it is cached, registers its ClassInfo and MethodInfos
+   * with Runtime, as {@link Instrument#transform} would, and returns it.
+   * Returns null if it is not cached.
+   */
+  public /*@Nullable*/ Entry lookup(
+      /*@BinaryNameForNonArray*/ String class_name, byte[] classfile, ClassLoader loader) {
+    // Hold the lock of add_method, so that the methods get the indices
+    // that the cached code uses.
+    synchronized (Runtime.class) {
+      int first_index = Runtime.methods.size();
+      File file = entry_file(class_name, classfile, first_index);
+      if (!file.exists()) {
+        return null;
+      }
+      ClassInfo class_info = new ClassInfo(class_name, loader);
+      List<MethodInfo> method_infos = new ArrayList<MethodInfo>();
+      byte[] class_bytes = null;
+      try {
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+          if (in.readInt() != FORMAT_VERSION) {
+            return null;
+          }
+          class_info.shouldInclude = in.readBoolean();
+          if (class_info.shouldInclude) {
+            class_bytes = new byte[in.readInt()];
+            in.readFully(class_bytes);
+          }
+          int num_statics = in.readInt();
+          for (int i = 0; i < num_statics; i++) {
+            class_info.staticMap.put(in.readUTF(), in.readUTF());
+          }
+          int num_methods = in.readInt();
+          for (int i = 0; i < num_methods; i++) {
+            method_infos.add(read_method_info(in, class_info));
+          }
+        } finally {
+          in.close();
+        }
+      } catch (IOException e) {
+        // A damaged entry; transform the class again
+        return null;
+      }
+
+      class_info.set_method_infos(method_infos);
+      for (MethodInfo mi : method_infos) {
+        Runtime.add_method(mi);
+      }
+      if (class_info.shouldInclude) {
+        synchronized (Runtime.new_classes) {
+          Runtime.new_classes.add(class_info);
+        }
+        synchronized (Runtime.all_classes) {
+          Runtime.all_classes.add(class_info);
+        }
+      }
+      return new Entry(class_bytes);
+    }
+  }
+
+  /**
+   * Stores the transformation of a class: its original class file, the
+   * ClassInfo that the transformation registered, and the transformed
+   * class file (null if the class was not changed).  Does nothing if the
+   * methods of the class did not get consecutive indices (because
+   * another class was transformed at the same time).
+   */
+  public void store(byte[] classfile, ClassInfo class_info, byte /*@Nullable*/ [] class_bytes) {
+    List<MethodInfo> method_infos = class_info.get_method_infos();
+    int first_index;
+    synchronized (Runtime.class) {
+      first_index = Runtime.methods.size() - method_infos.size();
+      for (int i = 0; i < method_infos.size(); i++) {
+        if ((first_index < 0) || (Runtime.methods.get(first_index + i) != method_infos.get(i))) {
+          return;
+        }
+      }
+    }
+    File file = entry_file(class_info.class_name, classfile, first_index);
+    if (file.exists()) {
+      return;
+    }
+
+    try {
+      File tmp = File.createTempFile("entry", ".tmp", dir);
+      try {
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+          out.writeInt(FORMAT_VERSION);
+          out.writeBoolean(class_bytes != null);
+          if (class_bytes != null) {
+            out.writeInt(class_bytes.length);
+            out.write(class_bytes);
+          }
+          out.writeInt(class_info.staticMap.size());
+          for (Map.Entry<String, String> e : class_info.staticMap.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue());
+          }
+          out.writeInt(method_infos.size());
+          for (MethodInfo mi : method_infos) {
+            write_method_info(out, mi);
+          }
+        } finally {
+          out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        tmp.delete();
+      }
+    } catch (IOException e) {
+      // The cache is only an optimization; the next run transforms the class again
+      Instrument.debug_transform.log("Can't cache %s: %s%n", class_info.class_name, e);
+    }
+  }
+
+  private static void write_method_info(DataOutputStream out, MethodInfo mi) throws IOException {
+    out.writeUTF(mi.method_name);
+    out.writeInt(mi.arg_names.length);
+    for (String name : mi.arg_names) {
+      out.writeUTF(name);
+    }
+    out.writeInt(mi.arg_type_strings.length);
+    for (String type : mi.arg_type_strings) {
+      out.writeUTF(type);
+    }
+    out.writeInt(mi.exit_locations.size());
+    for (Integer line : mi.exit_locations) {
+      out.writeInt(line);
+    }
+    out.writeInt(mi.is_included.size());
+    for (Boolean included : mi.is_included) {
+      out.writeBoolean(included);
+    }
+  }
+
+  @SuppressWarnings("signature") // read back from a string written by write_method_info
+  private static MethodInfo read_method_info(DataInputStream in, ClassInfo class_info)
+      throws IOException {
+    String method_name = in.readUTF();
+    String[] arg_names = new String[in.readInt()];
+    for (int i = 0; i < arg_names.length; i++) {
+      arg_names[i] = in.readUTF();
+    }
+    /*@ClassGetName*/ String[] arg_type_strings = new String[in.readInt()];
+    for (int i = 0; i < arg_type_strings.length; i++) {
+      arg_type_strings[i] = in.readUTF();
+    }
+    int num_exits = in.readInt();
+    List<Integer> exit_locations = new ArrayList<Integer>(num_exits);
+    for (int i = 0; i < num_exits; i++) {
+      exit_locations.add(in.readInt());
+    }
+    int num_included = in.readInt();
+    List<Boolean> is_included = new ArrayList<Boolean>(num_included);
+    for (int i = 0; i < num_included; i++) {
+      is_included.add(in.readBoolean());
+    }
+    return new MethodInfo(
+        class_info, method_name, arg_names, arg_type_strings, exit_locations, is_included);
+  }
+}
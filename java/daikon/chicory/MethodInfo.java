@@ -2,6 +2,7 @@ package daikon.chicory;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*>>>
 import org.checkerframework.checker.lock.qual.*;
@@ -69,11 +70,19 @@ public class MethodInfo {
    */
   public /*@MonotonicNonNull*/ RootInfo traversalExit = null;
 
+  /** traversalEnter, flattened.  Created by {@link #capture_plan}. */
+  private /*@MonotonicNonNull*/ CapturePlan captureEnter = null;
+
+  /** traversalExit, flattened.  Created by {@link #capture_plan}. */
+  private /*@MonotonicNonNull*/ CapturePlan captureExit = null;
+
+  // The counts are atomic because Chicory's Runtime.enter runs on many
+  // threads at once.
   /** The number of times this method has been called */
-  public int call_cnt = 0;
+  private final AtomicInteger call_cnt = new AtomicInteger();
 
   /** The number of times we have captured the output for this method */
-  public int capture_cnt = 0;
+  private final AtomicInteger capture_cnt = new AtomicInteger();
 
   /**
    * Whether or not the method is pure (has no side-effects).
@@ -179,6 +188,29 @@ public class MethodInfo {
     }
   }
 
+  /** Returns the number of times this method has been called. */
+  public int call_cnt() {
+    return call_cnt.get();
+  }
+
+  /**
+   * Records a call to this method, and returns the number of calls
+   * including this one.
+   */
+  public int increment_call_cnt() {
+    return call_cnt.incrementAndGet();
+  }
+
+  /** Returns the number of times we have captured the output for this method. */
+  public int capture_cnt() {
+    return capture_cnt.get();
+  }
+
+  /** Records that the output of a call to this method was captured. */
+  public void increment_capture_cnt() {
+    capture_cnt.incrementAndGet();
+  }
+
   /**
    * Returns true iff this method is a constructor
    * @return true iff this method is a constructor
@@ -220,6 +252,26 @@ public class MethodInfo {
     //                    traversalExit.treeString());
   }
 
+  /**
+   * Returns the flattened form of root, which must be traversalEnter or
+   * traversalExit.  Threads that race to create it create equivalent
+   * plans.
+   */
+  CapturePlan capture_plan(RootInfo root) {
+    boolean is_enter = (root == traversalEnter);
+    assert is_enter || root == traversalExit;
+    CapturePlan plan = is_enter ? captureEnter : captureExit;
+    if (plan == null || plan.root != root) {
+      plan = new CapturePlan(this, root);
+      if (is_enter) {
+        captureEnter = plan;
+      } else {
+        captureExit = plan;
+      }
+    }
+    return plan;
+  }
+
   /*@SideEffectFree*/
   public String toString(/*>>>@GuardSatisfied MethodInfo this*/) {
     String out = "";
@@ -0,0 +1,146 @@
+package daikon.chicory;
+
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*>>>
+import org.checkerframework.checker.lock.qual.*;
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Completed dtrace records, and the background thread that writes them
+ * to the dtrace file.  Each thread of the target program formats its
+ * records into its own buffer (see {@link DTraceWriter}) and adds each
+ * completed record here, so threads do not wait for one another while
+ * formatting.  Records are written in the order in which they were
+ * added.
+ * <p>
+ *
+ * Adding a record does not take a lock.  If the writer falls more than
+ * {@link #MAX_PENDING_BYTES} behind, threads that add records wait for
+ * it to catch up.  Records completed after the queue is closed are not
+ * written, but they are counted (see {@link #dropped_records}).
+ */
+class RecordQueue {
+
+  /** Number of bytes of records that may wait to be written. */
+  static final long MAX_PENDING_BYTES = 64L << 20;
+
+  private final ConcurrentLinkedQueue<byte[]> records = new ConcurrentLinkedQueue<byte[]>();
+
+  /** Total size of the records in the queue. */
+  private final AtomicLong pending_bytes = new AtomicLong();
+
+  /** Where records are written. */
+  private final PrintStream out;
+
+  private final Thread writer;
+
+  /** True while the writer is parked waiting for records. */
+  private volatile boolean writer_waiting = false;
+
+  /** Set by close(); records added afterward are discarded. */
+  private volatile boolean closed = false;
+
+  /** The number of records that were discarded because they were added too late. */
+  private final AtomicLong dropped = new AtomicLong();
+
+  /** Starts the thread that writes records to out. */
+  RecordQueue(PrintStream out) {
+    this.out = out;
+    writer =
+        new Thread("Chicory dtrace writer") {
+          @Override
+          public void run() {
+            write_records();
+          }
+        };
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /** Adds a completed record. */
+  void add(byte[] record) {
+    if (closed) {
+      dropped.incrementAndGet();
+      return;
+    }
+    records.add(record);
+    // If the queue was closed meanwhile, the writer may already have
+    // stopped.  Take the record back unless the writer or close() got it.
+    if (closed && records.remove(record)) {
+      dropped.incrementAndGet();
+      return;
+    }
+    long pending = pending_bytes.addAndGet(record.length);
+    if (writer_waiting) {
+      LockSupport.unpark(writer);
+    }
+    while ((pending > MAX_PENDING_BYTES) && !closed) {
+      LockSupport.unpark(writer);
+      LockSupport.parkNanos(1000000);
+      pending = pending_bytes.get();
+    }
+  }
+
+  /** Body of the writer thread. */
+  private void write_records() {
+    while (true) {
+      byte[] record = records.poll();
+      if (record == null) {
+        if (closed) {
+          break;
+        }
+        out.flush();
+        writer_waiting = true;
+        // Check again, in case a record was added before writer_waiting was set
+        if (records.isEmpty() && !closed) {
+          LockSupport.park(this);
+        }
+        writer_waiting = false;
+        continue;
+      }
+      out.write(record, 0, record.length);
+      pending_bytes.addAndGet(-record.length);
+    }
+    out.flush();
+  }
+
+  /**
+   * Returns the number of records that were discarded because they were
+   * added after close was called.
+   */
+  long dropped_records() {
+    return dropped.get();
+  }
+
+  /**
+   * Writes the records that have been added, then stops the writer
+   * thread.  Records added after this is called are discarded.
+   */
+  synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    LockSupport.unpark(writer);
+    boolean interrupted = false;
+    while (writer.isAlive()) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    // Records added while the writer was finishing
+    while (records.poll() != null) {
+      dropped.incrementAndGet();
+    }
+  }
+}
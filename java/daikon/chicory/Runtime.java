@@ -1,9 +1,13 @@
 package daikon.chicory;
 
+import daikon.BinaryDtrace;
+import daikon.FramedTrace;
 import java.io.*;
 import java.net.*;
 import java.net.Socket;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 
@@ -22,20 +26,15 @@ import org.checkerframework.dataflow.qual.*;
 @SuppressWarnings(
     "initialization.fields.uninitialized") // library initialized in code added by run-time instrumentation
 public class Runtime {
-  /** Unique id for method entry/exit (so they can be matched up) */
-  public static int nonce = 0;
+  /**
+   * Unique id for method entry/exit (so they can be matched up).  Each
+   * instrumented method calls {@link #next_nonce()} on entry.
+   */
+  private static final AtomicInteger nonce = new AtomicInteger();
 
   /** debug flag */
   public static boolean debug = false;
 
-  /**
-   * Flag indicating that a dtrace record is currently being written
-   * used to prevent a call to instrumented code that occurs as part
-   * of generating a dtrace record (eg, toArray when processing lists
-   * or pure functions) from generating a nested dtrace record
-   */
-  public static boolean in_dtrace = false;
-
   /** True if ChicoryPremain was unable to load. */
   public static boolean chicoryLoaderInstantiationError = false;
 
@@ -49,6 +48,13 @@ public class Runtime {
   public static final /*@GuardedBy("<self>")*/ LinkedList<ClassInfo> new_classes =
       new LinkedList<ClassInfo>();
 
+  /**
+   * Number of classes that have been removed from new_classes but whose
+   * decl information has not yet been written.  Another thread must not
+   * trace calls to their methods until they are done.
+   */
+  private static /*@GuardedBy("new_classes")*/ int classes_in_progress = 0;
+
   /** List of all instrumented classes */
   public static final /*@GuardedBy("<self>")*/ List<ClassInfo> all_classes =
       new ArrayList<ClassInfo>();
@@ -60,6 +66,13 @@ public class Runtime {
   public static final /*@GuardedBy("Runtime.class")*/ List<MethodInfo> methods =
       new ArrayList<MethodInfo>();
 
+  /**
+   * The elements of methods, followed by unused space.  A new array is
+   * published whenever a method is added, so that enter and exit can
+   * look up methods without taking a lock.
+   */
+  private static volatile MethodInfo[] method_array = new MethodInfo[1024];
+
   //
   // Control over what classes (ppts) are instrumented
   //
@@ -88,7 +101,7 @@ public class Runtime {
   static long dtraceLimit = Long.MAX_VALUE;
 
   /** Number of records printed to date */
-  static long printedRecords = 0;
+  static final AtomicLong printedRecords = new AtomicLong();
 
   /** Terminate the program when the dtrace limit is reached */
   static boolean dtraceLimitTerminate = false;
@@ -99,8 +112,15 @@ public class Runtime {
   // by a source code checker.
   static /*@GuardedBy("<self>")*/ PrintStream dtrace;
 
+  /**
+   * Writer for samples if the dtrace file is binary (its name ends in
+   * ".bin" or ".bin.gz"), else null.  Other records are written to dtrace,
+   * which is then the writer's text stream.
+   */
+  static /*@Nullable*/ BinaryDtrace.Writer binary_dtrace = null;
+
   /** Set to true when the dtrace stream is closed */
-  static boolean dtrace_closed = false;
+  static volatile boolean dtrace_closed = false;
 
   /** True if no dtrace is being generated.  */
   static boolean no_dtrace = false;
@@ -111,10 +131,27 @@ public class Runtime {
   // Set in ChicoryPremain.premain().
   static DeclWriter decl_writer;
 
-  /** Dtrace writer setup for writing to the trace file */
+  /**
+   * Dtrace writer setup for writing to the trace file.  Used only if
+   * record_queue is null; otherwise each thread has its own DTraceWriter.
+   */
   // Set in ChicoryPremain.premain().
   static /*@GuardedBy("Runtime.class")*/ DTraceWriter dtrace_writer;
 
+  /**
+   * Completed records waiting to be written to dtrace by a background
+   * thread, or null if records are written to dtrace directly while
+   * holding the Runtime.class lock.  Set by start_record_queue().
+   */
+  static /*@Nullable*/ RecordQueue record_queue = null;
+
+  /**
+   * Buffer for the output of decl_writer, if record_queue is non-null.
+   * Its contents are added to record_queue after each class is processed.
+   */
+  private static /*@GuardedBy("Runtime.class")*/ /*@Nullable*/ ByteArrayOutputStream decl_buffer =
+      null;
+
   /**
    * Which static initializers have been run.
    * Each element of the Set is a fully qualified class name.
@@ -128,16 +165,42 @@ public class Runtime {
     /** whether or not the call was captured on enter */
     boolean captured;
 
-    /*@Holding("Runtime.class")*/
     public CallInfo(int nonce, boolean captured) {
       this.nonce = nonce;
       this.captured = captured;
     }
   }
 
-  /** Stack of active methods. */
-  private static /*@GuardedBy("Runtime.class")*/ Map<Thread, Stack<CallInfo>> thread_to_callstack =
-      new LinkedHashMap<Thread, Stack<CallInfo>>();
+  /** The state of Chicory for one thread of the target program. */
+  private static class ThreadState {
+    /**
+     * Flag indicating that a dtrace record is currently being written
+     * used to prevent a call to instrumented code that occurs as part
+     * of generating a dtrace record (eg, toArray when processing lists
+     * or pure functions) from generating a nested dtrace record
+     */
+    boolean in_dtrace = false;
+
+    /**
+     * True while a pure method is being called to create a value for the
+     * trace file.  Calls made by the pure method are not recorded.
+     */
+    boolean invoking_pure = false;
+
+    /** Stack of active methods.  Used only when sampling. */
+    final Stack<CallInfo> callstack = new Stack<CallInfo>();
+
+    /** Writes this thread's records to record_queue.  Created on first use. */
+    /*@MonotonicNonNull*/ DTraceWriter writer = null;
+  }
+
+  private static final ThreadLocal<ThreadState> thread_state =
+      new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+          return new ThreadState();
+        }
+      };
 
   /**
    * Sample count at a call site to begin sampling.  All previous calls
@@ -171,28 +234,90 @@ public class Runtime {
 
   // Whenever a method call occurs in the target program, output
   // information about that call to the trace file.  However, if the
-  // method is a pure method that is being called to create a value for
-  // the trace file, don't record it.
-  // TODO: invokingPure should be annotated with @GuardedByName("Runtime.class")
-  // once that annotation is available.  Currently all the methods that access
-  // invokingPure are annotated with @Holding("Runtime.class"), but annotating
-  // the boolean would prevent any new methods from accessing it without holding
-  // the lock.
-  private static boolean invokingPure = false;
-
-  /*@Holding("Runtime.class")*/
+  // method is a pure method that is being called (by the same thread) to
+  // create a value for the trace file, don't record it.
   public static boolean dontProcessPpts() {
-    return invokingPure;
+    return thread_state.get().invoking_pure;
   }
 
-  /*@Holding("Runtime.class")*/
   public static void startPure() {
-    invokingPure = true;
+    thread_state.get().invoking_pure = true;
   }
 
-  /*@Holding("Runtime.class")*/
   public static void endPure() {
-    invokingPure = false;
+    thread_state.get().invoking_pure = false;
+  }
+
+  /**
+   * Adds mi to methods and returns its index, which is passed to enter
+   * and exit by the instrumented code.
+   */
+  public static synchronized int add_method(MethodInfo mi) {
+    int index = methods.size();
+    methods.add(mi);
+    MethodInfo[] array = method_array;
+    if (index >= array.length) {
+      array = Arrays.copyOf(array, 2 * array.length);
+    }
+    array[index] = mi;
+    // Publish the new element (the volatile write is needed even if the
+    // array is unchanged)
+    method_array = array;
+    return index;
+  }
+
+  /** Returns the MethodInfo with the given index in methods. */
+  private static MethodInfo get_method(int mi_index) {
+    MethodInfo mi = method_array[mi_index];
+    assert mi != null : "@AssumeAssertion(nullness): index was returned by add_method";
+    return mi;
+  }
+
+  /**
+   * Makes each thread format its records into a buffer of its own, to be
+   * written to dtrace by a background thread.  Does nothing if there is
+   * no dtrace or it is binary, in which case records are written to
+   * dtrace while holding the Runtime.class lock.
+   */
+  static synchronized void start_record_queue() {
+    if ((dtrace == null) || (binary_dtrace != null) || (record_queue != null)) {
+      return;
+    }
+    record_queue = new RecordQueue(dtrace);
+    decl_buffer = new ByteArrayOutputStream();
+    decl_writer = new DeclWriter(new PrintStream(decl_buffer));
+  }
+
+  /**
+   * Returns the DTraceWriter to use for the current thread.  If
+   * record_queue is null, the caller must hold the Runtime.class lock
+   * while using it.
+   */
+  private static DTraceWriter get_dtrace_writer(ThreadState state) {
+    RecordQueue queue = record_queue;
+    if (queue == null) {
+      return dtrace_writer;
+    }
+    if (state.writer == null) {
+      state.writer = new DTraceWriter(queue);
+    }
+    return state.writer;
+  }
+
+  /**
+   * Writes out the decl information for any classes that are new, or
+   * waits for another thread to do so.
+   */
+  private static void process_new_classes_maybe() {
+    int num_new_classes = 0;
+    synchronized (new_classes) {
+      num_new_classes = new_classes.size() + classes_in_progress;
+    }
+    if (num_new_classes > 0) {
+      synchronized (Runtime.class) {
+        process_new_classes();
+      }
+    }
   }
 
   /**
@@ -204,78 +329,81 @@ public class Runtime {
    * @param mi_index index in methods of the MethodInfo for this method
    * @param args array of arguments to method
    */
-  public static synchronized void enter(
-      /*@Nullable*/ Object obj, int nonce, int mi_index, Object[] args) {
+  public static void enter(/*@Nullable*/ Object obj, int nonce, int mi_index, Object[] args) {
+
+    ThreadState state = thread_state.get();
 
     if (debug) {
-      MethodInfo mi = methods.get(mi_index);
+      MethodInfo mi = get_method(mi_index);
       System.out.printf(
           "%smethod_entry %s.%s%n", method_indent, mi.class_info.class_name, mi.method_name);
       method_indent = method_indent.concat("  ");
     }
 
-    if (dontProcessPpts()) return;
+    if (state.invoking_pure) return;
 
     // Make sure that the in_dtrace flag matches the stack trace
     // check_in_dtrace();
 
     // Ignore this call if we are already processing a dtrace record
-    if (in_dtrace) return;
+    if (state.in_dtrace) return;
 
     // Note that we are processing a dtrace record until we return
-    in_dtrace = true;
+    state.in_dtrace = true;
     try {
-      int num_new_classes = 0;
-      synchronized (new_classes) {
-        num_new_classes = new_classes.size();
-      }
-      if (num_new_classes > 0) {
-        process_new_classes();
-      }
+      process_new_classes_maybe();
 
-      MethodInfo mi = methods.get(mi_index);
-      mi.call_cnt++;
+      MethodInfo mi = get_method(mi_index);
+      // Each call gets its own count, even when several threads call the
+      // same method at once, so sampling is exact.
+      int call_cnt = mi.increment_call_cnt();
 
       // If sampling, check to see if we are capturing this sample
       boolean capture = true;
       if (sample_start > 0) {
-        if (mi.call_cnt <= sample_start) {
+        if (call_cnt <= sample_start) {
           ;
-        } else if (mi.call_cnt <= (sample_start * 10)) {
-          capture = (mi.call_cnt % 10) == 0;
-        } else if (mi.call_cnt <= (sample_start * 100)) {
-          capture = (mi.call_cnt % 100) == 0;
-        } else if (mi.call_cnt <= (sample_start * 1000)) {
-          capture = (mi.call_cnt % 1000) == 0;
+        } else if (call_cnt <= (sample_start * 10)) {
+          capture = (call_cnt % 10) == 0;
+        } else if (call_cnt <= (sample_start * 100)) {
+          capture = (call_cnt % 100) == 0;
+        } else if (call_cnt <= (sample_start * 1000)) {
+          capture = (call_cnt % 1000) == 0;
         } else {
-          capture = (mi.call_cnt % 10000) == 0;
-        }
-        Thread t = Thread.currentThread();
-        Stack<CallInfo> callstack = thread_to_callstack.get(t);
-        if (callstack == null) {
-          callstack = new Stack<CallInfo>();
-          thread_to_callstack.put(t, callstack);
+          capture = (call_cnt % 10000) == 0;
         }
-        callstack.push(new CallInfo(nonce, capture));
+        state.callstack.push(new CallInfo(nonce, capture));
       }
 
       if (capture) {
-        mi.capture_cnt++;
+        mi.increment_capture_cnt();
         // long start = System.currentTimeMillis();
-        if (mi.member == null) {
-          dtrace_writer.clinitEntry(mi.class_info.class_name + ".<clinit>:::ENTER", nonce);
+        if (record_queue != null) {
+          write_entry(get_dtrace_writer(state), mi, nonce, obj, args);
         } else {
-          dtrace_writer.methodEntry(mi, nonce, obj, args);
+          synchronized (Runtime.class) {
+            write_entry(dtrace_writer, mi, nonce, obj, args);
+          }
         }
         // long duration = System.currentTimeMillis() - start;
         //System.out.println ("Enter " + mi + " " + duration + "ms"
-        //                 + " " + mi.capture_cnt + "/" + mi.call_cnt);
+        //                 + " " + mi.capture_cnt() + "/" + mi.call_cnt());
       } else {
         //System.out.println ("skipped " + mi
-        //                 + " " + mi.capture_cnt + "/" + mi.call_cnt);
+        //                 + " " + mi.capture_cnt() + "/" + mi.call_cnt());
       }
     } finally {
-      in_dtrace = false;
+      state.in_dtrace = false;
+    }
+  }
+
+  /** Writes the record for entry to mi. */
+  private static void write_entry(
+      DTraceWriter writer, MethodInfo mi, int nonce, /*@Nullable*/ Object obj, Object[] args) {
+    if (mi.member == null) {
+      writer.clinitEntry(mi.class_info.class_name + ".<clinit>:::ENTER", nonce);
+    } else {
+      writer.methodEntry(mi, nonce, obj, args);
     }
   }
 
@@ -290,7 +418,7 @@ public class Runtime {
    * @param ret_val return value of method.  null if method is void
    * @param exitLineNum the line number at which this method exited
    */
-  public static synchronized void exit(
+  public static void exit(
       /*@Nullable*/ Object obj,
       int nonce,
       int mi_index,
@@ -298,44 +426,39 @@ public class Runtime {
       Object ret_val,
       int exitLineNum) {
 
+    ThreadState state = thread_state.get();
+
     if (debug) {
-      MethodInfo mi = methods.get(mi_index);
+      MethodInfo mi = get_method(mi_index);
       method_indent = method_indent.substring(2);
       System.out.printf(
           "%smethod_exit  %s.%s%n", method_indent, mi.class_info.class_name, mi.method_name);
     }
 
-    if (dontProcessPpts()) return;
+    if (state.invoking_pure) return;
 
     // Make sure that the in_dtrace flag matches the stack trace
     // check_in_dtrace();
 
     // Ignore this call if we are already processing a dtrace record
-    if (in_dtrace) return;
+    if (state.in_dtrace) return;
 
     // Note that we are processing a dtrace record until we return
-    in_dtrace = true;
+    state.in_dtrace = true;
     try {
 
-      int num_new_classes = 0;
-      synchronized (new_classes) {
-        num_new_classes = new_classes.size();
-      }
-      if (num_new_classes > 0) {
-        process_new_classes();
-      }
+      process_new_classes_maybe();
 
       // Skip this call if it was not sampled at entry to the method
       if (sample_start > 0) {
         CallInfo ci = null;
-        @SuppressWarnings("nullness") // map: key was put in map by enter()
-        /*@NonNull*/ Stack<CallInfo> callstack = thread_to_callstack.get(Thread.currentThread());
+        Stack<CallInfo> callstack = state.callstack;
         while (!callstack.empty()) {
           ci = callstack.pop();
           if (ci.nonce == nonce) break;
         }
         if (ci == null) {
-          System.out.printf("no enter for exit %s%n", methods.get(mi_index));
+          System.out.printf("no enter for exit %s%n", get_method(mi_index));
           return;
         } else if (!ci.captured) {
           return;
@@ -343,18 +466,35 @@ public class Runtime {
       }
 
       // Write out the infromation for this method
-      MethodInfo mi = methods.get(mi_index);
+      MethodInfo mi = get_method(mi_index);
       // long start = System.currentTimeMillis();
-      if (mi.member == null) {
-        dtrace_writer.clinitExit(
-            mi.class_info.class_name + ".<clinit>:::EXIT" + exitLineNum, nonce);
+      if (record_queue != null) {
+        write_exit(get_dtrace_writer(state), mi, nonce, obj, args, ret_val, exitLineNum);
       } else {
-        dtrace_writer.methodExit(mi, nonce, obj, args, ret_val, exitLineNum);
+        synchronized (Runtime.class) {
+          write_exit(dtrace_writer, mi, nonce, obj, args, ret_val, exitLineNum);
+        }
       }
       // long duration = System.currentTimeMillis() - start;
       // System.out.println ("Exit " + mi + " " + duration + "ms");
     } finally {
-      in_dtrace = false;
+      state.in_dtrace = false;
+    }
+  }
+
+  /** Writes the record for exit from mi. */
+  private static void write_exit(
+      DTraceWriter writer,
+      MethodInfo mi,
+      int nonce,
+      /*@Nullable*/ Object obj,
+      Object[] args,
+      Object ret_val,
+      int exitLineNum) {
+    if (mi.member == null) {
+      writer.clinitExit(mi.class_info.class_name + ".<clinit>:::EXIT" + exitLineNum, nonce);
+    } else {
+      writer.methodExit(mi, nonce, obj, args, ret_val, exitLineNum);
     }
   }
 
@@ -364,6 +504,7 @@ public class Runtime {
    */
   private static void check_in_dtrace() {
 
+    boolean in_dtrace = thread_state.get().in_dtrace;
     Throwable st = new Throwable();
     st.fillInStackTrace();
     List<StackTraceElement> enter_exit_list = new ArrayList<StackTraceElement>();
@@ -425,38 +566,57 @@ public class Runtime {
       synchronized (new_classes) {
         if (new_classes.size() > 0) {
           class_info = new_classes.removeFirst();
+          classes_in_progress++;
         }
       }
       if (class_info == null) break;
 
-      if (debug) System.out.println("processing class " + class_info.class_name);
-      if (first_class) {
-        decl_writer.printHeaderInfo(class_info.class_name);
-        first_class = false;
-      }
-      class_info.initViaReflection();
-      // class_info.dump (System.out);
+      try {
+        if (debug) System.out.println("processing class " + class_info.class_name);
+        if (first_class) {
+          decl_writer.printHeaderInfo(class_info.class_name);
+          first_class = false;
+        }
+        class_info.initViaReflection();
+        // class_info.dump (System.out);
 
-      // Create tree structure for all method entries/exits in the class
-      for (MethodInfo mi : class_info.method_infos) {
-        mi.traversalEnter = RootInfo.enter_process(mi, Runtime.nesting_depth);
-        mi.traversalExit = RootInfo.exit_process(mi, Runtime.nesting_depth);
-      }
+        // Create tree structure for all method entries/exits in the class
+        for (MethodInfo mi : class_info.method_infos) {
+          mi.traversalEnter = RootInfo.enter_process(mi, Runtime.nesting_depth);
+          mi.traversalExit = RootInfo.exit_process(mi, Runtime.nesting_depth);
+        }
 
-      decl_writer.printDeclClass(class_info, comp_info);
+        decl_writer.printDeclClass(class_info, comp_info);
+        if ((record_queue != null) && (decl_buffer != null)) {
+          record_queue.add(decl_buffer.toByteArray());
+          decl_buffer.reset();
+        }
+      } finally {
+        synchronized (new_classes) {
+          classes_in_progress--;
+        }
+      }
     }
   }
 
+  /**
+   * Returns a new nonce.  Instrumented code calls this on entry to each
+   * method, from any thread, so the nonce is incremented atomically.
+   */
+  public static int next_nonce() {
+    return nonce.getAndIncrement();
+  }
+
   /** Increment the number of records that have been printed. */
   public static void incrementRecords() {
-    printedRecords++;
+    long printed = printedRecords.incrementAndGet();
 
     // This should only print a percentage if dtraceLimit is not its
     // default value.
     // if (printedRecords%1000 == 0)
     //     System.out.printf("printed=%d, percent printed=%f%n", printedRecords, (float)(100.0*(float)printedRecords/(float)dtraceLimit));
 
-    if (printedRecords >= dtraceLimit) {
+    if (printed >= dtraceLimit) {
       noMoreOutput();
     }
   }
@@ -466,9 +626,10 @@ public class Runtime {
    * is terminated.
    */
   public static void noMoreOutput() {
-    // The incrementRecords method (which calls this) is called inside a
-    // synchronized block, but re-synchronize just to be sure, or in case
-    // this is called from elsewhere.
+    // incrementRecords (which calls this) is not synchronized, and the
+    // threads that write records call it concurrently, so several of them
+    // may reach the limit at once.  The dtrace lock, and the check of
+    // dtrace_closed under it, make sure that only one closes the file.
 
     // Runtime.dtrace should be effectively final in that it refers
     // to the same value throughout the execution of the synchronized
@@ -480,10 +641,23 @@ public class Runtime {
     // is not effectively final, this would unfortunately mask that error.
     final /*@GuardedBy("<self>")*/ PrintStream dtrace = Runtime.dtrace;
 
+    // Write the records that are waiting, so that they precede the EOF
+    // line.  This can't hold the dtrace lock, which the writer thread
+    // takes to write each record; records that other threads complete
+    // meanwhile are counted and noted in the file instead.
+    if (record_queue != null) {
+      record_queue.close();
+    }
+
     synchronized (dtrace) {
+      // Another thread may have reached the limit at the same time
+      if (dtrace_closed) {
+        return;
+      }
       // The shutdown hook is synchronized on this, so close it up
       // ourselves, lest the call to System.exit cause deadlock.
       dtrace.println();
+      print_dropped_records(dtrace);
       dtrace.println("# EOF (added by no_more_output)");
       dtrace.close();
 
@@ -505,6 +679,25 @@ public class Runtime {
     }
   }
 
+  /**
+   * Notes in the dtrace file how many records were completed but not
+   * written, because other threads completed them while the file was
+   * being closed.  The caller must hold the lock on dtrace.
+   */
+  private static void print_dropped_records(PrintStream dtrace) {
+    long dropped = (record_queue == null) ? 0 : record_queue.dropped_records();
+    if (dropped > 0) {
+      dtrace.println("# " + dropped + " records were completed too late to be written");
+    }
+  }
+
+  /**
+   * If true, in online mode the target program waits when Daikon falls
+   * behind, rather than buffering the trace on disk (see
+   * Chicory.daikon_online_block and {@link FramedTrace.Output}).
+   */
+  public static boolean online_block = false;
+
   /*@EnsuresNonNull("dtrace")*/
   public static void setDtraceOnlineMode(int port) {
     dtraceLimit = Long.getLong("DTRACELIMIT", Integer.MAX_VALUE).longValue();
@@ -529,7 +722,10 @@ public class Runtime {
     }
 
     try {
-      dtrace = new PrintStream(daikonSocket.getOutputStream());
+      // Frames are sent by a separate thread, so tracing does not wait
+      // for each network write.
+      dtrace =
+          new PrintStream(new FramedTrace.Output(daikonSocket.getOutputStream(), online_block));
     } catch (IOException e) {
       System.out.println("IOException connecting to Daikon : " + e.getMessage() + ". Exiting");
       System.exit(1);
@@ -572,7 +768,15 @@ public class Runtime {
 
       // 8192 is the buffer size in BufferedReader
       BufferedOutputStream bos = new BufferedOutputStream(os, 8192);
-      dtrace = new PrintStream(bos);
+      if (BinaryDtrace.is_binary_filename(filename)) {
+        if (append) {
+          throw new Error("Cannot append to binary dtrace file " + filename);
+        }
+        binary_dtrace = new BinaryDtrace.Writer(bos);
+        dtrace = binary_dtrace.text_stream();
+      } else {
+        dtrace = new PrintStream(bos);
+      }
     } catch (Exception e) {
       e.printStackTrace();
       throw new Error(e);
@@ -631,6 +835,9 @@ public class Runtime {
                   // of the "dtrace" (PrintStream) object are not flushed,
                   // so we miss the tail of the file.
 
+                  if (record_queue != null) {
+                    record_queue.close();
+                  }
                   synchronized (Runtime.dtrace) {
                     dtrace.println();
                     // These are for debugging, I assume. -MDE
@@ -640,6 +847,7 @@ public class Runtime {
                     for (Pattern p : ppt_select_pattern) {
                       dtrace.println("# ppt-select-pattern: " + p);
                     }
+                    print_dropped_records(dtrace);
                     // This lets us know we didn't lose any data.
                     dtrace.println("# EOF (added by Runtime.addShutdownHook)");
                     dtrace.close();
@@ -654,9 +862,15 @@ public class Runtime {
                     System.out.println(
                         "Check the --ppt-select-pattern and --ppt-omit-pattern options");
                   }
-                } else if (printedRecords == 0) {
+                } else if (printedRecords.get() == 0) {
                   System.out.println("Chicory warning: no records were printed");
                 }
+                if ((record_queue != null) && (record_queue.dropped_records() > 0)) {
+                  System.out.printf(
+                      "Chicory warning: %d records were completed after the dtrace file was closed,"
+                          + " and were not written%n",
+                      record_queue.dropped_records());
+                }
               }
             });
   }
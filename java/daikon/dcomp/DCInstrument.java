@@ -48,6 +48,7 @@ class DCInstrument {
   protected static Type[] object_string = new Type[] {Type.OBJECT, Type.STRING};
   protected static Type[] two_ints = new Type[] {Type.INT, Type.INT};
   protected static Type[] object_int = new Type[] {Type.OBJECT, Type.INT};
+  protected static Type[] two_objects_int = new Type[] {Type.OBJECT, Type.OBJECT, Type.INT};
   protected static Type[] string_arg = new Type[] {Type.STRING};
   protected static Type[] integer_arg = new Type[] {Type.INT};
   protected static Type[] float_arg = new Type[] {Type.FLOAT};
@@ -1009,6 +1010,9 @@ class DCInstrument {
       }
     }
 
+    // Add tag fields for each primitive in the class, if tags are kept there
+    if (has_shadow_tag_fields(classname)) add_tag_fields();
+
     // Add tag accessor methods for each primitive in the class
     create_tag_accessors(gen);
 
@@ -4725,22 +4729,48 @@ class DCInstrument {
     return true;
   }
 
+  /**
+   * Returns whether the tags of the primitive instance fields declared
+   * in the specified class are kept in tag fields added to the class
+   * (see add_tag_fields) rather than in DCRuntime.field_map.  This is
+   * only done with --shadow-tag-fields, and only for the classes that
+   * instrument() adds the tag fields to.  The tag accessors of every
+   * class, and DCRuntime when it reads the tags, make the same decision
+   * based on the class that declares the field, so a tag is always
+   * stored and read in the same place.
+   */
+  public static boolean has_shadow_tag_fields(/*@ClassGetName*/ String classname) {
+    if (!DynComp.shadow_tag_fields || DynComp.no_primitives || (DynComp.branch != null)) {
+      return false;
+    }
+    if (BCELUtil.in_jdk(classname)) {
+      return false;
+    }
+    return !(classname.startsWith("daikon.chicory")
+        || classname.startsWith("daikon.util")
+        || (classname.startsWith("daikon.dcomp") && !classname.startsWith("daikon.dcomp.Test")));
+  }
+
   /**
    * Adds a tag field that parallels each primitive field in the class.
    * The tag field is of type object and holds the tag associated with that
-   * primitive
+   * primitive.  Tag fields are public, so that the tag accessors of
+   * subclasses can use them, and transient, so that serializing an
+   * object does not serialize its tags.
    */
   public void add_tag_fields() {
 
     // Add fields for tag storage for each primitive field
     for (Field field : gen.getFields()) {
       if (is_primitive(field.getType()) && !field.isStatic()) {
+        int flags =
+            (field.getAccessFlags()
+                    & ~(Const.ACC_PRIVATE | Const.ACC_PROTECTED | Const.ACC_FINAL))
+                | Const.ACC_PUBLIC
+                | Const.ACC_TRANSIENT
+                | Const.ACC_SYNTHETIC;
         FieldGen tag_field =
-            new FieldGen(
-                field.getAccessFlags() | Const.ACC_SYNTHETIC,
-                Type.OBJECT,
-                DCRuntime.tag_field_name(field.getName()),
-                pool);
+            new FieldGen(flags, Type.OBJECT, DCRuntime.tag_field_name(field.getName()), pool);
         gen.addField(tag_field.getField());
       }
     }
@@ -4804,6 +4834,9 @@ class DCInstrument {
         String full_name = full_name(orig_class, f);
         get_method = create_get_tag(gen, f, static_map.get(full_name));
         set_method = create_set_tag(gen, f, static_map.get(full_name));
+      } else if (has_shadow_tag_fields(classname)) {
+        get_method = create_get_shadow_tag(gen, classname, f, field_map.get(f));
+        set_method = create_set_shadow_tag(gen, classname, f, field_map.get(f));
       } else {
         get_method = create_get_tag(gen, f, field_map.get(f));
         set_method = create_set_tag(gen, f, field_map.get(f));
@@ -4835,6 +4868,10 @@ class DCInstrument {
           String full_name = full_name(super_class, f);
           get_method = create_get_tag(gen, f, static_map.get(full_name));
           set_method = create_set_tag(gen, f, static_map.get(full_name));
+        } else if (has_shadow_tag_fields(super_class.getClassName())) {
+          String super_name = super_class.getClassName();
+          get_method = create_get_shadow_tag(gen, super_name, f, field_map.get(f));
+          set_method = create_set_shadow_tag(gen, super_name, f, field_map.get(f));
         } else {
           get_method = create_get_tag(gen, f, field_map.get(f));
           set_method = create_set_tag(gen, f, field_map.get(f));
@@ -5019,6 +5056,110 @@ class DCInstrument {
     return set_method;
   }
 
+  /**
+   * Creates a get tag method for instance field f, whose tag is kept in
+   * the tag field added to the class that declares f (see
+   * add_tag_fields).  The tag in the tag field will be pushed on the tag
+   * stack.  If the field has no tag yet, a new tag is stored in the tag
+   * field and pushed.
+   *
+   *  void <field>_<class>__$get_tag() {
+   *    this.<field>__$tag
+   *      = DCRuntime.push_shadow_field_tag (this, this.<field>__$tag, tag_offset);
+   *  }
+   *
+   * @param gen class whose accessors are being built. Not
+   *          necessarily the class declaring f (if f is inherited)
+   * @param declaring_class class that declares f
+   * @param f field to build an accessor for
+   * @param tag_offset offset of f in the tag storage for this field
+   */
+  public MethodGen create_get_shadow_tag(
+      ClassGen gen, String declaring_class, Field f, int tag_offset) {
+
+    String classname = gen.getClassName();
+    String accessor_name = tag_method_name(GET_TAG, classname, f.getName());
+    String tag_field = DCRuntime.tag_field_name(f.getName());
+
+    InstructionList il = new InstructionList();
+
+    il.append(InstructionFactory.createThis());
+    il.append(InstructionFactory.createThis());
+    il.append(ifact.createFieldAccess(declaring_class, tag_field, Type.OBJECT, Const.GETFIELD));
+    il.append(ifact.createConstant(tag_offset));
+    il.append(dcr_call("push_shadow_field_tag", Type.OBJECT, two_objects_int));
+    il.append(ifact.createFieldAccess(declaring_class, tag_field, Type.OBJECT, Const.PUTFIELD));
+    il.append(InstructionFactory.createReturn(Type.VOID));
+
+    // Create the get accessor method
+    MethodGen get_method =
+        new MethodGen(
+            f.getAccessFlags() | Const.ACC_FINAL,
+            Type.VOID,
+            Type.NO_ARGS,
+            new String[] {},
+            accessor_name,
+            classname,
+            il,
+            pool);
+    get_method.isPrivate(false);
+    get_method.isProtected(false);
+    get_method.isPublic(true);
+    get_method.setMaxLocals();
+    get_method.setMaxStack();
+
+    return get_method;
+  }
+
+  /**
+   * Creates a set tag method for instance field f, whose tag is kept in
+   * the tag field added to the class that declares f (see
+   * add_tag_fields).  The tag on the top of the tag stack will be popped
+   * off and stored in the tag field.
+   *
+   *  void <field>_<class>__$set_tag() {
+   *    this.<field>__$tag = DCRuntime.pop_shadow_field_tag (this, tag_offset);
+   *  }
+   *
+   * @param gen class whose accessors are being built. Not
+   *          necessarily the class declaring f (if f is inherited)
+   * @param declaring_class class that declares f
+   * @param f field to build an accessor for
+   * @param tag_offset offset of f in the tag storage for this field
+   */
+  public MethodGen create_set_shadow_tag(
+      ClassGen gen, String declaring_class, Field f, int tag_offset) {
+
+    String classname = gen.getClassName();
+    String accessor_name = tag_method_name(SET_TAG, classname, f.getName());
+    String tag_field = DCRuntime.tag_field_name(f.getName());
+
+    InstructionList il = new InstructionList();
+
+    il.append(InstructionFactory.createThis());
+    il.append(InstructionFactory.createThis());
+    il.append(ifact.createConstant(tag_offset));
+    il.append(dcr_call("pop_shadow_field_tag", Type.OBJECT, object_int));
+    il.append(ifact.createFieldAccess(declaring_class, tag_field, Type.OBJECT, Const.PUTFIELD));
+    il.append(InstructionFactory.createReturn(Type.VOID));
+
+    // Create the set accessor method
+    MethodGen set_method =
+        new MethodGen(
+            f.getAccessFlags() | Const.ACC_FINAL,
+            Type.VOID,
+            Type.NO_ARGS,
+            new String[] {},
+            accessor_name,
+            classname,
+            il,
+            pool);
+    set_method.setMaxLocals();
+    set_method.setMaxStack();
+
+    return set_method;
+  }
+
   /**
    * Adds the DCompInstrumented interface to the given class.
    * Adds the following method to the class, so that it implements the
@@ -86,7 +86,8 @@ public final class DCRuntime {
 
   /**
    * Map from each object to the tags used for each primitive value in
-   * the object.
+   * the object.  Not used for the fields of classes that keep their tags
+   * in tag fields (see {@link DCInstrument#has_shadow_tag_fields}).
    */
   public static WeakIdentityHashMap<Object, Object[]> field_map =
       new WeakIdentityHashMap<Object, Object[]>();
@@ -960,7 +961,7 @@ public final class DCRuntime {
     }
 
     MethodInfo mi = methods.get(mi_index);
-    mi.call_cnt++;
+    mi.increment_call_cnt();
     ClassInfo ci = mi.class_info;
     if (ci.clazz == null) {
       ci.initViaReflection();
@@ -1017,7 +1018,7 @@ public final class DCRuntime {
     }
 
     MethodInfo mi = methods.get(mi_index);
-    mi.call_cnt++;
+    mi.increment_call_cnt();
     ClassInfo ci = mi.class_info;
     if (ci.clazz == null) {
       ci.initViaReflection();
@@ -1828,7 +1829,7 @@ public final class DCRuntime {
       for (MethodInfo mi : ci.method_infos) {
         if (mi.is_class_init()) continue;
         method_cnt++;
-        System.out.printf("  Processing method %s [%d calls]%n", mi, mi.call_cnt);
+        System.out.printf("  Processing method %s [%d calls]%n", mi, mi.call_cnt());
         if (mi.traversalEnter == null) {
           System.out.printf("  Skipping method %s%n", mi);
           continue;
@@ -2641,6 +2642,78 @@ public final class DCRuntime {
         obj_tags[field_num]);
   }
 
+  /**
+   * Pushes the tag of a field whose tag is kept in a tag field of obj
+   * (see {@link DCInstrument#create_get_shadow_tag}) on the tag stack.
+   * tag is the current value of the tag field.  If it is null, the field
+   * has not been assigned a tag, so a new tag is created.  Returns the
+   * tag pushed, which the caller stores back in the tag field.
+   */
+  public static Object push_shadow_field_tag(Object obj, /*@Nullable*/ Object tag, int field_num) {
+    if (tag == null) {
+      Throwable stack_trace = new Throwable();
+      stack_trace.fillInStackTrace();
+      tag =
+          new UninitFieldTag(obj.getClass().getName() + ":uninit-field:" + field_num, stack_trace);
+    }
+    tag_stack.push(tag);
+    if (debug_primitive.enabled()) {
+      debug_primitive.log(
+          "push_shadow_field_tag %s [%s] %d = %s%n",
+          obj,
+          obj.getClass().getName(),
+          field_num,
+          tag);
+    }
+    return tag;
+  }
+
+  /**
+   * Pops the tag from the top of the tag stack and returns it, to be
+   * stored in the tag field of the specified field of obj (see
+   * {@link DCInstrument#create_set_shadow_tag}).
+   */
+  public static Object pop_shadow_field_tag(Object obj, int field_num) {
+    check_method_marker();
+    Object tag = tag_stack.pop();
+    assert tag != null : "Object " + obj.getClass() + " '" + obj + "' field_num " + field_num;
+    debug_primitive.log(
+        "pop_shadow_field_tag (%s [%s] %d = %s%n",
+        obj.getClass(),
+        obj.getClass().getName(),
+        field_num,
+        tag);
+    return tag;
+  }
+
+  /**
+   * Returns the tag field that holds the tag of the field fi, or null if
+   * the tag is kept in field_map.  The tag field is declared in the same
+   * class as the field.
+   */
+  static /*@Nullable*/ Field shadow_tag_field(FieldInfo fi) {
+    Field field = fi.getField();
+    Field tag_field;
+    try {
+      tag_field = field.getDeclaringClass().getDeclaredField(tag_field_name(field.getName()));
+    } catch (NoSuchFieldException e) {
+      return null;
+    }
+    if (!tag_field.isAccessible()) tag_field.setAccessible(true);
+    return tag_field;
+  }
+
+  /**
+   * Returns the tag in tag_field of parent, or nonsensical if parent is
+   * not an object that has the field (such as null or nonsensical) or if
+   * the field has never been assigned to.
+   */
+  static Object get_shadow_tag(Field tag_field, /*@Nullable*/ Object parent) {
+    if (!tag_field.getDeclaringClass().isInstance(parent)) return nonsensical;
+    Object tag = get_object_field(tag_field, parent);
+    return (tag == null) ? nonsensical : tag;
+  }
+
   /**
    * Return the number of primitive fields in clazz and all of its
    * superclasses
@@ -3083,9 +3156,13 @@ public final class DCRuntime {
     /** The field number for this field inside its object */
     int field_num;
 
+    /** The tag field for this field, or null if its tags are in field_map */
+    /*@Nullable*/ Field tag_field;
+
     public PrimitiveArrayTag(FieldInfo fi) {
       assert !fi.isStatic() && fi.isPrimitive() && fi.isArray();
       field_num = fi.get_field_num();
+      tag_field = shadow_tag_field(fi);
     }
 
     /** Returns a list of object tags */
@@ -3095,9 +3172,12 @@ public final class DCRuntime {
       // assert obj == null: "primitive array object = " + obj_str (obj);
       @SuppressWarnings("unchecked")
       List<Object> parent_list = (List<Object>) parent;
-      Field tag_field = null;
       List<Object> tag_list = new ArrayList<Object>(parent_list.size());
       for (Object parent_element : parent_list) {
+        if (tag_field != null) {
+          tag_list.add(get_shadow_tag(tag_field, parent_element));
+          continue;
+        }
         Object[] tags = field_map.get(parent_element);
         if (tags == null) tag_list.add(nonsensical);
         else tag_list.add(tags[field_num]);
@@ -3116,15 +3196,22 @@ public final class DCRuntime {
 
     int field_num;
 
+    /** The tag field for this field, or null if its tags are in field_map */
+    /*@Nullable*/ Field tag_field;
+
     public PrimitiveTag(FieldInfo fi) {
       assert !fi.isStatic() && fi.isPrimitive() && !fi.isArray();
       field_num = fi.get_field_num();
+      tag_field = shadow_tag_field(fi);
     }
 
     public Object get_tag(Object parent, Object obj) {
 
       // obj is the wrapper for the primitive
       // assert obj == null: "primitive object = " + obj_str (obj);
+      if (tag_field != null) {
+        return get_shadow_tag(tag_field, parent);
+      }
       Object[] tags = field_map.get(parent);
       if (tags == null) return (nonsensical); // happens if field has never been assigned to
       else {
@@ -46,6 +46,7 @@ public class Premain {
 
     DaikonVariableInfo.std_visibility = DynComp.std_visibility;
     DCRuntime.depth = DynComp.nesting_depth;
+    TagEntry.tracing = (DynComp.trace_sets_file != null);
 
     if (DynComp.no_jdk) DCInstrument.jdk_instrumented = false;
 
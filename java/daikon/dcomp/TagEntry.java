@@ -10,9 +10,14 @@ import org.checkerframework.checker.nullness.qual.*;
 */
 
 /**
- * Union/Find datastructure for Objects without the ranking optimization.
- * All references to the Objects are weak so that they will be removed from
- * the sets when no longer referenced.
+ * Union/Find datastructure for Objects, with union by rank and path
+ * compression.  All references to the Objects are weak so that they will
+ * be removed from the sets when no longer referenced.
+ * <p>
+ *
+ * Tracing (see below) is done only if {@link #tracing} is set, which
+ * Premain does when a traced comparability sets file is requested.
+ * Otherwise union does no work beyond the usual union/find.
  */
 
 /* TagEntry now implements tracing, which means that if A trace-points to B,
@@ -29,7 +34,7 @@ import org.checkerframework.checker.nullness.qual.*;
  *
  *   Tracers should list line numbers and files where they are created.
  *
- *   Union-by-rank on normal and tracer trees.
+ *   Union-by-rank on tracer trees.
  *
  * -charlest
  */
@@ -43,17 +48,27 @@ class TagEntry extends WeakReference<Object> {
 
   private static SimpleLog debug = new SimpleLog(false);
 
+  /**
+   * If true, union records the tracer of each entry and the location of
+   * the interaction (see {@link #generateTraceString}).  Capturing the
+   * location is expensive, so this is false unless the traced sets are
+   * output (DynComp.trace_sets_file).
+   */
+  static boolean tracing = false;
+
   /**
    * Parent in the tree that represents the set for this element.  If this,
    * this entry is the representative one
    */
   private /*@Nullable*/ TagEntry parent;
 
+  /** Upper bound on the height of the tree rooted at this entry. */
+  private byte rank = 0;
+
   /**
    * Element in the tree that this element interacted with.
    * Important!: tracer is null if this has no tracer.
-   *
-   * if TRACING_ENABLED?
+   * Always null unless tracing.
    */
   private /*@Nullable*/ TagEntry tracer;
   protected String trace_loc = "";
@@ -70,7 +85,9 @@ class TagEntry extends WeakReference<Object> {
   public TagEntry(Object obj, TagEntry parent) {
     super(obj);
     this.parent = parent;
-    this.tracer = parent; // if TRACING_ENABLED?
+    if (tracing) {
+      this.tracer = parent;
+    }
     // System.out.printf("Made %s with parent p%s%n", this, this.parent);
   }
 
@@ -94,11 +111,17 @@ class TagEntry extends WeakReference<Object> {
 
     TagEntry o1 = get_entry(obj1), o2 = get_entry(obj2);
     TagEntry r1 = o1.find(), r2 = o2.find();
+    if (r1 == r2) return;
 
-    // if TRACING_ENABLED?
-
-    if (r1 != r2) {
+    // The root of lower rank is placed under the other
+    if (r1.rank < r2.rank) {
+      r1.parent = r2;
+    } else {
       r2.parent = r1;
+      if (r1.rank == r2.rank) r1.rank++;
+    }
+
+    if (tracing) {
       o1.rootMe();
       o2.rootMe();
       o2.tracer = o1;
@@ -24,7 +24,7 @@ public final class ValueAndModified {
       new ValueAndModified(null, ValueTuple.MISSING_FLOW);
 
   public ValueAndModified(/*@Nullable*/ /*@Interned*/ Object val, int mod) {
-    assert Intern.isInterned(val);
+    assert SyncIntern.isInterned(val);
     // Type should be Long, not Integer
     assert !(val instanceof Integer);
     value = val;
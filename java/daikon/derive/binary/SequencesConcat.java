@@ -72,12 +72,12 @@ public final class SequencesConcat extends BinaryDerivation {
       long[] result =
           ArraysMDE.concat(
               val1 == null ? null : (long[]) val1, val2 == null ? null : (long[]) val2);
-      return new ValueAndModified(Intern.intern(result), mod);
+      return new ValueAndModified(SyncIntern.intern(result), mod);
     } else if (var1().rep_type == ProglangType.DOUBLE_ARRAY) {
       double[] result =
           ArraysMDE.concat(
               val1 == null ? null : (double[]) val1, val2 == null ? null : (double[]) val2);
-      return new ValueAndModified(Intern.intern(result), mod);
+      return new ValueAndModified(SyncIntern.intern(result), mod);
 
     } else if (var1().rep_type == ProglangType.STRING_ARRAY) {
       // val1 instanceof String[] || val2 instanceof String[]
@@ -86,7 +86,7 @@ public final class SequencesConcat extends BinaryDerivation {
           ArraysMDE.concat(
               val1 == null ? null : (/*@Interned*/ String[]) val1,
               val2 == null ? null : (/*@Interned*/ String[]) val2);
-      return new ValueAndModified(Intern.intern(result), mod);
+      return new ValueAndModified(SyncIntern.intern(result), mod);
     } else {
       throw new Error("Attempted to concatenate unknown arrays");
     }
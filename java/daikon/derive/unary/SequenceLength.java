@@ -91,7 +91,7 @@ public final class SequenceLength extends UnaryDerivation {
     } else {
       len = ((Object[]) val).length;
     }
-    return new ValueAndModified(Intern.internedLong(len + shift), source_mod);
+    return new ValueAndModified(SyncIntern.internedLong(len + shift), source_mod);
   }
 
   @SuppressWarnings("keyfor") // need EnsuresQualifier feature
@@ -34,11 +34,11 @@ public final class SequenceMax extends UnaryDerivation {
     if (val instanceof long[]) {
       long[] val_array = (long[]) val;
       if (val_array.length == 0) return ValueAndModified.MISSING_NONSENSICAL;
-      return new ValueAndModified(Intern.internedLong(ArraysMDE.max(val_array)), source_mod);
+      return new ValueAndModified(SyncIntern.internedLong(ArraysMDE.max(val_array)), source_mod);
     } else if (val instanceof double[]) {
       double[] val_array = (double[]) val;
       if (val_array.length == 0) return ValueAndModified.MISSING_NONSENSICAL;
-      return new ValueAndModified(Intern.internedDouble(ArraysMDE.max(val_array)), source_mod);
+      return new ValueAndModified(SyncIntern.internedDouble(ArraysMDE.max(val_array)), source_mod);
     } else {
       return ValueAndModified.MISSING_NONSENSICAL;
     }
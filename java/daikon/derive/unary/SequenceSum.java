@@ -38,14 +38,14 @@ public final class SequenceSum extends UnaryDerivation {
       for (int i = 0; i < val_array.length; i++) {
         result += val_array[i];
       }
-      return new ValueAndModified(Intern.internedLong(result), source_mod);
+      return new ValueAndModified(SyncIntern.internedLong(result), source_mod);
     } else if (val instanceof double[]) {
       double[] val_array = (double[]) val;
       double result = 0;
       for (int i = 0; i < val_array.length; i++) {
         result += val_array[i];
       }
-      return new ValueAndModified(Intern.internedDouble(result), source_mod);
+      return new ValueAndModified(SyncIntern.internedDouble(result), source_mod);
 
     } else {
       return ValueAndModified.MISSING_NONSENSICAL;
@@ -42,7 +42,7 @@ public final class StringLength extends UnaryDerivation {
     }
 
     int len = ((String) val).length();
-    return new ValueAndModified(Intern.internedLong(len), source_mod);
+    return new ValueAndModified(SyncIntern.internedLong(len), source_mod);
   }
 
   protected VarInfo makeVarInfo() {
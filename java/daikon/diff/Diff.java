@@ -7,6 +7,7 @@ import java.io.*;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import plume.*;
 
 /*>>>
@@ -80,6 +81,13 @@ public final class Diff {
   private boolean examineAllPpts;
   private boolean ignoreNumberedExits;
 
+  /**
+   * If non-null, only the ppts whose names match are compared.  Other
+   * ppts are not read from .inv files that support reading ppts
+   * individually.
+   */
+  private /*@Nullable*/ Pattern pptSelect = null;
+
   public Diff() {
     this(false, false);
   }
@@ -163,6 +171,7 @@ public final class Diff {
     /*@ClassGetName*/ String invSortComparator1Classname = null;
     /*@ClassGetName*/ String invSortComparator2Classname = null;
     /*@ClassGetName*/ String invPairComparatorClassname = null;
+    Pattern pptSelect = null;
 
     boolean optionSelected = false;
 
@@ -177,6 +186,7 @@ public final class Diff {
           new LongOpt(INV_PAIR_COMPARATOR_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(IGNORE_UNJUSTIFIED_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(IGNORE_NUMBERED_EXITS_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
+          new LongOpt(Daikon.ppt_regexp_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
         };
 
     Getopt g =
@@ -229,6 +239,26 @@ public final class Diff {
           } else if (IGNORE_NUMBERED_EXITS_SWITCH.equals(optionName)) {
             ignoreNumberedExits = true;
             break;
+          } else if (Daikon.ppt_regexp_SWITCH.equals(optionName)) {
+            if (pptSelect != null) {
+              throw new Error(
+                  "multiple --"
+                      + Daikon.ppt_regexp_SWITCH
+                      + " regular expressions supplied on command line");
+            }
+            String regexp_string = Daikon.getOptarg(g);
+            if (!RegexUtil.isRegex(regexp_string)) {
+              throw new Daikon.TerminationMessage(
+                  "Bad regexp "
+                      + regexp_string
+                      + " for "
+                      + Daikon.ppt_regexp_SWITCH
+                      + ": "
+                      + RegexUtil.regexError(regexp_string));
+            }
+            regexp_string =
+                RegexUtil.asRegex(regexp_string); // @SuppressWarnings("regex") // flow-sensitivity
+            pptSelect = Pattern.compile(regexp_string);
           } else {
             throw new RuntimeException("Unknown long option received: " + optionName);
           }
@@ -340,6 +370,7 @@ public final class Diff {
             invSortComparator2Classname,
             invPairComparatorClassname,
             defaultComparator);
+    diff.pptSelect = pptSelect;
 
     if ((!(diff.invSortComparator1
             .getClass()
@@ -563,6 +594,14 @@ public final class Diff {
    * PptMap.
    */
   private InvMap readInvMap(File file) throws IOException, ClassNotFoundException {
+    if (InvFile.is_inv_file(file)) {
+      PptMap ppts = FileIO.read_serialized_pptmap_lazily(file, false, pptSelect);
+      try {
+        return convertToInvMap(ppts);
+      } finally {
+        ppts.close();
+      }
+    }
     Object o = UtilMDE.readObject(file);
     if (o instanceof InvMap) {
       return (InvMap) o;
@@ -592,6 +631,7 @@ public final class Diff {
 
     for (PptTopLevel ppt : ppts) {
       if (ignoreNumberedExits && ppt.ppt_name.isNumberedExitPoint()) continue;
+      if ((pptSelect != null) && !pptSelect.matcher(ppt.name()).find()) continue;
 
       // List<Invariant> invs = ppt.getInvariants();
       List<Invariant> invs = UtilMDE.sortList(ppt.getInvariants(), PptTopLevel.icfp);
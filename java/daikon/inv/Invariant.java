@@ -1039,15 +1039,33 @@ import typequals.*;
       // System.out.println("ICFP: default rule yields "
       //                    + inv1.format().compareTo(inv2.format())
       //                    + " for " + inv1.format() + ", " + inv2.format());
+      return format_for_comparison(inv1).compareTo(format_for_comparison(inv2));
+    }
+
+    /** Returns the formatted invariant that compare compares. */
+    private static String format_for_comparison(/*@NonPrototype*/ Invariant inv) {
       // (Actually, FileIO.new_decl_format should always be non-null here.)
       if (PrintInvariants.dkconfig_old_array_names
           && FileIO.new_decl_format != null
           && FileIO.new_decl_format) {
-        return inv1.format().replace("[..]", "[]").compareTo(inv2.format().replace("[..]", "[]"));
+        return inv.format().replace("[..]", "[]");
       } else {
-        return inv1.format().compareTo(inv2.format());
+        return inv.format();
       }
     }
+
+    /**
+     * Returns a string such that two invariants over the same variables
+     * of one program point are equal according to compare exactly when
+     * their strings are equal.  Hashing the strings formats each
+     * invariant once, where sorting formats it for every comparison.
+     */
+    public static String equality_key(/*@NonPrototype*/ Invariant inv) {
+      if (inv instanceof GuardingImplication) inv = ((GuardingImplication) inv).right;
+      return ((inv instanceof Comparison) ? "=" : "-")
+          + ((inv instanceof OneOf) ? "1" : "-")
+          + format_for_comparison(inv);
+    }
   }
 
   /**
@@ -1128,6 +1146,23 @@ import typequals.*;
     return false;
   }
 
+  /** An empty array of classes, returned by exclusiveFormulaClasses. */
+  protected static final Class<?>[] no_classes = new Class<?>[0];
+
+  /**
+   * Returns the classes of invariant that this may be exclusive with:
+   * isExclusiveFormula(other) is false unless other is an instance of
+   * one of them.  The result depends only on the class of this, and must
+   * not be modified.  A class that overrides isExclusiveFormula must
+   * override this method as well.  Lets {@link
+   * daikon.split.PptSplitter} look up the invariants that may be
+   * exclusive with this, instead of trying every invariant.
+   */
+  /*@Pure*/
+  public Class<?>[] exclusiveFormulaClasses(/*>>> @NonPrototype Invariant this*/) {
+    return no_classes;
+  }
+
   /**
    * Look up a previously instantiated Invariant.
    */
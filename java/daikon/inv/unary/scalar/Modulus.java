@@ -252,6 +252,13 @@ public class Modulus extends SingleScalar {
     return false;
   }
 
+  private static final Class<?>[] exclusive_classes = {Modulus.class, NonModulus.class};
+
+  @Override
+  public Class<?>[] exclusiveFormulaClasses() {
+    return exclusive_classes;
+  }
+
   // Look up a previously instantiated invariant.
   public static /*@Nullable*/ Modulus find(PptSlice ppt) {
     assert ppt.arity() == 1;
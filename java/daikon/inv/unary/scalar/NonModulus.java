@@ -160,7 +160,7 @@ public class NonModulus extends SingleScalar {
 
   // XXX have to deal with flowing this; maybe it should live at all ppts?
   public InvariantStatus add_modified(long value, int count) {
-    if (elements.add(Intern.internedLong(value))
+    if (elements.add(SyncIntern.internedLong(value))
         && results_accurate
         && (!no_result_yet)
         && (MathMDE.mod_positive(value, modulus) == remainder)) results_accurate = false;
@@ -217,4 +217,11 @@ public class NonModulus extends SingleScalar {
 
     return false;
   }
+
+  private static final Class<?>[] exclusive_classes = {NonModulus.class, Modulus.class};
+
+  @Override
+  public Class<?>[] exclusiveFormulaClasses() {
+    return exclusive_classes;
+  }
 }
@@ -39,7 +39,7 @@ public abstract class SingleFloatSequence extends SingleSequence {
   public InvariantStatus add(/*@Interned*/ Object val, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    assert Intern.isInterned(val);
+    assert SyncIntern.isInterned(val);
     // System.out.println("SingleFloatSequence.add(" + ArraysMDE.toString(value) + ", " + modified + ", " + count + ")");
     double[] value = (double[]) val;
     if (value == null) {
@@ -54,7 +54,7 @@ public abstract class SingleFloatSequence extends SingleSequence {
   public InvariantStatus check(/*@Interned*/ Object val, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    assert Intern.isInterned(val);
+    assert SyncIntern.isInterned(val);
     double[] value = (double[]) val;
     if (value == null) {
     } else if (mod_index == 0) {
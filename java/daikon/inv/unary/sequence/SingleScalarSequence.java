@@ -55,8 +55,8 @@ public abstract class SingleScalarSequence extends SingleSequence {
   public InvariantStatus add(/*@Interned*/ Object val, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    assert Intern.isInterned(val) : "not interned: " + val + "/" + val.getClass();
-    assert Intern.isInterned(val);
+    assert SyncIntern.isInterned(val) : "not interned: " + val + "/" + val.getClass();
+    assert SyncIntern.isInterned(val);
     // System.out.println("SingleScalarSequence.add(" + ArraysMDE.toString(value) + ", " + modified + ", " + count + ")");
     long[] value = (long[]) val;
     if (value == null) {
@@ -71,7 +71,7 @@ public abstract class SingleScalarSequence extends SingleSequence {
   public InvariantStatus check(/*@Interned*/ Object val, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    assert Intern.isInterned(val);
+    assert SyncIntern.isInterned(val);
     long[] value = (long[]) val;
     if (value == null) {
       return InvariantStatus.NO_CHANGE;
@@ -139,7 +139,7 @@ public class CommonStringSequence extends SingleStringSequence {
     if (a == null) {
       return InvariantStatus.FALSIFIED;
     } else if (intersect == null) {
-      intersect = Intern.intern(a);
+      intersect = SyncIntern.intern(a);
       return InvariantStatus.NO_CHANGE;
     } else {
       /*@Interned*/ String[] tmp = new /*@Interned*/ String[intersect.length];
@@ -153,7 +153,7 @@ public class CommonStringSequence extends SingleStringSequence {
       if (size == 0) {
         return InvariantStatus.FALSIFIED;
       }
-      intersect = Intern.intern(ArraysMDE.subarray(tmp, 0, size));
+      intersect = SyncIntern.intern(ArraysMDE.subarray(tmp, 0, size));
     }
     elts++;
     return InvariantStatus.NO_CHANGE;
@@ -48,7 +48,7 @@ public abstract class SingleStringSequence extends UnaryInvariant {
   public InvariantStatus add(/*@Interned*/ Object val, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    assert Intern.isInterned(val);
+    assert SyncIntern.isInterned(val);
     // System.out.println("SingleStringSequence.add(" + ArraysMDE.toString(value) + ", " + modified + ", " + count + ")");
     /*@Interned*/ String[] value = (/*@Interned*/ String[]) val;
     if (value == null) {
@@ -63,7 +63,7 @@ public abstract class SingleStringSequence extends UnaryInvariant {
   public InvariantStatus check(/*@Interned*/ Object val, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    assert Intern.isInterned(val);
+    assert SyncIntern.isInterned(val);
     /*@Interned*/ String[] value = (/*@Interned*/ String[]) val;
     if (value == null) {
       return InvariantStatus.NO_CHANGE;
@@ -150,6 +150,23 @@ public class PptSplitter implements Serializable {
     PptConditional ppt_cond = choose_conditional(vt);
     if (ppt_cond == null) return;
 
+    add_to_conditional(ppt_cond, vt, count);
+  }
+
+  /**
+   * Adds the sample to ppts[index], which the splitter has chosen for it.
+   * @see SplitterBatch
+   */
+  @SuppressWarnings("flowexpr.parse.error") // private field
+  /*@RequiresNonNull({"NIS.suppressor_map", "NIS.suppressor_map_suppression_count", "NIS.all_suppressions"})*/
+  void add_to_conditional(int index, ValueTuple vt, int count) {
+    add_to_conditional((PptConditional) ppts[index], vt, count);
+  }
+
+  @SuppressWarnings("flowexpr.parse.error") // private field
+  /*@RequiresNonNull({"NIS.suppressor_map", "NIS.suppressor_map_suppression_count", "NIS.all_suppressions"})*/
+  private void add_to_conditional(PptConditional ppt_cond, ValueTuple vt, int count) {
+
     /// ??? MDE
     // If any parent variables were missing out of bounds on this
     // sample, apply that to this conditional as well.  A more
@@ -267,16 +284,18 @@ public class PptSplitter implements Serializable {
     // Maps permuted invariants to their original invariants
     Map<Invariant, Invariant> orig_invs = new LinkedHashMap<Invariant, Invariant>();
 
-    Vector</*@KeyFor("orig_invs")*/ Invariant> same_invs_vec =
-        new Vector</*@KeyFor("orig_invs")*/ Invariant>();
-
     Vector</*@KeyFor("orig_invs")*/ Invariant[]> exclusive_invs_vec =
         new Vector</*@KeyFor("orig_invs")*/ Invariant[]>();
 
-    // Does not contain anything that is in exclusive_invs_vec.
-    // (Those may be added temporarily, but are removed later.)
-    Vector</*@Nullable*//*@KeyFor("orig_invs")*/ Invariant[]> different_invs_vec =
-        new Vector</*@Nullable*//*@KeyFor("orig_invs")*/ Invariant[]>();
+    // The invariants of each child that differ from those of the other
+    // child.  May contain invariants that are in exclusive_invs_vec; those
+    // are skipped when the implications are created.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    List</*@KeyFor("orig_invs")*/ Invariant>[] different_invs =
+        (List</*@KeyFor("orig_invs")*/ Invariant>[]) new List[ppts.length];
+    for (int ii = 0; ii < different_invs.length; ii++) {
+      different_invs[ii] = new ArrayList</*@KeyFor("orig_invs")*/ Invariant>();
+    }
 
     /// ??? MDE
     // Loop through each possible parent slice
@@ -403,16 +422,11 @@ public class PptSplitter implements Serializable {
       Vector</*@KeyFor("orig_invs")*/ Invariant[]> ec = exclusive_conditions(invs[0], invs[1]);
       exclusive_invs_vec.addAll(ec);
 
-      // Add any invariants that are the same to the list
-      @SuppressWarnings("keyfor") // need qualifier parameter to Invariants
-      Vector</*@KeyFor("orig_invs")*/ Invariant> si = same_invariants(invs[0], invs[1]);
-      same_invs_vec.addAll(si);
-
-      // Add any invariants that are different to the list
+      // Add any invariants that are different to the lists
       @SuppressWarnings("keyfor") // need qualifier parameter to Invariants
-      Vector</*@Nullable*//*@KeyFor("orig_invs")*/ Invariant[]> di =
-          different_invariants(invs[0], invs[1]);
-      different_invs_vec.addAll(di);
+      List</*@KeyFor("orig_invs")*/ Invariant>[] di = different_invariants(invs[0], invs[1]);
+      different_invs[0].addAll(di[0]);
+      different_invs[1].addAll(di[1]);
     } // slices.iterator() loop
 
     if (debug.isLoggable(Level.FINE)) {
@@ -422,11 +436,15 @@ public class PptSplitter implements Serializable {
         invs[1].log("exclusive condition with %s", invs[0].format());
         debug.fine("-- " + invs[0] + " -- " + invs[1]);
       }
-      debug.fine("Found " + different_invs_vec.size() + " different invariants ");
-      for (/*@Nullable*/ Invariant[] invs : different_invs_vec) {
-        if (invs[0] != null) invs[0].log("%s differs from %s", invs[0], invs[1]);
-        if (invs[1] != null) invs[1].log("%s differs from %s", invs[0], invs[1]);
-        debug.fine("-- " + invs[0] + " -- " + invs[1]);
+      debug.fine(
+          "Found "
+              + (different_invs[0].size() + different_invs[1].size())
+              + " different invariants ");
+      for (int jj = 0; jj < different_invs.length; jj++) {
+        for (Invariant inv : different_invs[jj]) {
+          inv.log("%s differs from the other conditional", inv);
+          debug.fine("-- " + inv + " (child " + jj + ")");
+        }
       }
     }
 
@@ -458,7 +476,7 @@ public class PptSplitter implements Serializable {
               new /*@KeyFor("orig_invs")*/ Invariant[] {dummy1, dummy2};
           exclusive_invs_vec.add(dummy_pair);
           // Don't add the dummy_pair, as it would just be removed afterward.
-          // different_invs_vec.add(dummy_pair);
+          // different_invs[0].add(dummy1);
         } else {
           // nothing to do
         }
@@ -471,34 +489,17 @@ public class PptSplitter implements Serializable {
       return;
     }
 
-    // Remove exclusive invariants from the different invariants list.
-    // It would be better not to have added them in the first place,
-    // but this is easier for now.
-    for (Iterator</*@Nullable*//*@KeyFor("orig_invs")*/ Invariant[]> ii =
-            different_invs_vec.iterator();
-        ii.hasNext();
-        ) {
-      /*@Nullable*/ Invariant[] diff_invs = ii.next();
-      if (diff_invs[0] != null) {
-        assert diff_invs[1] == null;
-        // debug.fine ("Considering inv0 " + diff_invs[0]);
-        for (Invariant[] ex_invs : exclusive_invs_vec) {
-          if (ex_invs[0] == diff_invs[0]) {
-            debug.fine("removed exclusive invariant " + ex_invs[0]);
-            ii.remove();
-            break;
-          }
-        }
-      } else {
-        assert diff_invs[1] != null;
-        // debug.fine ("Considering inv1 " + diff_invs[1]);
-        for (Invariant[] ex_invs : exclusive_invs_vec) {
-          if (ex_invs[1] == diff_invs[1]) {
-            debug.fine("removed exclusive invariant " + ex_invs[1]);
-            ii.remove();
-            break;
-          }
-        }
+    // The exclusive invariants of each child.  They get double
+    // implications below, so no single implications are created for
+    // them even though they are also different invariants.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Set<Invariant>[] exclusive_invs = (Set<Invariant>[]) new Set[ppts.length];
+    for (int jj = 0; jj < exclusive_invs.length; jj++) {
+      exclusive_invs[jj] = Collections.newSetFromMap(new IdentityHashMap<Invariant, Boolean>());
+    }
+    for (Invariant[] invs : exclusive_invs_vec) {
+      for (int jj = 0; jj < exclusive_invs.length; jj++) {
+        exclusive_invs[jj].add(invs[jj]);
       }
     }
 
@@ -544,9 +545,13 @@ public class PptSplitter implements Serializable {
     }
 
     // Create single implication for each different invariant
-    for (/*@Nullable*/ Invariant[] invs : different_invs_vec) {
-      for (int jj = 0; jj < con_invs.length; jj++) {
-        if (invs[jj] != null) add_implication(parent, con_invs[jj], invs[jj], false, orig_invs);
+    for (int jj = 0; jj < con_invs.length; jj++) {
+      for (Invariant inv : different_invs[jj]) {
+        if (exclusive_invs[jj].contains(inv)) {
+          debug.fine("skipped exclusive invariant " + inv);
+          continue;
+        }
+        add_implication(parent, con_invs[jj], inv, false, orig_invs);
       }
     }
   } // add_implications_pair
@@ -622,13 +627,39 @@ public class PptSplitter implements Serializable {
   /**
    * Determine which elements of invs1 are mutually exclusive with
    * elements of invs2.  Result elements are pairs of List<Invariant>.
-   * All the arguments should be over the same program point.
+   * All the arguments should be over the same program point, so the
+   * invariants only need to be indexed by class:  each element of invs1
+   * is compared only with the elements of invs2 whose class is one of
+   * its {@link Invariant#exclusiveFormulaClasses}.  The pairs are in the
+   * same order as if every pair were compared.
    */
   Vector<Invariant[]> exclusive_conditions(List<Invariant> invs1, List<Invariant> invs2) {
 
+    // The positions in invs2 of the invariants of each class
+    Map<Class<?>, List<Integer>> by_class = new LinkedHashMap<Class<?>, List<Integer>>();
+    for (int i = 0; i < invs2.size(); i++) {
+      Class<?> inv_class = invs2.get(i).getClass();
+      List<Integer> positions = by_class.get(inv_class);
+      if (positions == null) {
+        positions = new ArrayList<Integer>();
+        by_class.put(inv_class, positions);
+      }
+      positions.add(i);
+    }
+
+    // Maps each class of invariant in invs1 to the positions in invs2
+    // that it may be exclusive with
+    Map<Class<?>, int[]> candidates = new HashMap<Class<?>, int[]>();
+
     Vector<Invariant[]> result = new Vector<Invariant[]>();
     for (Invariant inv1 : invs1) {
-      for (Invariant inv2 : invs2) {
+      int[] positions = candidates.get(inv1.getClass());
+      if (positions == null) {
+        positions = exclusive_candidates(inv1.exclusiveFormulaClasses(), by_class);
+        candidates.put(inv1.getClass(), positions);
+      }
+      for (int i : positions) {
+        Invariant inv2 = invs2.get(i);
         // // This is a debugging tool, to make sure that various versions
         // // of isExclusiveFormula remain coordinated.  (That's also one
         // // reason we don't break out of the loop early:  also, there will
@@ -647,62 +678,82 @@ public class PptSplitter implements Serializable {
     return result;
   }
 
+  /**
+   * Returns, in increasing order, the positions in by_class whose class
+   * is a subclass of one of classes.
+   * @param by_class maps each class to the positions of its invariants
+   */
+  private static int[] exclusive_candidates(
+      Class<?>[] classes, Map<Class<?>, List<Integer>> by_class) {
+    List<Integer> positions = new ArrayList<Integer>();
+    if (classes.length > 0) {
+      for (Map.Entry<Class<?>, List<Integer>> entry : by_class.entrySet()) {
+        for (Class<?> c : classes) {
+          if (c.isAssignableFrom(entry.getKey())) {
+            positions.addAll(entry.getValue());
+            break;
+          }
+        }
+      }
+    }
+    int[] result = new int[positions.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = positions.get(i);
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
   /**
    * Determine which elements of invs1 differ from elements of invs2.
-   * Result elements are pairs of List<Invariant> (with one or the other
-   * always null).
+   * Returns a pair of lists: the elements of invs1 that are not in
+   * invs2, and the elements of invs2 that are not in invs1.  As when the
+   * lists were sorted and paired by InvariantComparatorForPrinting, two
+   * invariants are the same if that comparator finds them equal, and of
+   * several invariants in one list that it finds equal, only the first
+   * is considered.  Each invariant is formatted once, to compute its
+   * {@link Invariant.InvariantComparatorForPrinting#equality_key}; only
+   * the differing invariants are sorted, into the order that pairing
+   * them produced.
    * All the arguments should be over the same program point.
    */
-  Vector</*@Nullable*/ Invariant[]> different_invariants(
-      List<Invariant> invs1, List<Invariant> invs2) {
-    SortedSet<Invariant> ss1 = new TreeSet<Invariant>(icfp);
-    ss1.addAll(invs1);
-    SortedSet<Invariant> ss2 = new TreeSet<Invariant>(icfp);
-    ss2.addAll(invs2);
-    Vector</*@Nullable*/ Invariant[]> result = new Vector</*@Nullable*/ Invariant[]>();
-    for (OrderedPairIterator<Invariant> opi =
-            new OrderedPairIterator<Invariant>(ss1.iterator(), ss2.iterator(), icfp);
-        opi.hasNext();
-        ) {
-      Pair</*@Nullable*/ Invariant, /*@Nullable*/ Invariant> pair = opi.next();
-      if ((pair.a == null) || (pair.b == null)
-      // || (icfp.compare(pair.a, pair.b) != 0)
-      ) {
-        result.add(new /*@Nullable*/ Invariant[] {pair.a, pair.b});
+  List<Invariant>[] different_invariants(List<Invariant> invs1, List<Invariant> invs2) {
+
+    Map<String, Invariant> keyed1 = by_equality_key(invs1);
+    Map<String, Invariant> keyed2 = by_equality_key(invs2);
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    List<Invariant>[] result = (List<Invariant>[]) new List[2];
+    result[0] = new ArrayList<Invariant>();
+    result[1] = new ArrayList<Invariant>();
+    for (Map.Entry<String, Invariant> entry : keyed1.entrySet()) {
+      if (!keyed2.containsKey(entry.getKey())) {
+        result[0].add(entry.getValue());
+      }
+    }
+    for (Map.Entry<String, Invariant> entry : keyed2.entrySet()) {
+      if (!keyed1.containsKey(entry.getKey())) {
+        result[1].add(entry.getValue());
       }
     }
+    Collections.sort(result[0], icfp);
+    Collections.sort(result[1], icfp);
     return result;
   }
 
   /**
-   * Determine which elements of invs1 are the same as elements of invs2.
-   * Result elements are List<Invariant> (from the invs1 list).
-   * All the arguments should be over the same program point.
+   * Maps the equality key of each element of invs to the first element
+   * with that key.
    */
-  Vector<Invariant> same_invariants(List<Invariant> invs1, List<Invariant> invs2) {
-
-    SortedSet<Invariant> ss1 = new TreeSet<Invariant>(icfp);
-    ss1.addAll(invs1);
-    SortedSet<Invariant> ss2 = new TreeSet<Invariant>(icfp);
-    ss2.addAll(invs2);
-
-    ss1.retainAll(ss2);
-    return new Vector<Invariant>(ss1);
-
-    // // This seems like a rather complicated implementation.  Why can't it
-    // // just use set intersection?
-    // Vector</*@Nullable*/ Invariant> result = new Vector</*@Nullable*/ Invariant>();
-    // for (OrderedPairIterator<Invariant> opi = new OrderedPairIterator<Invariant>(ss1.iterator(),
-    //                                 ss2.iterator(), icfp);
-    //      opi.hasNext(); ) {
-    //   Pair</*@Nullable*/ Invariant,/*@Nullable*/ Invariant> pair = opi.next();
-    //   if (pair.a != null && pair.b != null) {
-    //     Invariant inv1 = pair.a;
-    //     Invariant inv2 = pair.b;
-    //     result.add(inv1);
-    //   }
-    // }
-    // return result;
+  private static Map<String, Invariant> by_equality_key(List<Invariant> invs) {
+    Map<String, Invariant> result = new LinkedHashMap<String, Invariant>();
+    for (Invariant inv : invs) {
+      String key = Invariant.InvariantComparatorForPrinting.equality_key(inv);
+      if (!result.containsKey(key)) {
+        result.put(key, inv);
+      }
+    }
+    return result;
   }
 
   /**
@@ -0,0 +1,285 @@
+package daikon.split;
+
+import daikon.*;
+import daikon.suppress.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Applies the samples of one program point to its splitters a batch at a
+ * time, rather than one sample at a time.  For each batch, the outcome of
+ * each splitter on every sample of the batch is computed first, into one
+ * bitset per side of the split.  Then each conditional program point
+ * receives its samples of the batch, in trace order.  Thus each splitter,
+ * and then each conditional program point, works through the whole batch
+ * at once, rather than every splitter and conditional program point being
+ * visited for every sample.
+ * <p>
+ *
+ * If {@link #dkconfig_skip_trivial} is set, a split is also not inferred
+ * until it is known to be non-trivial, that is, until its splitter has
+ * sent samples to both sides.  Until then, the samples are recorded, and
+ * when the splitter first sends a sample to the other side, its
+ * conditional program points receive the recorded samples and continue
+ * from there.  A split that is still trivial after all of the samples
+ * have been read is never inferred.
+ * <p>
+ *
+ * All of the samples of a program point must be supplied by the same
+ * thread (see {@link ParallelProcessor}).  {@link #finish()} must be
+ * called once, by that thread, after the last sample and before the
+ * conditional program points are read (see {@link
+ * PptTopLevel#finish_splitters()}).
+ */
+public final class SplitterBatch {
+
+  /**
+   * Integer.  Number of samples of a program point whose splitter
+   * outcomes are computed together.  If 0, each sample is applied to
+   * each splitter as soon as it is read.
+   */
+  public static int dkconfig_size = 0;
+
+  /**
+   * Boolean.  If true, the conditional program points of a splitter are
+   * inferred only once the splitter has sent samples to both sides.  A
+   * splitter that sends every sample to the same side yields no
+   * implications at its own program point, so this saves inferring it.
+   * However, the invariants at the conditional program points of a
+   * combined exit point are merged from those at its numbered exits,
+   * where such splitters are common (for example, a condition on the
+   * return value when each exit returns a constant), so implications at
+   * upper program points may be lost.  The first splitter of each program
+   * point is always inferred, since the program point's own invariants
+   * are merged from it.
+   */
+  public static boolean dkconfig_skip_trivial = false;
+
+  /**
+   * Integer.  Maximum number of samples of a program point that are
+   * recorded while its splitters are trivial (see
+   * {@link #dkconfig_skip_trivial}).  When it is exceeded, every
+   * splitter of the program point is inferred.
+   */
+  public static int dkconfig_max_recorded = 100000;
+
+  // States of each splitter
+  /** The splitter has not sent any sample to either side. */
+  private static final byte NONE = 0;
+  /** The splitter has sent every sample to ppts[0]. */
+  private static final byte ONLY_TRUE = 1;
+  /** The splitter has sent every sample to ppts[1]. */
+  private static final byte ONLY_FALSE = 2;
+  /** The conditional program points of the splitter receive samples. */
+  private static final byte INFERRED = 3;
+  /** The splitter was still trivial after all of the samples were read. */
+  private static final byte SKIPPED = 4;
+
+  /** The splitters of the program point. */
+  private final List<PptSplitter> splitters;
+
+  /** The state of each splitter. */
+  private final byte[] states;
+
+  /** The samples of the current batch. */
+  private final ValueTuple[] vts;
+
+  /** The number of samples that each element of vts represents. */
+  private final int[] counts;
+
+  /** The number of samples in the current batch. */
+  private int size = 0;
+
+  /** Positions in the batch of the samples for which a splitter's condition is true. */
+  private final BitSet true_samples;
+
+  /** Positions in the batch of the samples for which a splitter's condition is false. */
+  private final BitSet false_samples;
+
+  /**
+   * The samples of previous batches, or null if no splitter is trivial.
+   * Only used if dkconfig_skip_trivial is set.
+   */
+  private /*@Nullable*/ List<ValueTuple> recorded_vts = null;
+
+  /** The number of samples that each element of recorded_vts represents. */
+  private int[] recorded_counts = new int[0];
+
+  /**
+   * Creates an empty batch of capacity samples for the splitters of a
+   * program point.
+   */
+  public SplitterBatch(List<PptSplitter> splitters, int capacity) {
+    assert capacity > 0 : capacity;
+    this.splitters = splitters;
+    states = new byte[splitters.size()];
+    if (!dkconfig_skip_trivial) {
+      Arrays.fill(states, INFERRED);
+    } else {
+      states[0] = INFERRED;
+      if (states.length > 1) {
+        recorded_vts = new ArrayList<ValueTuple>();
+      }
+    }
+    vts = new ValueTuple[capacity];
+    counts = new int[capacity];
+    true_samples = new BitSet(capacity);
+    false_samples = new BitSet(capacity);
+  }
+
+  /** Adds vt, which represents count identical samples, to the batch. */
+  @SuppressWarnings("flowexpr.parse.error") // private field
+  /*@RequiresNonNull({"NIS.suppressor_map", "NIS.suppressor_map_suppression_count", "NIS.all_suppressions"})*/
+  public void add(ValueTuple vt, int count) {
+    vts[size] = vt;
+    counts[size] = count;
+    size++;
+    if (size == vts.length) {
+      apply_batch();
+    }
+  }
+
+  /**
+   * Applies the samples of the current batch, and skips each splitter
+   * that is still trivial, dropping the recorded samples.  Call after the
+   * last sample; the conditional program points of a skipped splitter
+   * receive no further samples.
+   */
+  @SuppressWarnings("flowexpr.parse.error") // private field
+  /*@RequiresNonNull({"NIS.suppressor_map", "NIS.suppressor_map_suppression_count", "NIS.all_suppressions"})*/
+  public void finish() {
+    apply_batch();
+    for (int i = 0; i < states.length; i++) {
+      if (states[i] < INFERRED) {
+        states[i] = SKIPPED;
+      }
+    }
+    recorded_vts = null;
+    recorded_counts = new int[0];
+  }
+
+  /** Applies the samples of the current batch to the splitters. */
+  @SuppressWarnings("flowexpr.parse.error") // private field
+  /*@RequiresNonNull({"NIS.suppressor_map", "NIS.suppressor_map_suppression_count", "NIS.all_suppressions"})*/
+  private void apply_batch() {
+    if (size == 0) {
+      return;
+    }
+
+    boolean any_trivial = false;
+    for (int i = 0; i < states.length; i++) {
+      byte state = states[i];
+      if (state == SKIPPED) {
+        continue;
+      }
+      PptSplitter ppt_split = splitters.get(i);
+      evaluate(ppt_split);
+
+      if (state != INFERRED) {
+        boolean any_true = (state == ONLY_TRUE) || !true_samples.isEmpty();
+        boolean any_false = (state == ONLY_FALSE) || !false_samples.isEmpty();
+        if (any_true && any_false) {
+          // The split is not trivial; catch up on the recorded samples
+          replay(ppt_split);
+          states[i] = INFERRED;
+        } else {
+          states[i] = any_true ? ONLY_TRUE : any_false ? ONLY_FALSE : NONE;
+          any_trivial = true;
+          continue;
+        }
+      }
+
+      for (int j = 0; j < size; j++) {
+        if (true_samples.get(j)) {
+          ppt_split.add_to_conditional(0, vts[j], counts[j]);
+        } else if (false_samples.get(j)) {
+          ppt_split.add_to_conditional(1, vts[j], counts[j]);
+        }
+      }
+    }
+
+    if (any_trivial) {
+      record_batch();
+    } else {
+      recorded_vts = null;
+    }
+
+    Arrays.fill(vts, 0, size, null);
+    size = 0;
+  }
+
+  /**
+   * Sets true_samples and false_samples to the positions of the samples
+   * in the current batch for which the condition of ppt_split is true and
+   * false.  A sample for which the splitter throws an exception is in
+   * neither.
+   */
+  private void evaluate(PptSplitter ppt_split) {
+    true_samples.clear();
+    false_samples.clear();
+    for (int j = 0; j < size; j++) {
+      PptConditional ppt_cond = ppt_split.choose_conditional(vts[j]);
+      if (ppt_cond == ppt_split.ppts[0]) {
+        true_samples.set(j);
+      } else if (ppt_cond != null) {
+        false_samples.set(j);
+      }
+    }
+  }
+
+  /** Supplies the recorded samples to the conditional program points of ppt_split. */
+  @SuppressWarnings("flowexpr.parse.error") // private field
+  /*@RequiresNonNull({"NIS.suppressor_map", "NIS.suppressor_map_suppression_count", "NIS.all_suppressions"})*/
+  private void replay(PptSplitter ppt_split) {
+    if (recorded_vts == null) {
+      return;
+    }
+    for (int j = 0; j < recorded_vts.size(); j++) {
+      ppt_split.add_bottom_up(recorded_vts.get(j), recorded_counts[j]);
+    }
+  }
+
+  /**
+   * Adds the samples of the current batch to the recorded samples.  If
+   * there are then too many, infers every splitter that is still
+   * trivial.
+   */
+  @SuppressWarnings("flowexpr.parse.error") // private field
+  /*@RequiresNonNull({"NIS.suppressor_map", "NIS.suppressor_map_suppression_count", "NIS.all_suppressions"})*/
+  private void record_batch() {
+    List<ValueTuple> recorded = recorded_vts;
+    assert recorded != null : "@AssumeAssertion(nullness): set while any splitter is trivial";
+    int recorded_size = recorded.size();
+    if (recorded_size + size > dkconfig_max_recorded) {
+      for (int j = 0; j < size; j++) {
+        recorded.add(vts[j]);
+      }
+      recorded_counts = Arrays.copyOf(recorded_counts, recorded_size + size);
+      System.arraycopy(counts, 0, recorded_counts, recorded_size, size);
+      for (int i = 0; i < states.length; i++) {
+        if (states[i] < INFERRED) {
+          replay(splitters.get(i));
+          states[i] = INFERRED;
+        }
+      }
+      recorded_vts = null;
+      recorded_counts = new int[0];
+      return;
+    }
+
+    if (recorded_counts.length < recorded_size + size) {
+      recorded_counts =
+          Arrays.copyOf(recorded_counts, Math.max(2 * recorded_counts.length, recorded_size + size));
+    }
+    for (int j = 0; j < size; j++) {
+      recorded.add(vts[j]);
+      recorded_counts[recorded_size + j] = counts[j];
+    }
+  }
+}
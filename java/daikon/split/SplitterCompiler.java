@@ -0,0 +1,181 @@
+package daikon.split;
+
+import java.io.*;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles the source code of splitters with the Java compiler of the
+ * running JVM (javax.tools), and loads the resulting classes.  Neither
+ * the source code nor the class files are read from or written to disk,
+ * and no external process is started.
+ * @see SplitterFactory#dkconfig_compile_in_process
+ */
+final class SplitterCompiler {
+  private SplitterCompiler() {
+    throw new Error("do not instantiate");
+  }
+
+  /** Source code held in memory. */
+  private static final class Source extends SimpleJavaFileObject {
+    final String class_name;
+    final String text;
+
+    Source(String class_name, String text) {
+      super(URI.create("string:///" + class_name + Kind.SOURCE.extension), Kind.SOURCE);
+      this.class_name = class_name;
+      this.text = text;
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+      return text;
+    }
+  }
+
+  /** A class file written to memory. */
+  private static final class ClassBytes extends SimpleJavaFileObject {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    ClassBytes(String class_name) {
+      super(URI.create("bytes:///" + class_name + Kind.CLASS.extension), Kind.CLASS);
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+      return bytes;
+    }
+  }
+
+  /** Keeps the class files written by the compiler in memory. */
+  private static final class MemoryFileManager
+      extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    final Map<String, ClassBytes> classes = new HashMap<String, ClassBytes>();
+
+    MemoryFileManager(StandardJavaFileManager file_manager) {
+      super(file_manager);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(
+        JavaFileManager.Location location,
+        String class_name,
+        JavaFileObject.Kind kind,
+        FileObject sibling) {
+      ClassBytes class_bytes = new ClassBytes(class_name);
+      classes.put(class_name, class_bytes);
+      return class_bytes;
+    }
+  }
+
+  /** Defines the classes compiled by one call to {@link #compile}. */
+  private static final class MemoryClassLoader extends ClassLoader {
+    final Map<String, ClassBytes> classes;
+
+    MemoryClassLoader(Map<String, ClassBytes> classes) {
+      super(SplitterCompiler.class.getClassLoader());
+      this.classes = classes;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      ClassBytes class_bytes = classes.get(name);
+      if (class_bytes == null) {
+        throw new ClassNotFoundException(name);
+      }
+      byte[] bytes = class_bytes.bytes.toByteArray();
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  /** Returns true if the running JVM has a Java compiler. */
+  static boolean available() {
+    return ToolProvider.getSystemJavaCompiler() != null;
+  }
+
+  /**
+   * Compiles the given sources, which are indexed by the name of the class
+   * that each one defines, all together.  If some of them do not compile,
+   * compiles the others again without them.  Appends the error messages
+   * of the compiler to errors.
+   * @return a map from the name of each class that compiled to the class
+   */
+  static Map<String, Class<?>> compile(Map<String, String> sources, StringBuilder errors) {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      throw new Error("No Java compiler is available in this JVM");
+    }
+
+    List<Source> units = new ArrayList<Source>();
+    for (Map.Entry<String, String> e : sources.entrySet()) {
+      units.add(new Source(e.getKey(), e.getValue()));
+    }
+    List<String> options = new ArrayList<String>();
+    options.add("-nowarn");
+    options.add("-proc:none");
+    options.add("-classpath");
+    options.add(System.getProperty("java.class.path"));
+
+    Map<String, Class<?>> result = new LinkedHashMap<String, Class<?>>();
+    while (!units.isEmpty()) {
+      DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+      MemoryFileManager file_manager =
+          new MemoryFileManager(compiler.getStandardFileManager(diagnostics, null, null));
+      boolean ok;
+      try {
+        ok = compiler.getTask(null, file_manager, diagnostics, options, null, units).call();
+      } finally {
+        try {
+          file_manager.close();
+        } catch (IOException e) {
+          // The class files are already in memory
+        }
+      }
+
+      if (ok) {
+        MemoryClassLoader loader = new MemoryClassLoader(file_manager.classes);
+        for (Source unit : units) {
+          try {
+            result.put(unit.class_name, loader.loadClass(unit.class_name));
+          } catch (ClassNotFoundException e) {
+            errors.append("No class file for " + unit.class_name + "\n");
+          }
+        }
+        break;
+      }
+
+      // Drop the sources that have errors and try again
+      Set<JavaFileObject> failed = new HashSet<JavaFileObject>();
+      for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+        if (d.getKind() == Diagnostic.Kind.ERROR) {
+          errors.append(d.toString()).append("\n");
+          if (d.getSource() != null) {
+            failed.add(d.getSource());
+          }
+        }
+      }
+      if (failed.isEmpty()) {
+        // An error that is not in any source (e.g., a bad option)
+        break;
+      }
+      units.removeAll(failed);
+    }
+    return result;
+  }
+}
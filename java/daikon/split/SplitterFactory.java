@@ -39,10 +39,20 @@ public class SplitterFactory {
    */
   public static boolean dkconfig_delete_splitters_on_exit = true;
 
+  /**
+   * Boolean.  If true, splitters are compiled by the Java compiler of the
+   * JVM that runs Daikon (javax.tools), and loaded from memory, rather
+   * than by running {@link #dkconfig_compiler} as a separate process.
+   * If Daikon runs on a JVM without a compiler (a JRE), splitters are
+   * compiled by dkconfig_compiler regardless.
+   */
+  public static boolean dkconfig_compile_in_process = true;
+
   /**
    * String.  Specifies which Java compiler is used to compile
-   * Splitters.  This can be the full path name or whatever is used on
-   * the command line.
+   * Splitters, if they are not compiled in process (see
+   * {@link #dkconfig_compile_in_process}).  This can be the full path
+   * name or whatever is used on the command line.
    * <p>
    *
    * By default, $DAIKONDIR/java is part of the classpath. This is useful
@@ -110,6 +120,11 @@ public class SplitterFactory {
     for (SpinfoFile spfile : spfiles) {
       SplitterObject[][] splitterObjects = spfile.getSplitterObjects();
       StatementReplacer statementReplacer = spfile.getReplacer();
+
+      // Find the sections of spfile that apply to ppt, and write, compile,
+      // and load all of their splitter .java files at once.
+      List<Integer> matches = new ArrayList<Integer>();
+      List<SplitterObject> matchingObjects = new ArrayList<SplitterObject>();
       for (int i = 0; i < splitterObjects.length; i++) {
         int numsplitters = splitterObjects[i].length;
         if (numsplitters != 0) {
@@ -122,33 +137,44 @@ public class SplitterFactory {
                   + "; match="
                   + matchPpt(ppt_name, ppt));
           if (matchPpt(ppt_name, ppt)) {
-            int numGood = 0;
-            // Writes, compiles, and loads the splitter .java files.
-            loadSplitters(splitterObjects[i], ppt, statementReplacer);
-            Vector<Splitter> sp = new Vector<Splitter>();
-            for (int k = 0; k < numsplitters; k++) {
-              if (splitterObjects[i][k].splitterExists()) {
-                @SuppressWarnings("nullness") // dependent: because splitterExists() = true
-                /*@NonNull*/ Splitter splitter = splitterObjects[i][k].getSplitter();
-                sp.addElement(splitter);
-                numGood++;
-              } else {
-                // UNDONE: We should only output the load error if the
-                // compile was successful.
-                System.out.println(splitterObjects[i][k].getError());
-              }
-            }
-            System.out.printf(
-                "%s: %d of %d splitters successful%n", ppt_name, numGood, numsplitters);
-            if (sp.size() >= 1) {
-              SplitterList.put(ppt_name, sp.toArray(new Splitter[0]));
-            }
-            // delete this entry in the splitter array to prevent it from
-            // matching any other Ppts, since the documented behavior is that
-            // it only matches one.
-            splitterObjects[i] = new SplitterObject[0];
+            matches.add(i);
+            matchingObjects.addAll(Arrays.asList(splitterObjects[i]));
+          }
+        }
+      }
+      if (matches.isEmpty()) {
+        continue;
+      }
+      loadSplitters(
+          matchingObjects.toArray(new SplitterObject[matchingObjects.size()]),
+          ppt,
+          statementReplacer);
+
+      for (int i : matches) {
+        int numsplitters = splitterObjects[i].length;
+        String ppt_name = splitterObjects[i][0].getPptName();
+        int numGood = 0;
+        Vector<Splitter> sp = new Vector<Splitter>();
+        for (int k = 0; k < numsplitters; k++) {
+          if (splitterObjects[i][k].splitterExists()) {
+            @SuppressWarnings("nullness") // dependent: because splitterExists() = true
+            /*@NonNull*/ Splitter splitter = splitterObjects[i][k].getSplitter();
+            sp.addElement(splitter);
+            numGood++;
+          } else {
+            // UNDONE: We should only output the load error if the
+            // compile was successful.
+            System.out.println(splitterObjects[i][k].getError());
           }
         }
+        System.out.printf("%s: %d of %d splitters successful%n", ppt_name, numGood, numsplitters);
+        if (sp.size() >= 1) {
+          SplitterList.put(ppt_name, sp.toArray(new Splitter[0]));
+        }
+        // delete this entry in the splitter array to prevent it from
+        // matching any other Ppts, since the documented behavior is that
+        // it only matches one.
+        splitterObjects[i] = new SplitterObject[0];
       }
     }
     Global.debugSplit.fine("<<exit>>  load_splitters");
@@ -186,6 +212,8 @@ public class SplitterFactory {
     if (splitterObjects.length == 0) {
       return;
     }
+    // The source of each splitter, indexed by class name
+    Map<String, String> sources = new LinkedHashMap<String, String>();
     for (int i = 0; i < splitterObjects.length; i++) {
       SplitterObject splitObj = splitterObjects[i];
       String fileName = getFileName(splitObj.getPptName());
@@ -204,6 +232,7 @@ public class SplitterFactory {
       @SuppressWarnings("signature") // safe, has been quoted
       /*@BinaryName*/ String fileName_bn = fileName;
       splitObj.setClassName(fileName_bn);
+      sources.put(fileName, fileContents.toString());
       try {
         BufferedWriter writer = UtilMDE.bufferedFileWriter(fileAddress + ".java");
         if (dkconfig_delete_splitters_on_exit) {
@@ -217,6 +246,22 @@ public class SplitterFactory {
         debug.fine(ioe.toString());
       }
     }
+
+    if (dkconfig_compile_in_process && SplitterCompiler.available()) {
+      StringBuilder errors = new StringBuilder();
+      Map<String, Class<?>> classes = SplitterCompiler.compile(sources, errors);
+      if ((errors.length() > 0) && (!PptSplitter.dkconfig_suppressSplitterErrors)) {
+        System.out.println(
+            "\nErrors while compiling Splitter files (Daikon will use non-erroneous splitters):");
+        System.out.println(errors);
+      }
+      for (SplitterObject splitObj : splitterObjects) {
+        splitObj.load(classes.get(splitObj.getClassName()));
+      }
+      Global.debugSplit.fine("<<exit>>  loadSplitters");
+      return;
+    }
+
     List<String> fileNames = new ArrayList<String>();
     for (int i = 0; i < splitterObjects.length; i++) {
       fileNames.add(splitterObjects[i].getFullSourcePath());
@@ -90,6 +90,24 @@ public class SplitterObject implements Comparable<SplitterObject> {
    */
   public void load() {
     Class<?> tempClass = defineSplitterClass(className, directory + className + ".class");
+    load(tempClass, directory + className + ".class");
+  }
+
+  /**
+   * Sets the "splitter" field of this object to a newly-instantiated
+   * object of tempClass, which was compiled in memory (see
+   * SplitterCompiler).  If tempClass is null, the splitter did not
+   * compile.
+   */
+  void load(/*@Nullable*/ Class<?> tempClass) {
+    load(tempClass, "memory");
+  }
+
+  /**
+   * Sets the "splitter" field of this object to a newly-instantiated
+   * object of tempClass, which was to be loaded from the given location.
+   */
+  private void load(/*@Nullable*/ Class<?> tempClass, String location) {
     if (tempClass != null) {
       try {
         splitter = (Splitter) tempClass.newInstance();
@@ -121,9 +139,7 @@ public class SplitterObject implements Comparable<SplitterObject> {
           "\nNo class data for "
               + this.toString()
               + ", to be loaded from "
-              + directory
-              + className
-              + ".class";
+              + location;
       exists = false;
     }
   }
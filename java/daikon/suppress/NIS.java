@@ -9,6 +9,7 @@ import daikon.inv.ternary.*;
 import daikon.inv.ternary.threeScalar.*;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.*;
 import plume.*;
 
@@ -142,9 +143,17 @@ public class NIS {
   /**
    * List of invariants that are unsuppressed by the current sample.
    * The falsified() and process_falsified_invs() methods add created
-   * invariants to this list.  This list is cleared by apply_samples()
+   * invariants to this list.  This list is cleared by apply_samples().
+   * Each thread that processes samples has its own list (see
+   * {@link ParallelProcessor}); use {@link #new_invs()} to access it.
    */
-  public static List<Invariant> new_invs = new ArrayList<Invariant>();
+  private static final ThreadLocal<List<Invariant>> new_invs =
+      new ThreadLocal<List<Invariant>>() {
+        @Override
+        protected List<Invariant> initialValue() {
+          return new ArrayList<Invariant>();
+        }
+      };
 
   /**
    * List of invariants that are unsuppressed and then falsified by
@@ -152,30 +161,98 @@ public class NIS {
    * apply_samples() and falsified invariants are added as the current
    * sample is applied to invariants in new_invs.  The list is only
    * used when the falsified method is used for processing suppressions.
+   * Each thread that processes samples has its own list; use
+   * {@link #newly_falsified()} to access it.
+   */
+  private static final ThreadLocal<List<Invariant>> newly_falsified =
+      new ThreadLocal<List<Invariant>>() {
+        @Override
+        protected List<Invariant> initialValue() {
+          return new ArrayList<Invariant>();
+        }
+      };
+
+  /** Returns the invariants unsuppressed by the current sample on this thread. */
+  public static List<Invariant> new_invs() {
+    return new_invs.get();
+  }
+
+  /**
+   * Returns the invariants unsuppressed and then falsified by the
+   * current sample on this thread.
    */
-  public static List<Invariant> newly_falsified = new ArrayList<Invariant>();
+  public static List<Invariant> newly_falsified() {
+    return newly_falsified.get();
+  }
 
   // Statistics that are kept during processing.  Some of these are kept
   // and/or make sense for some approaches and not for others
 
   /** Whether or not to keep statistics */
   public static boolean keep_stats = false;
+  // The counters are atomic because program points are processed on
+  // several threads at once (see daikon.ParallelProcessor).  They are
+  // read through the accessors below.
+
   /** Number of falsified invariants in the program point */
-  public static int false_cnts = 0;
+  private static final AtomicLong false_cnts = new AtomicLong();
   /** Number of falsified invariants in the program point that are potential suppressors */
-  public static int false_invs = 0;
+  private static final AtomicLong false_invs = new AtomicLong();
   /** Number of suppressions processed */
-  public static int suppressions_processed = 0;
+  private static final AtomicLong suppressions_processed = new AtomicLong();
+  /**
+   * Number of suppressions processed since Daikon started.  Unlike
+   * suppressions_processed, never cleared; read by InferenceMetrics.
+   */
+  private static final AtomicLong suppressions_processed_total = new AtomicLong();
   /** Number of suppressions processed by the falsified method */
-  public static int suppressions_processed_falsified = 0;
+  private static final AtomicLong suppressions_processed_falsified = new AtomicLong();
   /** Number of invariants that are no longer suppressed  by a suppression */
-  static int new_invs_cnt = 0;
+  static final AtomicLong new_invs_cnt = new AtomicLong();
   /** Number of new_invs_cnt that are falsified by the sample */
-  public static int false_invs_cnt = 0;
+  private static final AtomicLong false_invs_cnt = new AtomicLong();
   /** Number of invariants actually created */
-  public static int created_invs_cnt = 0;
+  private static final AtomicLong created_invs_cnt = new AtomicLong();
   /** Number of invariants that are still suppressed */
-  static int still_suppressed_cnt = 0;
+  static final AtomicLong still_suppressed_cnt = new AtomicLong();
+
+  /** Returns the number of falsified invariants in the program point. */
+  public static int false_cnts() {
+    return (int) false_cnts.get();
+  }
+
+  /**
+   * Returns the number of falsified invariants in the program point that
+   * are potential suppressors.
+   */
+  public static int false_invs() {
+    return (int) false_invs.get();
+  }
+
+  /** Returns the number of suppressions processed. */
+  public static int suppressions_processed() {
+    return (int) suppressions_processed.get();
+  }
+
+  /** Returns the number of suppressions processed since Daikon started. */
+  public static long suppressions_processed_total() {
+    return suppressions_processed_total.get();
+  }
+
+  /** Returns the number of suppressions processed by the falsified method. */
+  public static int suppressions_processed_falsified() {
+    return (int) suppressions_processed_falsified.get();
+  }
+
+  /** Returns the number of unsuppressed invariants that are falsified by the sample. */
+  public static int false_invs_cnt() {
+    return (int) false_invs_cnt.get();
+  }
+
+  /** Returns the number of invariants actually created. */
+  public static int created_invs_cnt() {
+    return (int) created_invs_cnt.get();
+  }
 
   /** Total time spent in NIS processing */
   public static Stopwatch watch = new Stopwatch(false);
@@ -314,8 +391,8 @@ public class NIS {
     // Count the number of falsified invariants that are antecedents
     if (keep_stats) {
       watch.start();
-      if (PptTopLevel.first_pass_with_sample && suppressor_map.containsKey(inv.getClass())) {
-        false_invs++;
+      if (PptTopLevel.first_pass_with_sample() && suppressor_map.containsKey(inv.getClass())) {
+        false_invs.incrementAndGet();
       }
     }
 
@@ -325,8 +402,9 @@ public class NIS {
       if (debug.isLoggable(Level.FINE)) {
         debug.fine("processing suppression set " + ss + " over falsified inv " + inv.format());
       }
-      ss.falsified(inv, new_invs);
-      suppressions_processed += ss.suppression_set.length;
+      ss.falsified(inv, new_invs());
+      suppressions_processed.addAndGet(ss.suppression_set.length);
+      suppressions_processed_total.addAndGet(ss.suppression_set.length);
     }
 
     if (keep_stats) {
@@ -346,6 +424,8 @@ public class NIS {
    * is not itself a possible NI suppressor.
    */
   public static void apply_samples(ValueTuple vt, int count) {
+    List<Invariant> new_invs = new_invs();
+    List<Invariant> newly_falsified = newly_falsified();
     newly_falsified.clear();
 
     if (NIS.debug.isLoggable(Level.FINE)) {
@@ -397,7 +477,7 @@ public class NIS {
       inv.ppt.addInvariant(inv);
       if (Debug.logOn()) inv.log("%s added to slice", inv.format());
 
-      if (NIS.antecedent_method) created_invs_cnt++;
+      if (NIS.antecedent_method) created_invs_cnt.incrementAndGet();
     }
 
     // Make a second pass through the new invariants and make sure that
@@ -409,7 +489,7 @@ public class NIS {
       Invariant inv = i.next();
       // inv.log ("Considering whether still suppressed in second pass");
       if (inv.is_ni_suppressed()) {
-        still_suppressed_cnt++;
+        still_suppressed_cnt.incrementAndGet();
         inv.log("removed, still suppressed in second pass");
         inv.ppt.invs.remove(inv);
         i.remove();
@@ -426,26 +506,26 @@ public class NIS {
 
     keep_stats = true;
     watch.clear();
-    false_invs = 0;
-    false_cnts = 0;
-    suppressions_processed = 0;
-    suppressions_processed_falsified = 0;
-    new_invs_cnt = 0;
-    false_invs_cnt = 0;
-    created_invs_cnt = 0;
-    still_suppressed_cnt = 0;
+    false_invs.set(0);
+    false_cnts.set(0);
+    suppressions_processed.set(0);
+    suppressions_processed_falsified.set(0);
+    new_invs_cnt.set(0);
+    false_invs_cnt.set(0);
+    created_invs_cnt.set(0);
+    still_suppressed_cnt.set(0);
   }
 
   public static void clear_sample_stats() {
     keep_stats = true;
-    false_invs = 0;
-    false_cnts = 0;
-    suppressions_processed = 0;
-    suppressions_processed_falsified = 0;
-    new_invs_cnt = 0;
-    false_invs_cnt = 0;
-    created_invs_cnt = 0;
-    still_suppressed_cnt = 0;
+    false_invs.set(0);
+    false_cnts.set(0);
+    suppressions_processed.set(0);
+    suppressions_processed_falsified.set(0);
+    new_invs_cnt.set(0);
+    false_invs_cnt.set(0);
+    created_invs_cnt.set(0);
+    still_suppressed_cnt.set(0);
   }
 
   public static void stats_header(Logger log) {
@@ -471,7 +551,7 @@ public class NIS {
       first_time = false;
     }
 
-    if (false_invs > 0) {
+    if (false_invs.get() > 0) {
       log.fine(
           false_invs
               + " : "
@@ -522,7 +602,7 @@ public class NIS {
         }
 
         if (inv.is_false()) {
-          false_cnts++;
+          false_cnts.incrementAndGet();
 
           if (suppressor_map.containsKey(inv.getClass())) {
 
@@ -532,7 +612,7 @@ public class NIS {
                 "nullness") // map:  same keys in suppressor_map and suppressor_map_suppression_count
             int map_count = suppressor_map_suppression_count.get(inv.getClass());
             count += map_count;
-            suppressions_processed_falsified += map_count;
+            suppressions_processed_falsified.addAndGet(map_count);
           }
         }
       }
@@ -663,7 +743,8 @@ public class NIS {
     Set<SupInv> unsuppressed_invs = new LinkedHashSet<SupInv>();
     for (NISuppressionSet ss : all_suppressions) {
       for (NISuppression sup : ss) {
-        suppressions_processed++;
+        suppressions_processed.incrementAndGet();
+        suppressions_processed_total.incrementAndGet();
         for (Antecedents ants : comp_ants.values()) {
           sup.find_unsuppressed_invs(unsuppressed_invs, ants);
         }
@@ -680,15 +761,15 @@ public class NIS {
     // the sample.  Checking the sample is faster than checking suppression
     // and removes the invariant more often, so it is checked first
     for (SupInv supinv : unsuppressed_invs) {
-      new_invs_cnt++;
+      new_invs_cnt.incrementAndGet();
       if (supinv.check(vt) == InvariantStatus.FALSIFIED) {
         supinv.log("unsuppressed inv falsified by sample");
-        false_invs_cnt++;
+        false_invs_cnt.incrementAndGet();
         continue;
       }
       if (supinv.is_ni_suppressed()) {
         supinv.log("unsuppresed inv still suppressed");
-        still_suppressed_cnt++;
+        still_suppressed_cnt.incrementAndGet();
         continue;
       }
       Invariant inv = supinv.instantiate(ppt);
@@ -699,7 +780,7 @@ public class NIS {
             throw new Error("inv " + inv.format() + " already exists in ppt " + ppt.name);
           }
         }
-        new_invs.add(inv);
+        new_invs().add(inv);
       }
     }
   }
@@ -810,7 +891,7 @@ public class NIS {
       for (Invariant inv : slice.invs) {
         if (!is_suppressor(inv.getClass())) continue;
 
-        if (inv.is_false()) false_invs++;
+        if (inv.is_false()) false_invs.incrementAndGet();
 
         VarComparability vc = inv.get_comparability();
         Antecedents ants = comp_ants.get(vc);
@@ -454,7 +454,7 @@ public class NISuppressionSet implements Iterable<NISuppression> {
   @Deprecated
   private void instantiate(PptTopLevel ppt, VarInfo[] vis, List<Invariant> new_invs) {
 
-    NIS.new_invs_cnt++;
+    NIS.new_invs_cnt.incrementAndGet();
 
     // If the suppressee will be falsified by the sample, don't bother
     // to create it.
@@ -0,0 +1,160 @@
+package daikon.test;
+
+import daikon.BinaryDtrace;
+import java.io.*;
+import java.util.*;
+import junit.framework.*;
+
+/** Writes binary dtrace files with {@link BinaryDtrace.Writer} and reads them back. */
+public class BinaryDtraceTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(BinaryDtraceTest.class));
+  }
+
+  public BinaryDtraceTest(String name) {
+    super(name);
+  }
+
+  /** One sample:  a program point, a nonce, and names, values, and modbits. */
+  private static final class Sample {
+    final String ppt;
+    final /*@Nullable*/ Integer nonce;
+    final String[] names;
+    final String[] values;
+    final int[] mods;
+
+    Sample(String ppt, /*@Nullable*/ Integer nonce, String[] names, String[] values, int[] mods) {
+      this.ppt = ppt;
+      this.nonce = nonce;
+      this.names = names;
+      this.values = values;
+      this.mods = mods;
+    }
+  }
+
+  private static final String decls = "decl-version 2.0\nvar-comparability none\n\n";
+
+  /**
+   * Samples that use every kind of value.  The variables of ppt A change
+   * before ppt B is first seen, so A's second id must not be reused for B.
+   */
+  private static final Sample[] samples = {
+    new Sample(
+        "A:::ENTER",
+        0,
+        new String[] {"x", "d", "a", "s"},
+        new String[] {"17", "2.5", "[1 -2 3]", "\"hello\""},
+        new int[] {1, 1, 1, 1}),
+    new Sample(
+        "A:::ENTER",
+        1,
+        new String[] {"x", "d"},
+        new String[] {"-4000000000", "[0.5 1.0E10]"},
+        new int[] {0, 1}),
+    new Sample(
+        "B:::ENTER",
+        null,
+        new String[] {"y", "z", "w"},
+        new String[] {"null", "nonsensical", "1"},
+        new int[] {1, 2, 1}),
+    new Sample(
+        "A:::ENTER",
+        2,
+        new String[] {"x", "d"},
+        new String[] {"5", "[]"},
+        new int[] {1, 1}),
+    new Sample(
+        "B:::ENTER",
+        3,
+        new String[] {"y", "z", "w"},
+        new String[] {"0x1f", "[]", "-1"},
+        new int[] {1, 1, 1}),
+  };
+
+  /** Returns the binary dtrace file holding decls and samples. */
+  private static byte[] write() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryDtrace.Writer writer = new BinaryDtrace.Writer(bytes);
+    writer.text_stream().print(decls);
+    for (Sample sample : samples) {
+      writer.begin_sample(sample.ppt, sample.nonce);
+      for (int i = 0; i < sample.names.length; i++) {
+        writer.add_value(sample.names[i], sample.values[i], sample.mods[i]);
+      }
+      writer.end_sample();
+    }
+    writer.close();
+    return bytes.toByteArray();
+  }
+
+  /** Reads the file written by write() from in, and checks its contents. */
+  private static void check(InputStream in) throws IOException {
+    BinaryDtrace.Reader reader = new BinaryDtrace.Reader(in);
+    assertEquals(BinaryDtrace.REC_TEXT, reader.next_record());
+    assertEquals(decls, reader.text);
+
+    Map<Integer, String> ppt_names = new HashMap<Integer, String>();
+    Map<Integer, Integer> ppt_values = new HashMap<Integer, Integer>();
+    for (Sample sample : samples) {
+      byte tag = reader.next_record();
+      if (tag == BinaryDtrace.REC_PPT) {
+        ppt_names.put(reader.ppt_id, reader.ppt_name);
+        ppt_values.put(reader.ppt_id, reader.ppt_values);
+        tag = reader.next_record();
+      }
+      assertEquals(BinaryDtrace.REC_SAMPLE, tag);
+      assertEquals(sample.ppt, ppt_names.get(reader.ppt_id));
+      assertEquals(Integer.valueOf(sample.names.length), ppt_values.get(reader.ppt_id));
+      assertEquals(sample.nonce, reader.nonce);
+      assertEquals(sample.values.length, reader.num_values);
+      for (int i = 0; i < reader.num_values; i++) {
+        assertEquals(sample.mods[i], reader.mods[i]);
+        assertEquals(
+            sample.values[i],
+            BinaryDtrace.value_text(reader.tags[i], reader.bits[i], reader.objs[i]));
+      }
+    }
+    assertEquals(BinaryDtrace.REC_EOF, reader.next_record());
+    // Three distinct ids:  two for A, and one for B
+    assertEquals(3, ppt_names.size());
+    reader.close();
+  }
+
+  public void testRoundTrip() throws IOException {
+    check(new ByteArrayInputStream(write()));
+  }
+
+  /** Checks that is_binary leaves the stream where it was, as for a pipe. */
+  public void testSniff() throws IOException {
+    BufferedInputStream binary = new BufferedInputStream(new ByteArrayInputStream(write()));
+    assertTrue(BinaryDtrace.is_binary(binary));
+    check(binary);
+
+    byte[] text = decls.getBytes("UTF-8");
+    BufferedInputStream textual = new BufferedInputStream(new ByteArrayInputStream(text));
+    assertFalse(BinaryDtrace.is_binary(textual));
+    byte[] read = new byte[text.length];
+    assertEquals(text.length, textual.read(read));
+    assertTrue(Arrays.equals(text, read));
+
+    BufferedInputStream empty = new BufferedInputStream(new ByteArrayInputStream(new byte[0]));
+    assertFalse(BinaryDtrace.is_binary(empty));
+    assertEquals(-1, empty.read());
+
+    File file = File.createTempFile("binary-dtrace", ".bin");
+    try {
+      OutputStream out = new FileOutputStream(file);
+      out.write(write());
+      out.close();
+      assertTrue(BinaryDtrace.is_binary(file));
+      out = new FileOutputStream(file);
+      out.write(text);
+      out.close();
+      assertFalse(BinaryDtrace.is_binary(file));
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -15,7 +15,6 @@ import java.util.List;
 import java.util.StringTokenizer;
 import java.util.Vector;
 import plume.*;
-import plume.Intern;
 
 /*>>>
 import org.checkerframework.checker.nullness.qual.*;
@@ -929,16 +928,17 @@ class FormatTestCase {
         // interned
         if (currentClass.equals(String.class)) {
           // Intern strings
-          currentSample[j] = Intern.intern(currentSample[j]);
+          currentSample[j] = SyncIntern.intern(currentSample[j]);
         } else if (currentClass.isArray()) {
           // Intern arrays
           if (currentClass.getComponentType().equals(String.class)) {
             for (int k = 0; k < ((String[]) (currentSample[j])).length; k++) {
               // Intern Strings that are inside arrays
-              ((String[]) currentSample[j])[k] = Intern.intern(((String[]) currentSample[j])[k]);
+              ((String[]) currentSample[j])[k] =
+                  SyncIntern.intern(((String[]) currentSample[j])[k]);
             }
           }
-          currentSample[j] = Intern.intern(currentSample[j]);
+          currentSample[j] = SyncIntern.intern(currentSample[j]);
         }
 
         params[j] = currentSample[j];
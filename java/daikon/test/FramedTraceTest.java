@@ -0,0 +1,113 @@
+package daikon.test;
+
+import daikon.FramedTrace;
+import java.io.*;
+import java.util.Arrays;
+import junit.framework.*;
+
+/**
+ * Tests that the frames written by a {@link FramedTrace.Output} are read
+ * back in order by a {@link FramedTrace.Input}, including when the
+ * reader falls behind and the frames are spilled.
+ */
+public class FramedTraceTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(FramedTraceTest.class));
+  }
+
+  public FramedTraceTest(String name) {
+    super(name);
+  }
+
+  /** Returns distinct bytes, many frames' worth. */
+  private static byte[] data() {
+    byte[] result = new byte[100 * FramedTrace.FRAME_SIZE + 12345];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (byte) (i * 31 + (i >> 16));
+    }
+    return result;
+  }
+
+  /** Reads everything from a framed stream. */
+  private static byte[] read_all(InputStream in) throws IOException {
+    FramedTrace.Input framed = new FramedTrace.Input(in);
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buf = new byte[5000];
+    int n;
+    while ((n = framed.read(buf, 0, buf.length)) != -1) {
+      result.write(buf, 0, n);
+    }
+    framed.close();
+    return result.toByteArray();
+  }
+
+  /**
+   * Writes the data in pieces of different sizes, and a byte at a time,
+   * flushing along the way.
+   */
+  private static void write_all(OutputStream out, byte[] data) throws IOException {
+    int off = 0;
+    int piece = 1;
+    while (off < data.length) {
+      int n = Math.min(piece, data.length - off);
+      if (n == 1) {
+        out.write(data[off]);
+      } else {
+        out.write(data, off, n);
+      }
+      off += n;
+      piece = (piece * 7) % 100000 + 1;
+      if ((piece % 3) == 0) {
+        out.flush();
+      }
+    }
+    out.close();
+  }
+
+  public void testRoundTrip() throws IOException {
+    byte[] data = data();
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    write_all(new FramedTrace.Output(sent, true), data);
+    assertTrue(Arrays.equals(data, read_all(new ByteArrayInputStream(sent.toByteArray()))));
+  }
+
+  /**
+   * Checks that a writer does not wait for a reader that has not started
+   * reading, and that the spilled frames arrive in order.
+   */
+  public void testSpill() throws IOException {
+    final byte[] data = data();
+    PipedInputStream pipe = new PipedInputStream();
+    final FramedTrace.Output out = new FramedTrace.Output(new PipedOutputStream(pipe), false);
+    final IOException[] failure = new IOException[1];
+    Thread writer =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              write_all(out, data);
+            } catch (IOException e) {
+              failure[0] = e;
+            }
+          }
+        };
+    writer.start();
+    // The pipe holds far less than the data, so the frames that do not fit
+    // in the queue must be spilled for the writer to get ahead.
+    while ((out.spilled_frames() == 0) && writer.isAlive()) {
+      Thread.yield();
+    }
+    assertTrue(out.spilled_frames() > 0);
+    assertTrue(Arrays.equals(data, read_all(pipe)));
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+  }
+}
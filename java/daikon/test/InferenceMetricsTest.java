@@ -0,0 +1,131 @@
+package daikon.test;
+
+import daikon.*;
+import daikon.suppress.NIS;
+import daikon.test.perf.SyntheticTrace;
+import java.io.*;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.regex.*;
+import junit.framework.*;
+
+/**
+ * Checks the phase records that {@link InferenceMetrics} writes as JSON
+ * lines.
+ */
+public class InferenceMetricsTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(InferenceMetricsTest.class));
+  }
+
+  public InferenceMetricsTest(String name) {
+    super(name);
+  }
+
+  /** Directory holding the trace, the .inv file, and the metrics. */
+  private File dir;
+
+  private File decls;
+  private File dtrace;
+
+  // Settings that the tests change, restored by tearDown
+  private boolean saved_quiet;
+  private /*@Nullable*/ String saved_jsonl_file;
+  private /*@Nullable*/ Level saved_nis_stats_level;
+  private boolean saved_keep_stats;
+
+  @Override
+  protected void setUp() throws IOException {
+    saved_quiet = Daikon.dkconfig_quiet;
+    saved_jsonl_file = InferenceMetrics.dkconfig_jsonl_file;
+    saved_nis_stats_level = PptTopLevel.debugNISStats.getLevel();
+    saved_keep_stats = NIS.keep_stats;
+    Daikon.dkconfig_quiet = true;
+
+    dir = java.nio.file.Files.createTempDirectory("daikon-metrics").toFile();
+    decls = new File(dir, "synthetic.decls");
+    dtrace = new File(dir, "synthetic.dtrace");
+    SyntheticTrace trace = new SyntheticTrace();
+    trace.num_ppts = 2;
+    trace.num_vars = 3;
+    trace.array_size = 2;
+    trace.cardinality = 5;
+    trace.num_calls = 50;
+    trace.write(decls, dtrace);
+  }
+
+  @Override
+  protected void tearDown() {
+    Daikon.dkconfig_quiet = saved_quiet;
+    InferenceMetrics.dkconfig_jsonl_file = saved_jsonl_file;
+    PptTopLevel.debugNISStats.setLevel(saved_nis_stats_level);
+    NIS.keep_stats = saved_keep_stats;
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  private static final Pattern phase_record =
+      Pattern.compile(
+          "\\{\"type\":\"phase\",\"phase\":\"([^\"]*)\".*"
+              + ",\"suppressions_processed\":(-?[0-9]+),.*");
+
+  /**
+   * Runs Daikon over the trace, writing metrics, and returns each phase
+   * record as "phase=suppressions_processed", in order.  If nis_stats,
+   * also keeps the per-sample NIS statistics, which clears the NIS
+   * counters before each sample.
+   */
+  List<String> suppressions(boolean nis_stats) throws IOException {
+    PptTopLevel.debugNISStats.setLevel(nis_stats ? Level.FINE : Level.INFO);
+    File metrics = new File(dir, "metrics-" + nis_stats + ".jsonl");
+    Daikon.mainHelper(
+        new String[] {
+          "--" + Daikon.no_text_output_SWITCH,
+          "--" + Daikon.noversion_SWITCH,
+          "--" + Daikon.config_option_SWITCH,
+          "daikon.InferenceMetrics.jsonl_file=" + metrics.getPath(),
+          "-o",
+          new File(dir, "synthetic.inv.gz").getPath(),
+          decls.getPath(),
+          dtrace.getPath()
+        });
+
+    List<String> result = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new FileReader(metrics));
+    try {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (!line.startsWith("{\"type\":\"phase\"")) {
+          continue;
+        }
+        Matcher m = phase_record.matcher(line);
+        assertTrue(line, m.matches());
+        result.add(m.group(1) + "=" + m.group(2));
+      }
+    } finally {
+      reader.close();
+    }
+    return result;
+  }
+
+  /**
+   * Checks that the suppressions processed in each phase are counted
+   * whether or not the NIS statistics, which are cleared for each sample,
+   * are kept.
+   */
+  public void testSuppressionsProcessed() throws IOException {
+    List<String> plain = suppressions(false);
+    assertFalse("no phase records", plain.isEmpty());
+    long total = 0;
+    for (String phase : plain) {
+      long count = Long.parseLong(phase.substring(phase.indexOf('=') + 1));
+      assertTrue(phase, count >= 0);
+      total += count;
+    }
+    assertTrue("no suppressions processed", total > 0);
+    assertEquals(plain, suppressions(true));
+  }
+}
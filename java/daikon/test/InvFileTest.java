@@ -0,0 +1,149 @@
+package daikon.test;
+
+import daikon.*;
+import daikon.inv.Implication;
+import daikon.inv.Invariant;
+import daikon.test.perf.SyntheticTrace;
+import java.io.*;
+import java.util.*;
+import junit.framework.*;
+
+/**
+ * Writes the PptMap that Daikon infers over a trace in the format of
+ * {@link InvFile} and reads it back, gzipped and not.
+ */
+public class InvFileTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(InvFileTest.class));
+  }
+
+  public InvFileTest(String name) {
+    super(name);
+  }
+
+  /** Directory holding the trace and the .inv files. */
+  private File dir;
+
+  /** The .inv.gz file that Daikon wrote. */
+  private File inv;
+
+  private boolean saved_quiet;
+
+  @Override
+  protected void setUp() throws IOException {
+    saved_quiet = Daikon.dkconfig_quiet;
+    Daikon.dkconfig_quiet = true;
+
+    dir = java.nio.file.Files.createTempDirectory("daikon-invfile").toFile();
+    File decls = new File(dir, "synthetic.decls");
+    File dtrace = new File(dir, "synthetic.dtrace");
+    SyntheticTrace trace = new SyntheticTrace();
+    trace.num_ppts = 4;
+    trace.num_vars = 5;
+    trace.array_size = 3;
+    trace.cardinality = 3;
+    trace.num_calls = 100;
+    trace.write(decls, dtrace);
+
+    inv = new File(dir, "synthetic.inv.gz");
+    Daikon.mainHelper(
+        new String[] {
+          "--" + Daikon.no_text_output_SWITCH,
+          "--" + Daikon.noversion_SWITCH,
+          "-o",
+          inv.getPath(),
+          decls.getPath(),
+          dtrace.getPath()
+        });
+  }
+
+  @Override
+  protected void tearDown() {
+    Daikon.dkconfig_quiet = saved_quiet;
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  /** Returns true if the file starts with the gzip magic number. */
+  private static boolean is_gzipped(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      return (in.read() == 0x1f) && (in.read() == 0x8b);
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testRoundTrip() throws IOException {
+    assertTrue(InvFile.is_inv_file(inv));
+    assertTrue(".inv.gz file is not gzipped", is_gzipped(inv));
+    String expected = ParallelInferenceTest.print_inv_file(inv);
+    assertTrue("no invariants found", expected.contains("one of"));
+
+    PptMap ppts = FileIO.read_serialized_pptmap(inv, false);
+    File plain = new File(dir, "copy.inv");
+    FileIO.write_serialized_pptmap(ppts, plain);
+    assertFalse(is_gzipped(plain));
+    assertTrue(InvFile.is_inv_file(plain));
+    assertEquals(expected, ParallelInferenceTest.print_inv_file(plain));
+
+    File gzipped = new File(dir, "copy.inv.gz");
+    FileIO.write_serialized_pptmap(FileIO.read_serialized_pptmap(plain, false), gzipped);
+    assertTrue(is_gzipped(gzipped));
+    assertEquals(expected, ParallelInferenceTest.print_inv_file(gzipped));
+  }
+
+  /** Returns the first invariant of ppt that is in a slice over variables. */
+  private static Invariant some_invariant(PptTopLevel ppt) {
+    for (PptSlice slice : ppt.views_iterable()) {
+      if (!slice.invs.isEmpty()) {
+        return slice.invs.get(0);
+      }
+    }
+    fail("no invariants at " + ppt.name());
+    throw new Error("unreachable");
+  }
+
+  /** Ppts whose invariants refer to each other are read back without error. */
+  public void testCyclicReferences() throws IOException {
+    PptMap ppts = FileIO.read_serialized_pptmap(inv, false);
+    List<PptTopLevel> exits = new ArrayList<PptTopLevel>();
+    for (PptTopLevel ppt : ppts.pptIterable()) {
+      if (ppt.name().endsWith(":::EXIT") && ppt.num_samples() > 0) {
+        exits.add(ppt);
+      }
+    }
+    assertTrue(exits.size() >= 2);
+    PptTopLevel a = exits.get(0);
+    PptTopLevel b = exits.get(1);
+    Invariant a_inv = some_invariant(a);
+    Invariant b_inv = some_invariant(b);
+    Implication a_to_b = Implication.makeImplication(a, a_inv, b_inv, false, a_inv, b_inv);
+    Implication b_to_a = Implication.makeImplication(b, b_inv, a_inv, false, b_inv, a_inv);
+    assertNotNull(a_to_b);
+    assertNotNull(b_to_a);
+    a.joiner_view.addInvariant(a_to_b);
+    b.joiner_view.addInvariant(b_to_a);
+
+    for (String name : new String[] {"cyclic.inv", "cyclic.inv.gz"}) {
+      File file = new File(dir, name);
+      FileIO.write_serialized_pptmap(ppts, file);
+      PptMap read = FileIO.read_serialized_pptmap(file, false);
+      PptTopLevel read_a = read.get(a.name());
+      PptTopLevel read_b = read.get(b.name());
+      assertNotNull(read_a);
+      assertNotNull(read_b);
+      Implication read_a_to_b = (Implication) read_a.joiner_view.invs.get(0);
+      Implication read_b_to_a = (Implication) read_b.joiner_view.invs.get(0);
+      // Each implication refers to the other ppt's invariant, as read
+      assertSame(read_b, read_a_to_b.consequent().ppt.parent);
+      assertSame(read_a, read_b_to_a.consequent().ppt.parent);
+      assertSame(read_b_to_a.predicate(), read_a_to_b.consequent());
+      assertEquals(a_to_b.format(), read_a_to_b.format());
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package daikon.test;
+
+import daikon.*;
+import daikon.test.perf.SyntheticTrace;
+import daikon.tools.InvariantChecker;
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+import junit.framework.*;
+
+/**
+ * Checks that {@link InvariantChecker}, which reads the traces once for
+ * all of the invariant files it is given, reports the same results for
+ * each file as when it checks that file alone.
+ */
+public class InvariantCheckerTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(InvariantCheckerTest.class));
+  }
+
+  public InvariantCheckerTest(String name) {
+    super(name);
+  }
+
+  /** Directory holding the traces and the .inv files. */
+  private File dir;
+
+  /** Two invariant files, inferred from different traces of the same program. */
+  private File inv1;
+  private File inv2;
+
+  /** The trace that is checked against the invariant files. */
+  private File dtrace;
+
+  // Settings that the tests change, restored by tearDown
+  private boolean saved_quiet;
+
+  @Override
+  protected void setUp() throws IOException {
+    saved_quiet = Daikon.dkconfig_quiet;
+    Daikon.dkconfig_quiet = true;
+
+    dir = java.nio.file.Files.createTempDirectory("daikon-checker").toFile();
+    inv1 = infer("first", 1, 30, 3);
+    inv2 = infer("second", 2, 60, 3);
+    dtrace = write_trace("checked", 3, 100, 3);
+  }
+
+  @Override
+  protected void tearDown() {
+    Daikon.dkconfig_quiet = saved_quiet;
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  /**
+   * Writes a trace with the given seed, number of calls to each method,
+   * and number of methods, and returns the dtrace file.  Methods with the
+   * same number have the same program points and variables in every
+   * trace.
+   */
+  private File write_trace(String name, long seed, int num_calls, int num_ppts)
+      throws IOException {
+    SyntheticTrace trace = new SyntheticTrace();
+    trace.num_ppts = num_ppts;
+    trace.num_vars = 4;
+    trace.array_size = 2;
+    trace.cardinality = 6;
+    trace.num_calls = num_calls;
+    trace.seed = seed;
+    File result = new File(dir, name + ".dtrace");
+    trace.write(new File(dir, name + ".decls"), result);
+    return result;
+  }
+
+  /** Runs Daikon over a new trace, and returns the .inv file. */
+  private File infer(String name, long seed, int num_calls, int num_ppts) throws IOException {
+    File trace = write_trace(name, seed, num_calls, num_ppts);
+    File result = new File(dir, name + ".inv.gz");
+    Daikon.mainHelper(
+        new String[] {
+          "--" + Daikon.no_text_output_SWITCH,
+          "--" + Daikon.noversion_SWITCH,
+          "-o",
+          result.getPath(),
+          new File(dir, name + ".decls").getPath(),
+          trace.getPath()
+        });
+    return result;
+  }
+
+  /**
+   * Runs InvariantChecker over the trace with the given options and
+   * invariant files, and returns the results it prints for each file:
+   * the errors and samples, and the false positives and checked
+   * invariants.
+   */
+  private Map<File, String> check(List<String> options, File... inv_files)
+      throws IOException, ClassNotFoundException {
+    List<String> args = new ArrayList<String>(options);
+    for (File inv : inv_files) {
+      args.add(inv.getPath());
+    }
+    args.add(dtrace.getPath());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream saved_out = System.out;
+    System.setOut(new PrintStream(bytes, true));
+    try {
+      InvariantChecker.mainHelper(args.toArray(new String[args.size()]));
+    } finally {
+      System.setOut(saved_out);
+    }
+    String output = bytes.toString();
+
+    Map<File, String> result = new LinkedHashMap<File, String>();
+    for (File inv : inv_files) {
+      String file = Pattern.quote(inv.toString());
+      Matcher errors =
+          Pattern.compile(file + ": ([0-9,]+) errors found in ([0-9,]+) samples").matcher(output);
+      Matcher positives =
+          Pattern.compile(file + ": ([0-9]+) false positives, out of ([0-9]+),").matcher(output);
+      assertTrue(output, errors.find());
+      assertTrue(output, positives.find());
+      result.put(
+          inv,
+          errors.group(1)
+              + " errors in "
+              + errors.group(2)
+              + " samples, "
+              + positives.group(1)
+              + " of "
+              + positives.group(2)
+              + " falsified");
+    }
+    return result;
+  }
+
+  /**
+   * Checks that checking two invariant files in one pass over the trace
+   * gives each file the same error counts as checking it alone, with and
+   * without threads.
+   */
+  public void testSameCountsAsSeparateRuns() throws IOException, ClassNotFoundException {
+    List<String> no_options = Collections.<String>emptyList();
+    Map<File, String> separate = new LinkedHashMap<File, String>();
+    separate.putAll(check(no_options, inv1));
+    separate.putAll(check(no_options, inv2));
+    assertFalse(separate.get(inv1), separate.get(inv1).startsWith("0 errors"));
+
+    assertEquals(separate, check(no_options, inv1, inv2));
+    List<String> threads = Arrays.asList("--threads", "3");
+    for (int i = 0; i < 3; i++) {
+      assertEquals(separate, check(threads, inv1, inv2));
+    }
+  }
+
+  /**
+   * Checks that a file with program points that the first file lacks is
+   * still checked at all of them.
+   */
+  public void testFileWithMorePpts() throws IOException, ClassNotFoundException {
+    File fewer = infer("fewer", 4, 40, 2);
+    List<String> no_options = Collections.<String>emptyList();
+    String alone = check(no_options, inv2).get(inv2);
+    assertEquals(alone, check(no_options, fewer, inv2).get(inv2));
+    assertEquals(alone, check(Arrays.asList("--threads", "2"), fewer, inv2).get(inv2));
+  }
+}
@@ -0,0 +1,137 @@
+package daikon.test;
+
+import daikon.MappedDtraceReader;
+import java.io.*;
+import java.util.*;
+import junit.framework.*;
+
+/**
+ * Checks that {@link MappedDtraceReader} reads the same lines and
+ * characters as a LineNumberReader, including for CRLF line endings and
+ * for lines that cross from one mapped window of the file to the next.
+ */
+public class MappedDtraceReaderTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(MappedDtraceReaderTest.class));
+  }
+
+  public MappedDtraceReaderTest(String name) {
+    super(name);
+  }
+
+  /** The last line of the test file, which has no terminator. */
+  private static final String last_line =
+      "a line longer than several of the small windows below, with no end";
+
+  /** Contents of the test file:  every kind of line terminator, and some long lines. */
+  private static final String contents =
+      "decl-version 2.0\r\n"
+          + "\r\n"
+          + "ppt foo:::ENTER\r\n"
+          + "this_invocation_nonce\r"
+          + "42\n"
+          + "x\r\n"
+          + "[1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20]\r\n"
+          + "1\n"
+          + "\n"
+          + "\r"
+          + last_line;
+
+  /** Window sizes to test; small ones put line ends at every offset in a window. */
+  private static final int[] window_sizes = {1, 2, 3, 5, 7, 16, 64, 1 << 20};
+
+  private File file;
+
+  @Override
+  protected void setUp() throws IOException {
+    file = File.createTempFile("mapped", ".dtrace");
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "US-ASCII");
+    out.write(contents);
+    out.close();
+  }
+
+  @Override
+  protected void tearDown() {
+    file.delete();
+  }
+
+  /** Returns the lines of the test file, as read by a LineNumberReader. */
+  private List<String> expected_lines() throws IOException {
+    List<String> result = new ArrayList<String>();
+    LineNumberReader reader = new LineNumberReader(new StringReader(contents));
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      result.add(line);
+    }
+    return result;
+  }
+
+  public void testReadLine() throws IOException {
+    List<String> expected = expected_lines();
+    for (int window_size : window_sizes) {
+      MappedDtraceReader reader = new MappedDtraceReader(file.getPath(), window_size);
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals("window " + window_size, expected.get(i), reader.readLine());
+        assertEquals(i + 1, reader.getLineNumber());
+      }
+      assertNull(reader.readLine());
+      reader.close();
+    }
+  }
+
+  public void testReadChars() throws IOException {
+    // Each terminator is returned as a single '\n'
+    String expected = contents.replace("\r\n", "\n").replace('\r', '\n');
+    for (int window_size : window_sizes) {
+      for (int chunk = 1; chunk <= 4; chunk++) {
+        MappedDtraceReader reader = new MappedDtraceReader(file.getPath(), window_size);
+        StringBuilder sb = new StringBuilder();
+        char[] cbuf = new char[chunk + 2];
+        int n;
+        while ((n = reader.read(cbuf, 1, chunk)) != -1) {
+          assertTrue(n > 0);
+          sb.append(cbuf, 1, n);
+        }
+        assertEquals("window " + window_size + ", chunk " + chunk, expected, sb.toString());
+        // The last line has no terminator, so is not counted
+        assertEquals(expected_lines().size() - 1, reader.getLineNumber());
+        reader.close();
+      }
+    }
+  }
+
+  /** Mixes character reads, skips, and line reads. */
+  public void testMixed() throws IOException {
+    for (int window_size : window_sizes) {
+      MappedDtraceReader reader = new MappedDtraceReader(file.getPath(), window_size);
+      assertEquals('d', reader.read());
+      assertEquals(4, reader.skip(4));
+      assertEquals("version 2.0", reader.readLine());
+      assertEquals(1, reader.getLineNumber());
+      assertEquals("", reader.readLine());
+      assertEquals(3, reader.skip(3));
+      reader.mark(100);
+      assertTrue(reader.next_line_equals(" foo:::ENTER"));
+      assertEquals(" foo:::ENTER", reader.readLine());
+      reader.reset();
+      assertEquals(' ', reader.read());
+      assertTrue(reader.skip_line());
+      assertEquals(3, reader.getLineNumber());
+      assertEquals("this_invocation_nonce", reader.readLine());
+      assertEquals(42, reader.read_int_line());
+      assertEquals('x', reader.read());
+      assertEquals('\n', reader.read());
+      assertEquals(6, reader.getLineNumber());
+      assertTrue(reader.skip_line());
+      assertEquals(1, reader.read_modbit());
+      assertEquals("", reader.readLine());
+      assertEquals('\n', reader.read());
+      assertEquals(10, reader.getLineNumber());
+      assertEquals(last_line.length(), reader.skip(1000));
+      assertEquals(-1, reader.read());
+      assertFalse(reader.ready());
+      reader.close();
+    }
+  }
+}
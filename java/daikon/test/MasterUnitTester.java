@@ -68,6 +68,17 @@ public class MasterUnitTester extends TestCase {
               daikon.test.InstructionUtilsTest.class,
               daikon.test.KillerInstructionTests.class,
               daikon.test.DSForestTest.class,
+              daikon.test.ParallelInferenceTest.class,
+              daikon.test.ParallelTraceFilesTest.class,
+              daikon.test.BinaryDtraceTest.class,
+              daikon.test.MappedDtraceReaderTest.class,
+              daikon.test.InvFileTest.class,
+              daikon.test.SampleCoalescerTest.class,
+              daikon.test.InferenceMetricsTest.class,
+              daikon.test.InvariantCheckerTest.class,
+              daikon.test.RuntimeCheckerTest.class,
+              daikon.test.PipelinedInputStreamTest.class,
+              daikon.test.FramedTraceTest.class,
 
               //       ,
               //       // I'm having trouble with this; need to fix, reinstate, and not call
@@ -1,6 +1,7 @@
 package daikon.test;
 
 import daikon.*;
+import java.io.*;
 import java.util.BitSet;
 import java.util.Random;
 import junit.framework.*;
@@ -22,9 +23,6 @@ public class ModBitTrackerTest extends TestCase {
   // give them modbits so that they are all separated.  See if the results
   // are as they should be.
 
-  // I should probably add some tests that test arguments other than 1 for
-  // the "count" argument to ModBitTracker.add().
-
   private Random r = new Random(20031014L);
 
   private ModBitTracker makeModBitTracker(BitSet[] bitsets) {
@@ -55,6 +53,23 @@ public class ModBitTrackerTest extends TestCase {
 
     for (int i = 0; i < numvars; i++) {
       assert bitsets[i].equals(mbt.get(i));
+      assert bitsets[i].cardinality() == mbt.cardinality(i);
+      RunLengthBitSet.Cursor cursor = mbt.cursor(i);
+      for (int sampleno = 0; sampleno < numsamples; sampleno++) {
+        assert bitsets[i].get(sampleno) == cursor.get(sampleno);
+      }
+    }
+
+    // Spot-check the intersections against BitSet.and
+    for (int trial = 0; trial < 50; trial++) {
+      int v1 = r.nextInt(numvars);
+      int v2 = r.nextInt(numvars);
+      int v3 = r.nextInt(numvars);
+      BitSet b12 = (BitSet) bitsets[v1].clone();
+      b12.and(bitsets[v2]);
+      assert b12.cardinality() == mbt.intersection_cardinality(v1, v2);
+      b12.and(bitsets[v3]);
+      assert b12.cardinality() == mbt.intersection_cardinality(v1, v2, v3);
     }
   }
 
@@ -112,10 +127,107 @@ public class ModBitTrackerTest extends TestCase {
     assert mbt.num_sets() == vars;
   }
 
+  /**
+   * Like makeModBitTracker, but passes each run of identical samples to
+   * ModBitTracker.add() as a single sample with a count.
+   */
+  private ModBitTracker makeModBitTrackerWithCounts(BitSet[] bitsets) {
+    int numvars = bitsets.length;
+    int numsamples = bitsets[0].size();
+
+    ModBitTracker result = new ModBitTracker(numvars);
+
+    Object[] vals = new Object[numvars];
+    int[] mods = new int[numvars];
+    ValueTuple vt = ValueTuple.makeUninterned(vals, mods);
+    int sampleno = 0;
+    while (sampleno < numsamples) {
+      int count = 1;
+      while ((sampleno + count < numsamples) && sameSample(bitsets, sampleno, sampleno + count)) {
+        count++;
+      }
+      for (int var = 0; var < numvars; var++) {
+        mods[var] = booleanToModBit(bitsets[var].get(sampleno));
+      }
+      result.add(vt, count);
+      sampleno += count;
+    }
+    return result;
+  }
+
+  private boolean sameSample(BitSet[] bitsets, int sample1, int sample2) {
+    for (BitSet bs : bitsets) {
+      if (bs.get(sample1) != bs.get(sample2)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Make numvars BitSets of numsamples bits, in which variable i is
+  // present in runs of about (i+1)*run_length samples.
+  BitSet[] makeRunBitSets(int numvars, int numsamples, int run_length) {
+    BitSet[] result = new BitSet[numvars];
+    for (int var = 0; var < numvars; var++) {
+      BitSet bs = new BitSet(numsamples);
+      int period = (var + 1) * run_length;
+      for (int sample = 0; sample < numsamples; sample++) {
+        bs.set(sample, ((sample / period) % 2 == 0) != (r.nextInt(1000) == 0));
+      }
+      result[var] = bs;
+    }
+    return result;
+  }
+
   public void testModBitTracker() {
     oneModBitTrackerTest(1, 2, 0.0);
     oneModBitTrackerTest(2, 2, 0.0);
     oneModBitTrackerTest(5, 10, 0.0);
     oneModBitTrackerTest(100, 1000, 5.0);
   }
+
+  public void testCounts() {
+    BitSet[] bitsets = makeRunBitSets(10, 5000, 50);
+    ModBitTracker mbt = makeModBitTrackerWithCounts(bitsets);
+    checkModBitTracker(mbt, bitsets);
+    checkModBitTracker(makeModBitTracker(bitsets), bitsets);
+  }
+
+  public void testRunLengths() {
+    // Long runs
+    BitSet[] bitsets = makeRunBitSets(5, 20000, 1000);
+    checkModBitTracker(makeModBitTracker(bitsets), bitsets);
+    // RunLengthBitSet switches to a BitSet once 64 bits per run exceed
+    // 4096 bits more than the number of samples, here after about 376
+    // runs.  Variable 0 has about 500 runs of set bits, so it switches;
+    // variable 1 has about 250 and the others fewer, so they stay as runs.
+    bitsets = makeRunBitSets(5, 20000, 20);
+    checkModBitTracker(makeModBitTracker(bitsets), bitsets);
+    // Short runs:  even variable 4 has about 2000 runs, so every variable
+    // switches to a BitSet.
+    bitsets = makeRunBitSets(5, 20000, 1);
+    checkModBitTracker(makeModBitTracker(bitsets), bitsets);
+  }
+
+  /** Checks that a ModBitTracker can be serialized while it is still in use. */
+  public void testSerialization() throws IOException, ClassNotFoundException {
+    BitSet[] bitsets = makeRunBitSets(5, 5000, 100);
+    ModBitTracker mbt = makeModBitTracker(bitsets);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(mbt);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    checkModBitTracker((ModBitTracker) in.readObject(), bitsets);
+
+    // The original can still be extended after it was written
+    checkModBitTracker(mbt, bitsets);
+    int[] mods = new int[bitsets.length];
+    java.util.Arrays.fill(mods, ValueTuple.MODIFIED);
+    mbt.add(ValueTuple.makeUninterned(new Object[bitsets.length], mods), 10);
+    for (int i = 0; i < bitsets.length; i++) {
+      assert mbt.cardinality(i) == bitsets[i].cardinality() + 10;
+      assert mbt.get(i).cardinality() == bitsets[i].cardinality() + 10;
+    }
+  }
 }
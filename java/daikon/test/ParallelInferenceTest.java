@@ -0,0 +1,149 @@
+package daikon.test;
+
+import daikon.*;
+import daikon.suppress.NIS;
+import daikon.test.perf.SyntheticTrace;
+import java.io.*;
+import java.util.*;
+import junit.framework.*;
+
+/**
+ * Checks that inference on several threads (see {@link
+ * Daikon#dkconfig_inference_threads}) finds exactly the invariants that
+ * inference on one thread does.
+ */
+public class ParallelInferenceTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(ParallelInferenceTest.class));
+  }
+
+  public ParallelInferenceTest(String name) {
+    super(name);
+  }
+
+  /** Directory holding the trace and the .inv files. */
+  private File dir;
+
+  private File decls;
+  private File dtrace;
+
+  // Settings that the tests change, restored by tearDown
+  private int saved_threads;
+  private NIS.SuppressionProcessor saved_processor;
+  private boolean saved_quiet;
+  private boolean saved_remove_merged_invs;
+
+  @Override
+  protected void setUp() throws IOException {
+    saved_threads = Daikon.dkconfig_inference_threads;
+    saved_processor = NIS.dkconfig_suppression_processor;
+    saved_quiet = Daikon.dkconfig_quiet;
+    saved_remove_merged_invs = PptTopLevel.dkconfig_remove_merged_invs;
+    Daikon.dkconfig_quiet = true;
+    // Parallel inference always uses the antecedent method, so use it
+    // for the sequential runs too.
+    NIS.dkconfig_suppression_processor = NIS.SuppressionProcessor.ANTECEDENT;
+
+    dir = java.nio.file.Files.createTempDirectory("daikon-parallel").toFile();
+    decls = new File(dir, "synthetic.decls");
+    dtrace = new File(dir, "synthetic.dtrace");
+    write_trace(false);
+  }
+
+  /** Writes the trace; see {@link SyntheticTrace#object_ppt}. */
+  private void write_trace(boolean object_ppt) throws IOException {
+    SyntheticTrace trace = new SyntheticTrace();
+    trace.object_ppt = object_ppt;
+    trace.num_ppts = 6;
+    trace.num_vars = 6;
+    trace.array_size = 3;
+    // Few distinct values, so that OneOf invariants, which intern their
+    // elements, survive
+    trace.cardinality = 3;
+    trace.num_calls = 200;
+    trace.write(decls, dtrace);
+  }
+
+  @Override
+  protected void tearDown() {
+    Daikon.dkconfig_inference_threads = saved_threads;
+    NIS.dkconfig_suppression_processor = saved_processor;
+    Daikon.dkconfig_quiet = saved_quiet;
+    PptTopLevel.dkconfig_remove_merged_invs = saved_remove_merged_invs;
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  /**
+   * Runs Daikon over the trace with the given number of threads, and
+   * returns the invariants in the resulting .inv file, as text.
+   */
+  String infer(int threads, String... options) throws IOException {
+    Daikon.dkconfig_inference_threads = threads;
+    File inv = new File(dir, "threads" + threads + ".inv.gz");
+    List<String> args = new ArrayList<String>();
+    args.add("--" + Daikon.no_text_output_SWITCH);
+    args.add("--" + Daikon.noversion_SWITCH);
+    args.add("-o");
+    args.add(inv.getPath());
+    for (String option : options) {
+      args.add("--" + Daikon.config_option_SWITCH);
+      args.add(option);
+    }
+    args.add(decls.getPath());
+    args.add(dtrace.getPath());
+    Daikon.mainHelper(args.toArray(new String[args.size()]));
+    return print_inv_file(inv);
+  }
+
+  /** Returns the invariants in the given .inv file, as PrintInvariants prints them. */
+  static String print_inv_file(File inv) throws IOException {
+    PptMap ppts = FileIO.read_serialized_pptmap(inv, false);
+    StringWriter result = new StringWriter();
+    PrintWriter out = new PrintWriter(result);
+    // Print in name order, so that the result does not depend on the
+    // order in which the program points were processed
+    for (String name : new TreeSet<String>(ppts.nameStringSet())) {
+      PptTopLevel ppt = ppts.get(name);
+      assert ppt != null;
+      PrintInvariants.print_invariants_maybe(ppt, out, ppts);
+    }
+    out.flush();
+    return result.toString();
+  }
+
+  public void testSameInvariants() throws IOException {
+    String sequential = infer(1);
+    assertTrue("no invariants found", sequential.contains("one of"));
+    assertEquals(sequential, infer(2));
+    assertEquals(sequential, infer(4));
+  }
+
+  public void testSameInvariantsRepeatedly() throws IOException {
+    // Races show up only now and then, so run several times
+    String sequential = infer(1);
+    for (int i = 0; i < 5; i++) {
+      assertEquals(sequential, infer(3));
+    }
+  }
+
+  /**
+   * Checks that removing merged invariants from the children (see {@link
+   * PptTopLevel#dkconfig_remove_merged_invs}) does not depend on which
+   * parent of a child is merged first.  Each combined exit has two
+   * parents, its enter and the object program point.
+   */
+  public void testSameInvariantsRemovingMerged() throws IOException {
+    write_trace(true);
+    PptTopLevel.dkconfig_remove_merged_invs = true;
+    String sequential = infer(1);
+    assertTrue("no invariants found", sequential.contains("one of"));
+    for (int i = 0; i < 3; i++) {
+      assertEquals(sequential, infer(4));
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package daikon.test;
+
+import daikon.*;
+import daikon.test.perf.SyntheticTrace;
+import java.io.*;
+import java.util.*;
+import junit.framework.*;
+
+/**
+ * Checks that dividing the dtrace files among processes (see {@link
+ * Daikon#dkconfig_trace_processes}) finds exactly the invariants that
+ * reading them in one process does.
+ */
+public class ParallelTraceFilesTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(ParallelTraceFilesTest.class));
+  }
+
+  public ParallelTraceFilesTest(String name) {
+    super(name);
+  }
+
+  /** Directory holding the traces and the .inv files. */
+  private File dir;
+
+  private File decls;
+  private List<File> dtraces = new ArrayList<File>();
+
+  // Settings that the tests change, restored by tearDown
+  private int saved_processes;
+  private boolean saved_quiet;
+
+  @Override
+  protected void setUp() throws IOException {
+    saved_processes = Daikon.dkconfig_trace_processes;
+    saved_quiet = Daikon.dkconfig_quiet;
+    Daikon.dkconfig_quiet = true;
+
+    dir = java.nio.file.Files.createTempDirectory("daikon-processes").toFile();
+    decls = new File(dir, "synthetic.decls");
+    SyntheticTrace trace = new SyntheticTrace();
+    trace.num_ppts = 4;
+    trace.num_vars = 5;
+    trace.array_size = 3;
+    trace.cardinality = 3;
+    trace.num_calls = 60;
+    // Each file has different values, so that which files are read
+    // together affects the invariants
+    for (int i = 0; i < 5; i++) {
+      trace.seed = 1000 + i;
+      File dtrace = new File(dir, "synthetic" + i + ".dtrace");
+      trace.write(decls, dtrace);
+      dtraces.add(dtrace);
+    }
+  }
+
+  @Override
+  protected void tearDown() {
+    Daikon.dkconfig_trace_processes = saved_processes;
+    Daikon.dkconfig_quiet = saved_quiet;
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  /**
+   * Runs Daikon over the traces with the given number of processes, and
+   * returns the invariants in the resulting .inv file, as text.  The
+   * given switches are added to the command line.
+   */
+  String infer(int processes, String... switches) throws IOException {
+    Daikon.dkconfig_trace_processes = processes;
+    File inv = new File(dir, "processes" + processes + ".inv.gz");
+    List<String> args = new ArrayList<String>();
+    args.add("--" + Daikon.no_text_output_SWITCH);
+    args.add("--" + Daikon.noversion_SWITCH);
+    args.add("-o");
+    args.add(inv.getPath());
+    args.addAll(Arrays.asList(switches));
+    args.add(decls.getPath());
+    for (File dtrace : dtraces) {
+      args.add(dtrace.getPath());
+    }
+    Daikon.mainHelper(args.toArray(new String[args.size()]));
+    return ParallelInferenceTest.print_inv_file(inv);
+  }
+
+  public void testSameInvariants() throws IOException {
+    String sequential = infer(1);
+    assertTrue("no invariants found", sequential.contains("one of"));
+    assertEquals(sequential, infer(2));
+    assertEquals(sequential, infer(3));
+  }
+
+  public void testSameInvariantsWithoutHierarchy() throws IOException {
+    String nohierarchy = "--" + Daikon.no_dataflow_hierarchy_SWITCH;
+    String sequential = infer(1, nohierarchy);
+    assertEquals(sequential, infer(2, nohierarchy));
+  }
+}
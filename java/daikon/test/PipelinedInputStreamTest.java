@@ -0,0 +1,54 @@
+package daikon.test;
+
+import daikon.PipelinedInputStream;
+import java.io.*;
+import junit.framework.*;
+
+/**
+ * Tests that {@link PipelinedInputStream} passes on data as soon as it
+ * arrives, and that closing it does not wait for the underlying stream.
+ */
+public class PipelinedInputStreamTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(PipelinedInputStreamTest.class));
+  }
+
+  public PipelinedInputStreamTest(String name) {
+    super(name);
+  }
+
+  /** Checks that all of the bytes are read, in order. */
+  public void testReadsAll() throws IOException {
+    byte[] data = new byte[200000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 31);
+    }
+    InputStream in = new PipelinedInputStream(new ByteArrayInputStream(data), "test");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[1000];
+    int n;
+    while ((n = in.read(buf, 0, buf.length)) != -1) {
+      out.write(buf, 0, n);
+    }
+    assertEquals(-1, in.read());
+    in.close();
+    assertTrue(java.util.Arrays.equals(data, out.toByteArray()));
+  }
+
+  /**
+   * Checks that a line written to a pipe can be read before the writer
+   * writes any more or closes the pipe, and that closing the stream
+   * while its thread waits for more data returns.
+   */
+  public void testPartialBlock() throws IOException {
+    PipedOutputStream writer = new PipedOutputStream();
+    InputStream in = new PipelinedInputStream(new PipedInputStream(writer), "test");
+    writer.write("first line\n".getBytes("ISO-8859-1"));
+    writer.flush();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, "ISO-8859-1"), 1);
+    assertEquals("first line", reader.readLine());
+    reader.close();
+  }
+}
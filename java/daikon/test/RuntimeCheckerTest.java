@@ -0,0 +1,162 @@
+package daikon.test;
+
+import daikon.tools.runtimechecker.MalformedPropertyException;
+import daikon.tools.runtimechecker.Property;
+import daikon.tools.runtimechecker.Runtime;
+import daikon.tools.runtimechecker.StripedCounter;
+import daikon.tools.runtimechecker.Violation;
+import java.util.*;
+import junit.framework.*;
+
+/**
+ * Tests the counters and the violation buffers that code instrumented by
+ * the runtime checker records into (see {@link Runtime}).
+ */
+public class RuntimeCheckerTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(RuntimeCheckerTest.class));
+  }
+
+  public RuntimeCheckerTest(String name) {
+    super(name);
+  }
+
+  // Settings that the tests change, restored by tearDown
+  private int saved_buffer_size;
+
+  @Override
+  protected void setUp() {
+    saved_buffer_size = Runtime.violation_buffer_size;
+    Runtime.violation_buffer_size = 3;
+    Runtime.resetViolations();
+  }
+
+  @Override
+  protected void tearDown() {
+    Runtime.violation_buffer_size = saved_buffer_size;
+    Runtime.resetViolations();
+  }
+
+  /** Returns a distinct violation on entry to method m. */
+  private static Violation violation(int m) throws MalformedPropertyException {
+    Property property =
+        Property.get(
+            "<INVINFO> <ENTER><DAIKON>x == "
+                + m
+                + " </DAIKON> <METHOD> m"
+                + m
+                + "() </METHOD><INV>x == "
+                + m
+                + "</INV> <CONFIDENCE>0.5 </CONFIDENCE>"
+                + " <DAIKONCLASS>daikon.inv.unary.scalar.OneOfScalar </DAIKONCLASS></INVINFO>");
+    return Violation.get(property);
+  }
+
+  /** Runs each of the tasks on its own thread, and waits for them all. */
+  private static void run_threads(List<Runnable> tasks) throws InterruptedException {
+    List<Thread> threads = new ArrayList<Thread>();
+    for (Runnable task : tasks) {
+      Thread t = new Thread(task);
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+  }
+
+  public void testStripedCounter() throws InterruptedException {
+    final StripedCounter counter = new StripedCounter();
+    assertEquals(0, counter.get());
+    List<Runnable> tasks = new ArrayList<Runnable>();
+    for (int i = 0; i < 8; i++) {
+      tasks.add(
+          new Runnable() {
+            public void run() {
+              for (int j = 0; j < 10000; j++) {
+                counter.increment();
+              }
+            }
+          });
+    }
+    run_threads(tasks);
+    assertEquals(80000, counter.get());
+    assertEquals("80000", counter.toString());
+    counter.reset();
+    assertEquals(0, counter.get());
+    counter.increment();
+    assertEquals(1, counter.get());
+  }
+
+  /**
+   * Checks that a buffer keeps only its most recent violations, oldest
+   * first, while every violation is still counted.
+   */
+  public void testViolationBufferWraps() throws MalformedPropertyException {
+    assertTrue(Runtime.violationsEmpty());
+    Violation[] vs = new Violation[5];
+    for (int i = 0; i < vs.length; i++) {
+      vs[i] = violation(i);
+      Runtime.violationsAdd(vs[i]);
+    }
+    assertEquals(Arrays.asList(vs[2], vs[3], vs[4]), Runtime.getViolations());
+    assertEquals(5, Runtime.getViolationCounts().size());
+
+    // Wrap around again, past the start of the ring
+    Runtime.violationsAdd(vs[0]);
+    Runtime.violationsAdd(vs[1]);
+    assertEquals(Arrays.asList(vs[4], vs[0], vs[1]), Runtime.getViolations());
+    Map<Violation, Long> counts = Runtime.getViolationCounts();
+    assertEquals(Long.valueOf(2), counts.get(vs[0]));
+    assertEquals(Long.valueOf(1), counts.get(vs[4]));
+    // In order of decreasing count
+    assertEquals(Long.valueOf(2), counts.values().iterator().next());
+
+    Runtime.resetViolations();
+    assertTrue(Runtime.violationsEmpty());
+    assertEquals(Collections.<Violation>emptyList(), Runtime.getViolations());
+
+    // A new buffer size takes effect once the violations are reset
+    Runtime.violation_buffer_size = 1;
+    Runtime.resetViolations();
+    Runtime.violationsAdd(vs[0]);
+    Runtime.violationsAdd(vs[1]);
+    assertEquals(Arrays.asList(vs[1]), Runtime.getViolations());
+  }
+
+  /**
+   * Checks that threads that have finished do not leave their buffers
+   * behind:  the violations kept are bounded by the number of buffers,
+   * not the number of threads.
+   */
+  public void testViolationsOfManyThreadsBounded()
+      throws InterruptedException, MalformedPropertyException {
+    final Violation[] vs = new Violation[5];
+    for (int i = 0; i < vs.length; i++) {
+      vs[i] = violation(i);
+    }
+    int num_threads = 200;
+    List<Runnable> tasks = new ArrayList<Runnable>();
+    for (int i = 0; i < num_threads; i++) {
+      tasks.add(
+          new Runnable() {
+            public void run() {
+              for (Violation v : vs) {
+                Runtime.violationsAdd(v);
+              }
+            }
+          });
+    }
+    run_threads(tasks);
+
+    // There are at most four buffers per processor
+    int processors = java.lang.Runtime.getRuntime().availableProcessors();
+    int kept = Runtime.getViolations().size();
+    assertTrue(kept + " violations kept", kept <= 4 * processors * Runtime.violation_buffer_size);
+    for (Violation v : vs) {
+      assertEquals(Long.valueOf(num_threads), Runtime.getViolationCounts().get(v));
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package daikon.test;
+
+import daikon.*;
+import daikon.test.perf.SyntheticTrace;
+import java.io.*;
+import java.util.*;
+import junit.framework.*;
+
+/**
+ * Checks that merging runs of identical samples (see {@link
+ * SampleCoalescer}) does not change the invariants.
+ */
+public class SampleCoalescerTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(SampleCoalescerTest.class));
+  }
+
+  public SampleCoalescerTest(String name) {
+    super(name);
+  }
+
+  /** Directory holding the traces and the .inv files. */
+  private File dir;
+
+  private File decls;
+  private File dtrace;
+
+  private boolean saved_quiet;
+
+  @Override
+  protected void setUp() throws IOException {
+    saved_quiet = Daikon.dkconfig_quiet;
+    Daikon.dkconfig_quiet = true;
+
+    dir = java.nio.file.Files.createTempDirectory("daikon-coalescer").toFile();
+    decls = new File(dir, "synthetic.decls");
+    dtrace = new File(dir, "synthetic.dtrace");
+    SyntheticTrace trace = new SyntheticTrace();
+    trace.num_ppts = 4;
+    // With few variables and values, many consecutive samples at a
+    // program point are identical
+    trace.num_vars = 3;
+    trace.array_size = 0;
+    trace.cardinality = 2;
+    trace.num_calls = 300;
+    trace.write(decls, dtrace);
+  }
+
+  @Override
+  protected void tearDown() {
+    Daikon.dkconfig_quiet = saved_quiet;
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  /**
+   * Runs Daikon over the given trace, merging samples or not, and
+   * returns the invariants in the resulting .inv file, as text.
+   */
+  String infer(File trace, boolean coalesce) throws IOException {
+    File inv = new File(dir, "coalesce-" + coalesce + ".inv.gz");
+    Daikon.mainHelper(
+        new String[] {
+          "--" + Daikon.no_text_output_SWITCH,
+          "--" + Daikon.noversion_SWITCH,
+          "--" + Daikon.config_option_SWITCH,
+          "daikon.SampleCoalescer.enabled=" + coalesce,
+          "-o",
+          inv.getPath(),
+          decls.getPath(),
+          trace.getPath()
+        });
+    return ParallelInferenceTest.print_inv_file(inv);
+  }
+
+  public void testSameInvariants() throws IOException {
+    String merged = infer(dtrace, true);
+    assertTrue("no invariants found", merged.contains("one of"));
+    assertEquals(infer(dtrace, false), merged);
+  }
+
+  /** A run that fails partway through a trace leaves no samples behind. */
+  public void testSameInvariantsAfterFailure() throws IOException {
+    File bad = new File(dir, "bad.dtrace");
+    InputStream in = new FileInputStream(dtrace);
+    OutputStream out = new FileOutputStream(bad);
+    byte[] buffer = new byte[4096];
+    int n;
+    while ((n = in.read(buffer)) != -1) {
+      out.write(buffer, 0, n);
+    }
+    in.close();
+    out.write("\nbench.Undeclared.m():::ENTER\n\n".getBytes("UTF-8"));
+    out.close();
+
+    try {
+      infer(bad, true);
+      fail("no error for undeclared program point");
+    } catch (Daikon.TerminationMessage e) {
+      // expected
+    }
+    String merged = infer(dtrace, true);
+    assertEquals(infer(dtrace, false), merged);
+  }
+}
@@ -4,7 +4,6 @@ import daikon.*;
 import daikon.inv.unary.sequence.*;
 import daikon.test.Common;
 import junit.framework.*;
-import plume.*;
 
 /*>>>
 import org.checkerframework.checker.nullness.qual.*;
@@ -55,8 +54,8 @@ public class OneOfSequenceTester extends TestCase {
     /*@NonNull*/ OneOfSequence inv1 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
     /*@NonNull*/ OneOfSequence inv2 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
 
-    inv1.add_modified(Intern.intern(new long[] {19, 23}), DOESNT_MATTER);
-    inv2.add_modified(Intern.intern(new long[] {91, 0}), DOESNT_MATTER);
+    inv1.add_modified(SyncIntern.intern(new long[] {19, 23}), DOESNT_MATTER);
+    inv2.add_modified(SyncIntern.intern(new long[] {91, 0}), DOESNT_MATTER);
 
     assert !inv1.isSameFormula(inv2);
   }
@@ -65,8 +64,8 @@ public class OneOfSequenceTester extends TestCase {
     /*@NonNull*/ OneOfSequence inv1 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
     /*@NonNull*/ OneOfSequence inv2 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
 
-    inv1.add_modified(Intern.intern(new long[] {19, 23}), DOESNT_MATTER);
-    inv2.add_modified(Intern.intern(new long[] {91, 32}), DOESNT_MATTER);
+    inv1.add_modified(SyncIntern.intern(new long[] {19, 23}), DOESNT_MATTER);
+    inv2.add_modified(SyncIntern.intern(new long[] {91, 32}), DOESNT_MATTER);
 
     assert inv1.isSameFormula(inv2);
   }
@@ -75,8 +74,8 @@ public class OneOfSequenceTester extends TestCase {
     /*@NonNull*/ OneOfSequence inv1 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
     /*@NonNull*/ OneOfSequence inv2 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
 
-    inv1.add_modified(Intern.intern(new long[] {19, 0}), DOESNT_MATTER);
-    inv2.add_modified(Intern.intern(new long[] {91, 0}), DOESNT_MATTER);
+    inv1.add_modified(SyncIntern.intern(new long[] {19, 0}), DOESNT_MATTER);
+    inv2.add_modified(SyncIntern.intern(new long[] {91, 0}), DOESNT_MATTER);
 
     assert inv1.isSameFormula(inv2);
   }
@@ -85,8 +84,8 @@ public class OneOfSequenceTester extends TestCase {
     /*@NonNull*/ OneOfSequence inv1 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
     /*@NonNull*/ OneOfSequence inv2 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
 
-    inv1.add_modified(Intern.intern(new long[] {0, 0}), DOESNT_MATTER);
-    inv2.add_modified(Intern.intern(new long[] {0, 0}), DOESNT_MATTER);
+    inv1.add_modified(SyncIntern.intern(new long[] {0, 0}), DOESNT_MATTER);
+    inv2.add_modified(SyncIntern.intern(new long[] {0, 0}), DOESNT_MATTER);
 
     assert inv1.isSameFormula(inv2);
   }
@@ -95,8 +94,8 @@ public class OneOfSequenceTester extends TestCase {
     /*@NonNull*/ OneOfSequence inv1 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
     /*@NonNull*/ OneOfSequence inv2 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
 
-    inv1.add_modified(Intern.intern(new long[] {0, 0, 0}), DOESNT_MATTER);
-    inv2.add_modified(Intern.intern(new long[] {0, 0}), DOESNT_MATTER);
+    inv1.add_modified(SyncIntern.intern(new long[] {0, 0, 0}), DOESNT_MATTER);
+    inv2.add_modified(SyncIntern.intern(new long[] {0, 0}), DOESNT_MATTER);
 
     assert !inv1.isSameFormula(inv2);
   }
@@ -0,0 +1,577 @@
+package daikon.test.perf;
+
+import daikon.*;
+import gnu.getopt.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+import plume.*;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Measures the speed of the parts of Daikon that process a data trace,
+ * over a synthetic trace written by {@link SyntheticTrace}.  Each
+ * benchmark is run for some warmup iterations and then some measured
+ * iterations; each iteration starts from freshly read declarations, and
+ * only the work being measured is timed.  The benchmarks are:
+ * <dl>
+ * <dt>read</dt>
+ * <dd>{@link FileIO#read_data_trace_files}, with
+ * {@link FileIO#dkconfig_read_samples_only} set:  parsing, orig and
+ * derived variables, and interning.</dd>
+ * <dt>equality</dt>
+ * <dd>{@link PptSliceEquality#add} for each sample, without the rest of
+ * inference.</dd>
+ * <dt>add_bottom_up</dt>
+ * <dd>{@link PptTopLevel#add_bottom_up} for each sample, which includes
+ * the equality sets, the slices, and {@link daikon.suppress.NIS}.</dd>
+ * <dt>nis_antecedent, nis_falsified</dt>
+ * <dd>add_bottom_up with NIS forced to the antecedent or falsified
+ * method of processing suppressions ({@link
+ * daikon.suppress.NIS#process_falsified_invs}).  Compare with
+ * add_bottom_up, which uses the default hybrid method.</dd>
+ * <dt>merge</dt>
+ * <dd>{@link Daikon#createUpperPpts}, which calls
+ * {@link PptTopLevel#mergeInvs} on each program point that has
+ * children.</dd>
+ * </dl>
+ * <p>
+ *
+ * For each benchmark, the results are the throughput in operations
+ * (samples, or program points for merge) per second, the number of bytes
+ * allocated per operation and per second by the benchmark thread, and the
+ * peak heap use during the measured iterations.  Allocation is reported
+ * only on JVMs that support {@code
+ * com.sun.management.ThreadMXBean.getThreadAllocatedBytes}.  The peak
+ * heap is the sum of the peak use of each heap memory pool, so it can
+ * overstate the true peak.
+ * <p>
+ *
+ * Run {@code make benchmark} in the java directory, or run this class
+ * directly; use --help to see the options.  With --output, the results
+ * are also written as tab-separated lines, which can be compared between
+ * versions of Daikon.
+ */
+public class InferenceBenchmark {
+
+  private static String usage =
+      UtilMDE.joinLines(
+          "Usage: java daikon.test.perf.InferenceBenchmark [OPTION]...",
+          "  -h, --help",
+          "      Display this usage message",
+          "  --ppts N            Number of methods in the synthetic program [10]",
+          "  --vars N            Number of int parameters of each method [6]",
+          "  --array-size N      Elements in each method's array parameter, 0 for none [8]",
+          "  --cardinality N     Number of distinct values of each variable [100]",
+          "  --calls N           Number of calls to each method [1000]",
+          "  --seed N            Seed for the synthetic values",
+          "  --warmup N          Unmeasured iterations of each benchmark [2]",
+          "  --iterations N      Measured iterations of each benchmark [5]",
+          "  --benchmark NAME    Run only NAME; may be given more than once.  One of",
+          "      read, equality, add_bottom_up, nis_antecedent, nis_falsified, merge",
+          "  --output FILE       Also write the results to FILE, tab-separated",
+          "  --" + Daikon.config_option_SWITCH + " OPTION=VALUE",
+          "      Set a Daikon configuration option");
+
+  /** Names of all of the benchmarks, in the order they are run. */
+  public static final List<String> all_benchmarks =
+      Arrays.asList(
+          "read", "equality", "add_bottom_up", "nis_antecedent", "nis_falsified", "merge");
+
+  /** The trace to measure. */
+  private final SyntheticTrace trace = new SyntheticTrace();
+
+  private int warmup = 2;
+  private int iterations = 5;
+  private List<String> benchmarks = new ArrayList<String>();
+  private /*@Nullable*/ File output = null;
+
+  /** The files that the synthetic trace is written to. */
+  private /*@MonotonicNonNull*/ File decls_file;
+
+  private /*@MonotonicNonNull*/ File dtrace_file;
+
+  public static void main(String[] args) {
+    try {
+      mainHelper(args);
+    } catch (Daikon.TerminationMessage e) {
+      Daikon.handleTerminationMessage(e);
+    }
+    // Any exception other than Daikon.TerminationMessage gets propagated.
+    // This simplifies debugging by showing the stack trace.
+  }
+
+  /**
+   * This does the work of main, but it never calls System.exit, so it
+   * is appropriate to be called progrmmatically.
+   * Termination of the program with a message to the user is indicated by
+   * throwing Daikon.TerminationMessage.
+   * @see #main(String[])
+   * @see daikon.Daikon.TerminationMessage
+   */
+  public static void mainHelper(final String[] args) {
+    InferenceBenchmark bench = new InferenceBenchmark();
+    bench.read_options(args);
+    try {
+      bench.run();
+    } catch (IOException e) {
+      throw new Daikon.TerminationMessage(e, "Error while benchmarking");
+    }
+  }
+
+  private void read_options(String[] args) {
+    LongOpt[] longopts =
+        new LongOpt[] {
+          new LongOpt(Daikon.help_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
+          new LongOpt("ppts", LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt("vars", LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt("array-size", LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt("cardinality", LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt("calls", LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt("seed", LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt("warmup", LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt("iterations", LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt("benchmark", LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt("output", LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt(Daikon.config_option_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
+        };
+    Getopt g = new Getopt("daikon.test.perf.InferenceBenchmark", args, "h", longopts);
+    int c;
+    while ((c = g.getopt()) != -1) {
+      switch (c) {
+        case 0:
+          // got a long option
+          String option_name = longopts[g.getLongind()].getName();
+          if (Daikon.help_SWITCH.equals(option_name)) {
+            System.out.println(usage);
+            throw new Daikon.TerminationMessage();
+          } else if (option_name.equals("ppts")) {
+            trace.num_ppts = int_arg(g, option_name, 1);
+          } else if (option_name.equals("vars")) {
+            trace.num_vars = int_arg(g, option_name, 0);
+          } else if (option_name.equals("array-size")) {
+            trace.array_size = int_arg(g, option_name, 0);
+          } else if (option_name.equals("cardinality")) {
+            trace.cardinality = int_arg(g, option_name, 1);
+          } else if (option_name.equals("calls")) {
+            trace.num_calls = int_arg(g, option_name, 1);
+          } else if (option_name.equals("seed")) {
+            trace.seed = Long.parseLong(Daikon.getOptarg(g));
+          } else if (option_name.equals("warmup")) {
+            warmup = int_arg(g, option_name, 0);
+          } else if (option_name.equals("iterations")) {
+            iterations = int_arg(g, option_name, 1);
+          } else if (option_name.equals("benchmark")) {
+            String name = Daikon.getOptarg(g);
+            if (!all_benchmarks.contains(name)) {
+              throw new Daikon.TerminationMessage("Unknown benchmark " + name + "\n" + usage);
+            }
+            benchmarks.add(name);
+          } else if (option_name.equals("output")) {
+            output = new File(Daikon.getOptarg(g));
+          } else if (Daikon.config_option_SWITCH.equals(option_name)) {
+            daikon.config.Configuration.getInstance().apply(Daikon.getOptarg(g));
+          } else {
+            throw new RuntimeException("Unknown long option received: " + option_name);
+          }
+          break;
+        case 'h':
+          System.out.println(usage);
+          throw new Daikon.TerminationMessage();
+        case '?':
+          throw new Daikon.TerminationMessage(usage);
+        default:
+          System.out.println("getopt() returned " + c);
+          break;
+      }
+    }
+    if (g.getOptind() != args.length) {
+      throw new Daikon.TerminationMessage(
+          "Unexpected argument " + args[g.getOptind()] + "\n" + usage);
+    }
+    if (benchmarks.isEmpty()) {
+      benchmarks.addAll(all_benchmarks);
+    }
+  }
+
+  /** Returns the argument of the current option, which must be an int at least min. */
+  private static int int_arg(Getopt g, String option_name, int min) {
+    String arg = Daikon.getOptarg(g);
+    int result;
+    try {
+      result = Integer.parseInt(arg);
+    } catch (NumberFormatException e) {
+      throw new Daikon.TerminationMessage("--" + option_name + " requires an integer, not " + arg);
+    }
+    if (result < min) {
+      throw new Daikon.TerminationMessage("--" + option_name + " must be at least " + min);
+    }
+    return result;
+  }
+
+  /** Writes the trace, then runs and reports each benchmark. */
+  private void run() throws IOException {
+    Daikon.dkconfig_quiet = true;
+    Daikon.dkconfig_progress_delay = -1;
+
+    File dir = java.nio.file.Files.createTempDirectory("daikon-bench").toFile();
+    decls_file = new File(dir, "synthetic.decls");
+    dtrace_file = new File(dir, "synthetic.dtrace");
+    PrintWriter tsv = null;
+    try {
+      trace.write(decls_file, dtrace_file);
+      System.out.printf(
+          "Synthetic trace: %d methods, %d int vars, %d-element arrays, %d values, %d samples%n",
+          trace.num_ppts,
+          trace.num_vars,
+          trace.array_size,
+          trace.cardinality,
+          trace.num_samples());
+
+      Daikon.setup_proto_invs();
+      Daikon.setup_NISuppression();
+
+      if (output != null) {
+        tsv = new PrintWriter(new FileWriter(output));
+        tsv.println(
+            "benchmark\tops_per_sec\tstddev_pct\tbytes_per_op"
+                + "\talloc_bytes_per_sec\tpeak_heap_bytes");
+      }
+      System.out.printf(
+          "%-16s %14s %8s %12s %12s %12s%n",
+          "benchmark", "ops/s", "+-%", "B/op", "alloc MB/s", "peak MB");
+      for (String name : benchmarks) {
+        Result result = measure(make_benchmark(name));
+        System.out.printf(
+            "%-16s %14.1f %8.1f %12s %12s %12.1f%n",
+            name,
+            result.ops_per_sec(),
+            result.stddev_pct(),
+            (result.alloc_bytes < 0) ? "n/a" : String.format("%.1f", result.bytes_per_op()),
+            (result.alloc_bytes < 0)
+                ? "n/a"
+                : String.format("%.1f", result.alloc_bytes_per_sec() / (1024 * 1024)),
+            result.peak_heap / (1024.0 * 1024));
+        if (tsv != null) {
+          tsv.printf(
+              "%s\t%.1f\t%.2f\t%.1f\t%.1f\t%d%n",
+              name,
+              result.ops_per_sec(),
+              result.stddev_pct(),
+              result.bytes_per_op(),
+              result.alloc_bytes_per_sec(),
+              result.peak_heap);
+        }
+      }
+    } finally {
+      if (tsv != null) {
+        tsv.close();
+      }
+      decls_file.delete();
+      dtrace_file.delete();
+      dir.delete();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Benchmarks
+  ///
+
+  /** One benchmark.  setup() is not timed; run() is. */
+  private abstract static class Benchmark {
+    /** Prepares for one call to run(). */
+    abstract void setup() throws IOException;
+
+    /** Does the work being measured, and returns the number of operations. */
+    abstract int run() throws IOException;
+
+    /** Undoes any global settings made by run(); called even if run() fails. */
+    void cleanup() {}
+  }
+
+  /** A sample captured from the trace, ready to be applied to its ppt. */
+  private static final class Sample {
+    final PptTopLevel ppt;
+    final ValueTuple vt;
+
+    Sample(PptTopLevel ppt, ValueTuple vt) {
+      this.ppt = ppt;
+      this.vt = vt;
+    }
+  }
+
+  /**
+   * Collects each sample, with its orig and derived variables added,
+   * instead of applying it to its program point.
+   */
+  private static final class CaptureProcessor extends FileIO.Processor {
+    final List<Sample> samples = new ArrayList<Sample>();
+
+    /*@RequiresNonNull("FileIO.data_trace_state")*/
+    @Override
+    public void process_sample(
+        PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, /*@Nullable*/ Integer nonce) {
+      ValueTuple full_vt = FileIO.prepare_sample(ppt, vt, nonce);
+      if (full_vt != null) {
+        samples.add(new Sample(ppt, full_vt));
+      }
+    }
+  }
+
+  /** Reads the declarations into a new PptMap. */
+  private PptMap read_decls() throws IOException {
+    assert decls_file != null;
+    FileIO.resetNewDeclFormat();
+    PptMap all_ppts = FileIO.read_declaration_files(Collections.singletonList(decls_file));
+    Daikon.all_ppts = all_ppts;
+    return all_ppts;
+  }
+
+  /** Reads the samples of the trace, without applying them to all_ppts. */
+  private List<Sample> capture_samples(PptMap all_ppts) throws IOException {
+    assert dtrace_file != null;
+    CaptureProcessor processor = new CaptureProcessor();
+    FileIO.read_data_trace_files(
+        new ArrayList<String>(Collections.singletonList(dtrace_file.getPath())),
+        all_ppts,
+        processor,
+        false);
+    return processor.samples;
+  }
+
+  /**
+   * Applies each sample to its program point, as FileIO would, including
+   * finishing the samples batched for splitters.
+   */
+  private static void apply_samples(List<Sample> samples) {
+    Set<PptTopLevel> ppts = new LinkedHashSet<PptTopLevel>();
+    for (Sample sample : samples) {
+      sample.ppt.add_bottom_up(sample.vt, 1);
+      ppts.add(sample.ppt);
+    }
+    for (PptTopLevel ppt : ppts) {
+      ppt.finish_splitters();
+    }
+  }
+
+  /** Returns the benchmark with the given name. */
+  private Benchmark make_benchmark(String name) {
+    if (name.equals("read")) {
+      return new Benchmark() {
+        PptMap all_ppts;
+
+        void setup() throws IOException {
+          all_ppts = read_decls();
+        }
+
+        int run() throws IOException {
+          assert dtrace_file != null;
+          FileIO.dkconfig_read_samples_only = true;
+          FileIO.read_data_trace_files(
+              new ArrayList<String>(Collections.singletonList(dtrace_file.getPath())),
+              all_ppts,
+              new FileIO.Processor(),
+              false);
+          return trace.num_samples();
+        }
+
+        void cleanup() {
+          FileIO.dkconfig_read_samples_only = false;
+        }
+      };
+    } else if (name.equals("equality")) {
+      return new Benchmark() {
+        List<Sample> samples;
+
+        void setup() throws IOException {
+          samples = capture_samples(read_decls());
+        }
+
+        int run() {
+          for (Sample sample : samples) {
+            PptSliceEquality equality_view = sample.ppt.equality_view;
+            if (equality_view != null) {
+              equality_view.add(sample.vt, 1);
+            }
+          }
+          return samples.size();
+        }
+      };
+    } else if (name.equals("add_bottom_up")
+        || name.equals("nis_antecedent")
+        || name.equals("nis_falsified")) {
+      final boolean antecedent = name.equals("nis_antecedent");
+      final boolean set_method = !name.equals("add_bottom_up");
+      return new Benchmark() {
+        List<Sample> samples;
+        boolean saved_antecedent = daikon.suppress.NIS.antecedent_method;
+        boolean saved_hybrid = daikon.suppress.NIS.hybrid_method;
+
+        void setup() throws IOException {
+          samples = capture_samples(read_decls());
+        }
+
+        int run() {
+          if (set_method) {
+            daikon.suppress.NIS.antecedent_method = antecedent;
+            daikon.suppress.NIS.hybrid_method = false;
+          }
+          apply_samples(samples);
+          return samples.size();
+        }
+
+        void cleanup() {
+          daikon.suppress.NIS.antecedent_method = saved_antecedent;
+          daikon.suppress.NIS.hybrid_method = saved_hybrid;
+        }
+      };
+    } else if (name.equals("merge")) {
+      return new Benchmark() {
+        PptMap all_ppts;
+
+        void setup() throws IOException {
+          all_ppts = read_decls();
+          apply_samples(capture_samples(all_ppts));
+          Daikon.create_combined_exits(all_ppts);
+          PptRelation.init_hierarchy_new(all_ppts);
+        }
+
+        int run() {
+          Daikon.createUpperPpts(all_ppts);
+          int merged = 0;
+          for (PptTopLevel ppt : all_ppts.pptIterable()) {
+            if (ppt.children.size() > 0) {
+              merged++;
+            }
+          }
+          return merged;
+        }
+      };
+    } else {
+      throw new Error("Unknown benchmark " + name);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Measurement
+  ///
+
+  /** The measurements of one benchmark. */
+  private static final class Result {
+    /** Operations performed by each measured iteration. */
+    long ops = 0;
+    /** Elapsed time of each measured iteration, in nanoseconds. */
+    List<Long> nanos = new ArrayList<Long>();
+    /** Bytes allocated during the measured iterations, or -1 if unknown. */
+    long alloc_bytes = 0;
+    /** Peak heap use during the measured iterations. */
+    long peak_heap = 0;
+
+    long total_nanos() {
+      long result = 0;
+      for (long n : nanos) {
+        result += n;
+      }
+      return result;
+    }
+
+    double ops_per_sec() {
+      return ops * 1e9 / total_nanos();
+    }
+
+    /** Standard deviation of the iteration times, as a percentage of the mean. */
+    double stddev_pct() {
+      double mean = (double) total_nanos() / nanos.size();
+      double sum_sq = 0;
+      for (long n : nanos) {
+        sum_sq += (n - mean) * (n - mean);
+      }
+      return 100 * Math.sqrt(sum_sq / nanos.size()) / mean;
+    }
+
+    double bytes_per_op() {
+      return (alloc_bytes < 0) ? -1 : (double) alloc_bytes / ops;
+    }
+
+    double alloc_bytes_per_sec() {
+      return (alloc_bytes < 0) ? -1 : alloc_bytes * 1e9 / total_nanos();
+    }
+  }
+
+  /** Runs the warmup and measured iterations of bench. */
+  private Result measure(Benchmark bench) throws IOException {
+    for (int i = 0; i < warmup; i++) {
+      bench.setup();
+      try {
+        bench.run();
+      } finally {
+        bench.cleanup();
+      }
+    }
+
+    Result result = new Result();
+    for (int i = 0; i < iterations; i++) {
+      bench.setup();
+      System.gc();
+      reset_peak_heap();
+      long start_bytes = allocated_bytes();
+      long start = System.nanoTime();
+      int ops;
+      try {
+        ops = bench.run();
+      } finally {
+        bench.cleanup();
+      }
+      result.nanos.add(System.nanoTime() - start);
+      long end_bytes = allocated_bytes();
+      result.peak_heap = Math.max(result.peak_heap, peak_heap());
+      result.ops += ops;
+      if ((start_bytes < 0) || (end_bytes < 0) || (result.alloc_bytes < 0)) {
+        result.alloc_bytes = -1;
+      } else {
+        result.alloc_bytes += end_bytes - start_bytes;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of bytes allocated so far by the current thread,
+   * or -1 if the JVM does not report it.
+   */
+  private static long allocated_bytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sun_bean = (com.sun.management.ThreadMXBean) bean;
+      if (sun_bean.isThreadAllocatedMemorySupported()
+          && sun_bean.isThreadAllocatedMemoryEnabled()) {
+        return sun_bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  private static void reset_peak_heap() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  /** Returns the sum of the peak use of each heap pool since reset_peak_heap. */
+  private static long peak_heap() {
+    long result = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        result += pool.getPeakUsage().getUsed();
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,213 @@
+package daikon.test.perf;
+
+import java.io.*;
+import java.util.Random;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Writes a synthetic .decls file and a matching .dtrace file, for
+ * benchmarking Daikon (see {@link InferenceBenchmark}).  The program has
+ * {@link #num_ppts} methods, each with {@link #num_vars} int parameters,
+ * an int[] parameter of {@link #array_size} elements (omitted if 0), and
+ * an int return value.  Each method is called {@link #num_calls} times,
+ * and alternately returns from its first and second exit, so merging
+ * the numbered exits into the combined exit merges two children.
+ * <p>
+ *
+ * Each variable takes at most {@link #cardinality} distinct values.  In
+ * each group of three parameters, the first is random, the second is one
+ * more than the first, and the third equals the first, so that samples
+ * support some invariants and equality sets rather than falsifying
+ * everything at once.
+ */
+public class SyntheticTrace {
+
+  /** Number of methods; the trace has three program points per method. */
+  public int num_ppts = 10;
+  /** Number of int parameters of each method. */
+  public int num_vars = 6;
+  /** Number of elements of the array parameter; 0 for no array. */
+  public int array_size = 8;
+  /** Number of distinct values of each variable. */
+  public int cardinality = 100;
+  /** Number of calls to each method. */
+  public int num_calls = 1000;
+  /** Seed for the random values; the same seed produces the same trace. */
+  public long seed = 20261018L;
+  /**
+   * If true, the methods belong to a class whose object program point is
+   * a parent of each method's program points, over x0, so that each
+   * combined exit has two parents:  its enter and the object.  Requires
+   * at least one parameter.
+   */
+  public boolean object_ppt = false;
+
+  /** Name of the object program point; see {@link #object_ppt}. */
+  private static final String object_ppt_name = "bench.Synthetic:::OBJECT";
+
+  /** Returns the name of the program point for method m with the given suffix. */
+  private String ppt_name(int m, String suffix) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("bench.Synthetic.m").append(m).append("(");
+    for (int i = 0; i < num_vars; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append("int");
+    }
+    if (array_size > 0) {
+      sb.append(num_vars > 0 ? ", int[]" : "int[]");
+    }
+    sb.append("):::").append(suffix);
+    return sb.toString();
+  }
+
+  /** Returns the total number of samples in the trace (enters and exits). */
+  public int num_samples() {
+    return 2 * num_ppts * num_calls;
+  }
+
+  /** Writes the declarations to decls and the samples to dtrace. */
+  public void write(File decls, File dtrace) throws IOException {
+    PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(decls)));
+    try {
+      write_header(out);
+      if (object_ppt) {
+        out.println("ppt " + object_ppt_name);
+        out.println("  ppt-type object");
+        out.println("  variable x0");
+        out.println("    var-kind variable");
+        out.println("    rep-type int");
+        out.println("    dec-type int");
+        out.println();
+      }
+      for (int m = 0; m < num_ppts; m++) {
+        write_ppt_decl(out, ppt_name(m, "ENTER"), "enter", false);
+        write_ppt_decl(out, ppt_name(m, "EXIT1"), "subexit", true);
+        write_ppt_decl(out, ppt_name(m, "EXIT2"), "subexit", true);
+      }
+    } finally {
+      out.close();
+    }
+
+    out = new PrintWriter(new BufferedWriter(new FileWriter(dtrace)));
+    try {
+      write_header(out);
+      Random r = new Random(seed);
+      int[] vals = new int[num_vars];
+      int[] array = new int[array_size];
+      int nonce = 0;
+      for (int call = 0; call < num_calls; call++) {
+        for (int m = 0; m < num_ppts; m++) {
+          for (int i = 0; i < num_vars; i++) {
+            switch (i % 3) {
+              case 0:
+                vals[i] = r.nextInt(cardinality);
+                break;
+              case 1:
+                vals[i] = vals[i - 1] + 1;
+                break;
+              default:
+                vals[i] = vals[i - 2];
+                break;
+            }
+          }
+          for (int i = 0; i < array_size; i++) {
+            array[i] = r.nextInt(cardinality);
+          }
+          int result = (num_vars > 0) ? vals[0] + r.nextInt(cardinality) : call % cardinality;
+          write_sample(out, ppt_name(m, "ENTER"), nonce, vals, array, null);
+          String exit = ((call % 2) == 0) ? "EXIT1" : "EXIT2";
+          write_sample(out, ppt_name(m, exit), nonce, vals, array, result);
+          nonce++;
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private void write_header(PrintWriter out) {
+    out.println("decl-version 2.0");
+    out.println("var-comparability none");
+    out.println();
+  }
+
+  private void write_ppt_decl(PrintWriter out, String name, String type, boolean is_exit) {
+    out.println("ppt " + name);
+    out.println("  ppt-type " + type);
+    if (object_ppt) {
+      out.println("  parent parent " + object_ppt_name + " 1");
+    }
+    for (int i = 0; i < num_vars; i++) {
+      out.println("  variable x" + i);
+      out.println("    var-kind variable");
+      out.println("    rep-type int");
+      out.println("    dec-type int");
+      out.println("    flags is_param");
+      if (object_ppt && (i == 0)) {
+        out.println("    parent " + object_ppt_name + " 1");
+      }
+    }
+    if (array_size > 0) {
+      out.println("  variable a");
+      out.println("    var-kind variable");
+      out.println("    rep-type hashcode");
+      out.println("    dec-type int[]");
+      out.println("    flags is_param non_null");
+      out.println("  variable a[..]");
+      out.println("    var-kind array");
+      out.println("    enclosing-var a");
+      out.println("    array 1");
+      out.println("    rep-type int[]");
+      out.println("    dec-type int[]");
+    }
+    if (is_exit) {
+      out.println("  variable return");
+      out.println("    var-kind return");
+      out.println("    rep-type int");
+      out.println("    dec-type int");
+    }
+    out.println();
+  }
+
+  private void write_sample(
+      PrintWriter out,
+      String name,
+      int nonce,
+      int[] vals,
+      int[] array,
+      /*@Nullable*/ Integer result) {
+    out.println(name);
+    out.println("this_invocation_nonce");
+    out.println(nonce);
+    for (int i = 0; i < vals.length; i++) {
+      out.println("x" + i);
+      out.println(vals[i]);
+      out.println(1);
+    }
+    if (array_size > 0) {
+      out.println("a");
+      // Each call passes a different array object
+      out.println("0x" + Integer.toHexString(0x10000 + 16 * nonce));
+      out.println(1);
+      out.println("a[..]");
+      StringBuilder sb = new StringBuilder("[");
+      for (int elt : array) {
+        sb.append(' ').append(elt);
+      }
+      sb.append(" ]");
+      out.println(sb);
+      out.println(1);
+    }
+    if (result != null) {
+      out.println("return");
+      out.println(result);
+      out.println(1);
+    }
+    out.println();
+  }
+}
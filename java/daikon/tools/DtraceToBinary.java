@@ -0,0 +1,141 @@
+// DtraceToBinary.java
+
+package daikon.tools;
+
+import daikon.BinaryDtrace;
+import daikon.FileIO;
+import java.io.*;
+import java.util.*;
+import plume.*;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * Converts a textual data trace (.dtrace) file to the binary format
+ * described in {@link BinaryDtrace}, which Daikon reads faster.  Samples
+ * are converted; declarations, comments, and other records are copied as
+ * text.  Either file may be gzipped, as indicated by a ".gz" suffix.
+ * Several pairs of files may be given; {@link daikon.ParallelTraceFiles}
+ * uses this to convert a partition of a trace in each process.
+ */
+public class DtraceToBinary {
+
+  private static String usage =
+      UtilMDE.joinLines(
+          "Usage: DtraceToBinary INFILE OUTFILE [INFILE OUTFILE]...",
+          "Converts each textual dtrace file INFILE to binary dtrace file OUTFILE.",
+          "By convention, OUTFILE ends in \".dtrace.bin\" or \".dtrace.bin.gz\".");
+
+  public static void main(String[] args) {
+    try {
+      mainHelper(args);
+    } catch (daikon.Daikon.TerminationMessage e) {
+      daikon.Daikon.handleTerminationMessage(e);
+    }
+    // Any exception other than daikon.Daikon.TerminationMessage gets propagated.
+    // This simplifies debugging by showing the stack trace.
+  }
+
+  /**
+   * This does the work of main, but it never calls System.exit, so it
+   * is appropriate to be called progrmmatically.
+   * Termination of the program with a message to the user is indicated by
+   * throwing daikon.Daikon.TerminationMessage.
+   * @see #main(String[])
+   * @see daikon.Daikon.TerminationMessage
+   */
+  public static void mainHelper(final String[] args) {
+    if ((args.length == 0) || (args.length % 2 != 0)) {
+      throw new daikon.Daikon.TerminationMessage(usage);
+    }
+
+    for (int i = 0; i < args.length; i += 2) {
+      try {
+        LineNumberReader in = UtilMDE.lineNumberFileReader(args[i]);
+        BinaryDtrace.Writer out = BinaryDtrace.Writer.open(args[i + 1], false);
+        convert(in, args[i], out);
+        out.close();
+        in.close();
+      } catch (IOException e) {
+        throw new daikon.Daikon.TerminationMessage(e, "Error converting " + args[i]);
+      }
+    }
+  }
+
+  /** Copies every record of a textual dtrace file to out. */
+  static void convert(LineNumberReader in, String filename, BinaryDtrace.Writer out)
+      throws IOException {
+    PrintStream text = out.text_stream();
+
+    for (String line = in.readLine(); line != null; line = in.readLine()) {
+      if (line.equals("")) {
+        continue;
+      }
+      if (FileIO.isComment(line)) {
+        text.println(line);
+        continue;
+      }
+      if (is_text_record(line)) {
+        // Copy the record, up to and including the blank line that ends it
+        while ((line != null) && !line.equals("")) {
+          text.println(line);
+          line = in.readLine();
+        }
+        text.println();
+        if (line == null) {
+          break;
+        }
+        continue;
+      }
+
+      // A sample:  the program point, an optional nonce, then a name,
+      // value, and modbit for each variable.
+      String ppt_name = line;
+      Integer nonce = null;
+      line = in.readLine();
+      if ("this_invocation_nonce".equals(line)) {
+        String nonce_text = in.readLine();
+        if (nonce_text == null) {
+          throw new daikon.Daikon.TerminationMessage(
+              "File ended while trying to read nonce", in, filename);
+        }
+        nonce = Integer.valueOf(nonce_text);
+        line = in.readLine();
+      }
+      out.begin_sample(ppt_name, nonce);
+      while ((line != null) && !line.equals("")) {
+        String value = in.readLine();
+        String mod = in.readLine();
+        if ((value == null) || (mod == null)) {
+          throw new daikon.Daikon.TerminationMessage(
+              "Unexpected end of file in sample for " + ppt_name, in, filename);
+        }
+        if (!(mod.equals("0") || mod.equals("1") || mod.equals("2"))) {
+          throw new daikon.Daikon.TerminationMessage("Bad modbit '" + mod + "'", in, filename);
+        }
+        out.add_value(line, value, Integer.parseInt(mod));
+        line = in.readLine();
+      }
+      out.end_sample();
+      if (line == null) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Returns true if line starts a record other than a sample.  Such
+   * records are copied as text.
+   */
+  private static boolean is_text_record(String line) {
+    return line.startsWith("decl-version")
+        || line.startsWith("input-language")
+        || line.startsWith("var-comparability")
+        || line.equals("VarComparability")
+        || line.equals("ListImplementors")
+        || line.equals("DECLARE")
+        || line.startsWith("ppt ");
+  }
+}
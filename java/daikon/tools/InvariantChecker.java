@@ -7,6 +7,8 @@ import daikon.split.PptSplitter;
 import gnu.getopt.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import plume.*;
@@ -16,8 +18,20 @@ import org.checkerframework.checker.nullness.qual.*;
 */
 
 /**
- * InvariantChecker reads an invariant file and trace file.  It prints errors
- * for any invariants that are violated by the trace file.
+ * InvariantChecker reads invariant files and trace files.  It prints errors
+ * for any invariants that are violated by the trace files.
+ * <p>
+ *
+ * Invariant files that were created from the same program share a
+ * single pass over the trace files:  each sample is checked against the
+ * invariants of every file in the group.  The program points of one
+ * file of the group, which has every program point of the others with
+ * the same variables, are used to read the traces.  An invariant file
+ * whose program points do not fit any group is checked in a pass of its
+ * own.  With the --threads option, the samples of different program
+ * points are checked concurrently.  The reading thread interns each
+ * sample while the checking threads intern the values that invariants
+ * compute, which is safe because both go through {@link SyncIntern}.
  */
 public class InvariantChecker {
   private InvariantChecker() {
@@ -33,10 +47,11 @@ public class InvariantChecker {
   private static final String conf_SWITCH = "conf";
   private static final String filter_SWITCH = "filter";
   private static final String verbose_SWITCH = "verbose";
+  private static final String threads_SWITCH = "threads";
 
   private static String usage =
       UtilMDE.joinLines(
-          "Usage: java daikon.InvariantChecker [OPTION]... <inv_file> " + "<dtrace_file>",
+          "Usage: java daikon.InvariantChecker [OPTION]... <inv_file>... " + "<dtrace_file>...",
           "  -h, --" + Daikon.help_SWITCH,
           "      Display this usage message",
           "  --" + output_SWITCH + " output file",
@@ -47,6 +62,7 @@ public class InvariantChecker {
           "  --" + dir_SWITCH + " directory with invariant and dtrace files",
           "      We output how many invariants failed for each invariant file. We check for failure against any sample in any dtrace file.",
           "  --" + verbose_SWITCH + " print all failing samples",
+          "  --" + threads_SWITCH + " number of threads that check samples",
           "  --" + Daikon.config_option_SWITCH + " config_var=val",
           "      Sets the specified configuration variable.  ",
           "  --" + Daikon.debugAll_SWITCH,
@@ -58,16 +74,12 @@ public class InvariantChecker {
 
   public static List<String> dtrace_files = new ArrayList<String>();
   static PrintStream output_stream = System.out;
-  static int error_cnt = 0;
-  static int sample_cnt = 0;
 
   static /*@Nullable*/ File dir_file; //Yoav added
   static boolean doFilter;
   static boolean doConf;
   static boolean quiet = true;
-  static HashSet<Invariant> failedInvariants = new HashSet<Invariant>(); //Yoav added
-  static HashSet<Invariant> testedInvariants = new HashSet<Invariant>(); //Yoav added
-  static HashSet<Invariant> activeInvariants = new HashSet<Invariant>(); //Yoav added
+  static int num_threads = 1;
   static LinkedHashSet<String> outputComma = new LinkedHashSet<String>(); //Yoav added
 
   public static void main(String[] args)
@@ -98,6 +110,10 @@ public class InvariantChecker {
           ClassNotFoundException {
     daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
 
+    // Don't carry the trace files or threads over from an earlier call
+    dtrace_files.clear();
+    num_threads = 1;
+
     LongOpt[] longopts =
         new LongOpt[] {
           new LongOpt(Daikon.config_option_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
@@ -106,6 +122,7 @@ public class InvariantChecker {
           new LongOpt(conf_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(filter_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(verbose_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
+          new LongOpt(threads_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(Daikon.debugAll_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(Daikon.debug_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(Daikon.ppt_regexp_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
@@ -127,6 +144,17 @@ public class InvariantChecker {
             doFilter = true;
           } else if (verbose_SWITCH.equals(option_name)) {
             quiet = false;
+          } else if (threads_SWITCH.equals(option_name)) {
+            String threads = Daikon.getOptarg(g);
+            try {
+              num_threads = Integer.parseInt(threads);
+            } catch (NumberFormatException e) {
+              num_threads = 0;
+            }
+            if (num_threads < 1) {
+              throw new Daikon.TerminationMessage(
+                  "Bad number of threads '" + threads + "'" + Global.lineSep + usage);
+            }
           } else if (dir_SWITCH.equals(option_name)) {
             dir_file = new File(Daikon.getOptarg(g));
             if (!dir_file.exists() || !dir_file.isDirectory()) {
@@ -167,7 +195,7 @@ public class InvariantChecker {
     }
 
     {
-      File inv_file = null;
+      List<File> inv_files = new ArrayList<File>();
 
       // Loop through each filename specified
       for (int i = g.getOptind(); i < args.length; i++) {
@@ -182,11 +210,7 @@ public class InvariantChecker {
         // (eg, a date).
         String filename = file.toString();
         if (filename.indexOf(".inv") != -1) {
-          if (inv_file != null) {
-            throw new Daikon.TerminationMessage(
-                "multiple inv files specified" + Global.lineSep + usage);
-          }
-          inv_file = file;
+          inv_files.add(file);
         } else if (filename.indexOf(".dtrace") != -1) {
           dtrace_files.add(filename);
         } else {
@@ -194,10 +218,15 @@ public class InvariantChecker {
         }
       }
       if (dir_file == null) {
-        if (inv_file == null) {
+        if (inv_files.isEmpty()) {
           throw new Daikon.TerminationMessage("No inv file specified" + Global.lineSep + usage);
         }
-        checkInvariants(inv_file);
+        List<CheckedFile> checked_files = new ArrayList<CheckedFile>();
+        for (File inv_file : inv_files) {
+          String prefix = (inv_files.size() > 1) ? inv_file + ": " : "";
+          checked_files.add(new CheckedFile(inv_file, output_stream, prefix));
+        }
+        checkInvariants(checked_files);
         return;
       }
     }
@@ -244,24 +273,27 @@ public class InvariantChecker {
     }
     outputComma.add(commaLine);
 
-    commaLine = "";
+    // Check all of the invariant files in one pass over the dtrace files
+    List<CheckedFile> checked_files = new ArrayList<CheckedFile>();
     for (File inFile : invariants) {
-      File inv_file = inFile;
-      failedInvariants.clear();
-      testedInvariants.clear();
-      error_cnt = 0;
-
-      output_stream =
+      PrintStream out =
           new PrintStream(
               new FileOutputStream(
                   inFile.toString().replace(".inv", "").replace(".gz", "")
                       + ".false-positives.txt"));
-      checkInvariants(inv_file);
-      output_stream.close();
+      checked_files.add(new CheckedFile(inFile, out, ""));
+    }
+    try {
+      checkInvariants(checked_files);
+    } finally {
+      for (CheckedFile cf : checked_files) {
+        cf.out.close();
+      }
+    }
 
-      int failedCount = failedInvariants.size();
-      int testedCount = testedInvariants.size();
-      String percent = toPercentage(failedCount, testedCount);
+    commaLine = "";
+    for (CheckedFile cf : checked_files) {
+      String percent = toPercentage(cf.failed_count(), cf.tested_count());
       commaLine += "," + percent;
     }
     outputComma.add(commaLine);
@@ -272,72 +304,392 @@ public class InvariantChecker {
     }
   }
 
-  private static String toPercentage(int portion, int total) {
+  private static String toPercentage(long portion, long total) {
     double s = portion * 100;
     return String.format("%.2f", s / total) + "%";
   }
 
-  private static void checkInvariants(File inv_file) throws IOException {
-    // Read the invariant file
-    PptMap ppts = FileIO.read_serialized_pptmap(inv_file, true);
-
-    //Yoav: make sure we have unique invariants
-    InvariantFilters fi = InvariantFilters.defaultFilters();
-    //Set<String> allInvariantsStr = new HashSet<String>();
-    Set<Invariant> allInvariants = new HashSet<Invariant>();
-    for (PptTopLevel ppt : ppts.all_ppts())
-      for (PptSlice slice : ppt.views_iterable()) {
-        for (Invariant inv : slice.invs) {
-          if (doConf && inv.getConfidence() < Invariant.dkconfig_confidence_limit) {
-            // System.out.printf ("inv ignored (conf): %s:%s\n", inv.ppt.name(),
-            //                   inv.format());
-            continue;
-          }
+  /**
+   * Checks the invariants of each file against the samples in
+   * dtrace_files, and prints the results for each file.  The files are
+   * grouped so that the dtrace files are read once per group rather
+   * than once per file (see {@link #group_files}).
+   */
+  private static void checkInvariants(List<CheckedFile> checked_files) throws IOException {
+    for (List<CheckedFile> group : group_files(checked_files)) {
+      check_group(group);
+    }
 
-          if (doFilter && fi.shouldKeep(inv) == null) {
-            // System.out.printf ("inv ignored (filter): %s:%s\n",
-            //                     inv.ppt.name(), inv.format());
-            continue;
+    for (CheckedFile cf : checked_files) {
+      long error_cnt = cf.error_count();
+      long sample_cnt = cf.sample_count();
+      System.out.printf(
+          "%s: %,d errors found in %,d samples (%s)\n",
+          cf.inv_file,
+          error_cnt,
+          sample_cnt,
+          toPercentage(error_cnt, sample_cnt));
+      long failedCount = cf.failed_count();
+      long testedCount = cf.tested_count();
+      String percent = toPercentage(failedCount, testedCount);
+      System.out.println(
+          cf.inv_file
+              + ": "
+              + failedCount
+              + " false positives, out of "
+              + testedCount
+              + ", which is "
+              + percent
+              + ".");
+      if (false) {
+        for (CheckedPpt cp : cf.checked.values()) {
+          for (Invariant inv : cp.failed) {
+            System.out.printf("+%s:%s\n", inv.ppt.name(), inv.format());
           }
-          activeInvariants.add(inv);
+        }
+      }
+    }
+  }
 
-          //String n = invariant2str(ppt, inv);
-          //if (!allInvariants.contains(inv) && allInvariantsStr.contains(n)) throw new Daikon.TerminationMessage("Two invariants have the same ppt.name+inv.rep:"+n);
-          allInvariants.add(inv);
-          //allInvariantsStr.add(n);
+  /**
+   * Divides the files into groups that can be checked in one pass over
+   * the dtrace files.  The first file of each group has every program
+   * point of the other files in the group, with the same variables, so
+   * the samples that are read using its program points can be checked
+   * against each file of the group.  A file that has a program point
+   * that differs from, or is missing in, the first file of every group
+   * starts a new group of its own, unless it has every program point of
+   * some group, in which case it becomes the first file of that group.
+   */
+  static List<List<CheckedFile>> group_files(List<CheckedFile> checked_files) {
+    List<List<CheckedFile>> groups = new ArrayList<List<CheckedFile>>();
+    file_loop:
+    for (CheckedFile cf : checked_files) {
+      for (List<CheckedFile> group : groups) {
+        if (covers(group.get(0), cf)) {
+          group.add(cf);
+          continue file_loop;
         }
+        if (covers(cf, group.get(0))) {
+          group.add(0, cf);
+          continue file_loop;
+        }
+      }
+      List<CheckedFile> group = new ArrayList<CheckedFile>();
+      group.add(cf);
+      groups.add(group);
+    }
+    return groups;
+  }
+
+  /**
+   * Returns true if every program point of cf is also in leader, with
+   * the same variables.
+   */
+  private static boolean covers(CheckedFile leader, CheckedFile cf) {
+    for (PptTopLevel ppt : cf.ppts.all_ppts()) {
+      PptTopLevel leader_ppt = leader.ppts.get(ppt.name());
+      if ((leader_ppt == null) || !same_variables(leader_ppt, ppt)) {
+        return false;
       }
+    }
+    return true;
+  }
+
+  /** Returns true if the two program points have the same variables, in the same order. */
+  private static boolean same_variables(PptTopLevel ppt1, PptTopLevel ppt2) {
+    if (ppt1 == ppt2) {
+      return true;
+    }
+    if ((ppt1.var_infos.length != ppt2.var_infos.length)
+        || (ppt1.num_tracevars != ppt2.num_tracevars)
+        || (ppt1.num_orig_vars != ppt2.num_orig_vars)
+        || (ppt1.num_static_constant_vars != ppt2.num_static_constant_vars)) {
+      return false;
+    }
+    for (int i = 0; i < ppt1.var_infos.length; i++) {
+      if (!ppt1.var_infos[i].name().equals(ppt2.var_infos[i].name())) {
+        return false;
+      }
+    }
+    return true;
+  }
 
-    // Read and process the data trace files
-    FileIO.Processor processor = new InvariantCheckProcessor();
+  /**
+   * Checks the invariants of each file in the group against the samples
+   * in dtrace_files, reading each dtrace file once using the program
+   * points of the first file of the group.
+   */
+  private static void check_group(List<CheckedFile> group) throws IOException {
+    PptMap ppts = group.get(0).ppts;
+    InvariantCheckProcessor processor = new InvariantCheckProcessor(group, num_threads);
 
     Daikon.FileIOProgress progress = new Daikon.FileIOProgress();
     progress.start();
     progress.clear();
-    FileIO.read_data_trace_files(dtrace_files, ppts, processor, false);
+    try {
+      FileIO.read_data_trace_files(dtrace_files, ppts, processor, false);
+    } finally {
+      processor.finish();
+    }
     progress.shouldStop = true;
     System.out.println();
-    System.out.printf(
-        "%s: %,d errors found in %,d samples (%s)\n",
-        inv_file,
-        error_cnt,
-        sample_cnt,
-        toPercentage(error_cnt, sample_cnt));
-    int failedCount = failedInvariants.size();
-    int testedCount = testedInvariants.size();
-    String percent = toPercentage(failedCount, testedCount);
-    System.out.println(
-        inv_file
-            + ": "
-            + failedCount
-            + " false positives, out of "
-            + testedCount
-            + ", which is "
-            + percent
-            + ".");
-    if (false) {
-      for (Invariant inv : failedInvariants) {
-        System.out.printf("+%s:%s\n", inv.ppt.name(), inv.format());
+  }
+
+  /**
+   * An invariant file and the invariants in it that are checked, with the
+   * results of checking them.
+   */
+  static final class CheckedFile {
+
+    final File inv_file;
+    final PptMap ppts;
+
+    /** Where violations are reported. */
+    final PrintStream out;
+
+    /** Printed before each violation, to tell the files apart in a shared output. */
+    final String prefix;
+
+    /** The checked invariants of each program point. */
+    final Map<PptTopLevel, CheckedPpt> checked = new LinkedHashMap<PptTopLevel, CheckedPpt>();
+
+    /**
+     * Reads the invariant file and selects the invariants to check (see
+     * doConf and doFilter).
+     */
+    CheckedFile(File inv_file, PrintStream out, String prefix) throws IOException {
+      this.inv_file = inv_file;
+      this.out = out;
+      this.prefix = prefix;
+      ppts = FileIO.read_serialized_pptmap(inv_file, true);
+
+      InvariantFilters fi = InvariantFilters.defaultFilters();
+      for (PptTopLevel ppt : ppts.all_ppts()) {
+        checked.put(ppt, new CheckedPpt(this, ppt, fi));
+      }
+
+      // Samples at a numbered exit are also checked at the combined exit
+      for (CheckedPpt cp : checked.values()) {
+        if (cp.ppt.ppt_name.isNumberedExitPoint()) {
+          PptTopLevel parent = ppts.get(cp.ppt.ppt_name.makeExit());
+          if (parent != null) {
+            cp.parent = checked.get(parent);
+          }
+        }
+      }
+    }
+
+    long error_count() {
+      long result = 0;
+      for (CheckedPpt cp : checked.values()) {
+        result += cp.error_cnt;
+      }
+      return result;
+    }
+
+    long sample_count() {
+      long result = 0;
+      for (CheckedPpt cp : checked.values()) {
+        result += cp.sample_cnt;
+      }
+      return result;
+    }
+
+    /** Returns the number of invariants that were falsified. */
+    long failed_count() {
+      long result = 0;
+      for (CheckedPpt cp : checked.values()) {
+        result += cp.failed.size();
+      }
+      return result;
+    }
+
+    /** Returns the number of invariants that were checked against any sample. */
+    long tested_count() {
+      long result = 0;
+      for (CheckedPpt cp : checked.values()) {
+        for (CheckedSlice cs : cp.slices) {
+          if (cs.tested) {
+            result += cs.invs.length;
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * The checked invariants of one slice.  The invariants that have not
+   * been falsified are at the front of invs, so each sample is checked
+   * only against them.
+   */
+  static final class CheckedSlice {
+    final PptSlice slice;
+    final Invariant[] invs;
+
+    /** The number of invariants at the front of invs that have not been falsified. */
+    int live;
+
+    /** True once a sample has been checked against this slice. */
+    boolean tested = false;
+
+    CheckedSlice(PptSlice slice, Invariant[] invs) {
+      this.slice = slice;
+      this.invs = invs;
+      live = invs.length;
+    }
+  }
+
+  /**
+   * The checked invariants of one program point of an invariant file.
+   * The samples of a program point (and those of the numbered exits of a
+   * combined exit) are all checked by the same thread, in trace order.
+   */
+  static final class CheckedPpt {
+    final CheckedFile file;
+    final PptTopLevel ppt;
+
+    /** The combined exit, if this is a numbered exit. */
+    /*@Nullable*/ CheckedPpt parent = null;
+
+    /**
+     * The slices with checked invariants.  Those that have any invariant
+     * that has not been falsified are at the front.
+     */
+    final CheckedSlice[] slices;
+
+    /** The number of slices at the front of slices that have any live invariant. */
+    int live_slices;
+
+    final List<Invariant> failed = new ArrayList<Invariant>();
+    long error_cnt = 0;
+    long sample_cnt = 0;
+
+    CheckedPpt(CheckedFile file, PptTopLevel ppt, InvariantFilters fi) {
+      this.file = file;
+      this.ppt = ppt;
+      List<CheckedSlice> slice_list = new ArrayList<CheckedSlice>();
+      // If the point has no variables, there is nothing to check
+      if (ppt.var_infos.length != 0) {
+        for (PptSlice slice : ppt.views_iterable()) {
+          List<Invariant> invs = new ArrayList<Invariant>();
+          for (Invariant inv : slice.invs) {
+            if (!inv.isActive()) {
+              continue;
+            }
+            if (doConf && inv.getConfidence() < Invariant.dkconfig_confidence_limit) {
+              // System.out.printf ("inv ignored (conf): %s:%s\n", inv.ppt.name(),
+              //                   inv.format());
+              continue;
+            }
+            if (doFilter && fi.shouldKeep(inv) == null) {
+              // System.out.printf ("inv ignored (filter): %s:%s\n",
+              //                     inv.ppt.name(), inv.format());
+              continue;
+            }
+            invs.add(inv);
+          }
+          if (!invs.isEmpty()) {
+            slice_list.add(new CheckedSlice(slice, invs.toArray(new Invariant[invs.size()])));
+          }
+        }
+      }
+      slices = slice_list.toArray(new CheckedSlice[slice_list.size()]);
+      live_slices = slices.length;
+    }
+
+    /** The program point whose thread checks the samples of this one. */
+    CheckedPpt owner() {
+      return (parent != null) ? parent : this;
+    }
+
+    /**
+     * Checks the sample against each invariant that has not yet been
+     * falsified, here and at the combined exit.  Prints an error for
+     * each invariant that it falsifies (if not quiet), and then no longer
+     * checks that invariant.
+     * @param linenum line of the sample in the trace file (for reporting)
+     * @param filename the trace file (for reporting)
+     */
+    void check(ValueTuple vt, int linenum, /*@Nullable*/ String filename) {
+
+      // if this is a numbered exit, apply to the combined exit as well
+      if (parent != null) {
+        parent.ppt.get_missingOutOfBounds(ppt, vt);
+        parent.check(vt, linenum, filename);
+      }
+
+      // Loop through each slice that has live invariants
+      slice_loop:
+      for (int i = 0; i < live_slices; i++) {
+        CheckedSlice cs = slices[i];
+        PptSlice slice = cs.slice;
+        if (debug_detail.isLoggable(Level.FINE)) {
+          debug_detail.fine(
+              ": processing slice " + slice + "vars: " + Debug.toString(slice.var_infos, vt));
+        }
+
+        // If any variables are missing, skip this slice
+        for (int j = 0; j < slice.var_infos.length; j++) {
+          VarInfo v = slice.var_infos[j];
+          if (v.isMissing(vt)) {
+            if (debug_detail.isLoggable(Level.FINE)) {
+              debug_detail.fine(": : Skipping slice, " + v.name() + " missing");
+            }
+            continue slice_loop;
+          }
+          if (v.missingOutOfBounds()) {
+            if (debug_detail.isLoggable(Level.FINE)) {
+              debug_detail.fine(": : Skipping slice, " + v.name() + " out of bounds");
+            }
+            continue slice_loop;
+          }
+        }
+        cs.tested = true;
+
+        // Loop through each live invariant
+        int k = 0;
+        while (k < cs.live) {
+          Invariant inv = cs.invs[k];
+          if (debug_detail.isLoggable(Level.FINE)) {
+            debug_detail.fine(": : Processing invariant: " + inv);
+          }
+          InvariantStatus status = inv.add_sample(vt, 1);
+          sample_cnt++;
+          if (status == InvariantStatus.NO_CHANGE) {
+            k++;
+            continue;
+          }
+          if (!quiet) {
+            file.out.println(
+                file.prefix
+                    + "At ppt "
+                    + ppt.name
+                    + ", Invariant '"
+                    + inv.format()
+                    + "' invalidated by sample "
+                    + Debug.toString(slice.var_infos, vt)
+                    + "at line "
+                    + linenum
+                    + " in file "
+                    + filename);
+          }
+          failed.add(inv);
+          error_cnt++;
+          // Move the falsified invariant past the live ones
+          cs.live--;
+          cs.invs[k] = cs.invs[cs.live];
+          cs.invs[cs.live] = inv;
+        }
+
+        // Stop checking the slice once all of its invariants are falsified
+        if (cs.live == 0) {
+          live_slices--;
+          slices[i] = slices[live_slices];
+          slices[live_slices] = cs;
+          i--;
+        }
       }
     }
   }
@@ -355,10 +707,52 @@ public class InvariantChecker {
     }
   }
 
+  /**
+   * Checks each sample against the invariants of every invariant file in
+   * a group.  The samples are read using the program points of the first
+   * file.
+   * If there is more than one thread, the samples are checked by worker
+   * threads, each of which checks all of the samples of the program
+   * points that it owns.
+   */
   public static class InvariantCheckProcessor extends FileIO.Processor {
 
     Map<Integer, EnterCall> call_map = new LinkedHashMap<Integer, EnterCall>();
 
+    final List<CheckedFile> checked_files;
+
+    /**
+     * Maps each program point that samples are read for to its checked
+     * program point in each file, or null if the file does not check it.
+     */
+    final Map<PptTopLevel, /*@Nullable*/ CheckedPpt[]> targets =
+        new HashMap<PptTopLevel, /*@Nullable*/ CheckedPpt[]>();
+
+    /** The worker threads, or null if the samples are checked on the reading thread. */
+    final Worker /*@Nullable*/ [] workers;
+
+    /** Maps each owning program point to the worker that checks its samples. */
+    final Map<CheckedPpt, Worker> owners = new HashMap<CheckedPpt, Worker>();
+
+    /** The worker to which the next owning program point is assigned. */
+    int next_worker = 0;
+
+    /** The first exception thrown by any worker, or null. */
+    volatile /*@Nullable*/ Throwable failure = null;
+
+    public InvariantCheckProcessor(List<CheckedFile> checked_files, int num_threads) {
+      this.checked_files = checked_files;
+      if (num_threads > 1) {
+        workers = new Worker[num_threads];
+        for (int i = 0; i < num_threads; i++) {
+          workers[i] = new Worker(i);
+          workers[i].start();
+        }
+      } else {
+        workers = null;
+      }
+    }
+
     /**
      * process the sample by checking it against each existing invariant
      * and issuing an error if any invariant is falsified or weakened.
@@ -368,6 +762,7 @@ public class InvariantChecker {
         PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, /*@Nullable*/ Integer nonce) {
 
       debug.fine("processing sample from: " + ppt.name);
+      check_failure();
 
       // Add orig and derived variables
       assert vt.vals != null
@@ -401,7 +796,7 @@ public class InvariantChecker {
         if (ec != null) {
           call_map.remove(nonce);
           debug.fine("Processing enter sample from " + ec.ppt.name);
-          add(ec.ppt, ec.vt, all_ppts);
+          add(ec.ppt, ec.vt);
         } else { // didn't find the enter
           if (!quiet) {
             System.out.printf("couldn't find enter for nonce %d at ppt %s\n", nonce, ppt.name());
@@ -410,111 +805,154 @@ public class InvariantChecker {
         }
       }
 
-      add(ppt, vt, all_ppts);
+      add(ppt, vt);
     }
 
+    /**
+     * Checks the sample against the invariants of ppt in each file, or
+     * queues it for the workers that do.
+     */
     /*@RequiresNonNull("FileIO.data_trace_state")*/
-    private void add(PptTopLevel ppt, ValueTuple vt, PptMap all_ppts) {
-      // Add the sample to any splitters
-      if (ppt.has_splitters()) {
-        assert ppt.splitters != null; // because ppt.has_splitters() = true
-        for (PptSplitter ppt_split : ppt.splitters) {
-          PptConditional ppt_cond = ppt_split.choose_conditional(vt);
-          if (ppt_cond != null) {
-            add(ppt_cond, vt, all_ppts);
-          } else {
-            debug.fine(": sample doesn't pick conditional");
+    private void add(PptTopLevel ppt, ValueTuple vt) {
+      int linenum = 0;
+      String filename = null;
+      if (!quiet) {
+        linenum = FileIO.get_linenum();
+        filename = FileIO.data_trace_state.filename;
+      }
+      for (CheckedPpt cp : targets(ppt)) {
+        if (cp == null) {
+          continue;
+        }
+        if (workers == null) {
+          cp.check(vt, linenum, filename);
+        } else {
+          CheckedPpt owner = cp.owner();
+          Worker worker = owners.get(owner);
+          if (worker == null) {
+            worker = workers[next_worker];
+            next_worker = (next_worker + 1) % workers.length;
+            owners.put(owner, worker);
           }
+          worker.put(new Sample(cp, vt, linenum, filename));
         }
       }
+    }
 
-      // if this is a numbered exit, apply to the combined exit as well
-      if (!(ppt instanceof PptConditional) && ppt.ppt_name.isNumberedExitPoint()) {
-        PptTopLevel parent = all_ppts.get(ppt.ppt_name.makeExit());
-        if (parent != null) {
-          parent.get_missingOutOfBounds(ppt, vt);
-          add(parent, vt, all_ppts);
+    /**
+     * Returns the checked program points, one per file, for samples of
+     * ppt.  An element is null if the file has no such program point.
+     * The files were grouped so that any such program point has the
+     * same variables as ppt (see {@link #group_files}).
+     */
+    private /*@Nullable*/ CheckedPpt[] targets(PptTopLevel ppt) {
+      /*@Nullable*/ CheckedPpt[] result = targets.get(ppt);
+      if (result != null) {
+        return result;
+      }
+      result = new /*@Nullable*/ CheckedPpt[checked_files.size()];
+      for (int i = 0; i < result.length; i++) {
+        CheckedFile cf = checked_files.get(i);
+        PptTopLevel file_ppt = (i == 0) ? ppt : cf.ppts.get(ppt.name());
+        if (file_ppt != null) {
+          result[i] = cf.checked.get(file_ppt);
         }
       }
+      targets.put(ppt, result);
+      return result;
+    }
 
-      // If the point has no variables, skip it
-      if (ppt.var_infos.length == 0) return;
+    /**
+     * Waits for the workers (if any) to check all of the queued samples,
+     * then stops them.  Throws an Error if any worker failed.
+     */
+    public void finish() {
+      if (workers == null) {
+        return;
+      }
+      for (Worker worker : workers) {
+        worker.put(END);
+      }
+      for (Worker worker : workers) {
+        try {
+          worker.join();
+        } catch (InterruptedException e) {
+          throw new Error("Interrupted while waiting for " + worker.getName(), e);
+        }
+      }
+      check_failure();
+    }
 
-      // We should have received sample here before, or there is nothing
-      // to check.
-      // Yoav added: It can be that the different dtrace and inv files have different program points
-      if (false && ppt.num_samples() <= 0) {
-        assert ppt.num_samples() > 0
-            : "ppt " + ppt.name + " has 0 samples and " + ppt.var_infos.length + " variables";
+    /** Throws an Error if any worker has failed. */
+    private void check_failure() {
+      Throwable t = failure;
+      if (t != null) {
+        throw new Error("Error while checking samples", t);
       }
+    }
 
-      // Loop through each slice
-      slice_loop:
-      for (PptSlice slice : ppt.views_iterable()) {
-        if (debug_detail.isLoggable(Level.FINE)) {
-          debug_detail.fine(
-              ": processing slice " + slice + "vars: " + Debug.toString(slice.var_infos, vt));
-        }
+    /** A sample that has been read but not yet checked. */
+    private static final class Sample {
+      final CheckedPpt cp;
+      final ValueTuple vt;
+      final int linenum;
+      final /*@Nullable*/ String filename;
+
+      Sample(CheckedPpt cp, ValueTuple vt, int linenum, /*@Nullable*/ String filename) {
+        this.cp = cp;
+        this.vt = vt;
+        this.linenum = linenum;
+        this.filename = filename;
+      }
+    }
 
-        // If any variables are missing, skip this slice
-        for (int j = 0; j < slice.var_infos.length; j++) {
-          VarInfo v = slice.var_infos[j];
-          int mod = vt.getModified(v);
-          if (v.isMissing(vt)) {
-            if (debug_detail.isLoggable(Level.FINE)) {
-              debug_detail.fine(": : Skipping slice, " + v.name() + " missing");
-            }
-            continue slice_loop;
-          }
-          if (v.missingOutOfBounds()) {
-            if (debug_detail.isLoggable(Level.FINE)) {
-              debug.fine(": : Skipping slice, " + v.name() + " out of bounds");
-            }
-            continue slice_loop;
-          }
+    /** Placed on a worker's queue to tell it that no more samples will arrive. */
+    @SuppressWarnings("nullness") // sentinel is never checked
+    private static final Sample END = new Sample(null, null, 0, null);
+
+    /** A thread that checks the samples of the program points it owns. */
+    private final class Worker extends Thread {
+
+      /** Samples waiting to be checked, in trace order. */
+      private final BlockingQueue<Sample> queue =
+          new ArrayBlockingQueue<Sample>(Math.max(1, ParallelProcessor.dkconfig_queue_size));
+
+      Worker(int index) {
+        super("daikon-checker-" + index);
+        setDaemon(true);
+      }
+
+      /** Queues a sample, waiting if the queue is full. */
+      void put(Sample sample) {
+        try {
+          queue.put(sample);
+        } catch (InterruptedException e) {
+          throw new Error("Interrupted while queueing sample for " + getName(), e);
         }
+      }
 
-        // Loop through each invariant
-        for (Invariant inv : slice.invs) {
-          if (debug_detail.isLoggable(Level.FINE)) {
-            debug_detail.fine(": : Processing invariant: " + inv);
+      @Override
+      public void run() {
+        while (true) {
+          Sample sample;
+          try {
+            sample = queue.take();
+          } catch (InterruptedException e) {
+            failure = e;
+            return;
           }
-          if (!inv.isActive()) {
-            if (debug_detail.isLoggable(Level.FINE)) {
-              debug_detail.fine(": : skipped non-active " + inv);
-            }
-            continue;
+          if (sample == END) {
+            return;
           }
-
-          //Yoav added
-          if (!activeInvariants.contains(inv)) {
-            // System.out.printf ("skipping invariant %s:%s\n", inv.ppt.name(),
-            //                   inv.format());
+          // After a failure, keep draining so that the reading thread does
+          // not block; it reports the failure on its next sample.
+          if (failure != null) {
             continue;
           }
-
-          //String invRep = invariant2str(ppt, inv);
-          testedInvariants.add(inv);
-
-          InvariantStatus status = inv.add_sample(vt, 1);
-          sample_cnt++;
-          if (status != InvariantStatus.NO_CHANGE) {
-            if (!quiet) {
-              output_stream.println(
-                  "At ppt "
-                      + ppt.name
-                      + ", Invariant '"
-                      + inv.format()
-                      + "' invalidated by sample "
-                      + Debug.toString(slice.var_infos, vt)
-                      + "at line "
-                      + FileIO.get_linenum()
-                      + " in file "
-                      + FileIO.data_trace_state.filename);
-            }
-            failedInvariants.add(inv);
-            activeInvariants.remove(inv);
-            error_cnt++;
+          try {
+            sample.cp.check(sample.vt, sample.linenum, sample.filename);
+          } catch (Throwable e) {
+            failure = e;
           }
         }
       }
@@ -203,6 +203,7 @@ public class InstrumentVisitor extends DepthFirstVisitor {
         Ast.addDeclaration(clazz, classInvDecl);
         Ast.addDeclaration(clazz, getInvariantsDecl());
         Ast.addDeclaration(clazz, isInstrumentedDecl());
+        Ast.addDeclaration(clazz, staticPassesDecl());
         Ast.addDeclaration(clazz, staticPropertyDecl());
         Ast.addDeclaration(clazz, staticPropertyInit());
       }
@@ -250,7 +251,7 @@ public class InstrumentVisitor extends DepthFirstVisitor {
     code.append("{");
 
     // Count this program point entry.
-    code.append("daikon.tools.runtimechecker.Runtime.numPptEntries++;");
+    code.append("daikon.tools.runtimechecker.Runtime.numPptEntries.increment();");
 
     // Check class invariants.
     code.append(
@@ -384,7 +385,7 @@ public class InstrumentVisitor extends DepthFirstVisitor {
     code.append("{");
 
     // Count this program point entry.
-    code.append("daikon.tools.runtimechecker.Runtime.numPptEntries++;");
+    code.append("daikon.tools.runtimechecker.Runtime.numPptEntries.increment();");
 
     // Check object invariants.
     if (!isStatic) {
@@ -556,20 +557,29 @@ public class InstrumentVisitor extends DepthFirstVisitor {
 
       InstrumentHandler.debug.fine("xmlStringToIndex: " + xmlStringToIndex.get(xmlString));
 
+      String index = xmlStringToIndex.get(xmlString);
+
       String addViolationToListCode =
           "daikon.tools.runtimechecker.Runtime.violationsAdd"
               + "(daikon.tools.runtimechecker.Violation.get(daikonProperties["
-              + xmlStringToIndex.get(xmlString)
+              + index
               + "], "
               + vioTime
-              + "));";
+              + "), daikonPasses, "
+              + index
+              + ");";
 
+      // Skip properties that have held often enough (see Runtime.max_passes)
+      code.append(
+          "if (daikon.tools.runtimechecker.Runtime.shouldEvaluate(daikonPasses, " + index + ")) {");
       code.append("try {" + daikon.Global.lineSep + "");
-      code.append("daikon.tools.runtimechecker.Runtime.numEvaluations++;");
+      code.append("daikon.tools.runtimechecker.Runtime.numEvaluations.increment();");
       code.append("if (!(" + daikon.Global.lineSep + "");
       code.append(javarep);
       code.append(")) {");
       code.append(addViolationToListCode);
+      code.append("} else {");
+      code.append("daikon.tools.runtimechecker.Runtime.passed(daikonPasses, " + index + ");");
       code.append("}");
       code.append("} catch (ThreadDeath t_instrument) {" + daikon.Global.lineSep + "");
       code.append("throw t_instrument;");
@@ -577,6 +587,7 @@ public class InstrumentVisitor extends DepthFirstVisitor {
       // don't catch anything. The assumption is that invariant-checking code
       // never leads to an exception.
       code.append("}");
+      code.append("}");
       //             code.append(addViolationToListCode);
       //             code.append("} catch (Error t_instrument) {" + daikon.Global.lineSep + "");
       //             code.append(addViolationToListCode);
@@ -661,6 +672,19 @@ public class InstrumentVisitor extends DepthFirstVisitor {
             code.toString());
   }
 
+  // The number of times in a row that each property has held.
+  private ClassOrInterfaceBodyDeclaration staticPassesDecl() {
+    StringBuffer code = new StringBuffer();
+
+    code.append("private static int[] daikonPasses = new int[" + varNumCounter + "];");
+    return (ClassOrInterfaceBodyDeclaration)
+        Ast.create(
+            "ClassOrInterfaceBodyDeclaration",
+            new Class[] {Boolean.TYPE},
+            new Object[] {Boolean.FALSE}, // isInterface == false
+            code.toString());
+  }
+
   private ClassOrInterfaceBodyDeclaration staticPropertyInit() {
     StringBuffer code = new StringBuffer();
 
@@ -856,7 +880,7 @@ public class InstrumentVisitor extends DepthFirstVisitor {
     //      declaredThrowablesLocal.remove("Error");
 
     // Count this program point exit.
-    code.append("daikon.tools.runtimechecker.Runtime.numNormalPptExits++;");
+    code.append("daikon.tools.runtimechecker.Runtime.numNormalPptExits.increment();");
 
     //         // [[ TODO: Figure out what could go wrong here (e.g. what if
     //         // method declaration says "throws Throwable") and prepare for
@@ -864,7 +888,7 @@ public class InstrumentVisitor extends DepthFirstVisitor {
     //         for (String declaredThrowable : declaredThrowablesLocal) {
     //             code.append("} catch (" + declaredThrowable + " t_instrument) {");
     //             // Count this program point exit.
-    //             code.append("daikon.tools.runtimechecker.Runtime.numExceptionalPptExits++;");
+    //             code.append("daikon.tools.runtimechecker.Runtime.numExceptionalPptExits.increment();");
     //             code.append("  methodThrewSomething_instrument = true;");
     //             code.append("  throw t_instrument;");
     //         }
@@ -872,11 +896,11 @@ public class InstrumentVisitor extends DepthFirstVisitor {
     //      code.append("} catch (java.lang.RuntimeException t_instrument) {");
     //      code.append("  methodThrewSomething_instrument = true;");
     //         // Count this program point exit.
-    //         code.append("daikon.tools.runtimechecker.Runtime.numExceptionalPptExits++;");
+    //         code.append("daikon.tools.runtimechecker.Runtime.numExceptionalPptExits.increment();");
     //      code.append("  throw t_instrument;");
     //      code.append("} catch (java.lang.Error t_instrument) {");
     //         // Count this program point exit.
-    //         code.append("daikon.tools.runtimechecker.Runtime.numExceptionalPptExits++;");
+    //         code.append("daikon.tools.runtimechecker.Runtime.numExceptionalPptExits.increment();");
     //      code.append("  methodThrewSomething_instrument = true;");
     //      code.append("  throw t_instrument;");
 
@@ -1,70 +1,245 @@
 package daikon.tools.runtimechecker;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*>>>
 import org.checkerframework.checker.lock.qual.*;
+import org.checkerframework.checker.nullness.qual.*;
 */
 
 /**
- * If a class has been instrumented with the instrumenter (
- * invariant violations are added to the <code>violations</code> list.
+ * If a class has been instrumented with the instrumenter, invariant
+ * violations are recorded here.
+ * <p>
  *
+ * Instrumented code may run on many threads at once, so recording a
+ * check or a violation never takes a lock that other threads contend
+ * for.  The most recent violations are kept in a fixed number of
+ * buffers, and each thread records into the buffer chosen by its id (see
+ * {@link #violation_buffer_size}), as a {@link StripedCounter} does.  The
+ * counts of evaluations and program points are StripedCounters, and the
+ * number of times that each distinct violation occurred is kept in a
+ * concurrent map (see {@link #getViolationCounts()}).  A property that
+ * has held many times in a row can also stop being evaluated (see
+ * {@link #max_passes}).
  */
 public class Runtime {
 
+  /**
+   * The number of violations that each buffer keeps; when it has more,
+   * its oldest ones are dropped from {@link #getViolations()}, though
+   * they are still counted by {@link #getViolationCounts()}.  The threads
+   * that share a buffer share its violations.  Set by the system property
+   * daikon.runtimechecker.buffer_size; a change takes effect when the
+   * violations are next reset.
+   */
+  public static int violation_buffer_size =
+      Integer.getInteger("daikon.runtimechecker.buffer_size", 1000).intValue();
+
+  /**
+   * If positive, a property that has held this many times in a row is no
+   * longer evaluated, and so can no longer be violated.  If 0, every
+   * property is evaluated every time.  Set by the system property
+   * daikon.runtimechecker.max_passes.
+   */
+  public static int max_passes =
+      Integer.getInteger("daikon.runtimechecker.max_passes", 0).intValue();
+
   /**
    * A list of throwables seen when attempting to evaluate properties.
    */
   public static List<Throwable> internalInvariantEvaluationErrors = new ArrayList<Throwable>();
 
-  private static /*@GuardedBy("Runtime.class")*/ List<Violation> violations =
-      new ArrayList<Violation>();
-
   // The number of times that an invariant was checked (whether the
   // check succeeded or failed).
-  public static long numEvaluations = 0;
+  public static final StripedCounter numEvaluations = new StripedCounter();
 
   // The number of entry program points traversed.
-  public static long numPptEntries = 0;
+  public static final StripedCounter numPptEntries = new StripedCounter();
 
   // The number of normal-exit program points traversed.
-  public static long numNormalPptExits = 0;
+  public static final StripedCounter numNormalPptExits = new StripedCounter();
 
   // The number of exceptional-exit program points traversed.
-  public static long numExceptionalPptExits = 0;
+  public static final StripedCounter numExceptionalPptExits = new StripedCounter();
+
+  /** The most recent violations of the threads that share one stripe. */
+  private static final class ViolationBuffer {
+
+    /**
+     * The violations, used as a ring; next is the position of the oldest
+     * when full.  Null until the first violation, so that stripes that no
+     * thread uses take no space.
+     */
+    private /*@Nullable*/ Violation /*@Nullable*/ [] ring = null;
+
+    /** The position in ring of the next violation. */
+    private int next = 0;
+
+    /** The number of violations in ring. */
+    private int size = 0;
+
+    // Only the threads of one stripe add, so the lock is rarely contended.
+    synchronized void add(Violation v) {
+      if (ring == null) {
+        ring = new /*@Nullable*/ Violation[Math.max(0, violation_buffer_size)];
+      }
+      if (ring.length == 0) {
+        return;
+      }
+      ring[next] = v;
+      next = (next + 1) % ring.length;
+      if (size < ring.length) {
+        size++;
+      }
+    }
+
+    /** Adds the violations to result, oldest first. */
+    synchronized void addTo(List<Violation> result) {
+      if (ring == null) {
+        return;
+      }
+      int first = (next - size + ring.length) % Math.max(1, ring.length);
+      for (int i = 0; i < size; i++) {
+        Violation v = ring[(first + i) % ring.length];
+        assert v != null : "@AssumeAssertion(nullness): the first size elements are set";
+        result.add(v);
+      }
+    }
+
+    synchronized void clear() {
+      ring = null;
+      next = 0;
+      size = 0;
+    }
+  }
+
+  /**
+   * The violation buffers, one per stripe.  A fixed number, so that
+   * threads that come and go do not leave buffers behind.
+   */
+  private static final ViolationBuffer[] buffers =
+      new ViolationBuffer[StripedCounter.num_stripes()];
+
+  static {
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = new ViolationBuffer();
+    }
+  }
+
+  /** The number of times that each violation occurred. */
+  private static final ConcurrentHashMap<Violation, AtomicLong> violationCounts =
+      new ConcurrentHashMap<Violation, AtomicLong>();
 
   /**
-   * Returns the list of violations.
+   * Returns the list of violations:  the most recent ones of each buffer
+   * (see {@link #violation_buffer_size}), in the order in which they
+   * occurred.  The violations of threads that record into different
+   * buffers are not interleaved.
    */
-  public static synchronized List<Violation> getViolations() {
+  public static List<Violation> getViolations() {
     List<Violation> retval = new ArrayList<Violation>();
-    for (Violation v : violations) {
-      retval.add(v);
+    for (ViolationBuffer b : buffers) {
+      b.addTo(retval);
     }
     return retval;
   }
 
   /**
-   * Empty the violations list.
+   * Returns the number of times that each violation occurred, in order
+   * of decreasing count.  Unlike {@link #getViolations()}, this counts
+   * every violation since the last call to {@link #resetViolations()}.
+   */
+  public static Map<Violation, Long> getViolationCounts() {
+    List<Map.Entry<Violation, Long>> entries = new ArrayList<Map.Entry<Violation, Long>>();
+    for (Map.Entry<Violation, AtomicLong> e : violationCounts.entrySet()) {
+      entries.add(
+          new AbstractMap.SimpleImmutableEntry<Violation, Long>(e.getKey(), e.getValue().get()));
+    }
+    Collections.sort(
+        entries,
+        new Comparator<Map.Entry<Violation, Long>>() {
+          public int compare(Map.Entry<Violation, Long> e1, Map.Entry<Violation, Long> e2) {
+            return e2.getValue().compareTo(e1.getValue());
+          }
+        });
+    Map<Violation, Long> result = new LinkedHashMap<Violation, Long>();
+    for (Map.Entry<Violation, Long> e : entries) {
+      result.put(e.getKey(), e.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * Empty the violations list and the violation counts.
    */
-  public static synchronized void resetViolations() {
-    violations = new ArrayList<Violation>();
+  public static void resetViolations() {
+    for (ViolationBuffer b : buffers) {
+      b.clear();
+    }
+    violationCounts.clear();
   }
 
   /**
-   * True if the violations list is empty.
+   * True if there have been no violations since the last call to
+   * {@link #resetViolations()}.
    */
-  public static synchronized boolean violationsEmpty() {
-    return violations.isEmpty();
+  public static boolean violationsEmpty() {
+    return violationCounts.isEmpty();
   }
 
   /**
    * Add a violation to the violations list.
    */
-  public static synchronized void violationsAdd(Violation v) {
-    violations.add(v);
+  public static void violationsAdd(Violation v) {
+    AtomicLong count = violationCounts.get(v);
+    if (count == null) {
+      AtomicLong new_count = new AtomicLong();
+      count = violationCounts.putIfAbsent(v, new_count);
+      if (count == null) {
+        count = new_count;
+      }
+    }
+    count.incrementAndGet();
+    buffers[StripedCounter.stripe(buffers.length - 1)].add(v);
+  }
+
+  /**
+   * Adds a violation of the property at position index of the
+   * instrumented class's properties.  passes holds the number of times
+   * in a row that each of those properties has held.
+   */
+  public static void violationsAdd(Violation v, int[] passes, int index) {
+    passes[index] = 0;
+    violationsAdd(v);
+  }
+
+  /**
+   * Returns true if the property at position index of the instrumented
+   * class's properties should be evaluated:  that is, unless it has held
+   * {@link #max_passes} times in a row.
+   */
+  public static boolean shouldEvaluate(int[] passes, int index) {
+    return (max_passes <= 0) || (passes[index] < max_passes);
+  }
+
+  /**
+   * Records that the property at position index of the instrumented
+   * class's properties held.  Updates from different threads may be lost,
+   * which only delays when the property stops being evaluated.
+   */
+  public static void passed(int[] passes, int index) {
+    if (max_passes > 0) {
+      passes[index]++;
+    }
   }
 
   // Works for non-negative values
@@ -0,0 +1,72 @@
+package daikon.tools.runtimechecker;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment at once without contending
+ * for the same memory.  The count is split among several stripes, each
+ * on its own cache line, and a thread always increments the stripe
+ * chosen by its id.  Reading the count sums the stripes, so it is more
+ * expensive than incrementing it, and the result is only exact if no
+ * thread is incrementing at the same time.
+ */
+public final class StripedCounter {
+
+  /** Number of longs in a cache line; only the first of each is used. */
+  private static final int PADDING = 8;
+
+  /** The stripes, PADDING elements apart. */
+  private final AtomicLongArray cells;
+
+  /** The number of stripes, less one.  The number of stripes is a power of two. */
+  private final int mask;
+
+  public StripedCounter() {
+    int stripes = num_stripes();
+    mask = stripes - 1;
+    cells = new AtomicLongArray(stripes * PADDING);
+  }
+
+  /**
+   * Returns the number of stripes to use:  a power of two that is at
+   * least twice the number of processors.
+   */
+  static int num_stripes() {
+    int processors = java.lang.Runtime.getRuntime().availableProcessors();
+    return Integer.highestOneBit(processors) << 2;
+  }
+
+  /**
+   * Returns the stripe of the current thread, given the number of
+   * stripes less one.
+   */
+  static int stripe(int mask) {
+    return (int) Thread.currentThread().getId() & mask;
+  }
+
+  /** Adds one to the count. */
+  public void increment() {
+    cells.getAndIncrement(stripe(mask) * PADDING);
+  }
+
+  /** Returns the count. */
+  public long get() {
+    long sum = 0;
+    for (int i = 0; i <= mask; i++) {
+      sum += cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  /** Sets the count to zero. */
+  public void reset() {
+    for (int i = 0; i <= mask; i++) {
+      cells.set(i * PADDING, 0);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(get());
+  }
+}
@@ -4,10 +4,10 @@ import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*>>>
 import org.checkerframework.checker.interning.qual.*;
@@ -143,7 +143,10 @@ public class Violation implements Serializable {
 
   // Collection of all the Violation objects created.
   // The key is the hashCode of the Violation that is the value.
-  private static HashMap<Integer, Violation> violationsMap = new HashMap<Integer, Violation>();
+  // Instrumented code on any thread may look up violations, so this
+  // must be safe for concurrent use.
+  private static ConcurrentHashMap<Integer, Violation> violationsMap =
+      new ConcurrentHashMap<Integer, Violation>();
 
   // [[[ TODO: ensure args are not null (otherwise hashCode,
   // equals can break). Do the same thing for Property. ]]]
@@ -158,12 +161,8 @@ public class Violation implements Serializable {
   public static Violation get(Property anno, Time t) {
     Violation vio = new Violation(anno, t);
     Integer key = new Integer(vio.hashCode());
-    if (violationsMap.containsKey(key)) {
-      return violationsMap.get(key);
-    } else {
-      violationsMap.put(key, vio);
-      return vio;
-    }
+    Violation previous = violationsMap.putIfAbsent(key, vio);
+    return (previous != null) ? previous : vio;
   }
 
   /**
@@ -3,6 +3,7 @@ package daikon.tools.runtimechecker;
 import java.io.*;
 import java.lang.reflect.*;
 import java.util.List;
+import java.util.Map;
 
 /*>>>
 import org.checkerframework.checker.signature.qual.*;
@@ -11,8 +12,8 @@ import org.checkerframework.checker.signature.qual.*;
 /**
  * This program runs a given program (which is assumed to contain some
  * classes that have been instrumented with the runtimechecker
- * instrumentation tool) and prints a list of all the invariant violations
- * that occur during execution.
+ * instrumentation tool) and prints the number of times that each invariant
+ * was violated during execution, and the most recent violations.
  */
 class WriteViolationFile {
 
@@ -74,6 +75,7 @@ class WriteViolationFile {
     } finally {
 
       List<Violation> vios = daikon.tools.runtimechecker.Runtime.getViolations();
+      Map<Violation, Long> counts = daikon.tools.runtimechecker.Runtime.getViolationCounts();
       // Don't use this; I want output in order.
       // String vstring = daikon.tools.runtimechecker.Runtime.toNiceString("", vios, 0);
 
@@ -83,23 +85,39 @@ class WriteViolationFile {
         BufferedWriter writer = new BufferedWriter(new FileWriter("violations.txt"));
         writer.write(
             "# Times an invariant was evaluated ----------- "
-                + Long.toString(Runtime.numEvaluations)
+                + Long.toString(Runtime.numEvaluations.get())
                 + daikon.Global.lineSep
                 + "# Entry program points traversed ------------- "
-                + Long.toString(Runtime.numPptEntries)
+                + Long.toString(Runtime.numPptEntries.get())
                 + daikon.Global.lineSep
                 + "# Normal-exit program points traversed ------- "
-                + Long.toString(Runtime.numNormalPptExits)
+                + Long.toString(Runtime.numNormalPptExits.get())
                 + daikon.Global.lineSep
                 + "# Exceptional-exit program points traversed -- "
-                + Long.toString(Runtime.numExceptionalPptExits)
+                + Long.toString(Runtime.numExceptionalPptExits.get())
                 + daikon.Global.lineSep
                 + "# Total exit program points traversed -------- "
-                + Long.toString(Runtime.numNormalPptExits + Runtime.numExceptionalPptExits)
+                + Long.toString(
+                    Runtime.numNormalPptExits.get() + Runtime.numExceptionalPptExits.get())
                 + daikon.Global.lineSep
                 + daikon.Global.lineSep
-                + "# Violations: ");
+                + "# Violation counts: ");
 
+        if (counts.isEmpty()) {
+          writer.write("none." + daikon.Global.lineSep);
+        } else {
+          writer.write(daikon.Global.lineSep);
+          for (Map.Entry<Violation, Long> e : counts.entrySet()) {
+            writer.write(String.format("%10d  %s", e.getValue(), e.getKey().toStringWithMethod()));
+            writer.newLine();
+          }
+        }
+
+        writer.write(
+            daikon.Global.lineSep
+                + "# Violations (at most "
+                + Runtime.violation_buffer_size
+                + " most recent per thread): ");
         if (vios.size() == 0) {
           writer.write("none." + daikon.Global.lineSep);
         } else {